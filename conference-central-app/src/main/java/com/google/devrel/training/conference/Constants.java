@@ -1,6 +1,9 @@
 package com.google.devrel.training.conference;
 
 import com.google.api.server.spi.Constant;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
 
 /**
  * Contains the client IDs and scopes for allowed clients consuming the conference API.
@@ -14,4 +17,6 @@ public class Constants {
     public static final String API_EXPLORER_CLIENT_ID = Constant.API_EXPLORER_CLIENT_ID;
 
     public static final String MEMCACHE_ANNOUNCEMENTS_KEY = "RECENT_ANNOUNCEMENTS";
+
+    public static final List<String> ADMIN_EMAILS = ImmutableList.of("replace this with your admin email");
 }
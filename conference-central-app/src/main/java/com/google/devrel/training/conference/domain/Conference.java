@@ -1,29 +1,32 @@
 package com.google.devrel.training.conference.domain;
 
-import static com.google.devrel.training.conference.service.OfyService.ofy;
-
 import com.googlecode.objectify.annotation.*;
 import com.googlecode.objectify.condition.IfNotDefault;
+import com.googlecode.objectify.condition.IfNull;
 
 import com.google.api.server.spi.config.AnnotationBoolean;
 import com.google.api.server.spi.config.ApiResourceProperty;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.service.BatchLoader;
 import com.googlecode.objectify.Key;
 
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.logging.Logger;
 
 /**
  * Conference class stores conference information.
  */
 @Entity
 @Cache
-public class Conference {
+public class Conference implements ConferenceInfo {
+
+    private static final Logger LOG = Logger.getLogger(Conference.class.getName());
 
-    private static final String DEFAULT_CITY = "Default City";
+    public static final String DEFAULT_CITY = "Default City";
 
     private static final List<String> DEFAULT_TOPICS = ImmutableList.of("Default", "Topic");
 
@@ -91,15 +94,36 @@ public class Conference {
 
     /**
      * The maximum capacity of this conference.
+     * The seat accounting relies on the copy held by the ConferenceCapacity, this one is for queries.
      */
     @Index
     private int maxAttendees;
 
     /**
-     * Number of seats currently available.
+     * Number of seats available, in conferences saved before their ConferenceCapacity existed.
+     * It is kept until the capacities backfill drops it, and only read while the capacity doesn't exist.
+     * Indexed for the nearly sold out conferences, until then.
      */
     @Index
-    private int seatsAvailable;
+    @IgnoreSave(IfNull.class)
+    private Integer seatsAvailable;
+
+    /**
+     * Whether registrations go through a virtual waiting room.
+     */
+    private boolean waitingRoom;
+
+    /**
+     * The version of this conference, incremented by every change.
+     * Updates compare it to detect concurrent changes, without holding a transaction.
+     */
+    private long version;
+
+    /**
+     * Whether this conference is counted by the facet counters.
+     * Conferences saved before the counters existed are counted once by the facets backfill.
+     */
+    private boolean facetsCounted;
 
     /**
      * Just making the default constructor private.
@@ -118,6 +142,8 @@ public class Conference {
         this.id = id;
         this.profileKey = Key.create(Profile.class, organizerUserId);
         this.organizerUserId = organizerUserId;
+        // Counted by the facet counters task enqueued along with its creation.
+        this.facetsCounted = true;
         updateWithConferenceForm(conferenceForm);
     }
 
@@ -154,12 +180,22 @@ public class Conference {
         return profileKey;
     }
 
+    /**
+     * Return the key of this conference
+     * @return the conference key
+     */
+    @Override
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Key<Conference> getConferenceKey() {
+        return Key.create(profileKey, Conference.class, id);
+    }
+
     /**
      * Return a string version of the key
      * @return string representation of the key
      */
     public String getWebsafeKey() {
-        return Key.create(profileKey, Conference.class, id).getString();
+        return getConferenceKey().getString();
     }
 
     /**
@@ -177,8 +213,8 @@ public class Conference {
      *         If there is no Profile, return his/her userId.
      */
     public String getOrganizerDisplayName() {
-        // Profile organizer = ofy().load().key(Key.create(Profile.class, organizerUserId)).now();
-        Profile organizer = ofy().load().key(getProfileKey()).now();
+        // Loaded along with the other organizers deferred in the current request.
+        Profile organizer = BatchLoader.current().defer(getProfileKey()).get();
         if (organizer == null) {
             return organizerUserId;
         } else {
@@ -239,9 +275,77 @@ public class Conference {
      * @return number of seats available
      */
     public int getSeatsAvailable() {
+        return getCapacity().getSeatsAvailable();
+    }
+
+    /**
+     * Returns the seat accounting of this conference, as loaded by the current request.
+     * Callers defer the capacity to the loader of the current request beforehand, along with
+     * the other entities they need; when they didn't, it is loaded on its own, in a round trip of its own.
+     * Not to be used within transactions, which load the capacity themselves.
+     * @return the capacity, or the one this conference holds itself when it has none yet.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public ConferenceCapacity getCapacity() {
+        Key<ConferenceCapacity> capacityKey = ConferenceCapacity.keyOf(getConferenceKey());
+        BatchLoader.Deferred<ConferenceCapacity> deferred = BatchLoader.current().loaded(capacityKey);
+        if (deferred == null) {
+            LOG.warning("The capacity of " + getWebsafeKey() + " wasn't deferred, loading it on its own");
+            deferred = BatchLoader.current().defer(capacityKey);
+        }
+        ConferenceCapacity capacity = deferred.get();
+        return capacity == null ? ConferenceCapacity.of(this) : capacity;
+    }
+
+    /**
+     * Return the number of seats available saved in the conference itself, before capacities were split out
+     * @return the number of seats available, null for conferences saved since
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Integer getLegacySeatsAvailable() {
         return seatsAvailable;
     }
 
+    /**
+     * Drop the number of seats available saved in the conference itself, once its capacity is saved
+     */
+    public void clearLegacySeatsAvailable() {
+        seatsAvailable = null;
+    }
+
+    /**
+     * Return whether registrations go through a virtual waiting room
+     * @return true for a waiting room
+     */
+    public boolean isWaitingRoom() {
+        return waitingRoom;
+    }
+
+    /**
+     * Return the version of this conference, incremented by every change
+     * @return the version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Return whether this conference is counted by the facet counters
+     * @return false for conferences saved before the counters existed, until they're backfilled
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public boolean isFacetsCounted() {
+        return facetsCounted;
+    }
+
+    /**
+     * Marks this conference as counted by the facet counters.
+     * To be saved along with the task adding it to the counters.
+     */
+    public void markFacetsCounted() {
+        this.facetsCounted = true;
+    }
+
     /**
      * Updates the Conference with ConferenceForm.
      * This method is used upon object creation as well as updating existing Conferences.
@@ -265,38 +369,10 @@ public class Conference {
             // Calendar.MONTH is zero based, so adding 1.
             this.month = calendar.get(Calendar.MONTH) + 1;
         }
-        // Check maxAttendees value against the number of already allocated seats.
-        int seatsAllocated = maxAttendees - seatsAvailable;
-        if (conferenceForm.getMaxAttendees() < seatsAllocated) {
-            throw new IllegalArgumentException(seatsAllocated + " seats are already allocated, "
-                    + "but you tried to set maxAttendees to " + conferenceForm.getMaxAttendees());
-        }
-        // The initial number of seatsAvailable is the same as maxAttendees.
-        // However, if there are already some seats allocated, we should subtract that numbers.
+        // The seats already allocated are checked by ConferenceCapacity.resize.
         this.maxAttendees = conferenceForm.getMaxAttendees();
-        this.seatsAvailable = this.maxAttendees - seatsAllocated;
-    }
-
-    /**
-     * Book seats for this conference
-     * @param number number of seats to book
-     */
-    public void bookSeats(final int number) {
-        if (seatsAvailable < number) {
-            throw new IllegalArgumentException("There are no seats available.");
-        }
-        seatsAvailable = seatsAvailable - number;
-    }
-
-    /**
-     * Unbook seats for this conference
-     * @param number number of seats to unbook
-     */
-    public void giveBackSeats(final int number) {
-        if (seatsAvailable + number > maxAttendees) {
-            throw new IllegalArgumentException("The number of seats will exceed the capacity.");
-        }
-        seatsAvailable = seatsAvailable + number;
+        this.waitingRoom = conferenceForm.isWaitingRoom();
+        this.version++;
     }
 
     /**
@@ -0,0 +1,133 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+/**
+ * ConferenceCapacity class holds the seat accounting of a conference.
+ *
+ * Registrations only write the capacity, and organizer edits only write the conference itself
+ * (and its summary), so that they don't collide with each other. The capacity is only written
+ * along with the conference when the organizer changes the maximum number of attendees.
+ * @author Solange U. Gasengayire
+ */
+@Entity
+@Cache
+public class ConferenceCapacity {
+
+    /**
+     * A conference has a single capacity, always with this id.
+     */
+    public static final long CAPACITY_ID = 1L;
+
+    @Id
+    private long id = CAPACITY_ID;
+
+    /**
+     * Holds the Conference key as the parent.
+     */
+    @Parent
+    private Key<Conference> conferenceKey;
+
+    /**
+     * The maximum capacity of the conference.
+     */
+    private int maxAttendees;
+
+    /**
+     * Number of seats currently available.
+     */
+    @Index
+    private int seatsAvailable;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private ConferenceCapacity() {}
+
+    /**
+     * Returns the capacity of the given conference, as it stands in the conference itself:
+     * the capacity of a conference not saved yet, or of a conference saved before capacities
+     * were split out of conferences.
+     * @param conference the conference.
+     * @return the capacity, to be saved along with the conference.
+     */
+    public static ConferenceCapacity of(Conference conference) {
+        ConferenceCapacity capacity = new ConferenceCapacity();
+        capacity.conferenceKey = conference.getConferenceKey();
+        capacity.maxAttendees = conference.getMaxAttendees();
+        Integer legacySeatsAvailable = conference.getLegacySeatsAvailable();
+        capacity.seatsAvailable = legacySeatsAvailable == null ? capacity.maxAttendees : legacySeatsAvailable;
+        return capacity;
+    }
+
+    /**
+     * Returns the key of the capacity of the given conference.
+     * @param conferenceKey the conference key.
+     * @return the capacity key.
+     */
+    public static Key<ConferenceCapacity> keyOf(Key<Conference> conferenceKey) {
+        return Key.create(conferenceKey, ConferenceCapacity.class, CAPACITY_ID);
+    }
+
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    /**
+     * Return the maximum number of attendees
+     * @return maximum number of attendees
+     */
+    public int getMaxAttendees() {
+        return maxAttendees;
+    }
+
+    /**
+     * Return the current number of seats available
+     * @return number of seats available
+     */
+    public int getSeatsAvailable() {
+        return seatsAvailable;
+    }
+
+    /**
+     * Changes the maximum number of attendees, keeping the seats already allocated.
+     * @param maxAttendees the new maximum number of attendees
+     */
+    public void resize(final int maxAttendees) {
+        // Check maxAttendees value against the number of already allocated seats.
+        int seatsAllocated = this.maxAttendees - seatsAvailable;
+        if (maxAttendees < seatsAllocated) {
+            throw new IllegalArgumentException(seatsAllocated + " seats are already allocated, "
+                    + "but you tried to set maxAttendees to " + maxAttendees);
+        }
+        this.maxAttendees = maxAttendees;
+        this.seatsAvailable = maxAttendees - seatsAllocated;
+    }
+
+    /**
+     * Book seats for the conference
+     * @param number number of seats to book
+     */
+    public void bookSeats(final int number) {
+        if (seatsAvailable < number) {
+            throw new IllegalArgumentException("There are no seats available.");
+        }
+        seatsAvailable = seatsAvailable - number;
+    }
+
+    /**
+     * Unbook seats for the conference
+     * @param number number of seats to unbook
+     */
+    public void giveBackSeats(final int number) {
+        if (seatsAvailable + number > maxAttendees) {
+            throw new IllegalArgumentException("The number of seats will exceed the capacity.");
+        }
+        seatsAvailable = seatsAvailable + number;
+    }
+}
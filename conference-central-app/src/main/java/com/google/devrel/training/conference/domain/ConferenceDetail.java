@@ -0,0 +1,52 @@
+package com.google.devrel.training.conference.domain;
+
+/**
+ * A response wrapper holding what the conference detail page displays:
+ * the conference, its organizer, and whether the user registered for it.
+ * @author Solange U. Gasengayire
+ */
+public class ConferenceDetail {
+
+    /**
+     * The possible registration statuses of a user for a conference.
+     */
+    public enum RegistrationStatus {
+        NOT_REGISTERED,
+        REGISTERED,
+        WAITLISTED
+    }
+
+    private Conference conference;
+    private String organizerDisplayName;
+    private RegistrationStatus registrationStatus;
+
+    /**
+     * Default constructor
+     */
+    public ConferenceDetail() {}
+
+    /**
+     * Constructor with arguments
+     * @param conference the conference
+     * @param organizerDisplayName the display name of the organizer
+     * @param registrationStatus the registration status of the user, null when not signed in
+     */
+    public ConferenceDetail(Conference conference, String organizerDisplayName,
+                            RegistrationStatus registrationStatus) {
+        this.conference = conference;
+        this.organizerDisplayName = organizerDisplayName;
+        this.registrationStatus = registrationStatus;
+    }
+
+    public Conference getConference() {
+        return conference;
+    }
+
+    public String getOrganizerDisplayName() {
+        return organizerDisplayName;
+    }
+
+    public RegistrationStatus getRegistrationStatus() {
+        return registrationStatus;
+    }
+}
@@ -0,0 +1,66 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A response wrapper holding the conference counts per city, topic and month.
+ * The version stamp tells clients (and memcache) which counter state the counts were computed from.
+ * Filtered counts are computed over a bounded number of matching conferences: when more conferences match,
+ * the counts are truncated, and only cover the first ones.
+ * @author Solange U. Gasengayire
+ */
+public class ConferenceFacets implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long version;
+    private List<FacetCount> cities;
+    private List<FacetCount> topics;
+    private List<FacetCount> months;
+    private boolean truncated;
+
+    /**
+     * Default constructor
+     */
+    public ConferenceFacets() {}
+
+    /**
+     * Constructor with arguments
+     * @param version the version stamp of the counters
+     * @param cities counts per city
+     * @param topics counts per topic
+     * @param months counts per starting month
+     * @param truncated whether the counts only cover some of the matching conferences
+     */
+    public ConferenceFacets(long version, List<FacetCount> cities,
+                            List<FacetCount> topics, List<FacetCount> months, boolean truncated) {
+        this.version = version;
+        this.cities = ImmutableList.copyOf(cities);
+        this.topics = ImmutableList.copyOf(topics);
+        this.months = ImmutableList.copyOf(months);
+        this.truncated = truncated;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<FacetCount> getCities() {
+        return cities;
+    }
+
+    public List<FacetCount> getTopics() {
+        return topics;
+    }
+
+    public List<FacetCount> getMonths() {
+        return months;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+}
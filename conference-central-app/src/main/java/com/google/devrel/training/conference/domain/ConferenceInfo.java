@@ -0,0 +1,41 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+
+/**
+ * The conference properties queries filter and sort on,
+ * shared by the full Conference and its lightweight ConferenceSummary.
+ * @author Solange U. Gasengayire
+ */
+public interface ConferenceInfo {
+
+    /**
+     * Return the key of the conference
+     * @return the conference key
+     */
+    Key<Conference> getConferenceKey();
+
+    /**
+     * Return the conference name
+     * @return the name
+     */
+    String getName();
+
+    /**
+     * Return where the conference will be held
+     * @return the city
+     */
+    String getCity();
+
+    /**
+     * Return the month in which the conference will be held
+     * @return the month
+     */
+    int getMonth();
+
+    /**
+     * Return the maximum number of attendees
+     * @return maximum number of attendees
+     */
+    int getMaxAttendees();
+}
@@ -0,0 +1,39 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * A response wrapper holding a page of conferences,
+ * along with the cursor to pass back in order to fetch the next page.
+ * @author Solange U. Gasengayire
+ */
+public class ConferencePage {
+
+    private List<Conference> items;
+    private String nextCursor;
+
+    /**
+     * Default constructor
+     */
+    public ConferencePage() {}
+
+    /**
+     * Constructor with arguments
+     * @param items the conferences of this page
+     * @param nextCursor the cursor of the next page, null when this is the last page
+     */
+    public ConferencePage(List<Conference> items, String nextCursor) {
+        this.items = ImmutableList.copyOf(items);
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Conference> getItems() {
+        return items;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,229 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
+import com.google.devrel.training.conference.service.BatchLoader;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Ignore;
+import com.googlecode.objectify.annotation.IgnoreSave;
+import com.googlecode.objectify.annotation.Parent;
+import com.googlecode.objectify.condition.IfNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * ConferenceSummary class holds the few conference properties list views display.
+ *
+ * It is a denormalized copy of its parent Conference, without the description,
+ * saved along with the conference (in the same entity group, so in the same transaction)
+ * whenever the conference changes. List endpoints load summaries rather than conferences.
+ * The seats available are not copied: they come from the ConferenceCapacity, which registrations write.
+ * The topics aren't displayed, and are only copied for the facet counts of filtered queries.
+ * @author Solange U. Gasengayire
+ */
+@Entity
+@Cache
+public class ConferenceSummary implements ConferenceInfo {
+
+    private static final Logger LOG = Logger.getLogger(ConferenceSummary.class.getName());
+
+    /**
+     * A conference has a single summary, always with this id.
+     */
+    public static final long SUMMARY_ID = 1L;
+
+    @Id
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private long id = SUMMARY_ID;
+
+    /**
+     * Holds the Conference key as the parent.
+     */
+    @Parent
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Key<Conference> conferenceKey;
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private String organizerUserId;
+
+    private String name;
+    private String city;
+    private Date startDate;
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private int month;
+
+    private int maxAttendees;
+
+    /**
+     * The topics, null in summaries saved before they were copied.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private List<String> topics;
+
+    /**
+     * Number of seats available, in summaries saved before the ConferenceCapacity existed.
+     */
+    @IgnoreSave(IfNull.class)
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Integer seatsAvailable;
+
+    /**
+     * Whether the user registered for the conference, set when the list endpoint is asked for it.
+     * Not saved, as it depends on the user.
+     */
+    @Ignore
+    private Boolean registered;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private ConferenceSummary() {}
+
+    /**
+     * Returns the summary of the given conference, to be saved along with it.
+     * @param conference the conference.
+     * @return the conference summary.
+     */
+    public static ConferenceSummary of(Conference conference) {
+        ConferenceSummary summary = new ConferenceSummary();
+        summary.conferenceKey = conference.getConferenceKey();
+        summary.organizerUserId = conference.getOrganizerUserId();
+        summary.name = conference.getName();
+        summary.city = conference.getCity();
+        summary.startDate = conference.getStartDate();
+        summary.month = conference.getMonth();
+        summary.maxAttendees = conference.getMaxAttendees();
+        List<String> topics = conference.getTopics();
+        summary.topics = topics == null ? new ArrayList<String>(0) : new ArrayList<>(topics);
+        summary.seatsAvailable = conference.getLegacySeatsAvailable();
+        return summary;
+    }
+
+    /**
+     * Returns the key of the summary of the given conference.
+     * @param conferenceKey the conference key.
+     * @return the summary key.
+     */
+    public static Key<ConferenceSummary> keyOf(Key<Conference> conferenceKey) {
+        return Key.create(conferenceKey, ConferenceSummary.class, SUMMARY_ID);
+    }
+
+    @Override
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    /**
+     * Return a string version of the conference key
+     * @return string representation of the conference key
+     */
+    public String getWebsafeKey() {
+        return conferenceKey.getString();
+    }
+
+    /**
+     * Return the organizer's id
+     * @return organizer's id
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public String getOrganizerUserId() {
+        return organizerUserId;
+    }
+
+    /**
+     * Returns organizer's display name.
+     * @return organizer's display name.
+     *         If there is no Profile, return his/her userId.
+     */
+    public String getOrganizerDisplayName() {
+        // Loaded along with the other organizers deferred in the current request.
+        Profile organizer = BatchLoader.current().defer(Key.create(Profile.class, organizerUserId)).get();
+        if (organizer == null) {
+            return organizerUserId;
+        } else {
+            return organizer.getDisplayName();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getCity() {
+        return city;
+    }
+
+    /**
+     * Returns a defensive copy of startDate if not null.
+     * @return a defensive copy of startDate if not null.
+     */
+    public Date getStartDate() {
+        return startDate == null ? null : new Date(startDate.getTime());
+    }
+
+    @Override
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public int getMonth() {
+        return month;
+    }
+
+    @Override
+    public int getMaxAttendees() {
+        return maxAttendees;
+    }
+
+    /**
+     * Returns the topics of the conference.
+     * @return the topics, null when the summary was saved before they were copied.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public List<String> getTopics() {
+        return topics == null ? null : Collections.unmodifiableList(topics);
+    }
+
+    /**
+     * Return the current number of seats available
+     * @return number of seats available
+     */
+    public int getSeatsAvailable() {
+        // Loaded along with the other capacities deferred in the current request, or on its own when it wasn't.
+        Key<ConferenceCapacity> capacityKey = ConferenceCapacity.keyOf(conferenceKey);
+        BatchLoader.Deferred<ConferenceCapacity> deferred = BatchLoader.current().loaded(capacityKey);
+        if (deferred == null) {
+            LOG.warning("The capacity of " + getWebsafeKey() + " wasn't deferred, loading it on its own");
+            deferred = BatchLoader.current().defer(capacityKey);
+        }
+        ConferenceCapacity capacity = deferred.get();
+        if (capacity != null) {
+            return capacity.getSeatsAvailable();
+        }
+        return seatsAvailable == null ? maxAttendees : seatsAvailable;
+    }
+
+    /**
+     * Return whether the user registered for the conference
+     * @return true if the user registered, null when the registration status wasn't asked for
+     */
+    public Boolean getRegistered() {
+        return registered;
+    }
+
+    /**
+     * Set the registration status of the user who lists the conference
+     * @param registered whether the user registered for the conference
+     */
+    public void setRegistered(boolean registered) {
+        this.registered = registered;
+    }
+}
@@ -0,0 +1,39 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * A response wrapper holding a page of conference summaries,
+ * along with the cursor to pass back in order to fetch the next page.
+ * @author Solange U. Gasengayire
+ */
+public class ConferenceSummaryPage {
+
+    private List<ConferenceSummary> items;
+    private String nextCursor;
+
+    /**
+     * Default constructor
+     */
+    public ConferenceSummaryPage() {}
+
+    /**
+     * Constructor with arguments
+     * @param items the conference summaries of this page
+     * @param nextCursor the cursor of the next page, null when this is the last page
+     */
+    public ConferenceSummaryPage(List<ConferenceSummary> items, String nextCursor) {
+        this.items = ImmutableList.copyOf(items);
+        this.nextCursor = nextCursor;
+    }
+
+    public List<ConferenceSummary> getItems() {
+        return items;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,108 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+
+import java.io.Serializable;
+
+/**
+ * This class represents an aggregate counter for a single facet value,
+ * such as the number of conferences held in a given city.
+ * Counters are maintained incrementally from conference writes,
+ * so that facet counts never require scanning the whole Conference kind.
+ * @author Solange U. Gasengayire
+ */
+@Entity
+@Cache
+public class FacetCount implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The counter identifier, made of the field name and the value, e.g. "city:Tokyo".
+     */
+    @Id
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private String id;
+
+    /**
+     * The name of the counted field (city, topics or month).
+     */
+    @Index
+    private String field;
+
+    /**
+     * The counted value.
+     */
+    private String value;
+
+    /**
+     * The number of conferences having this value.
+     */
+    private long count;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private FacetCount() {}
+
+    /**
+     * FacetCount constructor with arguments
+     * @param field the counted field name
+     * @param value the counted value
+     * @param count the initial count
+     */
+    public FacetCount(String field, String value, long count) {
+        this.id = createId(field, value);
+        this.field = field;
+        this.value = value;
+        this.count = count;
+    }
+
+    /**
+     * Build the counter identifier for a given field and value
+     * @param field the counted field name
+     * @param value the counted value
+     * @return the counter identifier
+     */
+    public static String createId(String field, String value) {
+        return field + ":" + value;
+    }
+
+    /**
+     * Return the counted field name
+     * @return the field name
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public String getField() {
+        return field;
+    }
+
+    /**
+     * Return the counted value
+     * @return the value
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Return the number of conferences having this value
+     * @return the count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Apply a delta to this counter
+     * @param delta the (possibly negative) number to add
+     */
+    public void add(long delta) {
+        count = count + delta;
+    }
+}
@@ -0,0 +1,45 @@
+package com.google.devrel.training.conference.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A response wrapper for the outcome of a group registration.
+ * @author Solange U. Gasengayire
+ */
+public class GroupRegistration {
+
+    private String websafeConferenceKey;
+    private List<String> registeredUserIds = new ArrayList<>();
+    private List<String> alreadyRegisteredUserIds = new ArrayList<>();
+
+    /**
+     * Default constructor
+     */
+    public GroupRegistration() {}
+
+    /**
+     * Constructor with arguments
+     * @param websafeConferenceKey the key of the conference
+     * @param registeredUserIds the attendees registered by the request
+     * @param alreadyRegisteredUserIds the attendees who were registered before
+     */
+    public GroupRegistration(String websafeConferenceKey, List<String> registeredUserIds,
+                             List<String> alreadyRegisteredUserIds) {
+        this.websafeConferenceKey = websafeConferenceKey;
+        this.registeredUserIds = new ArrayList<>(registeredUserIds);
+        this.alreadyRegisteredUserIds = new ArrayList<>(alreadyRegisteredUserIds);
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public List<String> getRegisteredUserIds() {
+        return new ArrayList<>(registeredUserIds);
+    }
+
+    public List<String> getAlreadyRegisteredUserIds() {
+        return new ArrayList<>(alreadyRegisteredUserIds);
+    }
+}
@@ -0,0 +1,211 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Ignore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * GroupRegistrationSaga class holds the progress of a group registration too large for a single
+ * cross-group transaction: the seats it booked, the attendees it registered so far, and the ones left.
+ * Each step of the saga saves it in the transaction doing the step, so that whoever drives the saga,
+ * the request or the task resuming it, picks up where the last step committed.
+ * @author Solange U. Gasengayire
+ */
+@Entity
+public class GroupRegistrationSaga {
+
+    /**
+     * The states of a saga.
+     */
+    public enum State {
+        /** Registering the attendees, batch by batch. */
+        REGISTERING,
+        /** A step failed: unregistering the attendees registered so far. */
+        ROLLING_BACK,
+        /** Every attendee was registered, and the seats left unused given back. */
+        COMPLETED,
+        /** Every attendee registered so far was unregistered, and the seats given back. */
+        ROLLED_BACK
+    }
+
+    @Id
+    private String id;
+
+    private Key<Conference> conferenceKey;
+
+    /**
+     * The seats booked for the group, and not given back yet.
+     */
+    private int seats;
+
+    /**
+     * The attendees left to register.
+     */
+    private List<String> pendingUserIds = new ArrayList<>(0);
+
+    /**
+     * The attendees registered by the saga.
+     */
+    private List<String> registeredUserIds = new ArrayList<>(0);
+
+    /**
+     * The attendees who were registered already, or registered on their own meanwhile.
+     */
+    private List<String> alreadyRegisteredUserIds = new ArrayList<>(0);
+
+    private State state = State.REGISTERING;
+
+    /**
+     * The attendees whose registration the last step changed. Not saved.
+     */
+    @Ignore
+    private List<String> changedUserIds = new ArrayList<>(0);
+
+    /**
+     * Just making the default constructor private.
+     */
+    private GroupRegistrationSaga() {}
+
+    /**
+     * GroupRegistrationSaga constructor with arguments
+     * @param id the saga identifier
+     * @param conferenceKey the key of the conference
+     * @param newcomers the attendees to register, one seat booked for each
+     * @param alreadyRegistered the attendees who were registered already
+     */
+    public GroupRegistrationSaga(String id, Key<Conference> conferenceKey,
+                                 List<String> newcomers, List<String> alreadyRegistered) {
+        this.id = id;
+        this.conferenceKey = conferenceKey;
+        this.seats = newcomers.size();
+        this.pendingUserIds = new ArrayList<>(newcomers);
+        this.alreadyRegisteredUserIds = new ArrayList<>(alreadyRegistered);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    public int getSeats() {
+        return seats;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public List<String> getRegisteredUserIds() {
+        return new ArrayList<>(registeredUserIds);
+    }
+
+    public List<String> getAlreadyRegisteredUserIds() {
+        return new ArrayList<>(alreadyRegisteredUserIds);
+    }
+
+    public List<String> getChangedUserIds() {
+        return new ArrayList<>(changedUserIds);
+    }
+
+    /**
+     * Whether the saga is over, completed or rolled back.
+     * @return true if there's no step left.
+     */
+    public boolean isFinished() {
+        return state == State.COMPLETED || state == State.ROLLED_BACK;
+    }
+
+    /**
+     * Returns the seats booked for attendees the saga didn't register.
+     * @return the number of seats to give back once every attendee is handled.
+     */
+    public int getUnusedSeats() {
+        return seats - registeredUserIds.size();
+    }
+
+    /**
+     * Returns the next attendees to register.
+     * @param size the maximum number of attendees.
+     * @return the attendees, empty when every attendee was handled.
+     */
+    public List<String> nextBatch(int size) {
+        return new ArrayList<>(pendingUserIds.subList(0, Math.min(size, pendingUserIds.size())));
+    }
+
+    /**
+     * Records the outcome of registering a batch of attendees.
+     * @param batch the attendees of the batch.
+     * @param registered the attendees the batch registered.
+     * @param alreadyRegistered the attendees who registered on their own meanwhile.
+     */
+    public void registered(List<String> batch, List<String> registered, List<String> alreadyRegistered) {
+        pendingUserIds.removeAll(batch);
+        registeredUserIds.addAll(registered);
+        alreadyRegisteredUserIds.addAll(alreadyRegistered);
+        changedUserIds = new ArrayList<>(registered);
+    }
+
+    /**
+     * Marks the saga completed, once its unused seats are given back.
+     */
+    public void complete() {
+        if (state != State.REGISTERING || !pendingUserIds.isEmpty()) {
+            throw new IllegalStateException("The saga can't complete from " + state);
+        }
+        seats = registeredUserIds.size();
+        state = State.COMPLETED;
+        changedUserIds = new ArrayList<>(0);
+    }
+
+    /**
+     * Starts rolling back the saga, after a step failed.
+     * @return false if the saga was finished or rolling back already.
+     */
+    public boolean rollBack() {
+        if (state != State.REGISTERING) {
+            return false;
+        }
+        state = State.ROLLING_BACK;
+        return true;
+    }
+
+    /**
+     * Returns the next attendees to unregister.
+     * @param size the maximum number of attendees.
+     * @return the attendees, empty when every attendee registered by the saga was unregistered.
+     */
+    public List<String> nextRollbackBatch(int size) {
+        return new ArrayList<>(registeredUserIds.subList(0, Math.min(size, registeredUserIds.size())));
+    }
+
+    /**
+     * Records the outcome of unregistering a batch of attendees.
+     * @param batch the attendees of the batch.
+     * @param unregistered the attendees the batch unregistered. The others unregistered on their own
+     *                     meanwhile, giving their seat back already.
+     */
+    public void unregistered(List<String> batch, List<String> unregistered) {
+        registeredUserIds.removeAll(batch);
+        seats -= batch.size() - unregistered.size();
+        changedUserIds = new ArrayList<>(unregistered);
+    }
+
+    /**
+     * Marks the saga rolled back, once its seats are given back.
+     */
+    public void rolledBack() {
+        if (state != State.ROLLING_BACK || !registeredUserIds.isEmpty()) {
+            throw new IllegalStateException("The saga can't be rolled back from " + state);
+        }
+        seats = 0;
+        state = State.ROLLED_BACK;
+        changedUserIds = new ArrayList<>(0);
+    }
+}
@@ -0,0 +1,57 @@
+package com.google.devrel.training.conference.domain;
+
+/**
+ * A response wrapper holding everything the home screen displays on load,
+ * each list of conferences being a page with a cursor of its own.
+ * @author Solange U. Gasengayire
+ */
+public class HomeScreen {
+
+    private Profile profile;
+    private Announcement announcement;
+    private ConferenceSummaryPage conferences;
+    private ConferenceSummaryPage conferencesCreated;
+    private ConferenceSummaryPage conferencesToAttend;
+
+    /**
+     * Default constructor
+     */
+    public HomeScreen() {}
+
+    /**
+     * Constructor with arguments
+     * @param profile the profile of the user, null when not signed in or without a profile
+     * @param announcement the announcement, null when there's none
+     * @param conferences the page of conferences matching the query
+     * @param conferencesCreated the page of conferences the user created, null when not signed in
+     * @param conferencesToAttend the page of conferences the user attends, null without a profile
+     */
+    public HomeScreen(Profile profile, Announcement announcement, ConferenceSummaryPage conferences,
+                      ConferenceSummaryPage conferencesCreated, ConferenceSummaryPage conferencesToAttend) {
+        this.profile = profile;
+        this.announcement = announcement;
+        this.conferences = conferences;
+        this.conferencesCreated = conferencesCreated;
+        this.conferencesToAttend = conferencesToAttend;
+    }
+
+    public Profile getProfile() {
+        return profile;
+    }
+
+    public Announcement getAnnouncement() {
+        return announcement;
+    }
+
+    public ConferenceSummaryPage getConferences() {
+        return conferences;
+    }
+
+    public ConferenceSummaryPage getConferencesCreated() {
+        return conferencesCreated;
+    }
+
+    public ConferenceSummaryPage getConferencesToAttend() {
+        return conferencesToAttend;
+    }
+}
@@ -0,0 +1,99 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+
+import java.util.Date;
+
+/**
+ * This class records the outcome of a completed write request sent with an Idempotency-Key header,
+ * so that retries of the same request get the same answer without running it again.
+ * Records are cached in memcache for as long as they're valid, and purged from the datastore once expired.
+ * @author Solange U. Gasengayire
+ */
+@Entity
+@Cache(expirationSeconds = IdempotencyRecord.TTL_SECONDS)
+public class IdempotencyRecord {
+
+    /**
+     * How long a request can be retried with the same idempotency key: one day.
+     */
+    public static final int TTL_SECONDS = 24 * 60 * 60;
+
+    /**
+     * The record identifier, made of the user id, the operation and the idempotency key.
+     */
+    @Id
+    private String id;
+
+    /**
+     * The outcome of the request, such as the key of the created conference.
+     */
+    private String result;
+
+    /**
+     * When the record stops being valid.
+     */
+    @Index
+    private Date expiresAt;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private IdempotencyRecord() {}
+
+    /**
+     * IdempotencyRecord constructor with arguments
+     * @param id the record identifier
+     * @param result the outcome of the request
+     */
+    public IdempotencyRecord(String id, String result) {
+        this(id, result, TTL_SECONDS);
+    }
+
+    /**
+     * IdempotencyRecord constructor with arguments
+     * @param id the record identifier
+     * @param result the outcome of the request
+     * @param ttlSeconds how long the record stays valid, in seconds
+     */
+    public IdempotencyRecord(String id, String result, int ttlSeconds) {
+        this.id = id;
+        this.result = result;
+        this.expiresAt = new Date(System.currentTimeMillis() + ttlSeconds * 1000L);
+    }
+
+    /**
+     * Builds a record identifier.
+     * Keys are scoped by user, so that one user can't replay the requests of another.
+     * @param userId the id of the user who sent the request
+     * @param operation the name of the operation, along with its target if any
+     * @param idempotencyKey the idempotency key sent by the client
+     * @return the record identifier
+     */
+    public static String createId(String userId, String operation, String idempotencyKey) {
+        return userId + ":" + operation + ":" + idempotencyKey;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getResult() {
+        return result;
+    }
+
+    public Date getExpiresAt() {
+        return new Date(expiresAt.getTime());
+    }
+
+    /**
+     * Whether the record is still valid.
+     * @return true until the record expires.
+     */
+    public boolean isValid() {
+        return expiresAt.after(new Date());
+    }
+}
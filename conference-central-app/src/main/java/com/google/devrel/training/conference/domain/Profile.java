@@ -5,9 +5,12 @@ import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
 import com.googlecode.objectify.annotation.Cache;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Ignore;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * This class represents a Profile entity.
@@ -45,6 +48,18 @@ public class Profile {
      */
     private List<String> conferenceKeysToAttend = new ArrayList<>(0);
 
+    /*
+     * The same keys as a set, built on the first membership check, so that checks don't scan the list.
+     * Not saved, nor sent to clients.
+     */
+    @Ignore
+    private Set<String> conferenceKeysToAttendSet;
+
+    /*
+     * The users allowed to register this user for conferences, along with a group of attendees.
+     */
+    private List<String> groupRegistrarUserIds = new ArrayList<>(0);
+
     // COMPLETED indicate that the userId is to be used in the Entity's key
     @Id
     private String userId;
@@ -103,6 +118,43 @@ public class Profile {
         return ImmutableList.copyOf(conferenceKeysToAttend);
     }
 
+    /**
+     * Return whether the user registered to attend the given conference, without scanning the list
+     * @param conferenceKey a websafe String representation of the Conference Key
+     * @return true if the conference is one to attend
+     */
+    public boolean isAttending(String conferenceKey) {
+        if (conferenceKeysToAttendSet == null) {
+            conferenceKeysToAttendSet = new HashSet<>(conferenceKeysToAttend);
+        }
+        return conferenceKeysToAttendSet.contains(conferenceKey);
+    }
+
+    /**
+     * Return the users allowed to register this user along with a group
+     * @return immutable list of user ids
+     */
+    public List<String> getGroupRegistrarUserIds() {
+        return ImmutableList.copyOf(groupRegistrarUserIds);
+    }
+
+    /**
+     * Return whether the given user may register this user along with a group
+     * @param userId the user id of the one registering the group
+     * @return true if this user allowed it
+     */
+    public boolean allowsGroupRegistrationBy(String userId) {
+        return groupRegistrarUserIds.contains(userId);
+    }
+
+    /**
+     * Replace the users allowed to register this user along with a group
+     * @param userIds the user ids, empty to allow nobody
+     */
+    public void allowGroupRegistrationBy(List<String> userIds) {
+        groupRegistrarUserIds = new ArrayList<>(userIds);
+    }
+
     /**
      * Update this profile's properties
      * @param displayName the new display name value
@@ -123,6 +175,9 @@ public class Profile {
      */
     public void addToConferenceKeysToAttend(String conferenceKey) {
         conferenceKeysToAttend.add(conferenceKey);
+        if (conferenceKeysToAttendSet != null) {
+            conferenceKeysToAttendSet.add(conferenceKey);
+        }
     }
 
     /**
@@ -130,8 +185,9 @@ public class Profile {
      * @param conferenceKey a websafe String representation of the Conference Key.
      */
     public void unregisterFromConference(String conferenceKey) {
-        if (conferenceKeysToAttend.contains(conferenceKey)) {
+        if (isAttending(conferenceKey)) {
             conferenceKeysToAttend.remove(conferenceKey);
+            conferenceKeysToAttendSet.remove(conferenceKey);
         } else {
             throw new IllegalArgumentException("Invalid conferenceKey: " + conferenceKey);
         }
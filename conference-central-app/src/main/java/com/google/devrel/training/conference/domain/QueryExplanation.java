@@ -0,0 +1,157 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * A response wrapper describing how a conference query was executed:
+ * the generated datastore query, the index it relies on, how many rows were scanned
+ * and returned, and how long each stage took along with the RPCs it issued.
+ * @author Solange U. Gasengayire
+ */
+public class QueryExplanation {
+
+    /**
+     * A single stage of the query execution.
+     */
+    public static class Stage {
+        private String name;
+        private double millis;
+        private int rpcCalls;
+
+        public Stage() {}
+
+        public Stage(String name, double millis, int rpcCalls) {
+            this.name = name;
+            this.millis = millis;
+            this.rpcCalls = rpcCalls;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getMillis() {
+            return millis;
+        }
+
+        public int getRpcCalls() {
+            return rpcCalls;
+        }
+    }
+
+    /**
+     * The number of calls issued to a single API method, e.g. datastore_v3.RunQuery.
+     */
+    public static class RpcCount {
+        private String call;
+        private int count;
+
+        public RpcCount() {}
+
+        public RpcCount(String call, int count) {
+            this.call = call;
+            this.count = count;
+        }
+
+        public String getCall() {
+            return call;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+
+    private String query;
+    private String plan;
+    private int rowsScanned;
+    private int rowsReturned;
+    private List<RpcCount> rpcCounts;
+    private List<Stage> stages;
+
+    /**
+     * Default constructor
+     */
+    public QueryExplanation() {}
+
+    /**
+     * Constructor with arguments
+     * @param query the generated datastore query
+     * @param plan the description of the index used and the way the query is run
+     * @param rowsScanned the number of rows read from the datastore
+     * @param rowsReturned the number of conferences returned
+     * @param rpcCounts the number of calls per API method, empty in production where they aren't counted
+     * @param stages the timing breakdown
+     */
+    public QueryExplanation(String query, String plan, int rowsScanned, int rowsReturned,
+                            List<RpcCount> rpcCounts, List<Stage> stages) {
+        this.query = query;
+        this.plan = plan;
+        this.rowsScanned = rowsScanned;
+        this.rowsReturned = rowsReturned;
+        this.rpcCounts = ImmutableList.copyOf(rpcCounts);
+        this.stages = ImmutableList.copyOf(stages);
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public String getPlan() {
+        return plan;
+    }
+
+    public int getRowsScanned() {
+        return rowsScanned;
+    }
+
+    public int getRowsReturned() {
+        return rowsReturned;
+    }
+
+    public List<RpcCount> getRpcCounts() {
+        return rpcCounts;
+    }
+
+    public List<Stage> getStages() {
+        return stages;
+    }
+
+    /**
+     * Return a string representation of this explanation, suitable for the logs
+     * @return this explanation as a string
+     */
+    @Override
+    public String toString() {
+        StringBuilder stringBuilder = new StringBuilder("Query: ")
+                .append(query)
+                .append("\nPlan: ")
+                .append(plan)
+                .append("\nRows scanned: ")
+                .append(rowsScanned)
+                .append(", returned: ")
+                .append(rowsReturned)
+                .append("\n");
+        for (Stage stage : stages) {
+            stringBuilder
+                    .append("\t")
+                    .append(stage.name)
+                    .append(": ")
+                    .append(String.format("%.3f", stage.millis))
+                    .append(" ms, ")
+                    .append(stage.rpcCalls)
+                    .append(" RPC(s)\n");
+        }
+        for (RpcCount rpcCount : rpcCounts) {
+            stringBuilder
+                    .append("\t")
+                    .append(rpcCount.call)
+                    .append(" x")
+                    .append(rpcCount.count)
+                    .append("\n");
+        }
+        return stringBuilder.toString();
+    }
+}
@@ -0,0 +1,47 @@
+package com.google.devrel.training.conference.domain;
+
+/**
+ * A response wrapper for the outcome of the registration for one conference of a batch.
+ * @author Solange U. Gasengayire
+ */
+public class RegistrationResult {
+
+    /**
+     * The possible outcomes of a registration.
+     */
+    public enum Status {
+        REGISTERED,
+        ALREADY_REGISTERED,
+        NOT_FOUND,
+        NO_SEATS_AVAILABLE,
+        SEATS_HELD,
+        WAITING_ROOM,
+        RETRY_LATER
+    }
+
+    private String websafeConferenceKey;
+    private Status status;
+
+    /**
+     * Default constructor
+     */
+    public RegistrationResult() {}
+
+    /**
+     * Constructor with arguments
+     * @param websafeConferenceKey the key of the conference
+     * @param status the outcome of the registration
+     */
+    public RegistrationResult(String websafeConferenceKey, Status status) {
+        this.websafeConferenceKey = websafeConferenceKey;
+        this.status = status;
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+}
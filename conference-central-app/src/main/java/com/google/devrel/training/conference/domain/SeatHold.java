@@ -0,0 +1,43 @@
+package com.google.devrel.training.conference.domain;
+
+import java.util.Date;
+
+/**
+ * A response wrapper for a seat held for a user, until it is confirmed or expires.
+ * @author Solange U. Gasengayire
+ */
+public class SeatHold {
+
+    private String websafeConferenceKey;
+    private String token;
+    private Date expiresAt;
+
+    /**
+     * Default constructor
+     */
+    public SeatHold() {}
+
+    /**
+     * Constructor with arguments
+     * @param websafeConferenceKey the key of the conference
+     * @param token the reservation token, to confirm or release the hold with
+     * @param expiresAt when the seat is released, unless the hold is confirmed before
+     */
+    public SeatHold(String websafeConferenceKey, String token, Date expiresAt) {
+        this.websafeConferenceKey = websafeConferenceKey;
+        this.token = token;
+        this.expiresAt = new Date(expiresAt.getTime());
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public Date getExpiresAt() {
+        return expiresAt == null ? null : new Date(expiresAt.getTime());
+    }
+}
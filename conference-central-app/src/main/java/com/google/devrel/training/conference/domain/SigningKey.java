@@ -0,0 +1,59 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+/**
+ * SigningKey class stores a secret the application signs its tokens with.
+ * Keys are generated on first use, and never leave the server.
+ * @author Solange U. Gasengayire
+ */
+@Entity
+@Cache
+public class SigningKey {
+
+    /**
+     * The name of the key, after what it signs.
+     */
+    @Id
+    private String name;
+
+    /**
+     * The secret.
+     */
+    private byte[] secret;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private SigningKey() {}
+
+    /**
+     * SigningKey constructor with arguments
+     * @param name the name of the key
+     * @param secret the secret
+     */
+    public SigningKey(String name, byte[] secret) {
+        this.name = name;
+        this.secret = secret.clone();
+    }
+
+    /**
+     * Returns the key of the signing key with the given name.
+     * @param name the name of the signing key.
+     * @return the datastore key.
+     */
+    public static Key<SigningKey> keyOf(String name) {
+        return Key.create(SigningKey.class, name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public byte[] getSecret() {
+        return secret.clone();
+    }
+}
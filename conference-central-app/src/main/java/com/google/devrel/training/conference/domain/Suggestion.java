@@ -0,0 +1,34 @@
+package com.google.devrel.training.conference.domain;
+
+/**
+ * A single autocomplete suggestion, along with its popularity weight.
+ * @author Solange U. Gasengayire
+ */
+public class Suggestion {
+
+    private String value;
+    private long weight;
+
+    /**
+     * Default constructor
+     */
+    public Suggestion() {}
+
+    /**
+     * Constructor with arguments
+     * @param value the suggested value
+     * @param weight the popularity of the value (the number of conferences using it)
+     */
+    public Suggestion(String value, long weight) {
+        this.value = value;
+        this.weight = weight;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public long getWeight() {
+        return weight;
+    }
+}
@@ -0,0 +1,64 @@
+package com.google.devrel.training.conference.domain;
+
+/**
+ * A response wrapper telling a user where they stand in the waiting room of a conference.
+ * @author Solange U. Gasengayire
+ */
+public class WaitingRoomTicket {
+
+    private String websafeConferenceKey;
+    private String token;
+    private long position;
+    private long aheadOfYou;
+    private long estimatedWaitSeconds;
+
+    /**
+     * Default constructor
+     */
+    public WaitingRoomTicket() {}
+
+    /**
+     * Constructor with arguments
+     * @param websafeConferenceKey the key of the conference
+     * @param token the signed position token, to send in the X-Waiting-Room-Token header
+     * @param position the position of the user in the waiting room
+     * @param aheadOfYou the number of users to be admitted before this one
+     * @param estimatedWaitSeconds the estimated time before the user is admitted
+     */
+    public WaitingRoomTicket(String websafeConferenceKey, String token, long position,
+                             long aheadOfYou, long estimatedWaitSeconds) {
+        this.websafeConferenceKey = websafeConferenceKey;
+        this.token = token;
+        this.position = position;
+        this.aheadOfYou = aheadOfYou;
+        this.estimatedWaitSeconds = estimatedWaitSeconds;
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public long getAheadOfYou() {
+        return aheadOfYou;
+    }
+
+    public long getEstimatedWaitSeconds() {
+        return estimatedWaitSeconds;
+    }
+
+    /**
+     * Whether the user may register for the conference.
+     * @return true once the user is admitted
+     */
+    public boolean isAdmitted() {
+        return aheadOfYou == 0;
+    }
+}
@@ -0,0 +1,107 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+
+/**
+ * Waitlist class holds the state of the waitlist of a conference:
+ * the position given to the next user joining it, and the number of users waiting.
+ * The waiting users themselves are WaitlistEntry entities, in the same entity group.
+ * @author Solange U. Gasengayire
+ */
+@Entity
+@Cache
+public class Waitlist {
+
+    /**
+     * A conference has a single waitlist, always with this id.
+     */
+    public static final long WAITLIST_ID = 1L;
+
+    @Id
+    private long id = WAITLIST_ID;
+
+    /**
+     * Holds the Conference key as the parent.
+     */
+    @Parent
+    private Key<Conference> conferenceKey;
+
+    /**
+     * The position given to the next user joining the waitlist.
+     */
+    private long nextPosition = 1;
+
+    /**
+     * The number of users waiting.
+     */
+    private int length;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private Waitlist() {}
+
+    /**
+     * Waitlist constructor with arguments
+     * @param conferenceKey the key of the conference
+     */
+    public Waitlist(Key<Conference> conferenceKey) {
+        this.conferenceKey = conferenceKey;
+    }
+
+    /**
+     * Returns the key of the waitlist of the given conference.
+     * @param conferenceKey the conference key.
+     * @return the waitlist key.
+     */
+    public static Key<Waitlist> keyOf(Key<Conference> conferenceKey) {
+        return Key.create(conferenceKey, Waitlist.class, WAITLIST_ID);
+    }
+
+    /**
+     * Whether the given waitlist, which may not exist, has users waiting.
+     * @param waitlist the waitlist, null when nobody ever joined it.
+     * @return true if users are waiting.
+     */
+    public static boolean isWaiting(Waitlist waitlist) {
+        return waitlist != null && waitlist.length > 0;
+    }
+
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Adds a user at the end of the waitlist.
+     * @return the position of the user.
+     */
+    public long add() {
+        length++;
+        return nextPosition++;
+    }
+
+    /**
+     * Empties the waitlist, when no user is actually waiting in it anymore.
+     */
+    public void clear() {
+        length = 0;
+    }
+
+    /**
+     * Removes a user from the waitlist.
+     */
+    public void remove() {
+        if (length <= 0) {
+            throw new IllegalStateException("The waitlist is empty.");
+        }
+        length--;
+    }
+}
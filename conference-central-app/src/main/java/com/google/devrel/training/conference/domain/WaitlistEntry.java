@@ -0,0 +1,85 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.Date;
+
+/**
+ * WaitlistEntry class stores a user waiting for a seat at a sold-out conference.
+ * Entries are children of the conference, identified by the user id, and served in position order.
+ * @author Solange U. Gasengayire
+ */
+@Entity
+public class WaitlistEntry {
+
+    /**
+     * The id of the waiting user.
+     */
+    @Id
+    private String userId;
+
+    /**
+     * Holds the Conference key as the parent.
+     */
+    @Parent
+    private Key<Conference> conferenceKey;
+
+    /**
+     * The position of the entry: users are promoted in increasing position order.
+     */
+    @Index
+    private long position;
+
+    /**
+     * When the user joined the waitlist.
+     */
+    private Date joinedAt;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private WaitlistEntry() {}
+
+    /**
+     * WaitlistEntry constructor with arguments
+     * @param conferenceKey the key of the conference
+     * @param userId the id of the waiting user
+     * @param position the position given by the waitlist
+     */
+    public WaitlistEntry(Key<Conference> conferenceKey, String userId, long position) {
+        this.conferenceKey = conferenceKey;
+        this.userId = userId;
+        this.position = position;
+        this.joinedAt = new Date();
+    }
+
+    /**
+     * Returns the key of the entry of the given user.
+     * @param conferenceKey the conference key.
+     * @param userId the user id.
+     * @return the entry key.
+     */
+    public static Key<WaitlistEntry> keyOf(Key<Conference> conferenceKey, String userId) {
+        return Key.create(conferenceKey, WaitlistEntry.class, userId);
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public Date getJoinedAt() {
+        return joinedAt == null ? null : new Date(joinedAt.getTime());
+    }
+}
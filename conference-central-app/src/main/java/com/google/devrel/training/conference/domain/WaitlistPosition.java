@@ -0,0 +1,41 @@
+package com.google.devrel.training.conference.domain;
+
+/**
+ * A response wrapper telling a user where they stand in the waitlist of a conference.
+ * @author Solange U. Gasengayire
+ */
+public class WaitlistPosition {
+
+    private String websafeConferenceKey;
+    private long place;
+    private int length;
+
+    /**
+     * Default constructor
+     */
+    public WaitlistPosition() {}
+
+    /**
+     * Constructor with arguments
+     * @param websafeConferenceKey the key of the conference
+     * @param place the place of the user in the waitlist, 1 for the next user to be promoted
+     * @param length the number of users waiting
+     */
+    public WaitlistPosition(String websafeConferenceKey, long place, int length) {
+        this.websafeConferenceKey = websafeConferenceKey;
+        this.place = place;
+        this.length = length;
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public long getPlace() {
+        return place;
+    }
+
+    public int getLength() {
+        return length;
+    }
+}
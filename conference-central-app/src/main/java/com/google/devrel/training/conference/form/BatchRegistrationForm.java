@@ -0,0 +1,36 @@
+package com.google.devrel.training.conference.form;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A POJO representing the conferences of a batch registration, on the client side.
+ */
+public class BatchRegistrationForm {
+
+    /**
+     * The websafe keys of the conferences to register for.
+     */
+    private List<String> websafeConferenceKeys = new ArrayList<>();
+
+    /**
+     * No-argument constructor
+     */
+    private BatchRegistrationForm() {}
+
+    /**
+     * Constructor for BatchRegistrationForm, solely for unit test.
+     * @param websafeConferenceKeys the websafe keys of the conferences
+     */
+    public BatchRegistrationForm(List<String> websafeConferenceKeys) {
+        this.websafeConferenceKeys = websafeConferenceKeys;
+    }
+
+    /**
+     * Return the websafe keys of the conferences to register for
+     * @return the websafe conference keys
+     */
+    public List<String> getWebsafeConferenceKeys() {
+        return websafeConferenceKeys;
+    }
+}
@@ -44,6 +44,11 @@ public class ConferenceForm {
      */
     private int maxAttendees;
 
+    /**
+     * Whether registrations go through a virtual waiting room.
+     */
+    private boolean waitingRoom;
+
     private ConferenceForm() {}
 
     /**
@@ -58,6 +63,22 @@ public class ConferenceForm {
      */
     public ConferenceForm(String name, String description, List<String> topics, String city,
                           Date startDate, Date endDate, int maxAttendees) {
+        this(name, description, topics, city, startDate, endDate, maxAttendees, false);
+    }
+
+    /**
+     * Public constructor is solely for Unit Test.
+     * @param name conference name
+     * @param description conference description
+     * @param topics conference topics
+     * @param city conference city
+     * @param startDate conference start date
+     * @param endDate conference end date
+     * @param maxAttendees maximum number of attendees
+     * @param waitingRoom whether registrations go through a virtual waiting room
+     */
+    public ConferenceForm(String name, String description, List<String> topics, String city,
+                          Date startDate, Date endDate, int maxAttendees, boolean waitingRoom) {
         this.name = name;
         this.description = description;
         this.topics = topics == null ? null : ImmutableList.copyOf(topics);
@@ -65,6 +86,7 @@ public class ConferenceForm {
         this.startDate = startDate == null ? null : new Date(startDate.getTime());
         this.endDate = endDate == null ? null : new Date(endDate.getTime());
         this.maxAttendees = maxAttendees;
+        this.waitingRoom = waitingRoom;
     }
 
     /**
@@ -122,4 +144,12 @@ public class ConferenceForm {
     public int getMaxAttendees() {
         return maxAttendees;
     }
+
+    /**
+     * Return whether registrations go through a virtual waiting room
+     * @return true for a waiting room
+     */
+    public boolean isWaitingRoom() {
+        return waitingRoom;
+    }
 }
@@ -4,13 +4,18 @@ import static com.google.devrel.training.conference.service.OfyService.ofy;
 
 import com.google.api.server.spi.config.AnnotationBoolean;
 import com.google.api.server.spi.config.ApiResourceProperty;
+import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceInfo;
 
 import com.googlecode.objectify.cmd.Query;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
 /**
@@ -48,10 +53,29 @@ public class ConferenceQueryForm {
         private String getFieldName() {
             return this.fieldName;
         }
+
+        /**
+         * Returns the value of this field the datastore sorts the given conference by.
+         * Topics hold several values, so they can't be compared this way.
+         */
+        private Comparable<?> getSortValue(ConferenceInfo conference) {
+            switch (this) {
+                case CITY:
+                    return conference.getCity();
+                case MONTH:
+                    return conference.getMonth();
+                case MAX_ATTENDEES:
+                    return conference.getMaxAttendees();
+                default:
+                    throw new IllegalArgumentException(
+                            "Inequality filters on " + fieldName + " can't be combined with IN or OR.");
+            }
+        }
     }
 
     /**
      * Enum representing an operator.
+     * IN and OR are not datastore operators: they fan out into one query per value (or per branch).
      */
     public static enum Operator {
         EQ("=="),
@@ -59,7 +83,9 @@ public class ConferenceQueryForm {
         GT(">"),
         LTEQ("<="),
         GTEQ(">="),
-        NE("!=");
+        NE("!="),
+        IN("IN"),
+        OR("OR");
 
         private String queryOperator;
 
@@ -75,6 +101,10 @@ public class ConferenceQueryForm {
             return this.queryOperator.contains("<") || this.queryOperator.contains(">") ||
                     this.queryOperator.contains("!");
         }
+
+        private boolean isFanOut() {
+            return this == IN || this == OR;
+        }
     }
 
     /**
@@ -85,6 +115,16 @@ public class ConferenceQueryForm {
         private Operator operator;
         private String value;
 
+        /**
+         * The values of an IN filter.
+         */
+        private List<String> values;
+
+        /**
+         * The alternatives of an OR filter, all on the same field.
+         */
+        private List<Filter> branches;
+
         public Filter () {}
 
         public Filter(Field field, Operator operator, String value) {
@@ -93,6 +133,27 @@ public class ConferenceQueryForm {
             this.value = value;
         }
 
+        /**
+         * Builds an IN filter, matching any of the given values.
+         * @param field the filtered field.
+         * @param values the accepted values.
+         */
+        public Filter(Field field, List<String> values) {
+            this.field = field;
+            this.operator = Operator.IN;
+            this.values = ImmutableList.copyOf(values);
+        }
+
+        /**
+         * Builds an OR filter, matching any of the given filters.
+         * @param branches the alternatives, all on the same field.
+         */
+        public Filter(List<Filter> branches) {
+            this.field = branches.isEmpty() ? null : branches.get(0).field;
+            this.operator = Operator.OR;
+            this.branches = ImmutableList.copyOf(branches);
+        }
+
         public Field getField() {
             return field;
         }
@@ -104,6 +165,233 @@ public class ConferenceQueryForm {
         public String getValue() {
             return value;
         }
+
+        public List<String> getValues() {
+            return values == null ? null : ImmutableList.copyOf(values);
+        }
+
+        public List<Filter> getBranches() {
+            return branches == null ? null : ImmutableList.copyOf(branches);
+        }
+
+        /**
+         * Returns the datastore filters this filter fans out into.
+         */
+        private List<Filter> fanOut() {
+            List<Filter> fanOut = new ArrayList<>(0);
+            if (operator == Operator.IN) {
+                for (String inValue : values == null ? ImmutableList.<String>of() : values) {
+                    fanOut.add(new Filter(field, Operator.EQ, inValue));
+                }
+            } else if (operator == Operator.OR) {
+                fanOut.addAll(branches == null ? ImmutableList.<Filter>of() : branches);
+            } else {
+                fanOut.add(this);
+            }
+            return fanOut;
+        }
+
+        /**
+         * Appends an unambiguous encoding of this filter to the given key: values are length-prefixed,
+         * so that no two different filters are encoded alike, whatever their values contain.
+         */
+        private void appendKey(StringBuilder key) {
+            key.append(field).append(' ').append(operator).append(' ');
+            if (operator == Operator.IN) {
+                List<String> inValues = values == null ? ImmutableList.<String>of() : values;
+                key.append(inValues.size()).append('[');
+                for (String inValue : inValues) {
+                    appendValue(key, inValue);
+                }
+                key.append(']');
+            } else if (operator == Operator.OR) {
+                List<Filter> orBranches = branches == null ? ImmutableList.<Filter>of() : branches;
+                key.append(orBranches.size()).append('(');
+                for (Filter branch : orBranches) {
+                    branch.appendKey(key);
+                }
+                key.append(')');
+            } else {
+                appendValue(key, value);
+            }
+        }
+
+        private static void appendValue(StringBuilder key, String value) {
+            if (value == null) {
+                key.append('-');
+            } else {
+                key.append(value.length()).append(':').append(value);
+            }
+        }
+
+        @Override
+        public String toString() {
+            if (operator == Operator.IN) {
+                return field + " IN " + values;
+            }
+            if (operator == Operator.OR) {
+                return "(" + Joiner.on(" OR ").join(branches) + ")";
+            }
+            return field + " " + operator + " " + value;
+        }
+    }
+
+    /**
+     * The compiled, immutable form of the queries for a given filter shape: the fields and operators
+     * of the filters, and the number of values of an IN filter, but not the values themselves.
+     *
+     * Compiling checks the filters, and computes the datastore conditions, the sort order, the merge
+     * ordering and the plan description once. Plans are interned by shape, so a form only has to bind
+     * its values to get its queries.
+     */
+    private static final class QueryPlan {
+
+        /**
+         * Interned plans, by shape. The number of shapes is bounded by the number of fields and operators,
+         * but IN filters may have any number of values: past this size, new plans are no longer interned.
+         */
+        private static final int MAX_PLANS = 1000;
+
+        private static final ConcurrentMap<String, QueryPlan> PLANS = new ConcurrentHashMap<>();
+
+        /**
+         * The datastore conditions ("city =", "month >"...) of the filters shared by all the queries.
+         */
+        private final List<String> conditions;
+        private final List<FieldType> types;
+
+        /**
+         * The conditions of the fan-out filter alternatives, one query each, empty without fan-out.
+         */
+        private final List<String> branchConditions;
+        private final List<FieldType> branchTypes;
+
+        private final String sortFieldName;
+        private final Comparator<ConferenceInfo> ordering;
+        private final String description;
+
+        private QueryPlan(ConferenceQueryForm form) {
+            form.checkFilters();
+            ImmutableList.Builder<String> conditions = ImmutableList.builder();
+            ImmutableList.Builder<FieldType> types = ImmutableList.builder();
+            for (Filter filter : form.filters) {
+                if (filter != form.fanOutFilter) {
+                    conditions.add(condition(filter));
+                    types.add(filter.field.fieldType);
+                }
+            }
+            ImmutableList.Builder<String> branchConditions = ImmutableList.builder();
+            ImmutableList.Builder<FieldType> branchTypes = ImmutableList.builder();
+            if (form.fanOutFilter != null) {
+                for (Filter branch : form.fanOutFilter.fanOut()) {
+                    branchConditions.add(condition(branch));
+                    branchTypes.add(branch.field.fieldType);
+                }
+            }
+            this.conditions = conditions.build();
+            this.types = types.build();
+            this.branchConditions = branchConditions.build();
+            this.branchTypes = branchTypes.build();
+            Field sortField = form.inequalityFilter == null ? null : form.inequalityFilter.field;
+            this.sortFieldName = sortField == null ? null : sortField.getFieldName();
+            this.ordering = ordering(sortField);
+            this.description = form.describe();
+        }
+
+        /**
+         * Returns the plan matching the shape of the filters of the given form, compiling it if needed.
+         * @throws IllegalArgumentException when the filters can't be combined.
+         */
+        private static QueryPlan of(ConferenceQueryForm form) {
+            String shape = shape(form.filters);
+            QueryPlan plan = PLANS.get(shape);
+            if (plan == null) {
+                plan = new QueryPlan(form);
+                if (PLANS.size() < MAX_PLANS) {
+                    QueryPlan interned = PLANS.putIfAbsent(shape, plan);
+                    plan = interned == null ? plan : interned;
+                }
+            }
+            return plan;
+        }
+
+        private static String shape(List<Filter> filters) {
+            StringBuilder shape = new StringBuilder();
+            for (Filter filter : filters) {
+                appendShape(shape, filter);
+                shape.append(';');
+            }
+            return shape.toString();
+        }
+
+        private static void appendShape(StringBuilder shape, Filter filter) {
+            shape.append(filter.field).append(' ').append(filter.operator);
+            if (filter.operator == Operator.IN) {
+                shape.append(' ').append(filter.values == null ? 0 : filter.values.size());
+            } else if (filter.operator == Operator.OR && filter.branches != null) {
+                shape.append('(');
+                for (Filter branch : filter.branches) {
+                    appendShape(shape, branch);
+                    shape.append(',');
+                }
+                shape.append(')');
+            }
+        }
+
+        private static String condition(Filter filter) {
+            return filter.field.getFieldName() + " " + filter.operator.getQueryOperator();
+        }
+
+        /**
+         * Builds the queries of the plan, with the given values bound to its conditions.
+         * @param values the values of the shared filters, in order.
+         * @param branchValues the values of the fan-out filter alternatives, in order.
+         */
+        private List<Query<Conference>> bind(List<String> values, List<String> branchValues) {
+            Query<Conference> query = ofy().load().type(Conference.class);
+            if (sortFieldName != null) {
+                // If we have any inequality filters, order by the field first.
+                query = query.order(sortFieldName);
+            }
+            query = query.order("name");
+            for (int i = 0; i < conditions.size(); i++) {
+                query = query.filter(conditions.get(i), value(types.get(i), values.get(i)));
+            }
+            if (branchConditions.isEmpty()) {
+                return ImmutableList.of(query);
+            }
+            List<Query<Conference>> queries = new ArrayList<>(branchConditions.size());
+            for (int i = 0; i < branchConditions.size(); i++) {
+                queries.add(query.filter(branchConditions.get(i), value(branchTypes.get(i), branchValues.get(i))));
+            }
+            return queries;
+        }
+
+        private static Object value(FieldType type, String value) {
+            return type == FieldType.STRING ? value : Integer.parseInt(value);
+        }
+
+        private static Comparator<ConferenceInfo> ordering(final Field sortField) {
+            return new Comparator<ConferenceInfo>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public int compare(ConferenceInfo left, ConferenceInfo right) {
+                    int result = 0;
+                    if (sortField != null) {
+                        result = ((Comparable<Object>) sortField.getSortValue(left))
+                                .compareTo(sortField.getSortValue(right));
+                    }
+                    if (result == 0) {
+                        result = left.getName().compareTo(right.getName());
+                    }
+                    if (result == 0) {
+                        // The datastore breaks ties on the key.
+                        result = left.getConferenceKey().compareTo(right.getConferenceKey());
+                    }
+                    return result;
+                }
+            };
+        }
     }
 
     /**
@@ -117,22 +405,77 @@ public class ConferenceQueryForm {
     @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
     private Filter inequalityFilter;
 
+    /**
+     * Holds the IN or OR filter, if any, which makes the query fan out into several queries.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Filter fanOutFilter;
+
+    /**
+     * Whether the execution of the query should be profiled and logged.
+     */
+    private boolean explain;
+
+    /**
+     * Whether each conference returned should be annotated with the registration status of the user.
+     */
+    private boolean registrationStatus;
+
+    /**
+     * The cursor returned along with the previous page, if any.
+     */
+    private String cursor;
+
+    /**
+     * The maximum number of conferences per page, 0 for no limit.
+     */
+    private int limit;
+
+    /**
+     * The compiled plan matching the shape of the filters, looked up on first use.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private QueryPlan plan;
+
     public ConferenceQueryForm() {}
 
     /**
      * Checks the feasibility of the whole query.
      */
     private void checkFilters() {
+        inequalityFilter = null;
+        fanOutFilter = null;
         for (Filter filter : this.filters) {
-            if (filter.operator.isInequalityFilter()) {
-                // Only one inequality filter is allowed.
-                if (inequalityFilter != null &&
-                        ! inequalityFilter.field.equals(filter.field)) {
+            checkFilter(filter);
+        }
+    }
+
+    /**
+     * Checks the feasibility of a filter along with the ones already checked.
+     * @param filter the filter to check.
+     */
+    private void checkFilter(Filter filter) {
+        if (filter.operator.isFanOut()) {
+            // Only one filter may fan out, otherwise the number of queries would multiply.
+            if (fanOutFilter != null) {
+                throw new IllegalArgumentException("Only one IN or OR filter is allowed.");
+            }
+            fanOutFilter = filter;
+            for (Filter branch : filter.fanOut()) {
+                if (branch.operator.isFanOut() || branch.field != filter.field) {
                     throw new IllegalArgumentException(
-                            "Inequality filter is allowed on only one field.");
+                            "OR filters are only allowed on a single field, without nesting.");
                 }
-                inequalityFilter = filter;
+                checkFilter(branch);
+            }
+        } else if (filter.operator.isInequalityFilter()) {
+            // Only one inequality filter is allowed.
+            if (inequalityFilter != null &&
+                    ! inequalityFilter.field.equals(filter.field)) {
+                throw new IllegalArgumentException(
+                        "Inequality filter is allowed on only one field.");
             }
+            inequalityFilter = filter;
         }
     }
 
@@ -144,55 +487,190 @@ public class ConferenceQueryForm {
         return ImmutableList.copyOf(filters);
     }
 
+    /**
+     * Whether the execution of the query should be profiled and logged.
+     * @return true when the query should be explained.
+     */
+    public boolean isExplain() {
+        return explain;
+    }
+
+    /**
+     * Asks for the execution of the query to be profiled and logged.
+     * @param explain true to explain the query.
+     * @return this for method chaining.
+     */
+    public ConferenceQueryForm explain(boolean explain) {
+        this.explain = explain;
+        return this;
+    }
+
+    /**
+     * Whether each conference returned should be annotated with the registration status of the user.
+     * @return true when the registration statuses are asked for.
+     */
+    public boolean isRegistrationStatus() {
+        return registrationStatus;
+    }
+
+    /**
+     * Asks for each conference returned to be annotated with the registration status of the user.
+     * @param registrationStatus true to annotate the conferences.
+     * @return this for method chaining.
+     */
+    public ConferenceQueryForm registrationStatus(boolean registrationStatus) {
+        this.registrationStatus = registrationStatus;
+        return this;
+    }
+
+    /**
+     * Getter for the cursor of the page to fetch.
+     * @return the cursor, null for the first page.
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Getter for the page size.
+     * @return the maximum number of conferences per page, 0 for no limit.
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Sets the page to fetch.
+     * @param cursor the cursor returned along with the previous page, null for the first page.
+     * @param limit the maximum number of conferences per page, 0 for no limit.
+     * @return this for method chaining.
+     */
+    public ConferenceQueryForm page(String cursor, int limit) {
+        this.cursor = cursor;
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Returns a key identifying the filters of the query, for caching and sharing its results:
+     * unlike their description, two different sets of filters never have the same key.
+     * @return the key of the filters.
+     */
+    public String filterKey() {
+        StringBuilder key = new StringBuilder();
+        for (Filter filter : filters) {
+            filter.appendKey(key);
+            key.append(';');
+        }
+        return key.toString();
+    }
+
+    /**
+     * Describes the index the query relies on, and how the datastore runs it.
+     * @return a human readable description of the query plan.
+     */
+    public String describePlan() {
+        return getPlan().description;
+    }
+
+    /**
+     * Returns the compiled plan of the query, shared by all the forms with filters of the same shape.
+     */
+    private QueryPlan getPlan() {
+        if (plan == null) {
+            plan = QueryPlan.of(this);
+        }
+        return plan;
+    }
+
+    /**
+     * Describes the plan of the query, once its filters have been checked.
+     */
+    private String describe() {
+        if (filters.isEmpty()) {
+            return "Scan of the built-in index on Conference.name";
+        }
+        // Equality filters come first in the composite index, then the inequality field, then the sort order.
+        List<String> properties = new ArrayList<>(0);
+        boolean notEqual = false;
+        for (Filter filter : this.filters) {
+            String fieldName = filter.field.getFieldName();
+            if (!filter.operator.isInequalityFilter() && !properties.contains(fieldName)
+                    && (inequalityFilter == null || inequalityFilter.field != filter.field)) {
+                properties.add(fieldName);
+            }
+            notEqual = notEqual || filter.operator == Operator.NE;
+        }
+        if (inequalityFilter != null) {
+            properties.add(inequalityFilter.field.getFieldName());
+        }
+        properties.add("name");
+
+        StringBuilder plan = new StringBuilder("Composite index Conference(")
+                .append(Joiner.on(", ").join(properties))
+                .append(")");
+        if (notEqual) {
+            plan.append(", != split into a < and a > sub-query merged by the datastore");
+        }
+        if (fanOutFilter != null) {
+            plan.append(", ")
+                    .append(fanOutFilter.operator)
+                    .append(" fanned out into ")
+                    .append(fanOutFilter.fanOut().size())
+                    .append(" parallel sub-queries merged on name");
+        }
+        return plan.toString();
+    }
+
     /**
      * Adds a query filter.
      * @param filter A Filter object for the query.
      * @return this for method chaining.
      */
     public ConferenceQueryForm filter(Filter filter) {
-        if (filter.operator.isInequalityFilter()) {
-            // Only allows inequality filters on a single field.
-            if (inequalityFilter != null &&
-                    ! inequalityFilter.field.equals(filter.field)) {
-                throw new IllegalArgumentException(
-                        "Inequality filter is allowed on only one field.");
-            }
-            inequalityFilter = filter;
-        }
+        // Only allows inequality filters on a single field, and a single IN or OR filter.
+        checkFilter(filter);
         filters.add(filter);
+        plan = null;
         return this;
     }
 
     /**
-     * Returns an Objectify Query object for the specified filters.
-     * @return an Objectify Query.
+     * Returns the Objectify Query objects for the specified filters:
+     * a single query, or one query per alternative of the IN or OR filter.
+     * All the queries share the same sort order.
+     * @return a list of Objectify Queries.
      */
     @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
-    public Query<Conference> getQuery() {
-        // First check the feasibility of inequality filters.
-        checkFilters();
-
-        Query<Conference> query = ofy().load().type(Conference.class);
-        if (inequalityFilter == null) {
-            // Order by name.
-            query = query.order("name");
-        } else {
-            // If we have any inequality filters, order by the field first.
-            query = query.order(inequalityFilter.field.getFieldName());
-            query = query.order("name");
-        }
-
+    public List<Query<Conference>> getQueries() {
+        // Bind the values to the compiled plan, in the order of its conditions.
+        List<String> values = new ArrayList<>(filters.size());
+        List<String> branchValues = new ArrayList<>(0);
         for (Filter filter : this.filters) {
-            // Applies filters in order.
-            if (filter.field.fieldType == FieldType.STRING) {
-                query = query.filter(String.format("%s %s", filter.field.getFieldName(),
-                        filter.operator.getQueryOperator()), filter.value);
-            } else if (filter.field.fieldType == FieldType.INTEGER) {
-                query = query.filter(String.format("%s %s", filter.field.getFieldName(),
-                        filter.operator.getQueryOperator()), Integer.parseInt(filter.value));
+            if (filter.operator == Operator.IN) {
+                branchValues.addAll(filter.values == null ? ImmutableList.<String>of() : filter.values);
+            } else if (filter.operator == Operator.OR) {
+                for (Filter branch : filter.branches == null ? ImmutableList.<Filter>of() : filter.branches) {
+                    branchValues.add(branch.value);
+                }
+            } else {
+                values.add(filter.value);
             }
         }
-        LOG.info(query.toString());
-        return query;
+        List<Query<Conference>> queries = getPlan().bind(values, branchValues);
+        for (Query<Conference> branchQuery : queries) {
+            LOG.info(branchQuery.toString());
+        }
+        return queries;
+    }
+
+    /**
+     * Returns the order of the conferences returned by the queries,
+     * which is the order the results of the different queries are merged in.
+     * @return the comparator matching the datastore sort order.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Comparator<ConferenceInfo> getOrdering() {
+        return getPlan().ordering;
     }
 }
@@ -0,0 +1,36 @@
+package com.google.devrel.training.conference.form;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A POJO representing the attendees of a group registration, on the client side.
+ */
+public class GroupRegistrationForm {
+
+    /**
+     * The user ids of the attendee profiles.
+     */
+    private List<String> attendeeUserIds = new ArrayList<>();
+
+    /**
+     * No-argument constructor
+     */
+    private GroupRegistrationForm() {}
+
+    /**
+     * Constructor for GroupRegistrationForm, solely for unit test.
+     * @param attendeeUserIds the user ids of the attendee profiles
+     */
+    public GroupRegistrationForm(List<String> attendeeUserIds) {
+        this.attendeeUserIds = attendeeUserIds;
+    }
+
+    /**
+     * Return the user ids of the attendee profiles
+     * @return the attendee user ids
+     */
+    public List<String> getAttendeeUserIds() {
+        return attendeeUserIds;
+    }
+}
@@ -0,0 +1,83 @@
+package com.google.devrel.training.conference.form;
+
+/**
+ * A POJO representing the sections of the home screen to fetch, on the client side.
+ * Each list of conferences has its own cursor, so that one can be paged through without the others.
+ */
+public class HomeScreenForm {
+
+    /**
+     * The query of the conferences section, with its filters, cursor and page size.
+     */
+    private ConferenceQueryForm conferenceQuery = new ConferenceQueryForm();
+
+    /**
+     * The cursor of the conferences created section, null for its first page.
+     */
+    private String createdCursor;
+
+    /**
+     * The cursor of the conferences to attend section, null for its first page.
+     */
+    private String toAttendCursor;
+
+    /**
+     * The maximum number of conferences per page in the sections of the user, 0 for no limit.
+     */
+    private int limit;
+
+    /**
+     * Whether each conference of every section should be annotated with the registration status of the user.
+     */
+    private boolean registrationStatus;
+
+    /**
+     * No-argument constructor
+     */
+    private HomeScreenForm() {}
+
+    /**
+     * Constructor for HomeScreenForm, solely for unit test.
+     * @param conferenceQuery the query of the conferences section
+     * @param createdCursor the cursor of the conferences created section
+     * @param toAttendCursor the cursor of the conferences to attend section
+     * @param limit the page size of the sections of the user
+     * @param registrationStatus whether to annotate the conferences with the registration status of the user
+     */
+    public HomeScreenForm(ConferenceQueryForm conferenceQuery, String createdCursor, String toAttendCursor,
+                          int limit, boolean registrationStatus) {
+        this.conferenceQuery = conferenceQuery;
+        this.createdCursor = createdCursor;
+        this.toAttendCursor = toAttendCursor;
+        this.limit = limit;
+        this.registrationStatus = registrationStatus;
+    }
+
+    /**
+     * Returns the form of a request without a body: the first page of every section, unannotated.
+     * @return an empty form
+     */
+    public static HomeScreenForm empty() {
+        return new HomeScreenForm();
+    }
+
+    public ConferenceQueryForm getConferenceQuery() {
+        return conferenceQuery == null ? new ConferenceQueryForm() : conferenceQuery;
+    }
+
+    public String getCreatedCursor() {
+        return createdCursor;
+    }
+
+    public String getToAttendCursor() {
+        return toAttendCursor;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public boolean isRegistrationStatus() {
+        return registrationStatus;
+    }
+}
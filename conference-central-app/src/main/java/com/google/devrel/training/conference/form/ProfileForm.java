@@ -1,5 +1,7 @@
 package com.google.devrel.training.conference.form;
 
+import java.util.List;
+
 /**
  * A POJO representing a profile form on the client side.
  */
@@ -14,6 +16,11 @@ public class ProfileForm {
      */
     private TeeShirtSize teeShirtSize;
 
+    /**
+     * The users allowed to register this user along with a group, null to leave them unchanged.
+     */
+    private List<String> groupRegistrarUserIds;
+
     /**
      * No-argument constructor
      */
@@ -29,6 +36,17 @@ public class ProfileForm {
         this.teeShirtSize = teeShirtSize;
     }
 
+    /**
+     * Constructor for ProfileForm, solely for unit test.
+     * @param displayName A String for displaying the user on this system.
+     * @param teeShirtSize the T shirt size
+     * @param groupRegistrarUserIds the users allowed to register this user along with a group
+     */
+    public ProfileForm(String displayName, TeeShirtSize teeShirtSize, List<String> groupRegistrarUserIds) {
+        this(displayName, teeShirtSize);
+        this.groupRegistrarUserIds = groupRegistrarUserIds;
+    }
+
     /**
      * Return the display name
      * @return display name
@@ -45,6 +63,14 @@ public class ProfileForm {
         return teeShirtSize;
     }
 
+    /**
+     * Return the users allowed to register this user along with a group
+     * @return the user ids, null to leave them unchanged
+     */
+    public List<String> getGroupRegistrarUserIds() {
+        return groupRegistrarUserIds;
+    }
+
     /**
      * All known T shirt sizes
      */
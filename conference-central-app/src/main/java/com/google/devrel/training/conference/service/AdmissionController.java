@@ -0,0 +1,141 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.ErrorHandlers;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceException;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Admission control for the writes contending on a conference entity group.
+ *
+ * Each conference has a token bucket, refilled at the rate its entity group can sustain: a write
+ * takes a token, and is shed right away when there's none left, instead of piling up on the entity
+ * group and slowing down every other request. Buckets are shared by all the instances through memcache,
+ * updated with compare-and-set, and fall back to buckets local to the instance while memcache is down.
+ */
+public class AdmissionController {
+
+    private static final Logger LOG = Logger.getLogger(AdmissionController.class.getName());
+
+    /**
+     * The number of writes admitted per second, once the burst is used up.
+     */
+    static final double RATE_PER_SECOND = 5;
+
+    /**
+     * The number of writes admitted at once, when the bucket is full.
+     */
+    static final int BURST = 10;
+
+    private static final String BUCKET_KEY_PREFIX = "ADMISSION:";
+
+    private static final int MAX_CAS_ATTEMPTS = 3;
+
+    private static final int MAX_LOCAL_BUCKETS = 10000;
+
+    /**
+     * A bucket left untouched this long is full again: memcache may drop it.
+     */
+    private static final int BUCKET_EXPIRATION_SECONDS = (int) Math.ceil(BURST / RATE_PER_SECOND) + 1;
+
+    private static final ConcurrentMap<String, TokenBucket> LOCAL_BUCKETS = new ConcurrentHashMap<>();
+
+    /**
+     * Takes a token from the bucket with the given name.
+     * @param name the name of the bucket, usually a websafe conference key.
+     * @return 0 if the write is admitted, the number of milliseconds to wait before retrying otherwise.
+     */
+    public static long admit(String name) {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        memcacheService.setErrorHandler(ErrorHandlers.getStrict());
+        String bucketKey = BUCKET_KEY_PREFIX + name;
+        try {
+            for (int attempt = 0; attempt < MAX_CAS_ATTEMPTS; attempt++) {
+                long now = System.currentTimeMillis();
+                MemcacheService.IdentifiableValue current = memcacheService.getIdentifiable(bucketKey);
+                TokenBucket bucket = current == null || !(current.getValue() instanceof TokenBucket)
+                        ? new TokenBucket(now) : (TokenBucket) current.getValue();
+                long retryAfterMillis = bucket.take(now);
+                if (retryAfterMillis > 0) {
+                    return retryAfterMillis;
+                }
+                Expiration expiration = Expiration.byDeltaSeconds(BUCKET_EXPIRATION_SECONDS);
+                boolean written = current == null
+                        ? memcacheService.put(bucketKey, bucket, expiration,
+                                MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT)
+                        : memcacheService.putIfUntouched(bucketKey, current, bucket, expiration);
+                if (written) {
+                    return 0;
+                }
+            }
+            // So many writes race for the bucket that it's as good as empty.
+            return (long) (1000 / RATE_PER_SECOND);
+        } catch (MemcacheServiceException e) {
+            LOG.log(Level.WARNING, "Memcache unavailable, admitting with the local bucket of " + name, e);
+            return admitLocally(name);
+        }
+    }
+
+    /**
+     * Takes a token from the bucket with the given name, local to this instance.
+     * @param name the name of the bucket.
+     * @return 0 if the write is admitted, the number of milliseconds to wait before retrying otherwise.
+     */
+    static long admitLocally(String name) {
+        long now = System.currentTimeMillis();
+        TokenBucket bucket = LOCAL_BUCKETS.get(name);
+        if (bucket == null) {
+            if (LOCAL_BUCKETS.size() >= MAX_LOCAL_BUCKETS) {
+                LOCAL_BUCKETS.clear();
+            }
+            TokenBucket created = new TokenBucket(now);
+            bucket = LOCAL_BUCKETS.putIfAbsent(name, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        synchronized (bucket) {
+            return bucket.take(now);
+        }
+    }
+
+    /**
+     * A token bucket, refilled continuously at RATE_PER_SECOND up to BURST tokens.
+     */
+    private static class TokenBucket implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private double tokens;
+
+        private long refilledAt;
+
+        private TokenBucket(long now) {
+            this.tokens = BURST;
+            this.refilledAt = now;
+        }
+
+        /**
+         * Refills the bucket, then takes a token if there's one.
+         * @return 0 if a token was taken, the number of milliseconds until there's one otherwise.
+         */
+        private long take(long now) {
+            if (now > refilledAt) {
+                tokens = Math.min(BURST, tokens + (now - refilledAt) * RATE_PER_SECOND / 1000);
+                refilledAt = now;
+            }
+            if (tokens >= 1) {
+                tokens--;
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((1 - tokens) * 1000 / RATE_PER_SECOND));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.devrel.training.conference.domain.FacetCount;
+import com.google.devrel.training.conference.domain.Suggestion;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * Serves city and topic prefix suggestions out of in-memory prefix indexes.
+ *
+ * The indexes are seeded from the facet counters, whose counts are the popularity weights,
+ * and are then kept up to date incrementally as facet deltas are applied on this instance.
+ * They are periodically rebuilt from the counters, so that every instance eventually
+ * sees the writes handled by the others.
+ */
+public class AutocompleteService {
+
+    private static final long REBUILD_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static volatile PrefixIndex cities;
+
+    private static volatile PrefixIndex topics;
+
+    private static volatile long builtAt;
+
+    /**
+     * Returns the most popular cities starting with the given prefix.
+     * @param prefix the prefix typed by the user.
+     * @param limit the maximum number of suggestions.
+     * @return the suggestions, most popular first.
+     */
+    public static List<Suggestion> suggestCities(String prefix, int limit) {
+        ensureFresh();
+        return cities.suggest(prefix, limit);
+    }
+
+    /**
+     * Returns the most popular topics starting with the given prefix.
+     * @param prefix the prefix typed by the user.
+     * @param limit the maximum number of suggestions.
+     * @return the suggestions, most popular first.
+     */
+    public static List<Suggestion> suggestTopics(String prefix, int limit) {
+        ensureFresh();
+        return topics.suggest(prefix, limit);
+    }
+
+    /**
+     * Applies facet counter deltas to the indexes, if they have been built on this instance.
+     * @param deltas the delta to apply, by facet counter identifier.
+     */
+    static void record(Map<String, Long> deltas) {
+        PrefixIndex currentCities = cities;
+        PrefixIndex currentTopics = topics;
+        if (currentCities == null || currentTopics == null) {
+            return;
+        }
+        for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+            int separator = delta.getKey().indexOf(':');
+            String field = delta.getKey().substring(0, separator);
+            String value = delta.getKey().substring(separator + 1);
+            if (FacetService.CITY.equals(field)) {
+                currentCities.add(value, delta.getValue());
+            } else if (FacetService.TOPICS.equals(field)) {
+                currentTopics.add(value, delta.getValue());
+            }
+        }
+    }
+
+    private static void ensureFresh() {
+        if (cities != null && System.currentTimeMillis() - builtAt < REBUILD_INTERVAL_MILLIS) {
+            return;
+        }
+        synchronized (AutocompleteService.class) {
+            if (cities != null && System.currentTimeMillis() - builtAt < REBUILD_INTERVAL_MILLIS) {
+                return;
+            }
+            PrefixIndex newCities = new PrefixIndex();
+            PrefixIndex newTopics = new PrefixIndex();
+            for (FacetCount counter : ofy().load().type(FacetCount.class)) {
+                if (FacetService.CITY.equals(counter.getField())) {
+                    newCities.add(counter.getValue(), counter.getCount());
+                } else if (FacetService.TOPICS.equals(counter.getField())) {
+                    newTopics.add(counter.getValue(), counter.getCount());
+                }
+            }
+            cities = newCities;
+            topics = newTopics;
+            builtAt = System.currentTimeMillis();
+        }
+    }
+}
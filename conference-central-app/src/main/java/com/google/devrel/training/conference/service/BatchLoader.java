@@ -0,0 +1,190 @@
+package com.google.devrel.training.conference.service;
+
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * Gathers entity loads and dispatches them together, as a single datastore multi-get.
+ *
+ * Callers first state the entities they need with {@link #defer(Key)}, and only then read them:
+ * the first {@link Deferred#get()} loads every key still pending, in one round trip.
+ *
+ * Loaded entities are kept by the Objectify session, which serves the deferred results: they are
+ * as fresh as any other load in the same session. The request-scoped loader returned by {@link #current()}
+ * is cleared at the end of each request by RequestScopeFilter. Transactions use a loader of their own,
+ * created within the transaction, so that its loads go through the transaction.
+ *
+ * A {@link Snapshot} carries entities loaded by one request over to another, concurrent one:
+ * once restored, the loader serves them instead of loading them again.
+ */
+public class BatchLoader {
+
+    private static final ThreadLocal<BatchLoader> CURRENT = new ThreadLocal<>();
+
+    private final Set<Key<?>> pending = new LinkedHashSet<>();
+
+    private final Map<Key<?>, Object> restored = new HashMap<>();
+
+    /**
+     * An entity to be loaded with the next batch.
+     * @param <T> the entity type.
+     */
+    public static class Deferred<T> {
+        private final BatchLoader loader;
+        private final Key<T> key;
+
+        private Deferred(BatchLoader loader, Key<T> key) {
+            this.loader = loader;
+            this.key = key;
+        }
+
+        /**
+         * Returns the entity, loading it along with every other pending key if it's not loaded yet.
+         * @return the entity, null if it doesn't exist.
+         */
+        @SuppressWarnings("unchecked")
+        public T get() {
+            if (loader.restored.containsKey(key)) {
+                return (T) loader.restored.get(key);
+            }
+            if (loader.pending.contains(key)) {
+                loader.dispatch();
+            }
+            return ofy().load().key(key).now();
+        }
+    }
+
+    /**
+     * A value computed by a request, along with the entities its getters read, so that another request
+     * can return it without loading anything. The entities are shared, and must not be modified.
+     * @param <V> the value type.
+     */
+    public static class Snapshot<V> {
+        private final BatchLoader loader;
+        private final V value;
+        private final Map<Key<?>, Object> entities;
+
+        private Snapshot(BatchLoader loader, V value, Map<Key<?>, Object> entities) {
+            this.loader = loader;
+            this.value = value;
+            this.entities = Collections.unmodifiableMap(entities);
+        }
+    }
+
+    /**
+     * Returns the loader of the current request, creating it if needed.
+     * @return the request-scoped loader.
+     */
+    public static BatchLoader current() {
+        BatchLoader loader = CURRENT.get();
+        if (loader == null) {
+            loader = new BatchLoader();
+            CURRENT.set(loader);
+        }
+        return loader;
+    }
+
+    /**
+     * Drops the loader of the current request, along with its pending keys.
+     */
+    public static void clear() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Adds the given key to the next batch.
+     * @param key the key of the entity.
+     * @param <T> the entity type.
+     * @return the deferred entity.
+     */
+    public <T> Deferred<T> defer(Key<T> key) {
+        if (!restored.containsKey(key)) {
+            pending.add(key);
+        }
+        return new Deferred<>(this, key);
+    }
+
+    /**
+     * Returns the given entity if it was loaded or deferred already, without ever loading it on its own:
+     * getters use it, so that serializing or logging an entity doesn't send datastore calls.
+     * @param key the key of the entity.
+     * @param <T> the entity type.
+     * @return the deferred entity, null when its key was neither loaded nor deferred.
+     */
+    public <T> Deferred<T> loaded(Key<T> key) {
+        if (restored.containsKey(key) || pending.contains(key) || ofy().isLoaded(key)) {
+            return new Deferred<>(this, key);
+        }
+        return null;
+    }
+
+    /**
+     * Adds the given keys to the next batch.
+     * @param keys the keys of the entities.
+     * @param <T> the entity type.
+     * @return the deferred entities, in the same order.
+     */
+    public <T> List<Deferred<T>> deferAll(Iterable<Key<T>> keys) {
+        List<Deferred<T>> deferred = new ArrayList<>();
+        for (Key<T> key : keys) {
+            deferred.add(defer(key));
+        }
+        return deferred;
+    }
+
+    /**
+     * Loads every pending key with a single multi-get, into the Objectify session.
+     * Keys already in the session are served from it.
+     */
+    public void dispatch() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Key<?>[] keys = pending.toArray(new Key<?>[pending.size()]);
+        pending.clear();
+        // Reading the result waits for the multi-get to complete.
+        ofy().load().<Object>keys(keys).size();
+    }
+
+    /**
+     * Loads the given keys, along with every pending key, and captures them with the given value.
+     * @param value the value, whose getters read the given entities.
+     * @param keys the keys of the entities.
+     * @param <V> the value type.
+     * @return the snapshot, holding null for the entities that don't exist.
+     */
+    public <V> Snapshot<V> snapshot(V value, Iterable<? extends Key<?>> keys) {
+        List<Deferred<?>> deferred = new ArrayList<>();
+        for (Key<?> key : keys) {
+            deferred.add(defer(key));
+        }
+        Map<Key<?>, Object> entities = new HashMap<>();
+        for (Deferred<?> entity : deferred) {
+            entities.put(entity.key, entity.get());
+        }
+        return new Snapshot<>(this, value, entities);
+    }
+
+    /**
+     * Serves the entities of the given snapshot, taken by another request, to the loads deferred from now on,
+     * instead of the copies in the session. The loader which took the snapshot keeps serving its session.
+     * @param snapshot the snapshot.
+     * @param <V> the value type.
+     * @return the value of the snapshot.
+     */
+    public <V> V restore(Snapshot<V> snapshot) {
+        if (snapshot.loader != this) {
+            restored.putAll(snapshot.entities);
+        }
+        return snapshot.value;
+    }
+}
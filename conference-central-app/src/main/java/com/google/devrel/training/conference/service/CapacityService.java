@@ -0,0 +1,142 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceCapacity;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.cmd.Query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * Loads the seat accounting of conferences within the transactions booking or giving back seats.
+ *
+ * Those transactions read and write the ConferenceCapacity only, not the Conference: organizer edits of
+ * the conference don't make them conflict. Conferences saved before capacities existed have none; theirs is
+ * built from the conference the first time it's needed, and saved by the transaction along with its changes.
+ * The capacities backfill saves the capacity of every such conference, and drops the seats available
+ * the conference held itself.
+ */
+public class CapacityService {
+
+    public static final String BACKFILL_URL = "/tasks/backfill_capacities";
+    public static final String CURSOR_PARAM = "cursor";
+
+    /**
+     * The number of conferences checked by each backfill task.
+     */
+    private static final int BACKFILL_BATCH_SIZE = 100;
+
+    /**
+     * Conferences with fewer seats left than this, but some, are nearly sold out.
+     */
+    private static final int NEARLY_SOLD_OUT_SEATS = 5;
+
+    /**
+     * Loads the capacity of the given conference, building it from the conference when it doesn't exist yet.
+     * @param conferenceKey the conference key.
+     * @return the capacity, null when there is no such conference.
+     */
+    public static ConferenceCapacity capacityOf(Key<Conference> conferenceKey) {
+        return capacityOf(conferenceKey, new BatchLoader().defer(ConferenceCapacity.keyOf(conferenceKey)));
+    }
+
+    /**
+     * Returns the given deferred capacity, building it from the conference when it doesn't exist yet.
+     * @param conferenceKey the conference key.
+     * @param deferred the capacity of the conference, deferred within the current transaction.
+     * @return the capacity, null when there is no such conference.
+     */
+    public static ConferenceCapacity capacityOf(Key<Conference> conferenceKey,
+                                                BatchLoader.Deferred<ConferenceCapacity> deferred) {
+        ConferenceCapacity capacity = deferred.get();
+        if (capacity != null) {
+            return capacity;
+        }
+        Conference conference = ofy().load().key(conferenceKey).now();
+        return conference == null ? null : ConferenceCapacity.of(conference);
+    }
+
+    /**
+     * Returns the conferences nearly sold out, with 1 to 4 seats left.
+     * The capacities are queried, along with the conferences which don't have one until the backfill has run.
+     * @return the conference keys.
+     */
+    public static List<Key<Conference>> nearlySoldOut() {
+        List<Key<Conference>> conferenceKeys = new ArrayList<>();
+        for (Key<ConferenceCapacity> capacityKey : ofy().load().type(ConferenceCapacity.class)
+                .filter("seatsAvailable >", 0)
+                .filter("seatsAvailable <", NEARLY_SOLD_OUT_SEATS)
+                .keys()) {
+            conferenceKeys.add(capacityKey.<Conference>getParent());
+        }
+        List<Key<Conference>> legacyKeys = ofy().load().type(Conference.class)
+                .filter("seatsAvailable >", 0)
+                .filter("seatsAvailable <", NEARLY_SOLD_OUT_SEATS)
+                .keys().list();
+        if (!legacyKeys.isEmpty()) {
+            // Their own seats available are stale once their capacity exists.
+            List<Key<ConferenceCapacity>> capacityKeys = new ArrayList<>();
+            for (Key<Conference> conferenceKey : legacyKeys) {
+                capacityKeys.add(ConferenceCapacity.keyOf(conferenceKey));
+            }
+            Map<Key<ConferenceCapacity>, ConferenceCapacity> capacities = ofy().load().keys(capacityKeys);
+            for (Key<Conference> conferenceKey : legacyKeys) {
+                if (!capacities.containsKey(ConferenceCapacity.keyOf(conferenceKey))) {
+                    conferenceKeys.add(conferenceKey);
+                }
+            }
+        }
+        return conferenceKeys;
+    }
+
+    /**
+     * Saves the capacities of a batch of conferences saved before capacities existed.
+     * @param cursor where the previous batch ended, null to start from the first conference.
+     * @return where this batch ended, null when there are no conferences left.
+     */
+    public static String backfill(String cursor) {
+        Query<Conference> query = ofy().load().type(Conference.class).limit(BACKFILL_BATCH_SIZE);
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<Key<Conference>> keys = query.keys().iterator();
+        int checked = 0;
+        while (keys.hasNext()) {
+            backfill(keys.next());
+            checked++;
+        }
+        return checked < BACKFILL_BATCH_SIZE ? null : keys.getCursor().toWebSafeString();
+    }
+
+    /**
+     * Saves the capacity of the given conference, unless it has one already,
+     * and drops the seats available the conference held itself.
+     */
+    private static void backfill(final Key<Conference> conferenceKey) {
+        ofy().transact(new VoidWork() {
+            @Override
+            public void vrun() {
+                BatchLoader batch = new BatchLoader();
+                BatchLoader.Deferred<Conference> deferredConference = batch.defer(conferenceKey);
+                BatchLoader.Deferred<ConferenceCapacity> deferredCapacity =
+                        batch.defer(ConferenceCapacity.keyOf(conferenceKey));
+                Conference conference = deferredConference.get();
+                if (conference == null || conference.getLegacySeatsAvailable() == null) {
+                    return;
+                }
+                if (deferredCapacity.get() == null) {
+                    ofy().save().entity(ConferenceCapacity.of(conference)).now();
+                }
+                conference.clearLegacySeatsAvailable();
+                ofy().save().entity(conference).now();
+            }
+        });
+    }
+}
@@ -0,0 +1,505 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceCapacity;
+import com.google.devrel.training.conference.domain.ConferenceInfo;
+import com.google.devrel.training.conference.domain.ConferencePage;
+import com.google.devrel.training.conference.domain.ConferenceSummary;
+import com.google.devrel.training.conference.domain.ConferenceSummaryPage;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.QueryExplanation;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.cmd.Query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * Runs conference queries built from a ConferenceQueryForm, optionally profiling them.
+ *
+ * A form with an IN or OR filter fans out into one query per alternative. All the queries
+ * are started before any of them is read, so that they run in parallel, and their results
+ * are merged in the common sort order, conferences matching several alternatives being
+ * returned once. The cursor of a page is made of one datastore cursor per query.
+ * Queries the datastore can't provide cursors for, such as != ones, can only be run without a limit.
+ */
+public class ConferenceQueryService {
+
+    private static final String CURSOR_SEPARATOR = ",";
+
+    /**
+     * Marks a query that has no more results in a composite cursor.
+     */
+    private static final String EXHAUSTED = "-";
+
+    /**
+     * Fetches the entities returned to the caller from the keys of the matching conferences.
+     */
+    private interface Loader<T extends ConferenceInfo> {
+        Map<Key<Conference>, T> load(List<Key<Conference>> keys);
+    }
+
+    private static final Loader<Conference> CONFERENCES = new Loader<Conference>() {
+        @Override
+        public Map<Key<Conference>, Conference> load(List<Key<Conference>> keys) {
+            return ofy().load().keys(keys);
+        }
+    };
+
+    private static final Loader<ConferenceSummary> SUMMARIES = new Loader<ConferenceSummary>() {
+        @Override
+        public Map<Key<Conference>, ConferenceSummary> load(List<Key<Conference>> keys) {
+            return loadSummaries(keys);
+        }
+    };
+
+    /**
+     * Fetches the summaries without deferring their capacities, for callers that don't read the seats.
+     */
+    private static final Loader<ConferenceSummary> SUMMARIES_WITHOUT_SEATS = new Loader<ConferenceSummary>() {
+        @Override
+        public Map<Key<Conference>, ConferenceSummary> load(List<Key<Conference>> keys) {
+            return fetchSummaries(keys);
+        }
+    };
+
+    /**
+     * A page of merged results, along with the composite cursor of the next page.
+     */
+    private static class Results<T> {
+        private final List<T> items = new ArrayList<>(0);
+        private String nextCursor;
+    }
+
+    /**
+     * The results of a single query, along with the cursor pointing right before each of them.
+     */
+    private static class Branch<T extends ConferenceInfo> {
+        private final int index;
+        private final List<Key<Conference>> keys = new ArrayList<>();
+        private final List<String> cursors = new ArrayList<>();
+        private final List<T> entities = new ArrayList<>();
+        private int position = -1;
+        private T head;
+        private Key<Conference> headKey;
+
+        private Branch(int index) {
+            this.index = index;
+        }
+
+        private void add(Key<Conference> key, T entity, String cursor) {
+            keys.add(key);
+            entities.add(entity);
+            cursors.add(cursor);
+        }
+
+        /**
+         * Moves to the next result, skipping conferences deleted since the keys were queried.
+         * @return true if there is a next result.
+         */
+        private boolean advance() {
+            do {
+                position++;
+            } while (position < keys.size() && entities.get(position) == null);
+            head = position < keys.size() ? entities.get(position) : null;
+            headKey = position < keys.size() ? keys.get(position) : null;
+            return head != null;
+        }
+
+        /**
+         * Returns the cursor pointing right before the current result,
+         * null if there's none left or if the datastore provides none there.
+         */
+        private String headCursor() {
+            return position < keys.size() ? cursors.get(position) : null;
+        }
+    }
+
+    /**
+     * Runs the query described by the given form.
+     * @param conferenceQueryForm the query form.
+     * @param profile the profile recording the execution stages.
+     * @return the list of matching conferences, ordered by name.
+     */
+    public static List<Conference> execute(ConferenceQueryForm conferenceQueryForm, QueryProfile profile) {
+        return page(conferenceQueryForm, profile).getItems();
+    }
+
+    /**
+     * Runs the query described by the given form, returning the page it asks for.
+     * @param conferenceQueryForm the query form, holding the cursor and the page size.
+     * @param profile the profile recording the execution stages.
+     * @return the page of matching conferences, ordered by name.
+     */
+    public static ConferencePage page(ConferenceQueryForm conferenceQueryForm, QueryProfile profile) {
+        return page(conferenceQueryForm, QueryModeSelector.select(), profile);
+    }
+
+    /**
+     * Runs the query described by the given form in the given mode, returning the page it asks for.
+     * @param conferenceQueryForm the query form, holding the cursor and the page size.
+     * @param mode whether entities are fetched by the query, or by a batch get after a keys-only query.
+     * @param profile the profile recording the execution stages.
+     * @return the page of matching conferences, ordered by name.
+     */
+    public static ConferencePage page(ConferenceQueryForm conferenceQueryForm, QueryModeSelector.Mode mode,
+                                      QueryProfile profile) {
+        try {
+            ConferencePage page = find(conferenceQueryForm, conferenceQueryForm.getCursor(),
+                    conferenceQueryForm.getLimit(), mode, profile);
+
+            /*
+             * When the Web UI displays conferences, it shows the conference organizer's display name,
+             * which is calculated on the fly in case the organizer changes their display name.
+             * To avoid separate datastore gets for each Conference, defer the Profiles: the first display name
+             * read loads them all in a single batch, along with anything else deferred in the request by then.
+             * The capacities holding the seats available are deferred the same way.
+             */
+            profile.begin("organizers");
+            BatchLoader loader = BatchLoader.current();
+            for (Conference conference : page.getItems()) {
+                loader.defer(Key.create(Profile.class, conference.getOrganizerUserId()));
+            }
+            deferCapacities(page.getItems());
+            if (profile.isEnabled()) {
+                // Load them right away, so that the explanation accounts for the batch.
+                loader.dispatch();
+            }
+            return page;
+        } finally {
+            profile.end();
+        }
+    }
+
+    /**
+     * Runs the query described by the given form, without pre-fetching the organizers.
+     * @param conferenceQueryForm the query form.
+     * @param cursor the cursor of the page to return, null for the first page.
+     * @param limit the maximum number of conferences to return, 0 for no limit.
+     * @param profile the profile recording the execution stages.
+     * @return the page of matching conferences, ordered by name.
+     */
+    public static ConferencePage find(ConferenceQueryForm conferenceQueryForm, String cursor, int limit,
+                                      QueryProfile profile) {
+        return find(conferenceQueryForm, cursor, limit, QueryModeSelector.select(), profile);
+    }
+
+    /**
+     * Runs the query described by the given form in the given mode, without pre-fetching the organizers.
+     * @param conferenceQueryForm the query form.
+     * @param cursor the cursor of the page to return, null for the first page.
+     * @param limit the maximum number of conferences to return, 0 for no limit.
+     * @param mode whether entities are fetched by the query, or by a batch get after a keys-only query.
+     * @param profile the profile recording the execution stages.
+     * @return the page of matching conferences, ordered by name.
+     */
+    public static ConferencePage find(ConferenceQueryForm conferenceQueryForm, String cursor, int limit,
+                                      QueryModeSelector.Mode mode, QueryProfile profile) {
+        Results<Conference> results = run(conferenceQueryForm, cursor, limit, mode, CONFERENCES, profile);
+        return new ConferencePage(results.items, results.nextCursor);
+    }
+
+    /**
+     * Runs the query described by the given form, returning the summaries of the page it asks for.
+     * Summaries are always fetched by a batch get after a keys-only query.
+     * @param conferenceQueryForm the query form, holding the cursor and the page size.
+     * @param profile the profile recording the execution stages.
+     * @return the page of summaries of the matching conferences, ordered by name.
+     */
+    public static ConferenceSummaryPage summaries(ConferenceQueryForm conferenceQueryForm, QueryProfile profile) {
+        try {
+            Results<ConferenceSummary> results = run(conferenceQueryForm, conferenceQueryForm.getCursor(),
+                    conferenceQueryForm.getLimit(), QueryModeSelector.Mode.TWO_PHASE, SUMMARIES, profile);
+
+            // As for conferences, defer the organizers whose display names the summaries show, and the capacities.
+            profile.begin("organizers");
+            BatchLoader loader = BatchLoader.current();
+            for (ConferenceSummary summary : results.items) {
+                loader.defer(Key.create(Profile.class, summary.getOrganizerUserId()));
+            }
+            deferCapacities(results.items);
+            if (profile.isEnabled()) {
+                loader.dispatch();
+            }
+            return new ConferenceSummaryPage(results.items, results.nextCursor);
+        } finally {
+            profile.end();
+        }
+    }
+
+    /**
+     * Loads the summaries of the given conferences in a single batch get.
+     * Conferences saved before summaries existed, or before they held the topics, have theirs built
+     * from the conference, and saved.
+     * @param conferenceKeys the conference keys.
+     * @return the summaries by conference key, conferences that don't exist being left out.
+     */
+    public static Map<Key<Conference>, ConferenceSummary> loadSummaries(Collection<Key<Conference>> conferenceKeys) {
+        Map<Key<Conference>, ConferenceSummary> summaries = fetchSummaries(conferenceKeys);
+        deferCapacities(summaries.values());
+        return summaries;
+    }
+
+    /**
+     * Runs the query described by the given form, returning the summaries of its first results,
+     * without deferring anything: for callers counting the matching conferences rather than showing them.
+     * @param conferenceQueryForm the query form, whose cursor and page size are ignored.
+     * @param limit the maximum number of summaries.
+     * @return the summaries of the first matching conferences, with a next cursor when there are more.
+     */
+    public static ConferenceSummaryPage matchingSummaries(ConferenceQueryForm conferenceQueryForm, int limit) {
+        Results<ConferenceSummary> results = run(conferenceQueryForm, null, limit,
+                QueryModeSelector.Mode.TWO_PHASE, SUMMARIES_WITHOUT_SEATS, QueryProfile.disabled());
+        return new ConferenceSummaryPage(results.items, results.nextCursor);
+    }
+
+    /**
+     * Loads the summaries of the given conferences, rebuilding the missing or outdated ones.
+     */
+    private static Map<Key<Conference>, ConferenceSummary> fetchSummaries(Collection<Key<Conference>> conferenceKeys) {
+        List<Key<ConferenceSummary>> summaryKeys = new ArrayList<>(conferenceKeys.size());
+        for (Key<Conference> conferenceKey : conferenceKeys) {
+            summaryKeys.add(ConferenceSummary.keyOf(conferenceKey));
+        }
+        Map<Key<Conference>, ConferenceSummary> summaries = new LinkedHashMap<>();
+        List<Key<Conference>> missing = new ArrayList<>(0);
+        Map<Key<ConferenceSummary>, ConferenceSummary> loaded = ofy().load().keys(summaryKeys);
+        for (Key<Conference> conferenceKey : conferenceKeys) {
+            ConferenceSummary summary = loaded.get(ConferenceSummary.keyOf(conferenceKey));
+            // Summaries saved before they held the topics are rebuilt as well.
+            if (summary == null || summary.getTopics() == null) {
+                missing.add(conferenceKey);
+            }
+            summaries.put(conferenceKey, summary);
+        }
+        if (!missing.isEmpty()) {
+            List<ConferenceSummary> backfill = new ArrayList<>(missing.size());
+            Map<Key<Conference>, Conference> conferences = ofy().load().keys(missing);
+            for (Key<Conference> conferenceKey : missing) {
+                Conference conference = conferences.get(conferenceKey);
+                if (conference == null) {
+                    summaries.remove(conferenceKey);
+                } else {
+                    ConferenceSummary summary = ConferenceSummary.of(conference);
+                    summaries.put(conferenceKey, summary);
+                    backfill.add(summary);
+                }
+            }
+            // Asynchronous: the caller doesn't need to wait for the backfill.
+            ofy().save().entities(backfill);
+        }
+        return summaries;
+    }
+
+    /**
+     * Defers the capacities of the given conferences to the loader of the current request,
+     * so that the seats available of all of them are loaded in a single batch.
+     * @param conferences the conferences or their summaries.
+     */
+    public static void deferCapacities(Collection<? extends ConferenceInfo> conferences) {
+        BatchLoader loader = BatchLoader.current();
+        for (ConferenceInfo conference : conferences) {
+            loader.defer(ConferenceCapacity.keyOf(conference.getConferenceKey()));
+        }
+    }
+
+    /**
+     * Runs the queries of the given form, and merges their results.
+     * In single-phase mode, the loader is not used: the queries return the conferences themselves.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends ConferenceInfo> Results<T> run(ConferenceQueryForm conferenceQueryForm,
+                                                            String cursor, int limit,
+                                                            QueryModeSelector.Mode mode, Loader<T> loader,
+                                                            QueryProfile profile) {
+        profile.begin("plan");
+        List<Query<Conference>> queries = conferenceQueryForm.getQueries();
+        Comparator<ConferenceInfo> ordering = conferenceQueryForm.getOrdering();
+        List<String> startCursors = decodeCursor(cursor, queries.size());
+
+        // Start every query before reading any of them, so that they run in parallel.
+        profile.begin(mode == QueryModeSelector.Mode.TWO_PHASE ? "keys" : "query");
+        List<Branch<T>> branches = new ArrayList<>(queries.size());
+        List<QueryResultIterator<?>> iterators = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            String startCursor = startCursors.get(i);
+            if (EXHAUSTED.equals(startCursor)) {
+                continue;
+            }
+            Query<Conference> query = queries.get(i);
+            if (!startCursor.isEmpty()) {
+                query = query.startAt(Cursor.fromWebSafeString(startCursor));
+            }
+            // The whole branch comes back in the first batch, fetched by the call its iterator starts:
+            // all the branches then run at once, and none of them waits for another batch while drained.
+            if (limit > 0) {
+                // One more than the page size tells whether the query has more results.
+                query = query.limit(limit + 1).chunk(limit + 1);
+            } else {
+                query = query.chunkAll();
+            }
+            branches.add(new Branch<T>(i));
+            iterators.add(mode == QueryModeSelector.Mode.TWO_PHASE
+                    ? query.keys().iterator()
+                    : query.hybrid(false).iterator());
+        }
+
+        // Every query is in flight by now: draining them in turn only waits for the slowest one.
+        int scanned = 0;
+        List<Key<Conference>> keys = new ArrayList<>(0);
+        for (int i = 0; i < branches.size(); i++) {
+            Branch<T> branch = branches.get(i);
+            QueryResultIterator<?> iterator = iterators.get(i);
+            // Right before the first result, the position is the start cursor itself.
+            String startCursor = startCursors.get(branch.index);
+            boolean first = true;
+            while (iterator.hasNext()) {
+                // Queries the datastore splits itself, such as != ones, have no cursor past their first result.
+                Cursor before = iterator.getCursor();
+                String cursorBefore = before != null ? before.toWebSafeString() : first ? startCursor : null;
+                Object next = iterator.next();
+                if (mode == QueryModeSelector.Mode.TWO_PHASE) {
+                    Key<Conference> key = (Key<Conference>) next;
+                    keys.add(key);
+                    branch.add(key, null, cursorBefore);
+                } else {
+                    Conference conference = (Conference) next;
+                    branch.add(conference.getConferenceKey(), (T) conference, cursorBefore);
+                }
+                first = false;
+                scanned++;
+            }
+        }
+        profile.scanned(scanned);
+
+        if (mode == QueryModeSelector.Mode.TWO_PHASE) {
+            // A single batch get, served by the session cache and memcache whenever possible.
+            profile.begin("load");
+            Map<Key<Conference>, T> loaded = loader.load(keys);
+            for (Branch<T> branch : branches) {
+                for (int i = 0; i < branch.keys.size(); i++) {
+                    branch.entities.set(i, loaded.get(branch.keys.get(i)));
+                }
+            }
+        }
+
+        profile.begin("merge");
+        final Comparator<ConferenceInfo> headOrdering = ordering;
+        PriorityQueue<Branch<T>> heads = new PriorityQueue<>(Math.max(1, branches.size()),
+                new Comparator<Branch<T>>() {
+                    @Override
+                    public int compare(Branch<T> left, Branch<T> right) {
+                        return headOrdering.compare(left.head, right.head);
+                    }
+                });
+        for (Branch<T> branch : branches) {
+            if (branch.advance()) {
+                heads.add(branch);
+            }
+        }
+
+        Results<T> results = new Results<>();
+        while (!heads.isEmpty() && (limit <= 0 || results.items.size() < limit)) {
+            Branch<T> branch = heads.poll();
+            Key<Conference> key = branch.headKey;
+            results.items.add(branch.head);
+            // Any other query returning the same conference has it at its head right now.
+            List<Branch<T>> consumed = new ArrayList<>(0);
+            consumed.add(branch);
+            while (!heads.isEmpty() && heads.peek().headKey.equals(key)) {
+                consumed.add(heads.poll());
+            }
+            for (Branch<T> each : consumed) {
+                if (each.advance()) {
+                    heads.add(each);
+                }
+            }
+        }
+        profile.returned(results.items.size());
+
+        if (!heads.isEmpty()) {
+            List<String> nextCursors = new ArrayList<>(queries.size());
+            for (int i = 0; i < queries.size(); i++) {
+                nextCursors.add(EXHAUSTED);
+            }
+            for (Branch<T> branch : heads) {
+                String headCursor = branch.headCursor();
+                if (headCursor == null) {
+                    throw new IllegalArgumentException(
+                            "This query can't be paged: ask for all its results at once, without a limit.");
+                }
+                nextCursors.set(branch.index, headCursor);
+            }
+            results.nextCursor = Joiner.on(CURSOR_SEPARATOR).join(nextCursors);
+        }
+        profile.end();
+        return results;
+    }
+
+    /**
+     * Runs the query described by the given form, and explains how it was executed.
+     * @param conferenceQueryForm the query form.
+     * @return the query explanation.
+     */
+    public static QueryExplanation explain(ConferenceQueryForm conferenceQueryForm) {
+        QueryProfile profile = QueryProfile.enabled();
+        try {
+            QueryModeSelector.Mode mode = QueryModeSelector.select();
+            page(conferenceQueryForm, mode, profile);
+            return profile.explain(describeQueries(conferenceQueryForm), describePlan(conferenceQueryForm, mode));
+        } finally {
+            profile.close();
+        }
+    }
+
+    /**
+     * Describes the index the query relies on, and how it is run.
+     * @param conferenceQueryForm the query form.
+     * @param mode the mode the query is run in.
+     * @return a human readable description of the query plan.
+     */
+    public static String describePlan(ConferenceQueryForm conferenceQueryForm, QueryModeSelector.Mode mode) {
+        return conferenceQueryForm.describePlan() + (mode == QueryModeSelector.Mode.TWO_PHASE
+                ? ", keys-only query then batch get"
+                : ", entities fetched by the query");
+    }
+
+    /**
+     * Returns the datastore queries generated for the given form.
+     * @param conferenceQueryForm the query form.
+     * @return the queries, one per line.
+     */
+    public static String describeQueries(ConferenceQueryForm conferenceQueryForm) {
+        return Joiner.on("\n").join(conferenceQueryForm.getQueries());
+    }
+
+    /**
+     * Splits a composite cursor into one cursor per query, empty for a query that starts from the beginning.
+     */
+    private static List<String> decodeCursor(String cursor, int queries) {
+        List<String> cursors = new ArrayList<>(queries);
+        if (cursor == null || cursor.isEmpty()) {
+            for (int i = 0; i < queries; i++) {
+                cursors.add("");
+            }
+            return cursors;
+        }
+        cursors.addAll(Splitter.on(CURSOR_SEPARATOR).splitToList(cursor));
+        if (cursors.size() != queries) {
+            throw new IllegalArgumentException("The cursor doesn't match the query.");
+        }
+        return cursors;
+    }
+}
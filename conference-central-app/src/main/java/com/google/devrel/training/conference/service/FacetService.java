@@ -0,0 +1,307 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceFacets;
+import com.google.devrel.training.conference.domain.ConferenceSummary;
+import com.google.devrel.training.conference.domain.ConferenceSummaryPage;
+import com.google.devrel.training.conference.domain.FacetCount;
+import com.google.devrel.training.conference.domain.IdempotencyRecord;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.cmd.Query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * Maintains and serves the conference counts per city, topic and month.
+ *
+ * Conference writes never touch the counters directly: they enqueue a transactional task
+ * carrying the difference between the old and the new facet values, and the task applies it.
+ * Each task carries a delta id, recorded along with every counter it updates, so that a retried
+ * task doesn't count twice. Conferences saved before the counters existed are counted once by
+ * the backfill task. Responses are cached in memcache under the current facets version stamp;
+ * filtered ones also under the catalog stamp, which any conference edit bumps.
+ */
+public class FacetService {
+
+    public static final String CITY = "city";
+    public static final String TOPICS = "topics";
+    public static final String MONTH = "month";
+
+    public static final String FACETS_VERSION = "FACETS";
+
+    public static final String TASK_URL = "/tasks/update_facets";
+    public static final String INCREMENT_PARAM = "increment";
+    public static final String DECREMENT_PARAM = "decrement";
+    public static final String DELTA_PARAM = "delta";
+
+    public static final String BACKFILL_URL = "/tasks/backfill_facets";
+    public static final String CURSOR_PARAM = "cursor";
+
+    /**
+     * How long the applied deltas are remembered: longer than the task age limit of the queue.
+     */
+    private static final int APPLIED_DELTA_TTL_SECONDS = 3 * 24 * 60 * 60;
+
+    /**
+     * The number of conferences checked by each backfill task.
+     */
+    private static final int BACKFILL_BATCH_SIZE = 100;
+
+    private static final String MEMCACHE_FACETS_KEY_PREFIX = "CONFERENCE_FACETS:";
+
+    /**
+     * The maximum number of conferences counted on the fly when filters are specified.
+     */
+    static final int MAX_FILTERED_CONFERENCES = 1000;
+
+    private static final int CACHE_EXPIRATION_SECONDS = 3600;
+
+    /**
+     * Returns the identifiers of the counters a conference contributes to.
+     * @param conference the conference, null for a conference that does not exist yet.
+     * @return the counter identifiers, empty if the conference is null.
+     */
+    public static List<String> facetIds(Conference conference) {
+        if (conference == null) {
+            return new ArrayList<>(0);
+        }
+        return facetIds(conference.getCity(), conference.getTopics(), conference.getMonth());
+    }
+
+    private static List<String> facetIds(String city, List<String> topics, int month) {
+        List<String> ids = new ArrayList<>(0);
+        // The default city is not indexed, so it's not a meaningful filter value either.
+        if (city != null && !Conference.DEFAULT_CITY.equals(city)) {
+            ids.add(FacetCount.createId(CITY, city));
+        }
+        if (topics != null) {
+            for (String topic : topics) {
+                ids.add(FacetCount.createId(TOPICS, topic));
+            }
+        }
+        if (month > 0) {
+            ids.add(FacetCount.createId(MONTH, String.valueOf(month)));
+        }
+        return ids;
+    }
+
+    /**
+     * Builds the task that moves the counters from the old facet values to the new ones.
+     * @param before the counter identifiers before the write.
+     * @param after the counter identifiers after the write.
+     * @return the task to enqueue, or null when the facet values didn't change.
+     */
+    public static TaskOptions deltaTask(List<String> before, List<String> after) {
+        Multiset<String> increments = HashMultiset.create(after);
+        Multiset<String> decrements = HashMultiset.create(before);
+        // Values present both before and after the write cancel each other out.
+        for (String id : before) {
+            if (increments.remove(id)) {
+                decrements.remove(id);
+            }
+        }
+        if (increments.isEmpty() && decrements.isEmpty()) {
+            return null;
+        }
+
+        TaskOptions task = TaskOptions.Builder.withUrl(TASK_URL)
+                .param(DELTA_PARAM, UUID.randomUUID().toString());
+        for (String id : increments) {
+            task.param(INCREMENT_PARAM, id);
+        }
+        for (String id : decrements) {
+            task.param(DECREMENT_PARAM, id);
+        }
+        return task;
+    }
+
+    /**
+     * Applies counter deltas, then bumps the facets version stamp.
+     * Each counter is its own entity group, so each one is updated in its own short transaction,
+     * which also records the delta id: a counter skips the deltas it already applied.
+     * @param deltaId the id of the delta, null for deltas without one, which are applied unconditionally.
+     * @param deltas the delta to apply, by counter identifier.
+     */
+    public static void applyDeltas(final String deltaId, Map<String, Long> deltas) {
+        // The deltas this call applied, leaving out the ones a previous attempt did.
+        Map<String, Long> applied = new HashMap<>();
+        for (final Map.Entry<String, Long> delta : deltas.entrySet()) {
+            if (delta.getValue() == 0) {
+                continue;
+            }
+            boolean done = ofy().transact(new Work<Boolean>() {
+                @Override
+                public Boolean run() {
+                    String id = delta.getKey();
+                    Key<IdempotencyRecord> appliedKey = IdempotencyService.recordKey(id, "updateFacets", deltaId);
+                    if (IdempotencyService.find(appliedKey) != null) {
+                        return false;
+                    }
+                    FacetCount counter = ofy().load().key(Key.create(FacetCount.class, id)).now();
+                    if (counter == null) {
+                        int separator = id.indexOf(':');
+                        counter = new FacetCount(id.substring(0, separator), id.substring(separator + 1), 0);
+                    }
+                    counter.add(delta.getValue());
+                    if (counter.getCount() > 0) {
+                        ofy().save().entity(counter).now();
+                    } else {
+                        ofy().delete().entity(counter).now();
+                    }
+                    IdempotencyService.record(appliedKey, String.valueOf(delta.getValue()), APPLIED_DELTA_TTL_SECONDS);
+                    return true;
+                }
+            });
+            if (done) {
+                applied.put(delta.getKey(), delta.getValue());
+            }
+        }
+        VersionService.bump(FACETS_VERSION);
+        AutocompleteService.record(applied);
+    }
+
+    /**
+     * Counts the conferences saved before the counters existed, a batch at a time.
+     * Each conference is marked as counted in the transaction enqueuing its delta task,
+     * so running the backfill again, or concurrently with conference writes, counts it only once.
+     * @param cursor where the previous batch stopped, null for the first one.
+     * @return where the next batch starts, null when every conference has been checked.
+     */
+    public static String backfill(String cursor) {
+        Query<Conference> query = ofy().load().type(Conference.class).limit(BACKFILL_BATCH_SIZE);
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<Key<Conference>> keys = query.keys().iterator();
+        int checked = 0;
+        while (keys.hasNext()) {
+            backfill(keys.next());
+            checked++;
+        }
+        return checked < BACKFILL_BATCH_SIZE ? null : keys.getCursor().toWebSafeString();
+    }
+
+    /**
+     * Counts the given conference, unless it's already counted.
+     */
+    private static void backfill(final Key<Conference> conferenceKey) {
+        ofy().transact(new VoidWork() {
+            @Override
+            public void vrun() {
+                Conference conference = ofy().load().key(conferenceKey).now();
+                if (conference == null || conference.isFacetsCounted()) {
+                    return;
+                }
+                conference.markFacetsCounted();
+                ofy().save().entity(conference).now();
+                TaskOptions facetTask = deltaTask(facetIds(null), facetIds(conference));
+                if (facetTask != null) {
+                    QueueFactory.getDefaultQueue().add(ofy().getTransaction(), facetTask);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the conference counts, restricted to the given filters when there are any.
+     * Unfiltered counts are read from the aggregate counters.
+     * Filtered counts are computed over the summaries of (at most MAX_FILTERED_CONFERENCES) matching
+     * conferences, found by a keys-only query: the counts are flagged as truncated when more conferences match.
+     * @param conferenceQueryForm the current filters, may be null.
+     * @return the conference facets.
+     */
+    public static ConferenceFacets getFacets(ConferenceQueryForm conferenceQueryForm) {
+        Long version = VersionService.current(FACETS_VERSION);
+        boolean filtered = conferenceQueryForm != null && !conferenceQueryForm.getFilters().isEmpty();
+        // Without the stamps, cached counts can't be told from stale ones.
+        boolean cached = version != null;
+
+        StringBuilder cacheKey = new StringBuilder(MEMCACHE_FACETS_KEY_PREFIX).append(version);
+        if (filtered) {
+            // Filtered counts change with any conference edit, not only with the counters.
+            Map<String, Long> catalog = VersionService.current(ResourceVersions.catalog());
+            cached = cached && catalog != null;
+            cacheKey.append(':').append(catalog == null ? null : catalog.values());
+            cacheKey.append(':').append(conferenceQueryForm.filterKey());
+        }
+
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        ConferenceFacets facets = cached ? (ConferenceFacets) memcacheService.get(cacheKey.toString()) : null;
+        if (facets != null) {
+            return facets;
+        }
+
+        Map<String, Long> counts = new HashMap<>();
+        boolean truncated = false;
+        if (filtered) {
+            ConferenceSummaryPage summaries =
+                    ConferenceQueryService.matchingSummaries(conferenceQueryForm, MAX_FILTERED_CONFERENCES);
+            for (ConferenceSummary summary : summaries.getItems()) {
+                for (String id : facetIds(summary.getCity(), summary.getTopics(), summary.getMonth())) {
+                    Long count = counts.get(id);
+                    counts.put(id, count == null ? 1L : count + 1);
+                }
+            }
+            truncated = summaries.getNextCursor() != null;
+        } else {
+            for (FacetCount counter : ofy().load().type(FacetCount.class)) {
+                counts.put(FacetCount.createId(counter.getField(), counter.getValue()), counter.getCount());
+            }
+        }
+
+        facets = toFacets(version == null ? 0L : version, counts, truncated);
+        if (cached) {
+            memcacheService.put(cacheKey.toString(), facets,
+                    Expiration.byDeltaSeconds(CACHE_EXPIRATION_SECONDS));
+        }
+        return facets;
+    }
+
+    private static ConferenceFacets toFacets(long version, Map<String, Long> counts, boolean truncated) {
+        Map<String, List<FacetCount>> byField = new HashMap<>();
+        byField.put(CITY, new ArrayList<FacetCount>());
+        byField.put(TOPICS, new ArrayList<FacetCount>());
+        byField.put(MONTH, new ArrayList<FacetCount>());
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            int separator = entry.getKey().indexOf(':');
+            String field = entry.getKey().substring(0, separator);
+            String value = entry.getKey().substring(separator + 1);
+            List<FacetCount> facetCounts = byField.get(field);
+            if (facetCounts != null && entry.getValue() > 0) {
+                facetCounts.add(new FacetCount(field, value, entry.getValue()));
+            }
+        }
+        // Most frequent values first.
+        Comparator<FacetCount> byCount = new Comparator<FacetCount>() {
+            @Override
+            public int compare(FacetCount left, FacetCount right) {
+                int result = Long.compare(right.getCount(), left.getCount());
+                return result != 0 ? result : left.getValue().compareTo(right.getValue());
+            }
+        };
+        for (List<FacetCount> facetCounts : byField.values()) {
+            Collections.sort(facetCounts, byCount);
+        }
+        return new ConferenceFacets(version, byField.get(CITY), byField.get(TOPICS), byField.get(MONTH), truncated);
+    }
+}
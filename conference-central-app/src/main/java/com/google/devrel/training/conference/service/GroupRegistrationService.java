@@ -0,0 +1,231 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceCapacity;
+import com.google.devrel.training.conference.domain.GroupRegistrationSaga;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Waitlist;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * Drives the sagas registering groups too large for a single cross-group transaction.
+ *
+ * The request registering the group books its seats and saves its GroupRegistrationSaga in one transaction,
+ * along with a delayed task resuming the saga. The request then runs the steps of the saga, each in its own
+ * transaction saving the progress of the saga: the profiles are registered batch by batch, and the seats left
+ * unused are given back. When a step fails, the saga is rolled back: the profiles registered so far are
+ * unregistered batch by batch, and the seats are given back.
+ *
+ * Should the request die before the saga is finished, the task finishes it from the last step committed:
+ * it completes a saga that was registering, and rolls back one that was rolling back. Since every step checks
+ * the saga in its transaction, the request and the task can't both do the same step.
+ */
+public class GroupRegistrationService {
+
+    private static final Logger LOG = Logger.getLogger(GroupRegistrationService.class.getName());
+
+    public static final String TASK_URL = "/tasks/resume_group_registration";
+
+    public static final String SAGA_PARAM = "saga";
+
+    /**
+     * Along with the saga, a step spans at most 25 entity groups.
+     */
+    private static final int BATCH_SIZE = 24;
+
+    /**
+     * How long the task waits before resuming a saga: the request has finished it by then, unless it died.
+     */
+    private static final long RESUME_DELAY_MILLIS = 60 * 1000L;
+
+    /**
+     * Returns the task resuming the given saga, should its request die before finishing it.
+     * @param sagaId the saga identifier.
+     * @return the task, to be enqueued within the transaction saving the saga.
+     */
+    public static TaskOptions resumeTask(String sagaId) {
+        return TaskOptions.Builder.withUrl(TASK_URL)
+                .param(SAGA_PARAM, sagaId)
+                .countdownMillis(RESUME_DELAY_MILLIS);
+    }
+
+    /**
+     * Runs the steps of the given saga until it's finished.
+     * @param sagaId the saga identifier.
+     * @return the finished saga, completed.
+     * @throws RuntimeException the failure of a registration step, once the saga is rolled back,
+     *                          or the failure of a rollback step, leaving the rest of the rollback to the task.
+     */
+    public static GroupRegistrationSaga run(String sagaId) {
+        GroupRegistrationSaga saga = ofy().load().key(Key.create(GroupRegistrationSaga.class, sagaId)).now();
+        RuntimeException failure = null;
+        while (saga != null && !saga.isFinished()) {
+            try {
+                saga = step(sagaId, saga.getState() == GroupRegistrationSaga.State.ROLLING_BACK);
+            } catch (RuntimeException e) {
+                if (saga.getState() == GroupRegistrationSaga.State.ROLLING_BACK) {
+                    throw e;
+                }
+                LOG.log(Level.WARNING, "Group registration " + sagaId + " failed, rolling it back", e);
+                failure = e;
+                saga = rollBack(sagaId);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return saga;
+    }
+
+    /**
+     * Finishes the given saga, from the task resuming it.
+     * @param sagaId the saga identifier.
+     * @throws RuntimeException the failure of a rollback step, for the task to be retried.
+     */
+    public static void resume(String sagaId) {
+        try {
+            run(sagaId);
+        } catch (RuntimeException e) {
+            GroupRegistrationSaga saga = ofy().load().key(Key.create(GroupRegistrationSaga.class, sagaId)).now();
+            if (saga == null || !saga.isFinished()) {
+                throw e;
+            }
+            // Rolled back: nobody is waiting for the outcome, and there's nothing left to retry.
+        }
+    }
+
+    /**
+     * Runs the next step of the given saga in a transaction.
+     * @param sagaId the saga identifier.
+     * @param compensating whether the saga was rolling back, for the step to retry longer.
+     * @return the saga after the step.
+     */
+    private static GroupRegistrationSaga step(final String sagaId, boolean compensating) {
+        TransactionRunner.Options options = compensating ? compensation() : TransactionRunner.Options.defaults();
+        GroupRegistrationSaga saga = TransactionRunner.run("groupRegistrationStep", null, options,
+                new Work<GroupRegistrationSaga>() {
+            @Override
+            public GroupRegistrationSaga run() {
+                GroupRegistrationSaga saga =
+                        ofy().load().key(Key.create(GroupRegistrationSaga.class, sagaId)).now();
+                if (saga == null || saga.isFinished()) {
+                    return saga;
+                }
+                String websafeConferenceKey = saga.getConferenceKey().getString();
+                if (saga.getState() == GroupRegistrationSaga.State.REGISTERING) {
+                    List<String> batch = saga.nextBatch(BATCH_SIZE);
+                    if (batch.isEmpty()) {
+                        giveBackSeats(saga.getConferenceKey(), saga.getUnusedSeats());
+                        saga.complete();
+                    } else {
+                        Map<String, Profile> profiles = ofy().load().type(Profile.class).ids(batch);
+                        List<String> registered = new ArrayList<>();
+                        List<String> alreadyRegistered = new ArrayList<>();
+                        for (Profile profile : profiles.values()) {
+                            if (profile.isAttending(websafeConferenceKey)) {
+                                alreadyRegistered.add(profile.getUserId());
+                            } else {
+                                profile.addToConferenceKeysToAttend(websafeConferenceKey);
+                                registered.add(profile.getUserId());
+                            }
+                        }
+                        ofy().save().entities(profiles.values()).now();
+                        saga.registered(batch, registered, alreadyRegistered);
+                    }
+                } else {
+                    List<String> batch = saga.nextRollbackBatch(BATCH_SIZE);
+                    if (batch.isEmpty()) {
+                        giveBackSeats(saga.getConferenceKey(), saga.getSeats());
+                        saga.rolledBack();
+                    } else {
+                        Map<String, Profile> profiles = ofy().load().type(Profile.class).ids(batch);
+                        List<String> unregistered = new ArrayList<>();
+                        for (Profile profile : profiles.values()) {
+                            if (profile.isAttending(websafeConferenceKey)) {
+                                profile.unregisterFromConference(websafeConferenceKey);
+                                unregistered.add(profile.getUserId());
+                            }
+                        }
+                        ofy().save().entities(profiles.values()).now();
+                        saga.unregistered(batch, unregistered);
+                    }
+                }
+                ofy().save().entity(saga).now();
+                return saga;
+            }
+        });
+        if (saga != null) {
+            // Their sets may have been cached before the step.
+            MembershipService.changed(saga.getChangedUserIds());
+            if (saga.isFinished()) {
+                ResourceVersions.conferenceChanged(saga.getConferenceKey());
+            }
+        }
+        return saga;
+    }
+
+    /**
+     * Starts rolling back the given saga, in a transaction of its own.
+     * @param sagaId the saga identifier.
+     * @return the saga, rolling back unless it was finished already.
+     */
+    private static GroupRegistrationSaga rollBack(final String sagaId) {
+        return TransactionRunner.run("rollBackGroupRegistration", null, compensation(),
+                new Work<GroupRegistrationSaga>() {
+            @Override
+            public GroupRegistrationSaga run() {
+                GroupRegistrationSaga saga =
+                        ofy().load().key(Key.create(GroupRegistrationSaga.class, sagaId)).now();
+                if (saga != null && saga.rollBack()) {
+                    ofy().save().entity(saga).now();
+                }
+                return saga;
+            }
+        });
+    }
+
+    /**
+     * Gives back seats booked by a group registration, within the transaction of a step.
+     * @param conferenceKey the key of the conference
+     * @param seats the number of seats to give back
+     */
+    private static void giveBackSeats(Key<Conference> conferenceKey, int seats) {
+        if (seats <= 0) {
+            return;
+        }
+        BatchLoader batch = new BatchLoader();
+        BatchLoader.Deferred<ConferenceCapacity> deferredCapacity =
+                batch.defer(ConferenceCapacity.keyOf(conferenceKey));
+        BatchLoader.Deferred<Waitlist> deferredWaitlist = batch.defer(Waitlist.keyOf(conferenceKey));
+        ConferenceCapacity capacity = CapacityService.capacityOf(conferenceKey, deferredCapacity);
+        if (capacity == null) {
+            return;
+        }
+        capacity.giveBackSeats(seats);
+        ofy().save().entity(capacity).now();
+        // Users may have joined the waitlist while the seats were booked.
+        if (Waitlist.isWaiting(deferredWaitlist.get())) {
+            QueueFactory.getDefaultQueue().add(ofy().getTransaction(), WaitlistService.promotionTask(conferenceKey));
+        }
+    }
+
+    /**
+     * Returns the retry settings of the transactions undoing a saga: they can't be shed,
+     * so they retry longer than others, whatever the retry budget.
+     * @return the retry settings
+     */
+    private static TransactionRunner.Options compensation() {
+        return TransactionRunner.Options.defaults().maxAttempts(10).unbudgeted();
+    }
+}
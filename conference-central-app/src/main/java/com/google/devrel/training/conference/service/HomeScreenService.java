@@ -0,0 +1,170 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.util.concurrent.Futures;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Announcement;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceSummary;
+import com.google.devrel.training.conference.domain.ConferenceSummaryPage;
+import com.google.devrel.training.conference.domain.HomeScreen;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.HomeScreenForm;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.LoadResult;
+import com.googlecode.objectify.cmd.Query;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * Loads the home screen in a single round trip: the profile, the announcement, and the pages of
+ * conferences matching the query, created by the user, and to attend.
+ *
+ * Objectify loads and queries, and the memcache get of the announcement, are all started before
+ * any of them is waited for, so that the reads run concurrently rather than one after the other.
+ * The only dependent read, the conferences to attend, is batched with the summaries of the conferences
+ * created, and the organizers and capacities of every section are deferred to a single batch.
+ * When asked for, the registration statuses of the user come from a single MembershipService lookup.
+ */
+public class HomeScreenService {
+
+    /**
+     * Loads the home screen of the given user.
+     * @param userId the id of the user, null when not signed in.
+     * @param form the query and the cursors of the sections, null for the first page of every section.
+     * @return the home screen.
+     * @throws IllegalArgumentException when a cursor or the query is invalid.
+     */
+    public static HomeScreen load(String userId, HomeScreenForm form) {
+        if (form == null) {
+            form = HomeScreenForm.empty();
+        }
+        // Start the independent reads first.
+        Future<Object> message = MemcacheServiceFactory.getAsyncMemcacheService()
+                .get(Constants.MEMCACHE_ANNOUNCEMENTS_KEY);
+        LoadResult<Profile> profileResult = null;
+        QueryResultIterator<Key<Conference>> createdKeys = null;
+        if (userId != null) {
+            Key<Profile> profileKey = Key.create(Profile.class, userId);
+            profileResult = ofy().load().key(profileKey);
+            Query<Conference> created = ofy().load().type(Conference.class).ancestor(profileKey).order("name");
+            if (form.getCreatedCursor() != null) {
+                created = created.startAt(Cursor.fromWebSafeString(form.getCreatedCursor()));
+            }
+            if (form.getLimit() > 0) {
+                created = created.limit(form.getLimit());
+            }
+            createdKeys = created.keys().iterator();
+        }
+
+        // The conferences query runs while they are in flight.
+        ConferenceSummaryPage conferences =
+                ConferenceQueryService.summaries(form.getConferenceQuery(), QueryProfile.disabled());
+
+        ConferenceSummaryPage conferencesCreated = null;
+        ConferenceSummaryPage conferencesToAttend = null;
+        Profile profile = profileResult == null ? null : profileResult.now();
+        if (createdKeys != null) {
+            List<Key<Conference>> createdPage = new ArrayList<>();
+            while (createdKeys.hasNext()) {
+                createdPage.add(createdKeys.next());
+            }
+            String createdCursor = form.getLimit() > 0 && createdPage.size() == form.getLimit()
+                    ? createdKeys.getCursor().toWebSafeString()
+                    : null;
+
+            // The cursor of the conferences to attend is the position of the page in the profile's list.
+            List<Key<Conference>> toAttendPage = new ArrayList<>();
+            String toAttendCursor = null;
+            if (profile != null) {
+                List<String> toAttend = profile.getConferenceKeysToAttend();
+                int start = parsePosition(form.getToAttendCursor(), toAttend.size());
+                int end = form.getLimit() > 0 ? Math.min(start + form.getLimit(), toAttend.size()) : toAttend.size();
+                for (String keyString : toAttend.subList(start, end)) {
+                    toAttendPage.add(Key.<Conference>create(keyString));
+                }
+                toAttendCursor = end < toAttend.size() ? String.valueOf(end) : null;
+            }
+
+            // Both sections in a single batch get.
+            Set<Key<Conference>> keys = new LinkedHashSet<>(createdPage);
+            keys.addAll(toAttendPage);
+            Map<Key<Conference>, ConferenceSummary> summaries = ConferenceQueryService.loadSummaries(keys);
+            conferencesCreated = new ConferenceSummaryPage(select(summaries, createdPage), createdCursor);
+            if (profile != null) {
+                conferencesToAttend = new ConferenceSummaryPage(select(summaries, toAttendPage), toAttendCursor);
+            }
+
+            // Their organizers and capacities load along with the ones the conferences query deferred.
+            BatchLoader loader = BatchLoader.current();
+            for (ConferenceSummary summary : summaries.values()) {
+                if (summary != null) {
+                    loader.defer(Key.create(Profile.class, summary.getOrganizerUserId()));
+                }
+            }
+            ConferenceQueryService.deferCapacities(conferencesCreated.getItems());
+            if (conferencesToAttend != null) {
+                ConferenceQueryService.deferCapacities(conferencesToAttend.getItems());
+            }
+        }
+
+        if (userId != null && form.isRegistrationStatus()) {
+            // A single lookup for every section.
+            List<ConferenceSummary> summaries = new ArrayList<>(conferences.getItems());
+            summaries.addAll(conferencesCreated.getItems());
+            if (conferencesToAttend != null) {
+                summaries.addAll(conferencesToAttend.getItems());
+            }
+            MembershipService.annotate(userId, summaries);
+        }
+
+        Object announcement = Futures.getUnchecked(message);
+        return new HomeScreen(profile, announcement == null ? null : new Announcement(announcement.toString()),
+                conferences, conferencesCreated, conferencesToAttend);
+    }
+
+    /**
+     * Returns the summaries of the given conferences, in the same order, leaving out the ones that don't exist.
+     */
+    private static List<ConferenceSummary> select(Map<Key<Conference>, ConferenceSummary> summaries,
+                                                  List<Key<Conference>> keys) {
+        List<ConferenceSummary> selected = new ArrayList<>(keys.size());
+        for (Key<Conference> key : keys) {
+            ConferenceSummary summary = summaries.get(key);
+            if (summary != null) {
+                selected.add(summary);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Parses a position cursor, null standing for the first page.
+     * @throws IllegalArgumentException when the cursor is not a position within the list.
+     */
+    private static int parsePosition(String cursor, int size) {
+        if (cursor == null || cursor.isEmpty()) {
+            return 0;
+        }
+        int position;
+        try {
+            position = Integer.parseInt(cursor);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        if (position < 0) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        // The list may have shrunk since the previous page.
+        return Math.min(position, size);
+    }
+}
@@ -0,0 +1,131 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.devrel.training.conference.domain.IdempotencyRecord;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.cmd.Query;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * Honours the optional Idempotency-Key header of write requests.
+ *
+ * Before running a request, the handler looks up the outcome recorded for its key: a retry is answered
+ * from that record (from memcache, most of the time), without touching the entity groups the request writes.
+ * The outcome is saved within the request's own transaction, so it's recorded if and only if the write
+ * commits. The transaction also reads the record first: two copies of a request running concurrently
+ * then conflict on it, and the retried transaction finds the outcome of the one that committed.
+ */
+public class IdempotencyService {
+
+    public static final String HEADER = "Idempotency-Key";
+
+    public static final String PURGE_URL = "/crons/purge_idempotency_records";
+    public static final String CURSOR_PARAM = "cursor";
+
+    /**
+     * The number of expired records deleted by each purge task.
+     */
+    private static final int PURGE_BATCH_SIZE = 500;
+
+    /**
+     * Longer keys are rejected, as they'd make oversized datastore ids.
+     */
+    private static final int MAX_KEY_LENGTH = 200;
+
+    /**
+     * Returns the idempotency key of the given request.
+     * @param request the HTTP request, null when called outside of a request.
+     * @return the idempotency key, null when the request has none.
+     * @throws IllegalArgumentException when the key is too long.
+     */
+    public static String getKey(HttpServletRequest request) {
+        String key = request == null ? null : request.getHeader(HEADER);
+        if (key == null || key.trim().isEmpty()) {
+            return null;
+        }
+        if (key.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException(
+                    "The " + HEADER + " header can't be longer than " + MAX_KEY_LENGTH + " characters.");
+        }
+        return key.trim();
+    }
+
+    /**
+     * Returns the key of the record of the given request.
+     * @param userId the id of the user who sent the request.
+     * @param operation the name of the operation, along with its target if any.
+     * @param idempotencyKey the idempotency key, may be null.
+     * @return the record key, null when the request has no idempotency key.
+     */
+    public static Key<IdempotencyRecord> recordKey(String userId, String operation, String idempotencyKey) {
+        return idempotencyKey == null ? null : Key.create(IdempotencyRecord.class,
+                IdempotencyRecord.createId(userId, operation, idempotencyKey));
+    }
+
+    /**
+     * Returns the outcome recorded with the given key, if any.
+     * Within a transaction, the record is read as part of the transaction.
+     * @param recordKey the record key, may be null.
+     * @return the recorded outcome, null when there's no key or no valid record.
+     */
+    public static String find(Key<IdempotencyRecord> recordKey) {
+        return recordKey == null ? null : result(ofy().load().key(recordKey).now());
+    }
+
+    /**
+     * Returns the outcome held by the given record, if still valid.
+     * @param record the record, may be null.
+     * @return the recorded outcome, null when there's no valid record.
+     */
+    public static String result(IdempotencyRecord record) {
+        return record == null || !record.isValid() ? null : record.getResult();
+    }
+
+    /**
+     * Records the outcome of a request. Meant to be called within the request's transaction.
+     * @param recordKey the record key, may be null, in which case nothing is recorded.
+     * @param result the outcome of the request.
+     */
+    public static void record(Key<IdempotencyRecord> recordKey, String result) {
+        record(recordKey, result, IdempotencyRecord.TTL_SECONDS);
+    }
+
+    /**
+     * Records the outcome of a request, valid for the given time. Meant to be called within the request's transaction.
+     * @param recordKey the record key, may be null, in which case nothing is recorded.
+     * @param result the outcome of the request.
+     * @param ttlSeconds how long the record stays valid, in seconds.
+     */
+    public static void record(Key<IdempotencyRecord> recordKey, String result, int ttlSeconds) {
+        if (recordKey != null) {
+            ofy().save().entity(new IdempotencyRecord(recordKey.getName(), result, ttlSeconds)).now();
+        }
+    }
+
+    /**
+     * Deletes a batch of expired records.
+     * @param cursor where the previous batch ended, null to start from the first expired record.
+     * @return where this batch ended, null when there are no expired records left.
+     */
+    public static String purgeExpired(String cursor) {
+        Query<IdempotencyRecord> query = ofy().load().type(IdempotencyRecord.class)
+                .filter("expiresAt <", new Date()).limit(PURGE_BATCH_SIZE);
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<Key<IdempotencyRecord>> keys = query.keys().iterator();
+        List<Key<IdempotencyRecord>> expired = new ArrayList<>(PURGE_BATCH_SIZE);
+        while (keys.hasNext()) {
+            expired.add(keys.next());
+        }
+        ofy().delete().keys(expired).now();
+        return expired.size() < PURGE_BATCH_SIZE ? null : keys.getCursor().toWebSafeString();
+    }
+}
@@ -0,0 +1,98 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.devrel.training.conference.domain.ConferenceSummary;
+import com.google.devrel.training.conference.domain.Profile;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * The conferences each user registered for, as hash sets cached in memcache, so that list endpoints
+ * annotate a whole page with the registration statuses of the user in a single memcache get.
+ *
+ * Each set is cached under the version stamp of its user, read before the profile is loaded. Registrations
+ * bump the stamps of their users once committed, so a reader who loaded the profile before the commit caches
+ * its stale copy under the former stamp, where it's never read again, however long after the commit it does.
+ */
+public class MembershipService {
+
+    private static final String MEMBERSHIP_KEY_PREFIX = "MEMBERSHIP:";
+
+    private static final String VERSION_PREFIX = "membership:";
+
+    private static final int EXPIRATION_SECONDS = 600;
+
+    /**
+     * Returns the websafe keys of the conferences the given user registered for.
+     * @param userId the id of the user.
+     * @return the keys, as a set, empty when the user has no profile.
+     */
+    @SuppressWarnings("unchecked")
+    public static Set<String> conferencesToAttend(String userId) {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        // The stamp is read first: a change committed after it is read bumps it.
+        Long version = VersionService.current(VERSION_PREFIX + userId);
+        String key = version == null ? null : MEMBERSHIP_KEY_PREFIX + userId + ":" + version;
+        Set<String> conferenceKeys = key == null ? null : (Set<String>) memcacheService.get(key);
+        if (conferenceKeys == null) {
+            Profile profile = ofy().load().key(Key.create(Profile.class, userId)).now();
+            conferenceKeys = profile == null
+                    ? new HashSet<String>(0)
+                    : new HashSet<>(profile.getConferenceKeysToAttend());
+            if (key != null) {
+                memcacheService.put(key, conferenceKeys, Expiration.byDeltaSeconds(EXPIRATION_SECONDS));
+            }
+        }
+        return Collections.unmodifiableSet(conferenceKeys);
+    }
+
+    /**
+     * Sets the registration status of the given user on each of the given summaries.
+     * @param userId the id of the user.
+     * @param summaries the conference summaries.
+     */
+    public static void annotate(String userId, Collection<ConferenceSummary> summaries) {
+        if (summaries.isEmpty()) {
+            return;
+        }
+        Set<String> conferenceKeys = conferencesToAttend(userId);
+        for (ConferenceSummary summary : summaries) {
+            if (summary != null) {
+                summary.setRegistered(conferenceKeys.contains(summary.getWebsafeKey()));
+            }
+        }
+    }
+
+    /**
+     * Records a change of the conferences the given user registered for.
+     * @param userId the id of the user.
+     */
+    public static void changed(String userId) {
+        changed(Collections.singletonList(userId));
+    }
+
+    /**
+     * Records a change of the conferences the given users registered for, in a single memcache call.
+     * @param userIds the ids of the users.
+     */
+    public static void changed(Collection<String> userIds) {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        List<String> names = new ArrayList<>(userIds.size());
+        for (String userId : userIds) {
+            names.add(VERSION_PREFIX + userId);
+        }
+        VersionService.bumpAll(names);
+    }
+}
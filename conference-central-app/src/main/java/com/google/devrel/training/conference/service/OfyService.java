@@ -2,7 +2,15 @@ package com.google.devrel.training.conference.service;
 
 import com.google.devrel.training.conference.domain.AppEngineUser;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceCapacity;
+import com.google.devrel.training.conference.domain.ConferenceSummary;
+import com.google.devrel.training.conference.domain.FacetCount;
+import com.google.devrel.training.conference.domain.GroupRegistrationSaga;
+import com.google.devrel.training.conference.domain.IdempotencyRecord;
 import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.SigningKey;
+import com.google.devrel.training.conference.domain.Waitlist;
+import com.google.devrel.training.conference.domain.WaitlistEntry;
 import com.googlecode.objectify.Objectify;
 import com.googlecode.objectify.ObjectifyFactory;
 import com.googlecode.objectify.ObjectifyService;
@@ -19,7 +27,15 @@ public class OfyService {
         // remember to register each domain Entity,
         // otherwise it won't be managed by this Objectify service!
         factory().register(Conference.class);
+        factory().register(ConferenceSummary.class);
+        factory().register(ConferenceCapacity.class);
         factory().register(AppEngineUser.class);
+        factory().register(FacetCount.class);
+        factory().register(IdempotencyRecord.class);
+        factory().register(Waitlist.class);
+        factory().register(WaitlistEntry.class);
+        factory().register(SigningKey.class);
+        factory().register(GroupRegistrationSaga.class);
     }
 
     /**
@@ -0,0 +1,202 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.devrel.training.conference.domain.Suggestion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory trie of weighted values, answering prefix lookups with the most popular values first.
+ *
+ * Values are matched case-insensitively, and every spelling of the same value is folded into
+ * a single entry that is displayed with its most popular spelling.
+ * Each node keeps its best completions precomputed, so a lookup only walks down the prefix.
+ */
+public class PrefixIndex {
+
+    /**
+     * The number of completions kept (and returned) per node.
+     */
+    private static final int MAX_SUGGESTIONS = 10;
+
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private static final char[] NO_LABELS = new char[0];
+
+    /**
+     * Most popular values first, then alphabetically.
+     */
+    private static final Comparator<Suggestion> BY_WEIGHT = new Comparator<Suggestion>() {
+        @Override
+        public int compare(Suggestion left, Suggestion right) {
+            int result = Long.compare(right.getWeight(), left.getWeight());
+            return result != 0 ? result : left.getValue().compareTo(right.getValue());
+        }
+    };
+
+    /**
+     * A trie node. Children are kept in two parallel arrays sorted by label,
+     * which is far more compact than a map per node.
+     */
+    private static class Node {
+        private char[] labels = NO_LABELS;
+        private Node[] children = NO_CHILDREN;
+
+        /**
+         * Weight per spelling, only for nodes terminating a value.
+         */
+        private Map<String, Long> spellings;
+
+        private long weight;
+
+        private Suggestion[] best = new Suggestion[0];
+
+        private Node child(char label) {
+            int index = Arrays.binarySearch(labels, label);
+            return index < 0 ? null : children[index];
+        }
+
+        private Node getOrCreateChild(char label) {
+            int index = Arrays.binarySearch(labels, label);
+            if (index >= 0) {
+                return children[index];
+            }
+            int insertion = -index - 1;
+            char[] newLabels = new char[labels.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, insertion);
+            System.arraycopy(children, 0, newChildren, 0, insertion);
+            newLabels[insertion] = label;
+            newChildren[insertion] = new Node();
+            System.arraycopy(labels, insertion, newLabels, insertion + 1, labels.length - insertion);
+            System.arraycopy(children, insertion, newChildren, insertion + 1, children.length - insertion);
+            labels = newLabels;
+            children = newChildren;
+            return newChildren[insertion];
+        }
+
+        private Suggestion self() {
+            if (weight <= 0) {
+                return null;
+            }
+            String display = null;
+            long displayWeight = 0;
+            for (Map.Entry<String, Long> spelling : spellings.entrySet()) {
+                if (display == null || spelling.getValue() > displayWeight) {
+                    display = spelling.getKey();
+                    displayWeight = spelling.getValue();
+                }
+            }
+            return new Suggestion(display, weight);
+        }
+
+        /**
+         * Recomputes the best completions of this node from its own value and its children's.
+         */
+        private void refreshBest() {
+            List<Suggestion> candidates = new ArrayList<>();
+            Suggestion self = spellings == null ? null : self();
+            if (self != null) {
+                candidates.add(self);
+            }
+            for (Node child : children) {
+                candidates.addAll(Arrays.asList(child.best));
+            }
+            Collections.sort(candidates, BY_WEIGHT);
+            best = candidates.subList(0, Math.min(MAX_SUGGESTIONS, candidates.size()))
+                    .toArray(new Suggestion[0]);
+        }
+    }
+
+    private final Node root = new Node();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Normalizes a value or a prefix for matching.
+     * @param value the value as typed by the user.
+     * @return the normalized value.
+     */
+    static String normalize(String value) {
+        return value.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Adds a (possibly negative) weight to a value.
+     * @param value the value, in the spelling it was written with.
+     * @param delta the weight to add.
+     */
+    public void add(String value, long delta) {
+        if (value == null || delta == 0) {
+            return;
+        }
+        String key = normalize(value);
+        if (key.isEmpty()) {
+            return;
+        }
+        String spelling = value.trim();
+
+        lock.writeLock().lock();
+        try {
+            Node[] path = new Node[key.length() + 1];
+            path[0] = root;
+            for (int i = 0; i < key.length(); i++) {
+                path[i + 1] = path[i].getOrCreateChild(key.charAt(i));
+            }
+            Node terminal = path[key.length()];
+            if (terminal.spellings == null) {
+                terminal.spellings = new HashMap<>();
+            }
+            Long current = terminal.spellings.get(spelling);
+            long updated = (current == null ? 0 : current) + delta;
+            if (updated > 0) {
+                terminal.spellings.put(spelling, updated);
+            } else {
+                terminal.spellings.remove(spelling);
+            }
+            terminal.weight = 0;
+            for (long weight : terminal.spellings.values()) {
+                terminal.weight += weight;
+            }
+            // Only the nodes along the path can see their best completions change.
+            for (int i = key.length(); i >= 0; i--) {
+                path[i].refreshBest();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the most popular values starting with the given prefix.
+     * @param prefix the prefix, matched case-insensitively.
+     * @param limit the maximum number of values to return.
+     * @return the matching values, most popular first.
+     */
+    public List<Suggestion> suggest(String prefix, int limit) {
+        // Unlike values, a trailing space in a prefix is meaningful: "san " shouldn't match "Santiago".
+        String key = prefix == null ? "" : prefix.replaceAll("^\\s+", "").replaceAll("\\s+", " ")
+                .toLowerCase(Locale.ENGLISH);
+        lock.readLock().lock();
+        try {
+            Node node = root;
+            for (int i = 0; i < key.length() && node != null; i++) {
+                node = node.child(key.charAt(i));
+            }
+            if (node == null) {
+                return new ArrayList<>(0);
+            }
+            return new ArrayList<>(Arrays.asList(node.best).subList(0, Math.min(limit, node.best.length)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.google.devrel.training.conference.service;
+
+import com.googlecode.objectify.impl.EntityMemcacheStats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * Picks the way conference queries are executed, from the memcache hit rate
+ * Objectify observed on Conference entities.
+ *
+ * A keys-only query followed by a batch get costs a small datastore operation per result
+ * instead of a read, and the batch get is mostly served from memcache as long as Conference
+ * entities are cached. When most of them are not, the extra round trip isn't worth it and
+ * entities are fetched straight from the query.
+ */
+public class QueryModeSelector {
+
+    /**
+     * The ways of executing a query.
+     */
+    public enum Mode {
+        /**
+         * Entities are fetched straight from the query.
+         */
+        SINGLE_PHASE,
+
+        /**
+         * A keys-only query, then a batch get through the session cache and memcache.
+         */
+        TWO_PHASE
+    }
+
+    private static final String KIND = "Conference";
+
+    /**
+     * Below this memcache hit rate, the keys-only query isn't worth its extra round trip.
+     */
+    private static final double MIN_HIT_RATE = 0.5;
+
+    /**
+     * The minimum number of cache lookups for a window to be meaningful.
+     */
+    private static final long MIN_SAMPLES = 20;
+
+    private static final long WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * In single phase mode, one query out of this many still runs in two phases,
+     * otherwise the hit rate would never be observed again.
+     */
+    private static final int EXPLORATION_INTERVAL = 20;
+
+    private static volatile Mode mode = Mode.TWO_PHASE;
+
+    private static volatile long windowStart = System.currentTimeMillis();
+
+    private static long windowHits;
+
+    private static long windowMisses;
+
+    private static final AtomicInteger queries = new AtomicInteger();
+
+    /**
+     * Returns the mode the next query should be executed in.
+     * @return the query mode.
+     */
+    public static Mode select() {
+        if (System.currentTimeMillis() - windowStart >= WINDOW_MILLIS) {
+            refresh();
+        }
+        if (mode == Mode.SINGLE_PHASE && queries.incrementAndGet() % EXPLORATION_INTERVAL == 0) {
+            return Mode.TWO_PHASE;
+        }
+        return mode;
+    }
+
+    /**
+     * Closes the current observation window, and switches modes if the hit rate calls for it.
+     */
+    private static synchronized void refresh() {
+        if (System.currentTimeMillis() - windowStart < WINDOW_MILLIS) {
+            return;
+        }
+        EntityMemcacheStats.Stat stat = ofy().factory().getMemcacheStats().getStats().get(KIND);
+        long hits = stat == null ? 0 : stat.getHits();
+        long misses = stat == null ? 0 : stat.getMisses();
+        long lookups = (hits - windowHits) + (misses - windowMisses);
+        if (lookups >= MIN_SAMPLES) {
+            double hitRate = (double) (hits - windowHits) / lookups;
+            mode = hitRate >= MIN_HIT_RATE ? Mode.TWO_PHASE : Mode.SINGLE_PHASE;
+        }
+        windowHits = hits;
+        windowMisses = misses;
+        windowStart = System.currentTimeMillis();
+    }
+}
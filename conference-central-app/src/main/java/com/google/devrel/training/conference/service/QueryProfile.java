@@ -0,0 +1,207 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.utils.SystemProperty;
+import com.google.apphosting.api.ApiProxy;
+import com.google.devrel.training.conference.domain.QueryExplanation;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * Collects the timing, the RPC calls and the row counts of a query execution, stage by stage.
+ *
+ * RPCs are counted by a delegate wrapped around the App Engine API proxy, which only counts
+ * calls made by a thread while it has a profile stage in progress. Replacing the delegate changes
+ * the runtime of every request served by the instance: it is only done on the development server,
+ * by the first profile opened there, and the delegate stays in place from then on. In production,
+ * the API proxy is left alone and explanations don't count RPCs.
+ */
+public class QueryProfile {
+
+    private static final ThreadLocal<QueryProfile> CURRENT = new ThreadLocal<>();
+
+    private static final QueryProfile DISABLED = new QueryProfile(false);
+
+    private final boolean enabled;
+
+    private final List<QueryExplanation.Stage> stages = new ArrayList<>();
+
+    private final Map<String, Integer> rpcCounts = new LinkedHashMap<>();
+
+    private String stageName;
+
+    private long stageStart;
+
+    private int stageRpcCalls;
+
+    private int rowsScanned;
+
+    private int rowsReturned;
+
+    private boolean closed;
+
+    private QueryProfile(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns a new profile, recording the stages it is given, and their RPCs on the development server.
+     * The profile must be closed, which explain() does.
+     * @return a new profile.
+     */
+    public static QueryProfile enabled() {
+        installCountingDelegate();
+        return new QueryProfile(true);
+    }
+
+    /**
+     * Returns a shared profile ignoring everything it is given.
+     * @return the disabled profile.
+     */
+    public static QueryProfile disabled() {
+        return DISABLED;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Ends the current stage, if any, and starts a new one.
+     * @param name the name of the new stage.
+     */
+    public void begin(String name) {
+        if (!enabled) {
+            return;
+        }
+        end();
+        stageName = name;
+        stageRpcCalls = 0;
+        stageStart = System.nanoTime();
+        CURRENT.set(this);
+    }
+
+    /**
+     * Ends the current stage, if any.
+     */
+    public void end() {
+        if (!enabled || stageName == null) {
+            return;
+        }
+        double millis = (System.nanoTime() - stageStart) / 1e6;
+        stages.add(new QueryExplanation.Stage(stageName, millis, stageRpcCalls));
+        stageName = null;
+        CURRENT.remove();
+    }
+
+    /**
+     * Adds to the number of rows read from the datastore.
+     * @param rows the number of rows.
+     */
+    public void scanned(int rows) {
+        rowsScanned += rows;
+    }
+
+    /**
+     * Adds to the number of rows returned to the caller.
+     * @param rows the number of rows.
+     */
+    public void returned(int rows) {
+        rowsReturned += rows;
+    }
+
+    /**
+     * Ends the current stage and builds the explanation of the profiled execution.
+     * @param query the generated datastore query.
+     * @param plan the description of the execution plan.
+     * @return the query explanation.
+     */
+    public QueryExplanation explain(String query, String plan) {
+        close();
+        List<QueryExplanation.RpcCount> counts = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : rpcCounts.entrySet()) {
+            counts.add(new QueryExplanation.RpcCount(entry.getKey(), entry.getValue()));
+        }
+        return new QueryExplanation(query, plan, rowsScanned, rowsReturned, counts, stages);
+    }
+
+    /**
+     * Ends the current stage. Closing a profile more than once has no effect.
+     */
+    public void close() {
+        if (!enabled || closed) {
+            return;
+        }
+        end();
+        closed = true;
+    }
+
+    private void recordRpc(String packageName, String methodName) {
+        String call = packageName + "." + methodName;
+        Integer count = rpcCounts.get(call);
+        rpcCounts.put(call, count == null ? 1 : count + 1);
+        stageRpcCalls++;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static synchronized void installCountingDelegate() {
+        if (SystemProperty.environment.value() == SystemProperty.Environment.Value.Production) {
+            return;
+        }
+        ApiProxy.Delegate<ApiProxy.Environment> delegate = ApiProxy.getDelegate();
+        if (delegate != null && !(delegate instanceof CountingDelegate)) {
+            ApiProxy.setDelegate(new CountingDelegate(delegate));
+        }
+    }
+
+    /**
+     * An API proxy delegate counting the calls of the threads being profiled.
+     */
+    private static class CountingDelegate implements ApiProxy.Delegate<ApiProxy.Environment> {
+
+        private final ApiProxy.Delegate<ApiProxy.Environment> delegate;
+
+        private CountingDelegate(ApiProxy.Delegate<ApiProxy.Environment> delegate) {
+            this.delegate = delegate;
+        }
+
+        private static void count(String packageName, String methodName) {
+            QueryProfile profile = CURRENT.get();
+            if (profile != null) {
+                profile.recordRpc(packageName, methodName);
+            }
+        }
+
+        @Override
+        public byte[] makeSyncCall(ApiProxy.Environment environment, String packageName,
+                                   String methodName, byte[] request) throws ApiProxy.ApiProxyException {
+            count(packageName, methodName);
+            return delegate.makeSyncCall(environment, packageName, methodName, request);
+        }
+
+        @Override
+        public Future<byte[]> makeAsyncCall(ApiProxy.Environment environment, String packageName,
+                                            String methodName, byte[] request, ApiProxy.ApiConfig apiConfig) {
+            count(packageName, methodName);
+            return delegate.makeAsyncCall(environment, packageName, methodName, request, apiConfig);
+        }
+
+        @Override
+        public void log(ApiProxy.Environment environment, ApiProxy.LogRecord record) {
+            delegate.log(environment, record);
+        }
+
+        @Override
+        public void flushLogs(ApiProxy.Environment environment) {
+            delegate.flushLogs(environment);
+        }
+
+        @Override
+        public List<Thread> getRequestThreads(ApiProxy.Environment environment) {
+            return delegate.getRequestThreads(environment);
+        }
+    }
+}
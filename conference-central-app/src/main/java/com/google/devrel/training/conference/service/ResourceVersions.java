@@ -0,0 +1,98 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.googlecode.objectify.Key;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * The version stamps of the resources read endpoints return, from which their HTTP validators are derived.
+ *
+ * Writers bump the stamps once their transaction committed: a response computed meanwhile is then
+ * tagged with the stamp from before the change, so clients holding it will always revalidate.
+ */
+public class ResourceVersions {
+
+    private static final String CONFERENCE = "conference:";
+    private static final String CONFERENCES_CREATED = "conferencesCreated:";
+    private static final String PROFILE = "profile:";
+    private static final String ANNOUNCEMENT = "announcement";
+    private static final String CATALOG = "catalog";
+
+    /**
+     * Returns the stamps a conference response depends on: the conference, with its seats, and
+     * the profile of its organizer, whose display name it shows.
+     * @param conferenceKey the conference key.
+     * @return the names of the stamps.
+     */
+    public static Collection<String> conference(Key<Conference> conferenceKey) {
+        if (conferenceKey.getParent() == null) {
+            // Not a conference key: the response is a 404.
+            return Collections.singletonList(CONFERENCE + conferenceKey.getString());
+        }
+        return Arrays.asList(CONFERENCE + conferenceKey.getString(), PROFILE + conferenceKey.getParent().getName());
+    }
+
+    /**
+     * Returns the stamps the list of the conferences created by a user depends on.
+     * @param userId the id of the organizer.
+     * @return the names of the stamps.
+     */
+    public static Collection<String> conferencesCreated(String userId) {
+        return Arrays.asList(CONFERENCES_CREATED + userId, PROFILE + userId);
+    }
+
+    /**
+     * Returns the stamps the results of conference queries depend on: any conference, with its seats
+     * and its organizer's display name.
+     * @return the names of the stamps.
+     */
+    public static Collection<String> catalog() {
+        return Collections.singletonList(CATALOG);
+    }
+
+    /**
+     * Returns the stamps the announcement depends on.
+     * @return the names of the stamps.
+     */
+    public static Collection<String> announcement() {
+        return Collections.singletonList(ANNOUNCEMENT);
+    }
+
+    /**
+     * Records a change of the given conference, or of its seats.
+     * @param conferenceKey the conference key.
+     */
+    public static void conferenceChanged(Key<Conference> conferenceKey) {
+        VersionService.bump(CONFERENCE + conferenceKey.getString());
+        conferencesCreatedChanged(conferenceKey.getParent().getName());
+    }
+
+    /**
+     * Records a change of the conferences created by the given user, such as a new one,
+     * and so of the results of conference queries.
+     * @param userId the id of the organizer.
+     */
+    public static void conferencesCreatedChanged(String userId) {
+        VersionService.bump(CONFERENCES_CREATED + userId);
+        VersionService.bump(CATALOG);
+    }
+
+    /**
+     * Records a change of the given profile, whose display name conference query results show.
+     * @param userId the id of the user.
+     */
+    public static void profileChanged(String userId) {
+        VersionService.bump(PROFILE + userId);
+        VersionService.bump(CATALOG);
+    }
+
+    /**
+     * Records a change of the announcement.
+     */
+    public static void announcementChanged() {
+        VersionService.bump(ANNOUNCEMENT);
+    }
+}
@@ -0,0 +1,180 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.SeatHold;
+import com.googlecode.objectify.Key;
+
+import java.io.Serializable;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Seats held for a few minutes, before their holders confirm them.
+ *
+ * The active holds of a conference are kept in a single memcache value, updated with compare-and-set,
+ * so that they never outnumber the seats available: placing or releasing a hold never touches the
+ * Conference entity, and a hold nobody confirms simply expires. Registrations only take the seats
+ * that aren't held, and confirming a hold books its seat in a single transaction.
+ *
+ * Holds are a best-effort reservation, as memcache takes no part in datastore transactions:
+ * <ul>
+ *   <li>Memcache may evict the holds: their seats then go back to anyone.</li>
+ *   <li>A hold is checked against seats available read outside of any transaction, and a registration
+ *   checks the holds before it commits: a registration committing while a hold is placed can take
+ *   the held seat, leaving more holds than seats.</li>
+ * </ul>
+ * Either way, the confirmation checks the hold and the seats available again in its transaction, and fails
+ * with a conflict when the seat was taken. The seats available in the datastore are never oversubscribed.
+ */
+public class SeatHoldService {
+
+    /**
+     * How long a seat is held.
+     */
+    public static final int HOLD_SECONDS = 5 * 60;
+
+    private static final String HOLDS_KEY_PREFIX = "SEAT_HOLDS:";
+
+    private static final int MAX_CAS_ATTEMPTS = 10;
+
+    /**
+     * Holds a seat of the given conference for the given user.
+     * A user holding a seat already gets their current hold back.
+     * The seats available may be out of date: confirming the hold checks them again.
+     * @param conferenceKey the conference key.
+     * @param userId the user id.
+     * @param seatsAvailable the seats available in the conference.
+     * @return the seat hold, null if every seat available is held already.
+     * @throws ConcurrentModificationException when too many holds are placed at the same time.
+     */
+    public static SeatHold hold(Key<Conference> conferenceKey, String userId, int seatsAvailable) {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        String holdsKey = HOLDS_KEY_PREFIX + conferenceKey.getString();
+        for (int attempt = 0; attempt < MAX_CAS_ATTEMPTS; attempt++) {
+            MemcacheService.IdentifiableValue current = memcacheService.getIdentifiable(holdsKey);
+            HashMap<String, Hold> holds = activeHolds(current);
+            for (Map.Entry<String, Hold> entry : holds.entrySet()) {
+                if (entry.getValue().userId.equals(userId)) {
+                    return toSeatHold(conferenceKey, entry.getKey(), entry.getValue());
+                }
+            }
+            if (holds.size() >= seatsAvailable) {
+                return null;
+            }
+            String token = UUID.randomUUID().toString();
+            Hold hold = new Hold(userId, System.currentTimeMillis() + HOLD_SECONDS * 1000L);
+            holds.put(token, hold);
+            if (write(memcacheService, holdsKey, current, holds)) {
+                return toSeatHold(conferenceKey, token, hold);
+            }
+        }
+        throw new ConcurrentModificationException("Too many concurrent seat holds.");
+    }
+
+    /**
+     * Returns the active hold with the given token.
+     * @param conferenceKey the conference key.
+     * @param token the reservation token.
+     * @param userId the id of the user expected to hold the seat.
+     * @return the seat hold, null if it expired, was released, or belongs to another user.
+     */
+    public static SeatHold find(Key<Conference> conferenceKey, String token, String userId) {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        Hold hold = activeHolds(memcacheService.getIdentifiable(HOLDS_KEY_PREFIX + conferenceKey.getString()))
+                .get(token);
+        return hold == null || !hold.userId.equals(userId) ? null : toSeatHold(conferenceKey, token, hold);
+    }
+
+    /**
+     * Returns the number of seats of the given conference currently held.
+     * @param conferenceKey the conference key.
+     * @return the number of active holds.
+     */
+    public static int heldSeats(Key<Conference> conferenceKey) {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        return activeHolds(memcacheService.getIdentifiable(HOLDS_KEY_PREFIX + conferenceKey.getString())).size();
+    }
+
+    /**
+     * Releases the hold with the given token, once it was confirmed or given up.
+     * @param conferenceKey the conference key.
+     * @param token the reservation token.
+     * @return true if the hold was active.
+     */
+    public static boolean release(Key<Conference> conferenceKey, String token) {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        String holdsKey = HOLDS_KEY_PREFIX + conferenceKey.getString();
+        for (int attempt = 0; attempt < MAX_CAS_ATTEMPTS; attempt++) {
+            MemcacheService.IdentifiableValue current = memcacheService.getIdentifiable(holdsKey);
+            HashMap<String, Hold> holds = activeHolds(current);
+            if (holds.remove(token) == null) {
+                return false;
+            }
+            if (write(memcacheService, holdsKey, current, holds)) {
+                return true;
+            }
+        }
+        // The hold will expire on its own.
+        return false;
+    }
+
+    /*
+     * Returns a copy of the holds of the given memcache value that haven't expired.
+     */
+    @SuppressWarnings("unchecked")
+    private static HashMap<String, Hold> activeHolds(MemcacheService.IdentifiableValue current) {
+        HashMap<String, Hold> holds = new HashMap<>();
+        if (current != null && current.getValue() instanceof Map) {
+            holds.putAll((Map<String, Hold>) current.getValue());
+        }
+        long now = System.currentTimeMillis();
+        Iterator<Hold> iterator = holds.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().expiresAt <= now) {
+                iterator.remove();
+            }
+        }
+        return holds;
+    }
+
+    /*
+     * Every hold expires at most HOLD_SECONDS after the last write, and so does the value holding them.
+     */
+    private static boolean write(MemcacheService memcacheService, String holdsKey,
+                                 MemcacheService.IdentifiableValue current, HashMap<String, Hold> holds) {
+        Expiration expiration = Expiration.byDeltaSeconds(HOLD_SECONDS);
+        if (current == null) {
+            return memcacheService.put(holdsKey, holds, expiration,
+                    MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+        }
+        return memcacheService.putIfUntouched(holdsKey, current, holds, expiration);
+    }
+
+    private static SeatHold toSeatHold(Key<Conference> conferenceKey, String token, Hold hold) {
+        return new SeatHold(conferenceKey.getString(), token, new Date(hold.expiresAt));
+    }
+
+    /**
+     * A seat held for a user.
+     */
+    private static class Hold implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String userId;
+
+        private final long expiresAt;
+
+        private Hold(String userId, long expiresAt) {
+            this.userId = userId;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
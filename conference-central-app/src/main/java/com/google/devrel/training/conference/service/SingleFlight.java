@@ -0,0 +1,111 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent identical loads within the instance: while a load is in flight, requests for
+ * the same key wait for its result instead of loading it again. When a conference link goes viral,
+ * a burst of requests missing the caches at once then costs a single load.
+ *
+ * The first request runs the load in its own thread, and the others share its result, or its exception.
+ * Results are shared between requests: they must not be modified, and when their getters load more
+ * entities, they should be captured in a BatchLoader snapshot.
+ */
+public class SingleFlight {
+
+    private static final ConcurrentMap<String, FutureTask<?>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+    private static final ConcurrentMap<String, Stats> STATS = new ConcurrentHashMap<>();
+
+    /**
+     * The statistics of the loads with a given name, since the instance started.
+     */
+    public static class Stats {
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong deduplicated = new AtomicLong();
+
+        /**
+         * Returns the number of calls, whether they ran the load or shared its result.
+         * @return the number of calls.
+         */
+        public long getCalls() {
+            return calls.get();
+        }
+
+        /**
+         * Returns the number of calls that shared the result of a load already in flight.
+         * @return the number of deduplicated calls.
+         */
+        public long getDeduplicated() {
+            return deduplicated.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d calls, %d deduplicated", getCalls(), getDeduplicated());
+        }
+    }
+
+    /**
+     * Runs the given load, unless an identical one is in flight, in which case its result is returned.
+     * @param name the name of the load, such as the endpoint running it.
+     * @param key what is loaded: loads with the same name and key are identical.
+     * @param loader the load.
+     * @param <V> the result type.
+     * @return the result of the load.
+     */
+    public static <V> V run(String name, String key, final Supplier<V> loader) {
+        Stats stats = get(name);
+        stats.calls.incrementAndGet();
+        String flightKey = name + ":" + key;
+        FutureTask<V> task = new FutureTask<>(new Callable<V>() {
+            @Override
+            public V call() {
+                return loader.get();
+            }
+        });
+        @SuppressWarnings("unchecked")
+        FutureTask<V> inFlight = (FutureTask<V>) IN_FLIGHT.putIfAbsent(flightKey, task);
+        if (inFlight == null) {
+            try {
+                task.run();
+            } finally {
+                IN_FLIGHT.remove(flightKey, task);
+            }
+            inFlight = task;
+        } else {
+            stats.deduplicated.incrementAndGet();
+        }
+        try {
+            return Uninterruptibles.getUninterruptibly(inFlight);
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new UncheckedExecutionException(e.getCause());
+        }
+    }
+
+    /**
+     * Returns the statistics of the loads with the given name.
+     * @param name the name of the load.
+     * @return the statistics, empty when no such load ran.
+     */
+    public static Stats get(String name) {
+        Stats stats = STATS.get(name);
+        if (stats == null) {
+            Stats created = new Stats();
+            stats = STATS.putIfAbsent(name, created);
+            stats = stats == null ? created : stats;
+        }
+        return stats;
+    }
+}
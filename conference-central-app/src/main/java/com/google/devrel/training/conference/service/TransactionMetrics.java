@@ -0,0 +1,107 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the wall time of named transactions, retries and commit included, and the outcome
+ * of each of their attempts. Entity group locks are held for as long as a transaction runs,
+ * so this is what contention on hot conferences depends on.
+ * Transactions are run, and recorded, by the TransactionRunner.
+ */
+public class TransactionMetrics {
+
+    private static final ConcurrentMap<String, Stats> STATS = new ConcurrentHashMap<>();
+
+    /**
+     * The statistics of the transactions with a given name, since the instance started.
+     */
+    public static class Stats {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLong attempts = new AtomicLong();
+        private final AtomicLong conflicts = new AtomicLong();
+        private final AtomicLong rejections = new AtomicLong();
+
+        void record(long nanos) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        void recordAttempt(boolean conflict) {
+            attempts.incrementAndGet();
+            if (conflict) {
+                conflicts.incrementAndGet();
+            }
+        }
+
+        void recordRejection() {
+            rejections.incrementAndGet();
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public double getMeanMillis() {
+            long transactions = count.get();
+            return transactions == 0 ? 0 : totalNanos.get() / 1e6 / transactions;
+        }
+
+        public double getMaxMillis() {
+            return maxNanos.get() / 1e6;
+        }
+
+        /**
+         * Returns the number of attempts, first tries and retries.
+         * @return the number of attempts.
+         */
+        public long getAttempts() {
+            return attempts.get();
+        }
+
+        /**
+         * Returns the number of attempts that failed on a concurrent commit to their entity groups.
+         * @return the number of conflicts.
+         */
+        public long getConflicts() {
+            return conflicts.get();
+        }
+
+        /**
+         * Returns the number of transactions failed fast, without any attempt, by an open circuit breaker.
+         * @return the number of rejections.
+         */
+        public long getRejections() {
+            return rejections.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d transactions, mean %.1f ms, max %.1f ms, %d attempts, %d conflicts, "
+                    + "%d rejections", getCount(), getMeanMillis(), getMaxMillis(), getAttempts(), getConflicts(),
+                    getRejections());
+        }
+    }
+
+    /**
+     * Returns the statistics of the transactions with the given name.
+     * @param name the name of the transaction.
+     * @return the statistics, empty when no such transaction ran.
+     */
+    public static Stats get(String name) {
+        Stats stats = STATS.get(name);
+        if (stats == null) {
+            Stats created = new Stats();
+            stats = STATS.putIfAbsent(name, created);
+            stats = stats == null ? created : stats;
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,336 @@
+package com.google.devrel.training.conference.service;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+import java.util.ConcurrentModificationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * Runs transactions, retrying them on contention without amplifying it.
+ *
+ * Objectify retries a transaction that lost a commit race right away, and for as long as it takes:
+ * under a registration spike, every failed commit comes straight back to the same entity group.
+ * This runner instead retries:
+ * <ul>
+ *   <li>a bounded number of times, after an exponential backoff with full jitter;</li>
+ *   <li>only while the retry budget of the instance lasts, each transaction earning it a fraction of a retry,
+ *   so that retries stay a small share of the load whatever the number of failures;</li>
+ *   <li>only while the circuit breaker of the entity group is closed: a group whose transactions keep running
+ *   out of attempts is saturated, and further transactions fail fast until it had time to drain.</li>
+ * </ul>
+ * Every attempt is recorded in the TransactionMetrics.
+ */
+public class TransactionRunner {
+
+    private static final Logger LOG = Logger.getLogger(TransactionRunner.class.getName());
+
+    private static final RetryBudget RETRY_BUDGET = new RetryBudget(0.2, 10);
+
+    private static final ConcurrentMap<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    private static final int MAX_BREAKERS = 10000;
+
+    /**
+     * Transactions taking longer are logged, along with the ones that were retried.
+     */
+    private static final long SLOW_TRANSACTION_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    /**
+     * The consecutive transactions running out of attempts that open the circuit breaker of their entity group.
+     */
+    static final int BREAKER_THRESHOLD = 5;
+
+    /**
+     * How long an open circuit breaker fails transactions fast, before letting a trial one through.
+     */
+    static final long BREAKER_OPEN_MILLIS = 2000;
+
+    /**
+     * The retry settings of a transaction.
+     */
+    public static class Options {
+
+        private int maxAttempts = 4;
+
+        private long initialBackoffMillis = 25;
+
+        private long maxBackoffMillis = 800;
+
+        private boolean budgeted = true;
+
+        /**
+         * Returns the default options: 4 attempts, with a backoff from 25 ms up to 800 ms.
+         * @return new default options.
+         */
+        public static Options defaults() {
+            return new Options();
+        }
+
+        /**
+         * Sets the number of attempts, first try included.
+         * @param maxAttempts the number of attempts.
+         * @return these options.
+         */
+        public Options maxAttempts(int maxAttempts) {
+            this.maxAttempts = Math.max(1, maxAttempts);
+            return this;
+        }
+
+        /**
+         * Sets the backoff bounds: the backoff before the n-th retry is drawn at random
+         * between 0 and min(maxBackoffMillis, initialBackoffMillis * 2^(n-1)).
+         * @param initialBackoffMillis the upper bound of the first backoff.
+         * @param maxBackoffMillis the upper bound of every backoff.
+         * @return these options.
+         */
+        public Options backoff(long initialBackoffMillis, long maxBackoffMillis) {
+            this.initialBackoffMillis = initialBackoffMillis;
+            this.maxBackoffMillis = maxBackoffMillis;
+            return this;
+        }
+
+        /**
+         * Lets the transaction retry whatever the retry budget, for the transactions that can't fail.
+         * @return these options.
+         */
+        public Options unbudgeted() {
+            this.budgeted = false;
+            return this;
+        }
+
+        long backoffMillis(int retry) {
+            long ceiling = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(retry - 1, 30));
+            return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+        }
+    }
+
+    /**
+     * Thrown when a transaction gave up on contention: its attempts or the retry budget ran out,
+     * or the circuit breaker of its entity group is open.
+     */
+    public static class ContentionException extends ConcurrentModificationException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long retryAfterMillis;
+
+        ContentionException(String message, long retryAfterMillis) {
+            super(message);
+            this.retryAfterMillis = retryAfterMillis;
+        }
+
+        /**
+         * Returns how long the caller should wait before trying again.
+         * @return the delay in milliseconds.
+         */
+        public long getRetryAfterMillis() {
+            return retryAfterMillis;
+        }
+    }
+
+    /**
+     * Runs the given work in a transaction with the default options.
+     * @param name the name of the transaction, for the metrics.
+     * @param entityGroup a key of the entity group the transaction contends on, null for no circuit breaker.
+     * @param work the work to run, possibly several times if the transaction is retried.
+     * @param <R> the result type.
+     * @return the result of the work.
+     * @throws ContentionException when the transaction gives up on contention.
+     */
+    public static <R> R run(String name, Key<?> entityGroup, Work<R> work) {
+        return run(name, entityGroup, Options.defaults(), work);
+    }
+
+    /**
+     * Runs the given work in a transaction.
+     * @param name the name of the transaction, for the metrics.
+     * @param entityGroup a key of the entity group the transaction contends on, null for no circuit breaker.
+     * @param options the retry settings.
+     * @param work the work to run, possibly several times if the transaction is retried.
+     * @param <R> the result type.
+     * @return the result of the work.
+     * @throws ContentionException when the transaction gives up on contention.
+     */
+    public static <R> R run(String name, Key<?> entityGroup, Options options, Work<R> work) {
+        TransactionMetrics.Stats stats = TransactionMetrics.get(name);
+        CircuitBreaker breaker = entityGroup == null ? null : breakerOf(entityGroup);
+        Admission admission = breaker == null ? Admission.ALLOWED : breaker.admit();
+        if (admission == Admission.REJECTED) {
+            stats.recordRejection();
+            throw new ContentionException("Too much contention on " + name + ". Please retry.",
+                    BREAKER_OPEN_MILLIS);
+        }
+        RETRY_BUDGET.deposit();
+        long start = System.nanoTime();
+        int attempt = 1;
+        try {
+            for (; ; attempt++) {
+                try {
+                    // Objectify counts retries, not attempts: 0 runs the work once.
+                    R result = ofy().transactNew(0, work);
+                    stats.recordAttempt(false);
+                    if (breaker != null) {
+                        breaker.succeeded();
+                    }
+                    return result;
+                } catch (ConcurrentModificationException e) {
+                    stats.recordAttempt(true);
+                    if (attempt >= options.maxAttempts || (options.budgeted && !RETRY_BUDGET.withdraw())) {
+                        if (breaker != null) {
+                            breaker.failed();
+                        }
+                        LOG.warning("Transaction " + name + " gave up after " + attempt + " attempts");
+                        throw new ContentionException("Too much contention on " + name + ". Please retry.",
+                                options.backoffMillis(attempt));
+                    }
+                    sleep(options.backoffMillis(attempt));
+                } catch (RuntimeException e) {
+                    stats.recordAttempt(false);
+                    throw e;
+                }
+            }
+        } finally {
+            // A trial ending otherwise than on commit or contention, such as on an error of the work,
+            // tells nothing about the entity group: the next transaction gets to be the trial.
+            if (admission == Admission.TRIAL) {
+                breaker.endTrial();
+            }
+            long nanos = System.nanoTime() - start;
+            stats.record(nanos);
+            // Only the transactions that held their entity groups for long are worth a log line each.
+            Level level = attempt > 1 || nanos >= SLOW_TRANSACTION_NANOS ? Level.INFO : Level.FINE;
+            if (LOG.isLoggable(level)) {
+                LOG.log(level, String.format("Transaction %s took %.1f ms in %d attempts (%s)",
+                        name, nanos / 1e6, attempt, stats));
+            }
+        }
+    }
+
+    private static CircuitBreaker breakerOf(Key<?> key) {
+        Key<?> root = key.getRoot();
+        String name = root.getString();
+        CircuitBreaker breaker = BREAKERS.get(name);
+        if (breaker == null) {
+            if (BREAKERS.size() >= MAX_BREAKERS) {
+                BREAKERS.clear();
+            }
+            CircuitBreaker created = new CircuitBreaker();
+            breaker = BREAKERS.putIfAbsent(name, created);
+            breaker = breaker == null ? created : breaker;
+        }
+        return breaker;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ContentionException("Interrupted while backing off", millis);
+        }
+    }
+
+    /**
+     * Resets the circuit breakers and the retry budget, for tests.
+     */
+    static void reset() {
+        BREAKERS.clear();
+        RETRY_BUDGET.reset();
+    }
+
+    /**
+     * Retries allowed to this instance: each transaction deposits a fraction of a retry, up to a maximum.
+     */
+    private static class RetryBudget {
+
+        private final double ratio;
+
+        private final double max;
+
+        private double balance;
+
+        private RetryBudget(double ratio, double max) {
+            this.ratio = ratio;
+            this.max = max;
+            this.balance = max;
+        }
+
+        private synchronized void deposit() {
+            balance = Math.min(max, balance + ratio);
+        }
+
+        private synchronized boolean withdraw() {
+            if (balance < 1) {
+                return false;
+            }
+            balance--;
+            return true;
+        }
+
+        private synchronized void reset() {
+            balance = max;
+        }
+    }
+
+    /**
+     * Whether a circuit breaker lets a transaction through.
+     */
+    private enum Admission {
+        /** The breaker is open: the transaction fails fast. */
+        REJECTED,
+        /** The breaker is closed. */
+        ALLOWED,
+        /** The breaker is open, and lets the transaction through as its single trial. */
+        TRIAL
+    }
+
+    /**
+     * The circuit breaker of an entity group: opened by BREAKER_THRESHOLD consecutive transactions
+     * running out of attempts, it lets a single trial transaction through once BREAKER_OPEN_MILLIS
+     * have passed, and closes again when a transaction commits.
+     */
+    private static class CircuitBreaker {
+
+        private int consecutiveFailures;
+
+        private long openUntil;
+
+        private boolean trialRunning;
+
+        private synchronized Admission admit() {
+            if (consecutiveFailures < BREAKER_THRESHOLD) {
+                return Admission.ALLOWED;
+            }
+            if (System.currentTimeMillis() < openUntil || trialRunning) {
+                return Admission.REJECTED;
+            }
+            trialRunning = true;
+            return Admission.TRIAL;
+        }
+
+        private synchronized void endTrial() {
+            trialRunning = false;
+        }
+
+        private synchronized void succeeded() {
+            consecutiveFailures = 0;
+            trialRunning = false;
+        }
+
+        private synchronized void failed() {
+            consecutiveFailures++;
+            trialRunning = false;
+            if (consecutiveFailures >= BREAKER_THRESHOLD) {
+                openUntil = System.currentTimeMillis() + BREAKER_OPEN_MILLIS;
+            }
+        }
+    }
+}
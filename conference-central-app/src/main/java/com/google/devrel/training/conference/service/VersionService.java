@@ -0,0 +1,113 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Version stamps kept in memcache.
+ * Cached responses embed the stamp of the data they were computed from in their cache key,
+ * so bumping a stamp is enough to invalidate every response that depends on it.
+ *
+ * A stamp is the time of the last change it records, in milliseconds, so that it also serves as
+ * the Last-Modified date of HTTP responses. Stamps only ever increase, even when two changes happen
+ * within the same millisecond, or when the clocks of two instances disagree.
+ *
+ * When memcache can't be reached, stamps read as null rather than as any value: a value read
+ * during an outage could match one handed out before it, and vouch for data that has changed since.
+ */
+public class VersionService {
+
+    private static final String VERSION_KEY_PREFIX = "VERSION:";
+
+    /**
+     * How many times a bump tries to set the stamp to the current time, before incrementing it instead.
+     */
+    private static final int MAX_BUMP_ATTEMPTS = 3;
+
+    /**
+     * Returns the current version stamp with the given name.
+     * @param name the name of the stamp.
+     * @return the current version, null when it can't be read.
+     */
+    public static Long current(String name) {
+        return increment(name, 0L);
+    }
+
+    /**
+     * Returns the current version stamps with the given names, in a single memcache call.
+     * @param names the names of the stamps.
+     * @return the current versions by name, in the same order, null when any of them can't be read.
+     */
+    public static Map<String, Long> current(Collection<String> names) {
+        List<String> keys = new ArrayList<>(names.size());
+        for (String name : names) {
+            keys.add(VERSION_KEY_PREFIX + name);
+        }
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        Map<String, Long> incremented = memcacheService.incrementAll(keys, 0L, System.currentTimeMillis());
+        Map<String, Long> versions = new LinkedHashMap<>();
+        for (String name : names) {
+            Long version = incremented == null ? null : incremented.get(VERSION_KEY_PREFIX + name);
+            if (version == null) {
+                return null;
+            }
+            versions.put(name, version);
+        }
+        return versions;
+    }
+
+    /**
+     * Bumps the version stamp with the given name, to the current time.
+     * @param name the name of the stamp.
+     * @return the new version.
+     */
+    public static long bump(String name) {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        String key = VERSION_KEY_PREFIX + name;
+        for (int attempt = 0; attempt < MAX_BUMP_ATTEMPTS; attempt++) {
+            MemcacheService.IdentifiableValue identifiable = memcacheService.getIdentifiable(key);
+            if (identifiable == null) {
+                long version = System.currentTimeMillis();
+                if (memcacheService.put(key, version, null, MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+                    return version;
+                }
+                continue;
+            }
+            long version = Math.max(System.currentTimeMillis(), (Long) identifiable.getValue() + 1);
+            if (memcacheService.putIfUntouched(key, identifiable, version)) {
+                return version;
+            }
+        }
+        // Concurrent bumps: the stamp still increases, if not up to the current time.
+        Long version = increment(name, 1L);
+        return version == null ? 0L : version;
+    }
+
+    /**
+     * Bumps the version stamps with the given names, in a single memcache call.
+     * The stamps are incremented rather than set to the current time: they can't serve as Last-Modified dates.
+     * @param names the names of the stamps.
+     */
+    public static void bumpAll(Collection<String> names) {
+        List<String> keys = new ArrayList<>(names.size());
+        for (String name : names) {
+            keys.add(VERSION_KEY_PREFIX + name);
+        }
+        MemcacheServiceFactory.getMemcacheService().incrementAll(keys, 1L, System.currentTimeMillis());
+    }
+
+    /*
+     * The initial value is the current time, so that a stamp evicted from memcache
+     * never comes back with a value that was already used before the eviction.
+     */
+    private static Long increment(String name, long delta) {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        return memcacheService.increment(VERSION_KEY_PREFIX + name, delta, System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,246 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.SigningKey;
+import com.google.devrel.training.conference.domain.WaitingRoomTicket;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.http.HttpServletRequest;
+import java.io.Serializable;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ConcurrentModificationException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * A virtual waiting room in front of the registrations of a conference.
+ *
+ * Users entering the room get the next position, in a token signed by the server. A dispatcher admits
+ * positions at the rate the conference entity group sustains (the AdmissionController rate), so that
+ * registrations come at a steady pace instead of all at once. The dispatcher is a function of time:
+ * the waiting room state is a single memcache value, only written when a user enters, and positions
+ * and estimated waits are computed from it without touching the datastore.
+ *
+ * The position given to each user is kept as well, so that a user entering again, even without their token,
+ * gets their position back instead of a new one behind everybody else.
+ *
+ * If memcache evicts the state, the room opens: everyone is admitted, and the AdmissionController
+ * still sheds whatever the conference can't take.
+ */
+public class WaitingRoomService {
+
+    public static final String HEADER = "X-Waiting-Room-Token";
+
+    private static final String STATE_KEY_PREFIX = "WAITING_ROOM:";
+
+    private static final String ENTRY_KEY_PREFIX = "WAITING_ROOM_ENTRY:";
+
+    private static final String SIGNING_KEY_NAME = "waiting-room";
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private static final int MAX_CAS_ATTEMPTS = 10;
+
+    private static final int STATE_EXPIRATION_SECONDS = (int) TimeUnit.DAYS.toSeconds(1);
+
+    private static final BaseEncoding ENCODING = BaseEncoding.base64Url().omitPadding();
+
+    private static volatile byte[] secret;
+
+    /**
+     * Gives the next position in the waiting room of the given conference to the given user,
+     * or the position they were given already when they entered before.
+     * @param conferenceKey the conference key.
+     * @param userId the user id.
+     * @return the waiting room ticket, with its signed token.
+     * @throws ConcurrentModificationException when too many users enter at the same time.
+     */
+    public static WaitingRoomTicket enter(Key<Conference> conferenceKey, String userId) {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        String stateKey = STATE_KEY_PREFIX + conferenceKey.getString();
+        String entryKey = ENTRY_KEY_PREFIX + conferenceKey.getString() + '|' + userId;
+        WaitingRoomTicket entered = reenter(conferenceKey, userId, memcacheService.get(entryKey));
+        if (entered != null) {
+            return entered;
+        }
+        for (int attempt = 0; attempt < MAX_CAS_ATTEMPTS; attempt++) {
+            long now = System.currentTimeMillis();
+            MemcacheService.IdentifiableValue current = memcacheService.getIdentifiable(stateKey);
+            State state = current == null || !(current.getValue() instanceof State)
+                    ? new State(now) : ((State) current.getValue()).dispatch(now);
+            long position = ++state.issued;
+            Expiration expiration = Expiration.byDeltaSeconds(STATE_EXPIRATION_SECONDS);
+            boolean written = current == null
+                    ? memcacheService.put(stateKey, state, expiration, MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT)
+                    : memcacheService.putIfUntouched(stateKey, current, state, expiration);
+            if (written) {
+                // The same user entering concurrently keeps whichever position was remembered first.
+                if (!memcacheService.put(entryKey, position, expiration,
+                        MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+                    entered = reenter(conferenceKey, userId, memcacheService.get(entryKey));
+                    if (entered != null) {
+                        return entered;
+                    }
+                    memcacheService.put(entryKey, position, expiration);
+                }
+                return toTicket(conferenceKey, sign(conferenceKey, userId, position), position, state);
+            }
+        }
+        throw new ConcurrentModificationException("Too many users entering the waiting room.");
+    }
+
+    /**
+     * Returns the ticket of the given position, remembered for a user who entered before, if it's still
+     * a position of the current waiting room: when the state was evicted, positions start over.
+     */
+    private static WaitingRoomTicket reenter(Key<Conference> conferenceKey, String userId, Object remembered) {
+        if (!(remembered instanceof Long)) {
+            return null;
+        }
+        long position = (Long) remembered;
+        Object value = MemcacheServiceFactory.getMemcacheService().get(STATE_KEY_PREFIX + conferenceKey.getString());
+        if (!(value instanceof State) || position > ((State) value).issued) {
+            return null;
+        }
+        State state = ((State) value).dispatch(System.currentTimeMillis());
+        return toTicket(conferenceKey, sign(conferenceKey, userId, position), position, state);
+    }
+
+    /**
+     * Returns where the holder of the given token stands in the waiting room.
+     * @param conferenceKey the conference key.
+     * @param userId the user id.
+     * @param token the signed position token.
+     * @return the waiting room ticket, null if the token isn't a valid token of this user for this conference.
+     */
+    public static WaitingRoomTicket status(Key<Conference> conferenceKey, String userId, String token) {
+        Long position = verify(conferenceKey, userId, token);
+        if (position == null) {
+            return null;
+        }
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        Object value = memcacheService.get(STATE_KEY_PREFIX + conferenceKey.getString());
+        State state = value instanceof State ? ((State) value).dispatch(System.currentTimeMillis()) : null;
+        return toTicket(conferenceKey, token, position, state);
+    }
+
+    /**
+     * Returns the position token of the given request.
+     * @param request the HTTP request, null when called outside of a request.
+     * @return the token, null when the request has none.
+     */
+    public static String getToken(HttpServletRequest request) {
+        return request == null ? null : request.getHeader(HEADER);
+    }
+
+    private static WaitingRoomTicket toTicket(Key<Conference> conferenceKey, String token, long position,
+                                              State state) {
+        long aheadOfYou = state == null ? 0 : Math.max(0, position - (long) Math.floor(state.admitted));
+        long estimatedWaitSeconds = (long) Math.ceil(aheadOfYou / AdmissionController.RATE_PER_SECOND);
+        return new WaitingRoomTicket(conferenceKey.getString(), token, position, aheadOfYou, estimatedWaitSeconds);
+    }
+
+    /*
+     * A token is "<position>.<signature>", the signature covering the conference, the user and the position.
+     */
+    private static String sign(Key<Conference> conferenceKey, String userId, long position) {
+        return position + "." + ENCODING.encode(hmac(conferenceKey, userId, position));
+    }
+
+    private static Long verify(Key<Conference> conferenceKey, String userId, String token) {
+        if (token == null) {
+            return null;
+        }
+        int separator = token.indexOf('.');
+        if (separator <= 0) {
+            return null;
+        }
+        try {
+            long position = Long.parseLong(token.substring(0, separator));
+            byte[] signature = ENCODING.decode(token.substring(separator + 1));
+            return MessageDigest.isEqual(signature, hmac(conferenceKey, userId, position)) ? position : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static byte[] hmac(Key<Conference> conferenceKey, String userId, long position) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(new SecretKeySpec(getSecret(), HMAC_ALGORITHM));
+            String payload = conferenceKey.getString() + '|' + userId + '|' + position;
+            return mac.doFinal(payload.getBytes(Charsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot sign waiting room tokens", e);
+        }
+    }
+
+    /*
+     * The secret is created by the first instance needing it, then read once per instance.
+     */
+    private static byte[] getSecret() {
+        byte[] loaded = secret;
+        if (loaded == null) {
+            SigningKey signingKey = ofy().transactNew(new Work<SigningKey>() {
+                @Override
+                public SigningKey run() {
+                    SigningKey signingKey = ofy().load().key(SigningKey.keyOf(SIGNING_KEY_NAME)).now();
+                    if (signingKey == null) {
+                        byte[] bytes = new byte[32];
+                        new SecureRandom().nextBytes(bytes);
+                        signingKey = new SigningKey(SIGNING_KEY_NAME, bytes);
+                        ofy().save().entity(signingKey).now();
+                    }
+                    return signingKey;
+                }
+            });
+            loaded = signingKey.getSecret();
+            secret = loaded;
+        }
+        return loaded;
+    }
+
+    /**
+     * The waiting room of a conference: the last position given, and the positions admitted so far.
+     */
+    private static class State implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private long issued;
+
+        private double admitted;
+
+        private long dispatchedAt;
+
+        private State(long now) {
+            this.admitted = AdmissionController.BURST;
+            this.dispatchedAt = now;
+        }
+
+        /**
+         * Admits the positions due since the last dispatch. An empty room doesn't save up admissions:
+         * at most a burst of users entering next are admitted right away.
+         * @return this state.
+         */
+        private State dispatch(long now) {
+            if (now > dispatchedAt) {
+                admitted = Math.min(issued + AdmissionController.BURST,
+                        admitted + (now - dispatchedAt) * AdmissionController.RATE_PER_SECOND / 1000);
+                dispatchedAt = now;
+            }
+            return this;
+        }
+    }
+}
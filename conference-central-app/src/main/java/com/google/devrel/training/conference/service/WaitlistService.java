@@ -0,0 +1,128 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceCapacity;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Waitlist;
+import com.google.devrel.training.conference.domain.WaitlistEntry;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+import java.util.logging.Logger;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * Promotes waitlisted users to attendees of a conference, as seats free up.
+ *
+ * Freeing a seat by unregistering enqueues a promotion task in the same transaction.
+ * The task registers the user with the lowest position in its own transaction, and enqueues the next
+ * promotion while both seats and waiting users remain. Meanwhile, registrations are refused as long as
+ * users are waiting, so freed seats go to the waitlist first.
+ *
+ * Seats held by other users (see SeatHoldService) aren't given to the waitlist: while every free seat
+ * is held, the promotion is retried once the holds have been confirmed or have expired.
+ */
+public class WaitlistService {
+
+    private static final Logger LOG = Logger.getLogger(WaitlistService.class.getName());
+
+    public static final String TASK_URL = "/tasks/promote_waitlist";
+
+    public static final String CONFERENCE_PARAM = "websafeConferenceKey";
+
+    /**
+     * Returns the task promoting the next waitlisted user of the given conference.
+     * @param conferenceKey the conference key.
+     * @return the promotion task, to be enqueued within the transaction freeing the seat.
+     */
+    public static TaskOptions promotionTask(Key<Conference> conferenceKey) {
+        return TaskOptions.Builder.withUrl(TASK_URL)
+                .param(CONFERENCE_PARAM, conferenceKey.getString());
+    }
+
+    /**
+     * Returns the task promoting the next waitlisted user of the given conference,
+     * once the seats currently held have been confirmed or have expired.
+     * @param conferenceKey the conference key.
+     * @return the delayed promotion task.
+     */
+    public static TaskOptions delayedPromotionTask(Key<Conference> conferenceKey) {
+        return promotionTask(conferenceKey).countdownMillis(SeatHoldService.HOLD_SECONDS * 1000L);
+    }
+
+    /**
+     * Returns the place of the given entry in its waitlist.
+     * @param entry the waitlist entry.
+     * @return 1 for the next user to be promoted, 2 for the one after, and so on.
+     */
+    public static long placeOf(WaitlistEntry entry) {
+        return ofy().load().type(WaitlistEntry.class)
+                .ancestor(entry.getConferenceKey())
+                .filter("position <", entry.getPosition())
+                .keys().list().size() + 1;
+    }
+
+    /**
+     * Registers the next waitlisted user of the given conference, if there's a seat available.
+     * @param conferenceKey the conference key.
+     * @return true if a user left the waitlist.
+     */
+    public static boolean promoteNext(final Key<Conference> conferenceKey) {
+        // The entry of the user who left the waitlist, null if nobody did.
+        WaitlistEntry promoted = TransactionRunner.run("promoteFromWaitlist", conferenceKey,
+                new Work<WaitlistEntry>() {
+            @Override
+            public WaitlistEntry run() {
+                BatchLoader batch = new BatchLoader();
+                BatchLoader.Deferred<ConferenceCapacity> deferredCapacity =
+                        batch.defer(ConferenceCapacity.keyOf(conferenceKey));
+                BatchLoader.Deferred<Waitlist> deferredWaitlist = batch.defer(Waitlist.keyOf(conferenceKey));
+                ConferenceCapacity capacity = CapacityService.capacityOf(conferenceKey, deferredCapacity);
+                Waitlist waitlist = deferredWaitlist.get();
+                if (capacity == null || !Waitlist.isWaiting(waitlist) || capacity.getSeatsAvailable() <= 0) {
+                    return null;
+                }
+                if (capacity.getSeatsAvailable() <= SeatHoldService.heldSeats(conferenceKey)) {
+                    QueueFactory.getDefaultQueue().add(ofy().getTransaction(), delayedPromotionTask(conferenceKey));
+                    return null;
+                }
+                WaitlistEntry next = ofy().load().type(WaitlistEntry.class)
+                        .ancestor(conferenceKey).order("position").first().now();
+                if (next == null) {
+                    // The ancestor query is consistent: the length counts users who aren't waiting anymore.
+                    // Left as is, it would keep holding the seats for nobody.
+                    LOG.warning("The waitlist of " + conferenceKey.getString() + " counts " + waitlist.getLength()
+                            + " users but has none, emptying it");
+                    waitlist.clear();
+                    ofy().save().entity(waitlist).now();
+                    return null;
+                }
+                String websafeConferenceKey = conferenceKey.getString();
+                Profile profile = ofy().load().key(Key.create(Profile.class, next.getUserId())).now();
+                if (profile != null && !profile.isAttending(websafeConferenceKey)) {
+                    profile.addToConferenceKeysToAttend(websafeConferenceKey);
+                    capacity.bookSeats(1);
+                    ofy().save().entities(profile, capacity).now();
+                    LOG.info("Promoted " + next.getUserId() + " from the waitlist of " + websafeConferenceKey);
+                }
+                waitlist.remove();
+                ofy().delete().entity(next).now();
+                ofy().save().entity(waitlist).now();
+
+                if (Waitlist.isWaiting(waitlist) && capacity.getSeatsAvailable() > 0) {
+                    QueueFactory.getDefaultQueue().add(ofy().getTransaction(), promotionTask(conferenceKey));
+                }
+                return next;
+            }
+        });
+        if (promoted == null) {
+            return false;
+        }
+        ResourceVersions.conferenceChanged(conferenceKey);
+        MembershipService.changed(promoted.getUserId());
+        return true;
+    }
+}
@@ -0,0 +1,44 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.service.FacetService;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * A servlet for counting the conferences saved before the facet counters existed.
+ * Each task checks a batch of conferences, then enqueues the task checking the next batch.
+ * Requesting it (as an admin) starts the backfill from the first conference.
+ * @author Solange U. Gasengayire
+ */
+public class BackfillFacetsServlet extends HttpServlet {
+
+    private static final Logger LOG = Logger.getLogger(BackfillFacetsServlet.class.getName());
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        doPost(request, response);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+
+        String cursor = FacetService.backfill(request.getParameter(FacetService.CURSOR_PARAM));
+        if (cursor != null) {
+            QueueFactory.getDefaultQueue().add(TaskOptions.Builder.withUrl(FacetService.BACKFILL_URL)
+                    .param(FacetService.CURSOR_PARAM, cursor));
+        } else {
+            LOG.info("Facet counters backfill complete.");
+        }
+
+        response.setStatus(204);
+    }
+}
@@ -0,0 +1,265 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.devrel.training.conference.service.VersionService;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Conditional HTTP requests for the read endpoints.
+ *
+ * Endpoints methods can't set response headers: this filter hands the response of GET requests
+ * over to them, through a request attribute. A read endpoint calls {@link #isNotModified} with the
+ * version stamps its response depends on before loading anything. The ETag and Last-Modified headers
+ * are derived from the stamps, and when the client's copy is still fresh the endpoint returns
+ * right away: the filter then answers 304 Not Modified, without a body.
+ * When the stamps can't be read, the response has no validators, and is never a 304.
+ * @author Solange U. Gasengayire
+ */
+public class ConditionalRequestFilter implements Filter {
+
+    /**
+     * The Cache-Control of anonymous endpoints: edge caches may serve them for a short while.
+     */
+    public static final String PUBLIC = "public, max-age=30";
+
+    /**
+     * The Cache-Control of the endpoints depending on the user: browsers revalidate them every time.
+     */
+    public static final String PRIVATE = "private, no-cache";
+
+    private static final String RESPONSE_ATTRIBUTE = ConditionalRequestFilter.class.getName() + ".response";
+
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (request instanceof HttpServletRequest && "GET".equals(((HttpServletRequest) request).getMethod())) {
+            ValidatedResponse validatedResponse = new ValidatedResponse((HttpServletResponse) response);
+            request.setAttribute(RESPONSE_ATTRIBUTE, validatedResponse);
+            chain.doFilter(request, validatedResponse);
+        } else {
+            chain.doFilter(request, response);
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    /**
+     * Sets the validators derived from the given version stamps on the response, and tells whether
+     * the client's copy is still fresh, in which case the response becomes a 304 Not Modified.
+     * If-None-Match takes precedence over If-Modified-Since, as the latter only has a one-second precision.
+     * @param request the HTTP request, null when called outside of a request.
+     * @param stamps the names of the version stamps the response depends on.
+     * @param cacheControl the Cache-Control of the response.
+     * @return true if the endpoint should return right away, without a body.
+     */
+    public static boolean isNotModified(HttpServletRequest request, Collection<String> stamps, String cacheControl) {
+        if (request == null) {
+            return false;
+        }
+        Map<String, Long> versions = VersionService.current(stamps);
+        Object attribute = request.getAttribute(RESPONSE_ATTRIBUTE);
+        if (versions == null) {
+            if (attribute instanceof ValidatedResponse) {
+                ((ValidatedResponse) attribute).setHeader("Cache-Control", "no-store");
+            }
+            return false;
+        }
+        String etag = etagOf(versions);
+        long lastModified = 0L;
+        for (long version : versions.values()) {
+            lastModified = Math.max(lastModified, version);
+        }
+
+        boolean notModified = isFresh(request, etag, lastModified);
+
+        if (attribute instanceof ValidatedResponse) {
+            ValidatedResponse response = (ValidatedResponse) attribute;
+            response.setHeader("ETag", etag);
+            response.setDateHeader("Last-Modified", lastModified);
+            response.setHeader("Cache-Control", cacheControl);
+            if (notModified) {
+                response.notModified();
+            }
+        }
+        return notModified;
+    }
+
+    /**
+     * Returns the entity tag of the response depending on the given version stamps.
+     * @param versions the current versions of the stamps, by name, null when they can't be read.
+     * @return the entity tag, quoted, null when the versions are unknown.
+     */
+    public static String etagOf(Map<String, Long> versions) {
+        if (versions == null) {
+            return null;
+        }
+        return "\"" + Joiner.on('-').join(versions.values()) + "\"";
+    }
+
+    /**
+     * Whether the copy held by the client making the given request has the given validators.
+     * If-None-Match takes precedence over If-Modified-Since.
+     * @param request the HTTP request.
+     * @param etag the entity tag of the current response.
+     * @param lastModified the modification date of the current response, in milliseconds.
+     * @return true if the client's copy is still fresh.
+     */
+    static boolean isFresh(HttpServletRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return matches(ifNoneMatch, etag);
+        }
+        Date ifModifiedSince = parseDate(request.getHeader("If-Modified-Since"));
+        return ifModifiedSince != null && lastModified / 1000 <= ifModifiedSince.getTime() / 1000;
+    }
+
+    /**
+     * Whether the given If-None-Match header matches the given entity tag, with the weak comparison of GET requests.
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        for (String tag : Splitter.on(',').trimResults().omitEmptyStrings().split(ifNoneMatch)) {
+            if (tag.equals("*") || (tag.startsWith("W/") ? tag.substring(2) : tag).equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Formats the given date as an HTTP date.
+     * @param date the date, in milliseconds.
+     * @return the date, as sent in response headers.
+     */
+    static String formatDate(long date) {
+        DateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(date));
+    }
+
+    /**
+     * Parses an HTTP date, returning null when it's missing or malformed.
+     */
+    private static Date parseDate(String value) {
+        if (value == null) {
+            return null;
+        }
+        DateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return format.parse(value);
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A response which drops the status and the body the endpoint writes once it's known to be not modified.
+     */
+    private static class ValidatedResponse extends HttpServletResponseWrapper {
+
+        private boolean notModified;
+
+        ValidatedResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        void notModified() {
+            notModified = true;
+            super.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        }
+
+        @Override
+        public void setStatus(int sc) {
+            if (!notModified) {
+                super.setStatus(sc);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void setStatus(int sc, String sm) {
+            if (!notModified) {
+                super.setStatus(sc, sm);
+            }
+        }
+
+        @Override
+        public void setContentType(String type) {
+            if (!notModified) {
+                super.setContentType(type);
+            }
+        }
+
+        @Override
+        public void setContentLength(int len) {
+            if (!notModified) {
+                super.setContentLength(len);
+            }
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if (!notModified || !name.toLowerCase(Locale.US).startsWith("content-")) {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if (!notModified || !name.toLowerCase(Locale.US).startsWith("content-")) {
+                super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (!notModified) {
+                return super.getOutputStream();
+            }
+            return new ServletOutputStream() {
+                @Override
+                public void write(int b) {
+                    // A 304 has no body.
+                }
+            };
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (!notModified) {
+                return super.getWriter();
+            }
+            return new PrintWriter(new OutputStreamWriter(getOutputStream(), "UTF-8"));
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.WaitlistService;
+import com.googlecode.objectify.Key;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * A servlet for promoting the next waitlisted user of a conference,
+ * enqueued as a task when a seat frees up.
+ * @author Solange U. Gasengayire
+ */
+public class PromoteWaitlistServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+
+        String websafeConferenceKey = request.getParameter(WaitlistService.CONFERENCE_PARAM);
+        WaitlistService.promoteNext(Key.create(websafeConferenceKey));
+
+        response.setStatus(204);
+    }
+}
@@ -0,0 +1,44 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.service.IdempotencyService;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * A servlet for deleting the idempotency records that expired.
+ * Each request deletes a batch of them, then enqueues the task deleting the next batch.
+ * The cron starts the purge from the first expired record.
+ * @author Solange U. Gasengayire
+ */
+public class PurgeIdempotencyRecordsServlet extends HttpServlet {
+
+    private static final Logger LOG = Logger.getLogger(PurgeIdempotencyRecordsServlet.class.getName());
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        doPost(request, response);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+
+        String cursor = IdempotencyService.purgeExpired(request.getParameter(IdempotencyService.CURSOR_PARAM));
+        if (cursor != null) {
+            QueueFactory.getDefaultQueue().add(TaskOptions.Builder.withUrl(IdempotencyService.PURGE_URL)
+                    .param(IdempotencyService.CURSOR_PARAM, cursor));
+        } else {
+            LOG.info("Expired idempotency records purge complete.");
+        }
+
+        response.setStatus(204);
+    }
+}
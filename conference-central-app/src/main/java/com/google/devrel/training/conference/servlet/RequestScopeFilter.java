@@ -0,0 +1,28 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.BatchLoader;
+import com.googlecode.objectify.ObjectifyFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import java.io.IOException;
+
+/**
+ * The ObjectifyFilter, also dropping the request-scoped state built on top of the Objectify session
+ * (the request BatchLoader) once the request is over.
+ * @author Solange U. Gasengayire
+ */
+public class RequestScopeFilter extends ObjectifyFilter {
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        try {
+            super.doFilter(request, response, chain);
+        } finally {
+            BatchLoader.clear();
+        }
+    }
+}
@@ -0,0 +1,441 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.service.ResourceVersions;
+import com.google.devrel.training.conference.service.VersionService;
+import com.googlecode.objectify.Key;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Caches the serialized responses of the anonymous read endpoints, which are the same for every caller:
+ * getConference, queryConferences and getAnnouncement.
+ *
+ * Responses are kept in an in-process LRU, backed by memcache for the other instances. Their key holds
+ * the path, a hash of the request body, and the version stamps the response depends on: writers bump
+ * the stamps, so a change makes the cached responses unreachable. A cache hit is written out without
+ * running the Endpoints servlet nor opening an Objectify session, which is why this filter comes
+ * before the ObjectifyFilter.
+ *
+ * Entries also expire after a short while, as conference queries are eventually consistent: a query
+ * running right after a change may still miss it, and would otherwise stay cached until the next change.
+ *
+ * A hit replays every header of the cached response, CORS headers included. Since Endpoints echoes
+ * the Origin of the request in Access-Control-Allow-Origin, the key also holds the Origin.
+ * @author Solange U. Gasengayire
+ */
+public class ResponseCacheFilter implements Filter {
+
+    private static final String API_PATH = "/_ah/api/conference/v1/";
+
+    private static final Pattern CONFERENCE_PATH = Pattern.compile("conference/[^/]+");
+
+    /**
+     * Query explanations are logged by the endpoint, so explained queries are never served from the cache.
+     */
+    private static final Pattern EXPLAIN = Pattern.compile("\"explain\"\\s*:\\s*true");
+
+    private static final String MEMCACHE_RESPONSE_KEY_PREFIX = "RESPONSE:";
+
+    private static final int MAX_LOCAL_ENTRIES = 500;
+
+    private static final int EXPIRATION_SECONDS = 60;
+
+    /**
+     * Memcache values are limited to 1 MB: larger responses, with their headers, aren't cached.
+     */
+    private static final int MAX_CACHED_BYTES = 1000 * 1000;
+
+    /**
+     * Headers which belong to a single response, and are never replayed.
+     */
+    private static final Set<String> UNCACHED_HEADERS = ImmutableSet.of(
+            "content-length", "content-type", "date", "set-cookie");
+
+    private static final Logger LOG = Logger.getLogger(ResponseCacheFilter.class.getName());
+
+    private static final Cache<String, CachedResponse> LOCAL = CacheBuilder.newBuilder()
+            .maximumSize(MAX_LOCAL_ENTRIES)
+            .expireAfterWrite(EXPIRATION_SECONDS, TimeUnit.SECONDS)
+            .build();
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain)
+            throws IOException, ServletException {
+        if (!(servletRequest instanceof HttpServletRequest)) {
+            chain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        HttpServletResponse response = (HttpServletResponse) servletResponse;
+        String uri = request.getRequestURI();
+        if (!uri.startsWith(API_PATH)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        String route = uri.substring(API_PATH.length());
+
+        byte[] body = new byte[0];
+        Collection<String> stamps;
+        if ("GET".equals(request.getMethod()) && CONFERENCE_PATH.matcher(route).matches()) {
+            Key<Conference> conferenceKey;
+            try {
+                conferenceKey = Key.create(route.substring(route.indexOf('/') + 1));
+            } catch (IllegalArgumentException e) {
+                chain.doFilter(request, response);
+                return;
+            }
+            stamps = ResourceVersions.conference(conferenceKey);
+        } else if ("GET".equals(request.getMethod()) && route.equals("announcement")) {
+            stamps = ResourceVersions.announcement();
+        } else if ("POST".equals(request.getMethod()) && route.equals("queryConferences")) {
+            // The body is read here: the endpoint reads it again from the replayed copy.
+            body = ByteStreams.toByteArray(request.getInputStream());
+            request = new ReplayedRequest(request, body);
+            if (EXPLAIN.matcher(new String(body, "UTF-8")).find()) {
+                chain.doFilter(request, response);
+                return;
+            }
+            stamps = ResourceVersions.catalog();
+        } else {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        String etag = ConditionalRequestFilter.etagOf(VersionService.current(stamps));
+        if (etag == null) {
+            // Without the stamps, a cached response can't be told from a stale one.
+            chain.doFilter(request, response);
+            return;
+        }
+        String cacheKey = MEMCACHE_RESPONSE_KEY_PREFIX + request.getMethod() + ":" + uri
+                + (request.getQueryString() == null ? "" : "?" + request.getQueryString())
+                + ":" + Hashing.sha256().hashBytes(body)
+                + ":" + Strings.nullToEmpty(request.getHeader("Origin"))
+                + ":" + etag;
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        CachedResponse cached = LOCAL.getIfPresent(cacheKey);
+        if (cached == null) {
+            cached = (CachedResponse) memcacheService.get(cacheKey);
+            if (cached != null) {
+                LOCAL.put(cacheKey, cached);
+            }
+        }
+        if (cached != null) {
+            cached.writeTo(request, response);
+            return;
+        }
+
+        CapturingResponse capturingResponse = new CapturingResponse(response);
+        chain.doFilter(request, capturingResponse);
+        cached = capturingResponse.toCachedResponse();
+        if (cached == null || cached.size() > MAX_CACHED_BYTES) {
+            return;
+        }
+        LOCAL.put(cacheKey, cached);
+        // The response is written out already: failing to share it mustn't fail the request.
+        try {
+            memcacheService.put(cacheKey, cached, Expiration.byDeltaSeconds(EXPIRATION_SECONDS));
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Could not cache the response to " + uri, e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    /**
+     * A successful response, with the headers it's served with.
+     */
+    private static class CachedResponse implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String contentType;
+        private final String etag;
+        private final long lastModified;
+        private final TreeMap<String, ArrayList<String>> headers;
+        private final byte[] body;
+
+        CachedResponse(String contentType, String etag, long lastModified,
+                       TreeMap<String, ArrayList<String>> headers, byte[] body) {
+            this.contentType = contentType;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        /**
+         * Returns roughly how many bytes this response takes once serialized.
+         */
+        int size() {
+            int size = body.length + (contentType == null ? 0 : contentType.length());
+            for (Map.Entry<String, ArrayList<String>> header : headers.entrySet()) {
+                size += header.getKey().length();
+                for (String value : header.getValue()) {
+                    size += value.length();
+                }
+            }
+            return size;
+        }
+
+        /**
+         * Writes this response out, or a 304 Not Modified when the client's copy is still fresh.
+         */
+        void writeTo(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            for (Map.Entry<String, ArrayList<String>> header : headers.entrySet()) {
+                for (String value : header.getValue()) {
+                    response.addHeader(header.getKey(), value);
+                }
+            }
+            if (etag != null && ConditionalRequestFilter.isFresh(request, etag, lastModified)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+            response.setStatus(HttpServletResponse.SC_OK);
+            if (contentType != null) {
+                response.setContentType(contentType);
+            }
+            response.setContentLength(body.length);
+            response.getOutputStream().write(body);
+        }
+    }
+
+    /**
+     * A request whose body was read by the filter already.
+     */
+    private static class ReplayedRequest extends HttpServletRequestWrapper {
+
+        private final byte[] body;
+
+        ReplayedRequest(HttpServletRequest request, byte[] body) {
+            super(request);
+            this.body = body;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            final ByteArrayInputStream input = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public int read() {
+                    return input.read();
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() throws IOException {
+            String encoding = getCharacterEncoding() == null ? "UTF-8" : getCharacterEncoding();
+            return new BufferedReader(new InputStreamReader(getInputStream(), encoding));
+        }
+    }
+
+    /**
+     * A response which keeps a copy of what the endpoint writes, along with its status and headers.
+     */
+    private static class CapturingResponse extends HttpServletResponseWrapper {
+
+        private final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        private int status = HttpServletResponse.SC_OK;
+        private String contentType;
+        private String etag;
+        private long lastModified;
+        private final TreeMap<String, ArrayList<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+
+        CapturingResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        /**
+         * Returns the response to cache, null when it's not a success.
+         */
+        CachedResponse toCachedResponse() {
+            if (status != HttpServletResponse.SC_OK) {
+                return null;
+            }
+            if (writer != null) {
+                writer.flush();
+            }
+            return new CachedResponse(contentType, etag, lastModified, headers, copy.toByteArray());
+        }
+
+        /**
+         * Keeps a copy of the given header, replacing its values or adding to them.
+         */
+        private void capture(String name, String value, boolean add) {
+            if (UNCACHED_HEADERS.contains(name.toLowerCase(Locale.ROOT))) {
+                return;
+            }
+            if (value == null) {
+                // As for the response, setting a header to null removes it.
+                if (!add) {
+                    headers.remove(name);
+                }
+                return;
+            }
+            ArrayList<String> values = headers.get(name);
+            if (values == null || !add) {
+                values = new ArrayList<>(1);
+                headers.put(name, values);
+            }
+            values.add(value);
+        }
+
+        @Override
+        public void setStatus(int sc) {
+            status = sc;
+            super.setStatus(sc);
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void setStatus(int sc, String sm) {
+            status = sc;
+            super.setStatus(sc, sm);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            status = sc;
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            status = sc;
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void setContentType(String type) {
+            contentType = type;
+            super.setContentType(type);
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if ("ETag".equalsIgnoreCase(name)) {
+                etag = value;
+            } else if ("Content-Type".equalsIgnoreCase(name)) {
+                contentType = value;
+            }
+            capture(name, value, false);
+            super.setHeader(name, value);
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            capture(name, value, true);
+            super.addHeader(name, value);
+        }
+
+        @Override
+        public void setDateHeader(String name, long date) {
+            if ("Last-Modified".equalsIgnoreCase(name)) {
+                lastModified = date;
+            }
+            capture(name, ConditionalRequestFilter.formatDate(date), false);
+            super.setDateHeader(name, date);
+        }
+
+        @Override
+        public void addDateHeader(String name, long date) {
+            capture(name, ConditionalRequestFilter.formatDate(date), true);
+            super.addDateHeader(name, date);
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            capture(name, Integer.toString(value), false);
+            super.setIntHeader(name, value);
+        }
+
+        @Override
+        public void addIntHeader(String name, int value) {
+            capture(name, Integer.toString(value), true);
+            super.addIntHeader(name, value);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                final ServletOutputStream target = super.getOutputStream();
+                outputStream = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        target.write(b);
+                        copy.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        target.write(b, off, len);
+                        copy.write(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        target.flush();
+                    }
+                };
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                String encoding = getCharacterEncoding() == null ? "UTF-8" : getCharacterEncoding();
+                writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), encoding));
+            }
+            return writer;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.GroupRegistrationService;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * A servlet for finishing a group registration saga its request left unfinished,
+ * enqueued as a delayed task when the saga starts.
+ * @author Solange U. Gasengayire
+ */
+public class ResumeGroupRegistrationServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+
+        String sagaId = request.getParameter(GroupRegistrationService.SAGA_PARAM);
+        GroupRegistrationService.resume(sagaId);
+
+        response.setStatus(204);
+    }
+}
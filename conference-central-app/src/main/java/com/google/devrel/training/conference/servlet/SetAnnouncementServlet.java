@@ -5,6 +5,9 @@ import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.common.base.Joiner;
 import com.google.devrel.training.conference.Constants;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.service.CapacityService;
+import com.google.devrel.training.conference.service.ResourceVersions;
+import com.googlecode.objectify.Key;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -29,10 +32,9 @@ public class SetAnnouncementServlet extends HttpServlet {
             throws ServletException, IOException {
 
         // COMPLETED: Query for conferences with less than 5 seats left
-        Iterable<Conference> iterable =
-                ofy().load().type(Conference.class)
-                        .filter("seatsAvailable >", 0)
-                        .filter("seatsAvailable <", 5);
+        // The seats available are held by the capacities, children of the conferences.
+        List<Key<Conference>> conferenceKeys = CapacityService.nearlySoldOut();
+        Iterable<Conference> iterable = ofy().load().keys(conferenceKeys).values();
 
         // COMPLETED: Iterate over the conferences with less than 5 seats less and get the name of each one
         List<String> conferenceNames = new ArrayList<>(0);
@@ -56,6 +58,7 @@ public class SetAnnouncementServlet extends HttpServlet {
             String announcementText = announcementStringBuilder.toString();
 
             memcacheService.put(announcementKey, announcementText);
+            ResourceVersions.announcementChanged();
 
         }
 
@@ -0,0 +1,42 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.FacetService;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A servlet for applying facet counter deltas,
+ * enqueued as tasks when conferences are created or updated.
+ * Retries of a task are safe: each counter applies a given delta only once.
+ * @author Solange U. Gasengayire
+ */
+public class UpdateFacetsServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+
+        Map<String, Long> deltas = new HashMap<>();
+        addDeltas(deltas, request.getParameterValues(FacetService.INCREMENT_PARAM), 1L);
+        addDeltas(deltas, request.getParameterValues(FacetService.DECREMENT_PARAM), -1L);
+        FacetService.applyDeltas(request.getParameter(FacetService.DELTA_PARAM), deltas);
+
+        response.setStatus(204);
+    }
+
+    private static void addDeltas(Map<String, Long> deltas, String[] ids, long delta) {
+        if (ids == null) {
+            return;
+        }
+        for (String id : ids) {
+            Long current = deltas.get(id);
+            deltas.put(id, current == null ? delta : current + delta);
+        }
+    }
+}
@@ -3,9 +3,12 @@ package com.google.devrel.training.conference.spi;
 import com.google.api.server.spi.config.Api;
 import com.google.api.server.spi.config.ApiMethod;
 import com.google.api.server.spi.config.ApiMethod.HttpMethod;
+import com.google.api.server.spi.config.Nullable;
+import com.google.api.server.spi.response.BadRequestException;
 import com.google.api.server.spi.response.ConflictException;
 import com.google.api.server.spi.response.ForbiddenException;
 import com.google.api.server.spi.response.NotFoundException;
+import com.google.api.server.spi.response.ServiceUnavailableException;
 import com.google.api.server.spi.response.UnauthorizedException;
 import com.google.appengine.api.memcache.MemcacheService;
 import com.google.appengine.api.memcache.MemcacheServiceFactory;
@@ -17,20 +20,70 @@ import com.google.devrel.training.conference.Constants;
 import com.google.devrel.training.conference.domain.Announcement;
 import com.google.devrel.training.conference.domain.AppEngineUser;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceFacets;
+import com.google.devrel.training.conference.domain.ConferencePage;
+import com.google.devrel.training.conference.domain.ConferenceCapacity;
+import com.google.devrel.training.conference.domain.ConferenceDetail;
+import com.google.devrel.training.conference.domain.ConferenceSummary;
+import com.google.devrel.training.conference.domain.ConferenceSummaryPage;
+import com.google.devrel.training.conference.domain.GroupRegistration;
+import com.google.devrel.training.conference.domain.GroupRegistrationSaga;
+import com.google.devrel.training.conference.domain.HomeScreen;
+import com.google.devrel.training.conference.domain.IdempotencyRecord;
 import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.QueryExplanation;
+import com.google.devrel.training.conference.domain.RegistrationResult;
+import com.google.devrel.training.conference.domain.SeatHold;
+import com.google.devrel.training.conference.domain.WaitingRoomTicket;
+import com.google.devrel.training.conference.domain.Suggestion;
+import com.google.devrel.training.conference.domain.Waitlist;
+import com.google.devrel.training.conference.domain.WaitlistEntry;
+import com.google.devrel.training.conference.domain.WaitlistPosition;
+import com.google.devrel.training.conference.form.BatchRegistrationForm;
 import com.google.devrel.training.conference.form.ConferenceForm;
 import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.GroupRegistrationForm;
+import com.google.devrel.training.conference.form.HomeScreenForm;
 import com.google.devrel.training.conference.form.ProfileForm;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.common.base.Supplier;
+import com.google.common.collect.Lists;
+import com.google.devrel.training.conference.service.AdmissionController;
+import com.google.devrel.training.conference.service.AutocompleteService;
+import com.google.devrel.training.conference.service.BatchLoader;
+import com.google.devrel.training.conference.service.CapacityService;
+import com.google.devrel.training.conference.service.ConferenceQueryService;
+import com.google.devrel.training.conference.service.FacetService;
+import com.google.devrel.training.conference.service.GroupRegistrationService;
+import com.google.devrel.training.conference.service.HomeScreenService;
+import com.google.devrel.training.conference.service.IdempotencyService;
+import com.google.devrel.training.conference.service.MembershipService;
 import com.google.devrel.training.conference.service.OfyService;
+import com.google.devrel.training.conference.service.QueryModeSelector;
+import com.google.devrel.training.conference.service.QueryProfile;
+import com.google.devrel.training.conference.service.ResourceVersions;
+import com.google.devrel.training.conference.service.SeatHoldService;
+import com.google.devrel.training.conference.service.SingleFlight;
+import com.google.devrel.training.conference.service.TransactionRunner;
+import com.google.devrel.training.conference.service.VersionService;
+import com.google.devrel.training.conference.service.WaitingRoomService;
+import com.google.devrel.training.conference.service.WaitlistService;
+import com.google.devrel.training.conference.servlet.ConditionalRequestFilter;
 import com.googlecode.objectify.Key;
+import com.googlecode.objectify.LoadResult;
 import com.googlecode.objectify.Objectify;
 import com.googlecode.objectify.Work;
 
 import javax.inject.Named;
+import javax.servlet.http.HttpServletRequest;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.ConcurrentModificationException;
 import java.util.List;
+import java.util.UUID;
 import java.util.logging.Logger;
 
 import static com.google.devrel.training.conference.service.OfyService.ofy;
@@ -52,6 +105,30 @@ public class ConferenceApi {
 
     private static final Logger LOG = Logger.getLogger(ConferenceApi.class.getName());
 
+    private static final int MAX_SUGGESTIONS = 10;
+
+    /**
+     * The most entity groups a cross-group transaction may touch.
+     */
+    private static final int MAX_XG_ENTITY_GROUPS = 25;
+
+    /**
+     * The most attendees a group registration may hold.
+     */
+    private static final int MAX_GROUP_SIZE = 200;
+
+    /**
+     * The most conferences a batch registration may hold.
+     */
+    private static final int MAX_BATCH_REGISTRATIONS = 100;
+
+    /**
+     * How many times a conference update starts over when the conference changes concurrently.
+     */
+    private static final int MAX_UPDATE_ATTEMPTS = 3;
+
+    private static final String IF_MATCH_HEADER = "If-Match";
+
     /**
      * Get the display name from the user's email.
      * For example, if the email is lemoncake@example.com, then the display name becomes "lemoncake."
@@ -68,9 +145,18 @@ public class ConferenceApi {
      * @return user's Profile
      */
     private static Profile getProfileFromUser(User user, String userId) {
+        return getProfileFromUser(user, userId, new BatchLoader().defer(Key.create(Profile.class, userId)));
+    }
+
+    /**
+     * Gets the Profile entity for the current user or creates it if it doesn't exist
+     * @param user the current user
+     * @param deferredProfile the user's Profile, deferred along with the other entities the caller needs
+     * @return user's Profile
+     */
+    private static Profile getProfileFromUser(User user, String userId, BatchLoader.Deferred<Profile> deferredProfile) {
         // First fetch it from the datastore.
-        Profile profile = ofy().load().key(
-                Key.create(Profile.class, userId)).now();
+        Profile profile = deferredProfile.get();
         if (profile == null) {
             // Create a new Profile if not exist.
             String email = user.getEmail();
@@ -104,6 +190,75 @@ public class ConferenceApi {
         return userId;
     }
 
+    /**
+     * Returns the Idempotency-Key header of the given request.
+     * @param request the HTTP request, null when called outside of a request
+     * @return the idempotency key, null when the request has none
+     * @throws BadRequestException when the key is invalid
+     */
+    private static String getIdempotencyKey(HttpServletRequest request) throws BadRequestException {
+        try {
+            return IdempotencyService.getKey(request);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+    }
+
+    /**
+     * Admits a write to the given conference, or sheds it when the conference receives too many.
+     * @param websafeConferenceKey the key of the conference
+     * @throws ServiceUnavailableException when the write is shed, telling when to retry
+     */
+    private static void admit(String websafeConferenceKey) throws ServiceUnavailableException {
+        long retryAfterMillis = AdmissionController.admit(websafeConferenceKey);
+        if (retryAfterMillis > 0) {
+            throw new ServiceUnavailableException("Too many registrations for this conference. Retry after "
+                    + (long) Math.ceil(retryAfterMillis / 1000.0) + " seconds.");
+        }
+    }
+
+    /**
+     * Runs the given work in a transaction, retried with backoff by the TransactionRunner.
+     * @param name the name of the transaction, for the metrics
+     * @param entityGroup a key of the entity group the transaction contends on, null for no circuit breaker
+     * @param work the work to run
+     * @return the result of the work
+     * @throws ServiceUnavailableException when the transaction gives up on contention, telling when to retry
+     */
+    private static <R> R transact(String name, Key<?> entityGroup, Work<R> work) throws ServiceUnavailableException {
+        try {
+            return TransactionRunner.run(name, entityGroup, work);
+        } catch (TransactionRunner.ContentionException e) {
+            throw new ServiceUnavailableException(e.getMessage() + " Retry after "
+                    + (long) Math.ceil(e.getRetryAfterMillis() / 1000.0) + " seconds.");
+        }
+    }
+
+    /**
+     * Checks the user was admitted by the waiting room of the given conference, if it has one.
+     * @param conference the conference, null when it doesn't exist
+     * @param userId the user id
+     * @param request the HTTP request, holding the X-Waiting-Room-Token header
+     * @throws ForbiddenException when the user didn't enter the waiting room
+     * @throws ServiceUnavailableException when the user isn't admitted yet, telling when to retry
+     */
+    private static void checkWaitingRoom(Conference conference, String userId, HttpServletRequest request)
+            throws ForbiddenException, ServiceUnavailableException {
+        if (conference == null || !conference.isWaitingRoom()) {
+            return;
+        }
+        WaitingRoomTicket ticket = WaitingRoomService.status(conference.getConferenceKey(), userId,
+                WaitingRoomService.getToken(request));
+        if (ticket == null) {
+            throw new ForbiddenException("Registrations for this conference go through its waiting room. "
+                    + "Enter it first.");
+        }
+        if (!ticket.isAdmitted()) {
+            throw new ServiceUnavailableException("You are not admitted yet: " + ticket.getAheadOfYou()
+                    + " users are ahead of you. Retry after " + ticket.getEstimatedWaitSeconds() + " seconds.");
+        }
+    }
+
     /**
      * Utility class for wrapping boolean values.
      * This is because endpoint functions must return objects,
@@ -223,24 +378,44 @@ public class ConferenceApi {
         } else {
             profile.update(displayName, teeShirtSize);
         }
+        if (profileForm.getGroupRegistrarUserIds() != null) {
+            profile.allowGroupRegistrationBy(profileForm.getGroupRegistrarUserIds());
+        }
         ofy().save().entity(profile).now();
+        ResourceVersions.profileChanged(getUserId(user));
         return profile;
     }
 
     /**
      * Creates a new Conference object and stores it to the datastore.
+     * A retry of a request sent with an Idempotency-Key header returns the conference created the first time.
      *
      * @param user A user who invokes this method, null when the user is not signed in.
      * @param conferenceForm A ConferenceForm object representing user's inputs.
+     * @param request the HTTP request, holding the optional Idempotency-Key header.
      * @return A newly created Conference Object.
      * @throws UnauthorizedException when the user is not signed in.
+     * @throws BadRequestException when the idempotency key is invalid.
+     * @throws ServiceUnavailableException when the transaction gives up on contention.
      */
     @ApiMethod(name = "createConference", path = "conference", httpMethod = HttpMethod.POST)
-    public Conference createConference(final User user, final ConferenceForm conferenceForm)
-        throws UnauthorizedException {
+    public Conference createConference(final User user, final ConferenceForm conferenceForm,
+                                       final HttpServletRequest request)
+        throws UnauthorizedException, BadRequestException, ServiceUnavailableException {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
+        final Key<IdempotencyRecord> recordKey = IdempotencyService.recordKey(
+                getUserId(user), "createConference", getIdempotencyKey(request));
+        String createdKey = IdempotencyService.find(recordKey);
+        if (createdKey != null) {
+            // A retry: don't allocate a new Id, nor send another confirmation email.
+            Key<Conference> createdConferenceKey = Key.create(createdKey);
+            BatchLoader batch = BatchLoader.current();
+            BatchLoader.Deferred<Conference> deferredConference = batch.defer(createdConferenceKey);
+            batch.defer(ConferenceCapacity.keyOf(createdConferenceKey));
+            return deferredConference.get();
+        }
         // Allocate Id first, in order to make the transaction idempotent.
         Key<Profile> profileKey = Key.create(Profile.class, getUserId(user));
         final Key<Conference> conferenceKey = OfyService.ofy().factory().allocateId(profileKey, Conference.class);
@@ -249,82 +424,194 @@ public class ConferenceApi {
         final String userId = getUserId(user);
 
         // Start a transaction.
-        Conference conference = ofy().transact(new Work<Conference>() {
+        Conference conference = transact("createConference", profileKey, new Work<Conference>() {
             @Override
             public Conference run() {
+                // A concurrent copy of this request may have committed since the check above.
+                String createdKey = IdempotencyService.find(recordKey);
+                if (createdKey != null) {
+                    return ofy().load().key(Key.<Conference>create(createdKey)).now();
+                }
                 // Fetch user's Profile.
                 Profile profile = getProfileFromUser(user, userId);
                 Conference conference = new Conference(conferenceId, userId, conferenceForm);
-                // Save Conference and Profile.
-                ofy().save().entities(conference, profile).now();
+                // Save Conference, its summary, its capacity and Profile.
+                ofy().save().entities(conference, ConferenceSummary.of(conference),
+                        ConferenceCapacity.of(conference), profile).now();
+                IdempotencyService.record(recordKey, conference.getWebsafeKey());
 
                 // Add "send confirmation email" task
                 queue.add(ofy().getTransaction(),
                         TaskOptions.Builder.withUrl("/tasks/send_confirmation_email")
                         .param("email", profile.getMainEmail())
                         .param("conferenceInfo", conference.toString()));
+
+                // Add "update facet counters" task
+                TaskOptions facetTask = FacetService.deltaTask(
+                        FacetService.facetIds(null), FacetService.facetIds(conference));
+                if (facetTask != null) {
+                    queue.add(ofy().getTransaction(), facetTask);
+                }
                 return conference;
             }
         });
+        ResourceVersions.conferencesCreatedChanged(userId);
+        // For the seats available: the transaction saved the capacity, unless a concurrent retry created it.
+        BatchLoader.current().defer(ConferenceCapacity.keyOf(conference.getConferenceKey()));
         return conference;
     }
 
     /**
      * Update the existing Conference with the given conferenceId.
+     *
+     * The conference is read and updated outside of any transaction, then committed by a short
+     * transaction only if its version didn't change meanwhile: organizer edits don't hold the entity
+     * group while they run. A concurrent change makes the update start over, from the new version.
+     * The seat accounting is only written when the maximum number of attendees changes.
+     *
+     * The If-Match header holds either the ETag getConference sent, derived from the version stamps of
+     * the conference, or the version of the conference as a quoted number. Either way, the update only
+     * applies to the conference as it was when the header was checked.
      * @param user A user who invokes this method, null when the user is not signed in.
      * @param conferenceForm A ConferenceForm object representing user's inputs.
      * @param websafeConferenceKey The String representation of the Conference key.
+     * @param request the HTTP request, holding the optional If-Match header with the version the update is based on.
      * @return Updated Conference object.
      * @throws UnauthorizedException when the user is not signed in.
      * @throws NotFoundException when there is no Conference with the given conferenceId.
      * @throws ForbiddenException when the user is not the owner of the Conference.
+     * @throws ConflictException when the conference doesn't match the If-Match version, or keeps changing.
+     * @throws ServiceUnavailableException when the transaction gives up on contention.
      */
     @ApiMethod(name = "updateConference",path = "conference/{websafeConferenceKey}", httpMethod = HttpMethod.PUT)
     public Conference updateConference(final User user, final ConferenceForm conferenceForm,
                                        @Named("websafeConferenceKey")
-                                       final String websafeConferenceKey)
-            throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException {
+                                       final String websafeConferenceKey,
+                                       final HttpServletRequest request)
+            throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException,
+            ServiceUnavailableException {
         // If not signed in, throw a 401 error.
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
         final String userId = getUserId(user);
-        // Update the conference with the conferenceForm sent from the client.
+        final Queue queue = QueueFactory.getDefaultQueue();
+        final Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        String ifMatch = request == null ? null : request.getHeader(IF_MATCH_HEADER);
+        // Read before the conference: a change committed since then has bumped them.
+        String currentTag = ifMatch == null ? null : ConditionalRequestFilter.etagOf(
+                VersionService.current(ResourceVersions.conference(conferenceKey)));
+        // The version the If-Match header stood for, once checked.
+        Long matchedVersion = null;
 
-        // Need a transaction because we need to safely preserve the number of allocated seats.
-        TxResult<Conference> result = ofy().transact(new Work<TxResult<Conference>>() {
-            @Override
-            public TxResult<Conference> run() {
-                // If there is no Conference with the id, throw a 404 error.
-                Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-                Conference conference = ofy().load().key(conferenceKey).now();
-                if (conference == null) {
-                    return new TxResult<>(
-                            new NotFoundException("No Conference found with the key: "
-                                    + websafeConferenceKey));
+        for (int attempt = 0; attempt < MAX_UPDATE_ATTEMPTS; attempt++) {
+            // Start both loads before waiting for either, so that they run in parallel.
+            LoadResult<Conference> conferenceResult = ofy().load().key(conferenceKey);
+            LoadResult<Profile> profileResult = ofy().load().key(Key.create(Profile.class, userId));
+            // If there is no Conference with the id, throw a 404 error.
+            final Conference conference = conferenceResult.now();
+            if (conference == null) {
+                throw new NotFoundException("No Conference found with the key: " + websafeConferenceKey);
+            }
+            // If the user is not the owner, throw a 403 error.
+            Profile profile = profileResult.now();
+            if (profile == null || !conference.getOrganizerUserId().equals(userId)) {
+                throw new ForbiddenException("Only the owner can update the conference.");
+            }
+            final long version = conference.getVersion();
+            if (ifMatch != null) {
+                if (matchedVersion == null
+                        && (ifMatch.equals(versionTag(version)) || ifMatch.equals(currentTag))) {
+                    matchedVersion = version;
                 }
-                // If the user is not the owner, throw a 403 error.
-                Profile profile = ofy().load().key(Key.create(Profile.class, userId)).now();
-                if (profile == null ||
-                        !conference.getOrganizerUserId().equals(userId)) {
-                    return new TxResult<>(
-                            new ForbiddenException("Only the owner can update the conference."));
+                if (matchedVersion == null || matchedVersion != version) {
+                    throw new ConflictException("The conference was modified: its version is now " + version);
                 }
-                conference.updateWithConferenceForm(conferenceForm);
-                ofy().save().entity(conference).now();
-                return new TxResult<>(conference);
             }
-        });
-        // NotFoundException or ForbiddenException is actually thrown here.
-        return result.getResult();
+            final List<String> facetsBefore = FacetService.facetIds(conference);
+            conference.updateWithConferenceForm(conferenceForm);
+
+            // Commit only if nothing changed since the conference was read.
+            TxResult<Boolean> committed = transact("updateConference", conferenceKey,
+                    new Work<TxResult<Boolean>>() {
+                @Override
+                public TxResult<Boolean> run() {
+                    Conference current = ofy().load().key(conferenceKey).now();
+                    if (current == null) {
+                        return new TxResult<>(new NotFoundException(
+                                "No Conference found with the key: " + websafeConferenceKey));
+                    }
+                    if (current.getVersion() != version) {
+                        return new TxResult<>(false);
+                    }
+                    // The backfill may have counted the conference since it was read.
+                    if (current.isFacetsCounted()) {
+                        conference.markFacetsCounted();
+                    }
+                    List<Object> entities = new ArrayList<>();
+                    entities.add(conference);
+                    entities.add(ConferenceSummary.of(conference));
+                    // Registrations only conflict with the edits that resize the conference.
+                    if (conference.getMaxAttendees() != current.getMaxAttendees()) {
+                        BatchLoader batch = new BatchLoader();
+                        BatchLoader.Deferred<ConferenceCapacity> deferredCapacity =
+                                batch.defer(ConferenceCapacity.keyOf(conferenceKey));
+                        BatchLoader.Deferred<Waitlist> deferredWaitlist = batch.defer(Waitlist.keyOf(conferenceKey));
+                        ConferenceCapacity capacity = CapacityService.capacityOf(conferenceKey, deferredCapacity);
+                        capacity.resize(conference.getMaxAttendees());
+                        entities.add(capacity);
+                        // The new seats go to the users already waiting for them.
+                        if (conference.getMaxAttendees() > current.getMaxAttendees()
+                                && Waitlist.isWaiting(deferredWaitlist.get())) {
+                            queue.add(ofy().getTransaction(), WaitlistService.promotionTask(conferenceKey));
+                        }
+                    }
+                    ofy().save().entities(entities).now();
+
+                    // Move the facet counters from the old values to the new ones.
+                    // Conferences not counted yet are counted with their new values by the backfill.
+                    if (conference.isFacetsCounted()) {
+                        TaskOptions facetTask = FacetService.deltaTask(facetsBefore, FacetService.facetIds(conference));
+                        if (facetTask != null) {
+                            queue.add(ofy().getTransaction(), facetTask);
+                        }
+                    }
+                    return new TxResult<>(true);
+                }
+            });
+            // NotFoundException is actually thrown here.
+            if (committed.getResult()) {
+                ResourceVersions.conferenceChanged(conferenceKey);
+                // For the seats available.
+                BatchLoader.current().defer(ConferenceCapacity.keyOf(conferenceKey));
+                return conference;
+            }
+            // Read the new version again, from the datastore.
+            ofy().clear();
+        }
+        throw new ConflictException("The conference keeps being modified. Please retry.");
+    }
+
+    /**
+     * Returns the entity tag of the given conference version, as sent in If-Match headers.
+     * @param version the version of a conference
+     * @return the entity tag
+     */
+    private static String versionTag(long version) {
+        return "\"" + version + "\"";
     }
 
     /**
      * A method to retrieve the latest announcement out of memcache.
-     * @return an announcement if available
+     * @param request the HTTP request, holding the optional If-None-Match and If-Modified-Since headers.
+     * @return an announcement if available, null when the client's copy is still fresh
      */
     @ApiMethod(name = "getAnnouncement", path = "announcement", httpMethod = HttpMethod.GET)
-    public Announcement getAnnouncement() {
+    public Announcement getAnnouncement(final HttpServletRequest request) {
+        if (ConditionalRequestFilter.isNotModified(
+                request, ResourceVersions.announcement(), ConditionalRequestFilter.PUBLIC)) {
+            return null;
+        }
         MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
         Object message = memcacheService.get(Constants.MEMCACHE_ANNOUNCEMENTS_KEY);
 
@@ -340,20 +627,102 @@ public class ConferenceApi {
     /**
      * Returns a Conference object with the given conference key.
      * @param websafeConferenceKey The String representation of the Conference Key.
-     * @return a Conference object with the given conferenceId.
+     * @param request the HTTP request, holding the optional If-None-Match and If-Modified-Since headers.
+     * @return a Conference object with the given conferenceId, null when the client's copy is still fresh.
      * @throws NotFoundException when there is no Conference with the given conferenceId.
      */
     @ApiMethod(name = "getConference", path = "conference/{websafeConferenceKey}", httpMethod = HttpMethod.GET)
-    public Conference getConference(@Named("websafeConferenceKey") final String websafeConferenceKey)
+    public Conference getConference(@Named("websafeConferenceKey") final String websafeConferenceKey,
+                                    final HttpServletRequest request)
             throws NotFoundException {
-        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-        Conference conference = ofy().load().key(conferenceKey).now();
+        final Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        if (ConditionalRequestFilter.isNotModified(
+                request, ResourceVersions.conference(conferenceKey), ConditionalRequestFilter.PUBLIC)) {
+            return null;
+        }
+        // Concurrent requests for the same conference share a single load.
+        BatchLoader.Snapshot<Conference> snapshot = SingleFlight.run("getConference", websafeConferenceKey,
+                new Supplier<BatchLoader.Snapshot<Conference>>() {
+                    @Override
+                    public BatchLoader.Snapshot<Conference> get() {
+                        // The conference, its capacity and its organizer, in a single multi-get.
+                        List<Key<?>> keys = new ArrayList<>();
+                        keys.add(conferenceKey);
+                        if (conferenceKey.getParent() != null) {
+                            keys.add(ConferenceCapacity.keyOf(conferenceKey));
+                            keys.add(conferenceKey.getParent());
+                        }
+                        BatchLoader loader = BatchLoader.current();
+                        for (Key<?> key : keys) {
+                            loader.defer(key);
+                        }
+                        return loader.snapshot(loader.defer(conferenceKey).get(), keys);
+                    }
+                });
+        Conference conference = BatchLoader.current().restore(snapshot);
         if (conference == null) {
             throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
         }
         return conference;
     }
 
+    /**
+     * Returns what the conference detail page displays: the conference, the display name of its organizer,
+     * and the registration status of the user. Everything is fetched with a single multi-get: the conference,
+     * its capacity, the organizer's and the user's profiles, and the user's waitlist entry.
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the conference detail, without registration status when the user is not signed in.
+     * @throws NotFoundException when there is no Conference with the given key.
+     */
+    @ApiMethod(
+            name = "getConferenceDetail",
+            path = "conference/{websafeConferenceKey}/detail",
+            httpMethod = HttpMethod.GET
+    )
+    public ConferenceDetail getConferenceDetail(final User user,
+                                                @Named("websafeConferenceKey") final String websafeConferenceKey)
+            throws NotFoundException {
+        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        if (conferenceKey.getParent() == null) {
+            throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+        }
+        BatchLoader batch = BatchLoader.current();
+        BatchLoader.Deferred<Conference> deferredConference = batch.defer(conferenceKey);
+        BatchLoader.Deferred<Profile> deferredOrganizer = batch.defer(
+                Key.create(Profile.class, conferenceKey.getParent().getName()));
+        // Loaded with the others, for the seats available.
+        batch.defer(ConferenceCapacity.keyOf(conferenceKey));
+        BatchLoader.Deferred<Profile> deferredProfile = null;
+        BatchLoader.Deferred<WaitlistEntry> deferredEntry = null;
+        if (user != null) {
+            String userId = getUserId(user);
+            deferredProfile = batch.defer(Key.create(Profile.class, userId));
+            deferredEntry = batch.defer(WaitlistEntry.keyOf(conferenceKey, userId));
+        }
+
+        Conference conference = deferredConference.get();
+        if (conference == null) {
+            throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+        }
+        Profile organizer = deferredOrganizer.get();
+        String organizerDisplayName =
+                organizer == null ? conference.getOrganizerUserId() : organizer.getDisplayName();
+
+        ConferenceDetail.RegistrationStatus status = null;
+        if (deferredProfile != null) {
+            Profile profile = deferredProfile.get();
+            if (profile != null && profile.isAttending(websafeConferenceKey)) {
+                status = ConferenceDetail.RegistrationStatus.REGISTERED;
+            } else if (deferredEntry.get() != null) {
+                status = ConferenceDetail.RegistrationStatus.WAITLISTED;
+            } else {
+                status = ConferenceDetail.RegistrationStatus.NOT_REGISTERED;
+            }
+        }
+        return new ConferenceDetail(conference, organizerDisplayName, status);
+    }
+
     /**
      * Returns a collection of Conference Object that the user is going to attend.
      * @param user An user who invokes this method, null when the user is not signed in.
@@ -376,44 +745,228 @@ public class ConferenceApi {
         for (String keyString : keyStringsToAttend) {
             keysToAttend.add(Key.<Conference>create(keyString));
         }
-        return ofy().load().keys(keysToAttend).values();
+        Collection<Conference> conferences = ofy().load().keys(keysToAttend).values();
+        ConferenceQueryService.deferCapacities(conferences);
+        return conferences;
+    }
+
+    /**
+     * Returns the summaries of the conferences that the user is going to attend.
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param registrationStatus whether to annotate each summary with the registration status of the user.
+     * @return a Collection of summaries of the Conferences that the user is going to attend.
+     * @throws UnauthorizedException when the User object is null.
+     * @throws NotFoundException when the user has no Profile.
+     */
+    @ApiMethod(name = "getConferenceSummariesToAttend", path = "getConferenceSummariesToAttend",
+            httpMethod = HttpMethod.GET)
+    public Collection<ConferenceSummary> getConferenceSummariesToAttend(
+            final User user, @Named("registrationStatus") @Nullable final Boolean registrationStatus)
+            throws UnauthorizedException, NotFoundException {
+        // If not signed in, throw a 401 error.
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        Profile profile = ofy().load().key(Key.create(Profile.class, getUserId(user))).now();
+        if (profile == null) {
+            throw new NotFoundException("Profile doesn't exist.");
+        }
+        List<Key<Conference>> keysToAttend = new ArrayList<>();
+        for (String keyString : profile.getConferenceKeysToAttend()) {
+            keysToAttend.add(Key.<Conference>create(keyString));
+        }
+        Collection<ConferenceSummary> summaries = ConferenceQueryService.loadSummaries(keysToAttend).values();
+        if (Boolean.TRUE.equals(registrationStatus)) {
+            // The profile was just loaded: every summary is one of its conferences.
+            for (ConferenceSummary summary : summaries) {
+                summary.setRegistered(true);
+            }
+        }
+        return summaries;
+    }
+
+    /**
+     * Returns everything the home screen displays on load, in a single round trip: the profile,
+     * the announcement, and the pages of conferences matching the query, created by the user and to attend.
+     * The reads run concurrently. Each page comes with the cursor of the next one, passed back in the form.
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param homeScreenForm the query of the conferences section, and the cursors of every section.
+     * @return the home screen, without the sections of the user when not signed in.
+     * @throws BadRequestException when a cursor or the query is invalid.
+     */
+    @ApiMethod(name = "getHomeScreen", path = "homeScreen", httpMethod = HttpMethod.POST)
+    public HomeScreen getHomeScreen(final User user, final HomeScreenForm homeScreenForm)
+            throws BadRequestException {
+        try {
+            return HomeScreenService.load(user == null ? null : getUserId(user), homeScreenForm);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
     }
 
     /**
      * Queries against the datastore with the given filters and returns the result.
      * Normally, this kind of method is supposed to get invoked by a GET HTTP method,
-     * but we do it with POST, in order to receive a conferenceQueryForm object via the POST method
+     * but we do it with POST, in order to receive a conferenceQueryForm object via the POST method.
+     * When the form has its explain flag set, the query execution is profiled and logged.
      *
      * @param conferenceQueryForm the actual query form, where users specify the query criteria
      * @return a list of conferences that match the query.
+     * @throws BadRequestException when the cursor is invalid, or the query can't be paged.
      */
     @ApiMethod(name = "queryConferences", path = "queryConferences", httpMethod = HttpMethod.POST)
-    public List<Conference> queryConferences(ConferenceQueryForm conferenceQueryForm) {
-        // find all entities of type/kind Conference
-        // Query<Conference> query = ofy().load().type(Conference.class).order("name");
+    public List<Conference> queryConferences(final ConferenceQueryForm conferenceQueryForm)
+            throws BadRequestException {
+        try {
+            return runConferenceQuery(conferenceQueryForm);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+    }
 
-        // return all entities matching the user criteria in the query form
-        // Query<Conference> query = queryForm.getQuery();
+    /**
+     * Runs the query of queryConferences, sharing concurrent identical executions unless explained.
+     */
+    private List<Conference> runConferenceQuery(final ConferenceQueryForm conferenceQueryForm) {
+        if (!conferenceQueryForm.isExplain()) {
+            // Concurrent identical queries share a single execution.
+            String query = conferenceQueryForm.filterKey() + ":" + conferenceQueryForm.getCursor()
+                    + ":" + conferenceQueryForm.getLimit();
+            BatchLoader.Snapshot<List<Conference>> snapshot = SingleFlight.run("queryConferences", query,
+                    new Supplier<BatchLoader.Snapshot<List<Conference>>>() {
+                        @Override
+                        public BatchLoader.Snapshot<List<Conference>> get() {
+                            List<Conference> conferences =
+                                    ConferenceQueryService.execute(conferenceQueryForm, QueryProfile.disabled());
+                            // The organizers and capacities the conferences show, deferred by the query.
+                            List<Key<?>> keys = new ArrayList<>();
+                            for (Conference conference : conferences) {
+                                keys.add(conference.getProfileKey());
+                                keys.add(ConferenceCapacity.keyOf(conference.getConferenceKey()));
+                            }
+                            return BatchLoader.current().snapshot(conferences, keys);
+                        }
+                    });
+            return BatchLoader.current().restore(snapshot);
+        }
+        QueryProfile profile = QueryProfile.enabled();
+        try {
+            QueryModeSelector.Mode mode = QueryModeSelector.select();
+            List<Conference> result = ConferenceQueryService.page(conferenceQueryForm, mode, profile).getItems();
+            LOG.info(profile.explain(ConferenceQueryService.describeQueries(conferenceQueryForm),
+                    ConferenceQueryService.describePlan(conferenceQueryForm, mode)).toString());
+            return result;
+        } finally {
+            profile.close();
+        }
+    }
 
-        /*
-         * When the Web UI displays conferences, it shows the conference organizer's display name.
-         * However, for each conference, the organizer's display name is calculated on the fly when needed,
-         * in case the organizer changes their display name.
-         * So to decrease the hits to the datastore, we can preload all the Profile entities for the users
-         * who have organized conferences.
-         */
+    /**
+     * Queries against the datastore with the given filters and returns a page of conference summaries,
+     * holding only the properties list views display.
+     * The page size and the cursor of the page to fetch are taken from the query form.
+     *
+     * When the form asks for them, the summaries are annotated with the registration status of the user,
+     * from a single lookup of the set of conferences the user registered for.
+     *
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param conferenceQueryForm the actual query form, where users specify the query criteria,
+     *                            null for the first page of every conference
+     * @return a page of summaries of the conferences that match the query, along with the cursor of the next page.
+     * @throws BadRequestException when the cursor is invalid, or the query can't be paged.
+     */
+    @ApiMethod(name = "queryConferenceSummaries", path = "queryConferenceSummaries", httpMethod = HttpMethod.POST)
+    public ConferenceSummaryPage queryConferenceSummaries(final User user, ConferenceQueryForm conferenceQueryForm)
+            throws BadRequestException {
+        if (conferenceQueryForm == null) {
+            conferenceQueryForm = new ConferenceQueryForm();
+        }
+        ConferenceSummaryPage page;
+        try {
+            page = ConferenceQueryService.summaries(conferenceQueryForm, QueryProfile.disabled());
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+        if (conferenceQueryForm.isRegistrationStatus() && user != null) {
+            MembershipService.annotate(getUserId(user), page.getItems());
+        }
+        return page;
+    }
+
+    /**
+     * Queries against the datastore with the given filters and returns a page of the result.
+     * The page size and the cursor of the page to fetch are taken from the query form.
+     *
+     * @param conferenceQueryForm the actual query form, where users specify the query criteria
+     * @return a page of conferences that match the query, along with the cursor of the next page.
+     * @throws BadRequestException when the cursor is invalid, or the query can't be paged.
+     */
+    @ApiMethod(name = "queryConferencesPage", path = "queryConferencesPage", httpMethod = HttpMethod.POST)
+    public ConferencePage queryConferencesPage(ConferenceQueryForm conferenceQueryForm) throws BadRequestException {
+        try {
+            return ConferenceQueryService.page(conferenceQueryForm, QueryProfile.disabled());
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+    }
 
-        Iterable<Conference> conferenceIterable = conferenceQueryForm.getQuery();
-        List<Conference> result = new ArrayList<>(0);
-        List<Key<Profile>> organizersKeyList = new ArrayList<>(0);
-        for (Conference conference : conferenceIterable) {
-            organizersKeyList.add(Key.create(Profile.class, conference.getOrganizerUserId()));
-            result.add(conference);
+    /**
+     * Runs the given query and explains how it was executed: the generated datastore query,
+     * the index used, the rows scanned and returned, the time spent per stage, and on the development server
+     * the RPCs issued.
+     * Restricted to administrators.
+     *
+     * @param user the user who invokes this method
+     * @param conferenceQueryForm the query form to explain
+     * @return the query explanation.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws ForbiddenException when the user is not an administrator.
+     */
+    @ApiMethod(name = "explainQuery", path = "explainQuery", httpMethod = HttpMethod.POST)
+    public QueryExplanation explainQuery(final User user, ConferenceQueryForm conferenceQueryForm)
+            throws UnauthorizedException, ForbiddenException {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        if (!Constants.ADMIN_EMAILS.contains(user.getEmail())) {
+            throw new ForbiddenException("Only administrators can explain queries.");
         }
+        return ConferenceQueryService.explain(conferenceQueryForm);
+    }
+
+    /**
+     * Returns the number of conferences per city, topic and month.
+     * Counts are restricted to the conferences matching the given filters, if any.
+     *
+     * @param conferenceQueryForm the current query form
+     * @return the conference facets, along with the version stamp they were computed from.
+     */
+    @ApiMethod(name = "getConferenceFacets", path = "conferenceFacets", httpMethod = HttpMethod.POST)
+    public ConferenceFacets getConferenceFacets(ConferenceQueryForm conferenceQueryForm) {
+        return FacetService.getFacets(conferenceQueryForm);
+    }
 
-        // To avoid separate datastore gets for each Conference, pre-fetch the Profiles.
-        ofy().load().keys(organizersKeyList);
-        return result;
+    /**
+     * Returns the most popular values starting with the given prefix,
+     * to help users reuse existing spellings of cities and topics.
+     *
+     * @param field the field to complete, either CITY or TOPIC
+     * @param prefix the prefix typed by the user
+     * @return a list of suggestions, most popular first.
+     * @throws BadRequestException when the field cannot be completed.
+     */
+    @ApiMethod(name = "autocomplete", path = "autocomplete", httpMethod = HttpMethod.GET)
+    public List<Suggestion> autocomplete(@Named("field") final ConferenceQueryForm.Field field,
+                                         @Named("prefix") final String prefix)
+            throws BadRequestException {
+        switch (field) {
+            case CITY:
+                return AutocompleteService.suggestCities(prefix, MAX_SUGGESTIONS);
+            case TOPIC:
+                return AutocompleteService.suggestTopics(prefix, MAX_SUGGESTIONS);
+            default:
+                throw new BadRequestException("No suggestions available for " + field);
+        }
     }
 
     /**
@@ -429,21 +982,89 @@ public class ConferenceApi {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
+        return loadConferencesCreated(getUserId(user));
+    }
+
+    /**
+     * Returns the conferences created by the user, as getConferencesCreated does, with a GET method
+     * so that clients can revalidate the list they hold with a conditional request.
+     *
+     * @param user the ancestor entity - the user who created the conferences
+     * @param request the HTTP request, holding the optional If-None-Match and If-Modified-Since headers.
+     * @return a list of conferences created by the logged in user, null when the client's copy is still fresh
+     */
+    @ApiMethod(name = "listConferencesCreated", path = "conferencesCreated", httpMethod = HttpMethod.GET)
+    public List<Conference> listConferencesCreated(final User user, final HttpServletRequest request)
+            throws UnauthorizedException {
+        // If not signed in, throw a 401 error.
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
         String userId = getUserId(user);
-        return ofy().load().type(Conference.class)
+        if (ConditionalRequestFilter.isNotModified(
+                request, ResourceVersions.conferencesCreated(userId), ConditionalRequestFilter.PRIVATE)) {
+            return null;
+        }
+        return loadConferencesCreated(userId);
+    }
+
+    /**
+     * Loads the conferences created by the given user, ordered by name, along with their capacities.
+     * @param userId the user identifier
+     * @return the conferences
+     */
+    private static List<Conference> loadConferencesCreated(String userId) {
+        List<Conference> conferences = ofy().load().type(Conference.class)
                 .ancestor(Key.create(Profile.class, userId))
                 .order("name").list();
+        ConferenceQueryService.deferCapacities(conferences);
+        return conferences;
+    }
+
+    /**
+     * Returns the summaries of the conferences created by the user, ordered by name.
+     * A keys-only query is followed by a batch get of the summaries.
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param registrationStatus whether to annotate each summary with the registration status of the user.
+     * @return a list of summaries of the Conferences created by the user.
+     * @throws UnauthorizedException when the user is not signed in.
+     */
+    @ApiMethod(name = "getConferenceSummariesCreated", path = "getConferenceSummariesCreated",
+            httpMethod = HttpMethod.POST)
+    public List<ConferenceSummary> getConferenceSummariesCreated(
+            final User user, @Named("registrationStatus") @Nullable final Boolean registrationStatus)
+            throws UnauthorizedException {
+        // If not signed in, throw a 401 error.
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        String userId = getUserId(user);
+        List<Key<Conference>> keys = ofy().load().type(Conference.class)
+                .ancestor(Key.create(Profile.class, userId))
+                .order("name").keys().list();
+        List<ConferenceSummary> summaries = new ArrayList<>(ConferenceQueryService.loadSummaries(keys).values());
+        if (Boolean.TRUE.equals(registrationStatus)) {
+            MembershipService.annotate(userId, summaries);
+        }
+        return summaries;
     }
 
     /**
      * A method to allow users to register for conferences
      * @param user the user registering for the conference
      * @param websafeConferenceKey the conference key to register for
+     * @param request the HTTP request, holding the optional Idempotency-Key header,
+     * and the X-Waiting-Room-Token header for conferences with a waiting room
      * @return a value/flag that indicates whether the operation was successful or not
      * @throws UnauthorizedException in case the user is unidentified
      * @throws NotFoundException in case the specified conference key is not found
-     * @throws ForbiddenException in case of any other unexpected error
-     * @throws ConflictException in case there are no seats available for the specified conference
+     * @throws ForbiddenException in case the conference has a waiting room the user didn't enter,
+     * or of any other unexpected error
+     * @throws ConflictException in case there are no seats available for the specified conference,
+     * or seats are available but other users are waiting for them or holding them
+     * @throws BadRequestException in case the idempotency key is invalid
+     * @throws ServiceUnavailableException in case the conference receives too many writes,
+     * or the user isn't admitted by the waiting room of the conference yet
      */
     @ApiMethod(
             name = "registerForConference",
@@ -451,8 +1072,10 @@ public class ConferenceApi {
             httpMethod = HttpMethod.POST
     )
     public WrappedBoolean registerForConference(final User user,
-                                                @Named("websafeConferenceKey") final String websafeConferenceKey)
-            throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException {
+                                                @Named("websafeConferenceKey") final String websafeConferenceKey,
+                                                final HttpServletRequest request)
+            throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException,
+            BadRequestException, ServiceUnavailableException {
 
         // If not signed in, throw a 401 error.
         if (user == null) {
@@ -462,6 +1085,19 @@ public class ConferenceApi {
         // Get the userId
         final String userId = getUserId(user);
 
+        // A retry of a completed registration is answered without running the transaction again,
+        // and without going through the waiting room or the admission control again.
+        final Key<IdempotencyRecord> recordKey = IdempotencyService.recordKey(
+                userId, "registerForConference:" + websafeConferenceKey, getIdempotencyKey(request));
+        String recorded = IdempotencyService.find(recordKey);
+        if (recorded != null) {
+            return new WrappedBoolean(Boolean.valueOf(recorded));
+        }
+
+        // Users who weren't admitted by the waiting room don't take part in the admission control.
+        checkWaitingRoom(ofy().load().key(Key.<Conference>create(websafeConferenceKey)).now(), userId, request);
+        admit(websafeConferenceKey);
+
         /*
          * Start a transaction with Objectify
          * Google App Engine transactions use snapshot isolation and optimistic concurrency.
@@ -479,32 +1115,215 @@ public class ConferenceApi {
          *   limit the use of transactions as much as possible to entity updates rather than for queries and gets.
          */
 
-        TxResult<Boolean> result = ofy().transact(new Work<TxResult<Boolean>>() {
+        TxResult<Boolean> result = transact("registerForConference", Key.create(websafeConferenceKey),
+                new Work<TxResult<Boolean>>() {
             @Override
             public TxResult<Boolean> run() {
+                // Load the capacity, the Waitlist, the Profile and the idempotency record with a single multi-get.
+                BatchLoader batch = new BatchLoader();
                 Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-                Conference conference = ofy().load().key(conferenceKey).now();
+                BatchLoader.Deferred<ConferenceCapacity> deferredCapacity =
+                        batch.defer(ConferenceCapacity.keyOf(conferenceKey));
+                BatchLoader.Deferred<Waitlist> deferredWaitlist = batch.defer(Waitlist.keyOf(conferenceKey));
+                BatchLoader.Deferred<Profile> deferredProfile = batch.defer(Key.create(Profile.class, userId));
+                BatchLoader.Deferred<IdempotencyRecord> deferredRecord =
+                        recordKey == null ? null : batch.defer(recordKey);
+                ConferenceCapacity capacity = CapacityService.capacityOf(conferenceKey, deferredCapacity);
+                // A concurrent copy of this request may have committed since the check above.
+                String recorded = deferredRecord == null ? null : IdempotencyService.result(deferredRecord.get());
+                if (recorded != null) {
+                    return new TxResult<>(Boolean.valueOf(recorded));
+                }
                 // 404 when there is no Conference with the given conferenceId.
-                if (conference == null) {
+                if (capacity == null) {
                     return new TxResult<>(new NotFoundException(
                             "No Conference found with key: " + websafeConferenceKey));
                 }
                 // Registration happens here.
-                Profile profile = getProfileFromUser(user, userId);
-                if (profile.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
+                Profile profile = getProfileFromUser(user, userId, deferredProfile);
+                if (profile.isAttending(websafeConferenceKey)) {
                     return new TxResult<>(new ConflictException("You have already registered for this conference"));
-                } else if (conference.getSeatsAvailable() <= 0) {
-                    return new TxResult<>(new ConflictException("There are no seats available."));
+                } else if (capacity.getSeatsAvailable() <= 0) {
+                    return new TxResult<>(new ConflictException(
+                            "There are no seats available. You may join the waitlist."));
+                } else if (Waitlist.isWaiting(deferredWaitlist.get())) {
+                    // Freed seats go to the users already waiting for them.
+                    return new TxResult<>(new ConflictException(
+                            "The available seats are held for the waitlist. You may join it."));
+                } else if (capacity.getSeatsAvailable() <= SeatHoldService.heldSeats(conferenceKey)) {
+                    return new TxResult<>(new ConflictException(
+                            "The available seats are held by other users. You may join the waitlist."));
                 } else {
                     profile.addToConferenceKeysToAttend(websafeConferenceKey);
-                    conference.bookSeats(1);
-                    ofy().save().entities(profile, conference).now();
+                    capacity.bookSeats(1);
+                    ofy().save().entities(profile, capacity).now();
+                    IdempotencyService.record(recordKey, Boolean.TRUE.toString());
                     return new TxResult<>(true);
                 }
             }
         });
         // NotFoundException is actually thrown here.
-        return new WrappedBoolean(result.getResult());
+        boolean changed = result.getResult();
+        if (changed) {
+            ResourceVersions.conferenceChanged(Key.<Conference>create(websafeConferenceKey));
+            MembershipService.changed(userId);
+        }
+        return new WrappedBoolean(changed);
+    }
+
+    /**
+     * Registers the user for several conferences at once.
+     * The conferences are registered for in cross-group transactions, each of them writing the user's
+     * profile once: a conference that can't be registered for doesn't prevent the others.
+     * Conferences receiving too many writes are left out, with a RETRY_LATER result, and so are
+     * conferences registering through their waiting room, with a WAITING_ROOM result. So are the
+     * conferences of a transaction giving up on contention: the others keep their results.
+     * @param user the user registering for the conferences
+     * @param batchRegistrationForm the keys of the conferences to register for
+     * @return the outcome of the registration for each conference, in the order of the keys
+     * @throws UnauthorizedException in case the user is unidentified
+     * @throws BadRequestException in case there are no keys, or too many
+     */
+    @ApiMethod(
+            name = "registerForConferences",
+            path = "registrations",
+            httpMethod = HttpMethod.POST
+    )
+    public List<RegistrationResult> registerForConferences(final User user,
+                                                           final BatchRegistrationForm batchRegistrationForm)
+            throws UnauthorizedException, BadRequestException {
+
+        // If not signed in, throw a 401 error.
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        if (batchRegistrationForm == null || batchRegistrationForm.getWebsafeConferenceKeys() == null
+                || batchRegistrationForm.getWebsafeConferenceKeys().isEmpty()) {
+            throw new BadRequestException("A batch registration needs conference keys");
+        }
+        List<String> websafeConferenceKeys =
+                new ArrayList<>(new LinkedHashSet<>(batchRegistrationForm.getWebsafeConferenceKeys()));
+        if (websafeConferenceKeys.size() > MAX_BATCH_REGISTRATIONS) {
+            throw new BadRequestException(
+                    "A batch registration holds at most " + MAX_BATCH_REGISTRATIONS + " conferences");
+        }
+        final String userId = getUserId(user);
+
+        Map<String, RegistrationResult> results = new HashMap<>();
+        List<String> admitted = new ArrayList<>();
+        for (String websafeConferenceKey : websafeConferenceKeys) {
+            if (AdmissionController.admit(websafeConferenceKey) > 0) {
+                results.put(websafeConferenceKey,
+                        new RegistrationResult(websafeConferenceKey, RegistrationResult.Status.RETRY_LATER));
+            } else {
+                admitted.add(websafeConferenceKey);
+            }
+        }
+        // The transactions only read the seat accounting: the conferences themselves are loaded beforehand.
+        List<Key<Conference>> conferenceKeys = new ArrayList<>();
+        for (String websafeConferenceKey : admitted) {
+            Key<Conference> conferenceKey = parseConferenceKey(websafeConferenceKey);
+            if (conferenceKey != null) {
+                conferenceKeys.add(conferenceKey);
+            }
+        }
+        final Map<Key<Conference>, Conference> conferences = ofy().load().keys(conferenceKeys);
+        // The profile group, and one group per conference.
+        for (final List<String> chunk : Lists.partition(admitted, MAX_XG_ENTITY_GROUPS - 1)) {
+            boolean registeredAny = false;
+            List<RegistrationResult> chunkResults;
+            try {
+                chunkResults = TransactionRunner.run("registerForConferences", Key.create(Profile.class, userId),
+                        new Work<List<RegistrationResult>>() {
+                    @Override
+                    public List<RegistrationResult> run() {
+                        BatchLoader batch = new BatchLoader();
+                        BatchLoader.Deferred<Profile> deferredProfile = batch.defer(Key.create(Profile.class, userId));
+                        List<BatchLoader.Deferred<ConferenceCapacity>> deferredCapacities = new ArrayList<>();
+                        List<BatchLoader.Deferred<Waitlist>> deferredWaitlists = new ArrayList<>();
+                        for (String websafeConferenceKey : chunk) {
+                            Key<Conference> conferenceKey = parseConferenceKey(websafeConferenceKey);
+                            deferredCapacities.add(conferenceKey == null ? null
+                                    : batch.defer(ConferenceCapacity.keyOf(conferenceKey)));
+                            deferredWaitlists.add(conferenceKey == null ? null
+                                    : batch.defer(Waitlist.keyOf(conferenceKey)));
+                        }
+                        Profile profile = getProfileFromUser(user, userId, deferredProfile);
+
+                        List<RegistrationResult> results = new ArrayList<>();
+                        List<Object> entities = new ArrayList<>();
+                        for (int i = 0; i < chunk.size(); i++) {
+                            String websafeConferenceKey = chunk.get(i);
+                            Key<Conference> conferenceKey = parseConferenceKey(websafeConferenceKey);
+                            Conference conference = conferenceKey == null ? null : conferences.get(conferenceKey);
+                            ConferenceCapacity capacity = conference == null ? null
+                                    : CapacityService.capacityOf(conferenceKey, deferredCapacities.get(i));
+                            RegistrationResult.Status status;
+                            if (capacity == null) {
+                                status = RegistrationResult.Status.NOT_FOUND;
+                            } else if (profile.isAttending(websafeConferenceKey)) {
+                                status = RegistrationResult.Status.ALREADY_REGISTERED;
+                            } else if (conference.isWaitingRoom()) {
+                                status = RegistrationResult.Status.WAITING_ROOM;
+                            } else if (capacity.getSeatsAvailable() <= 0) {
+                                status = RegistrationResult.Status.NO_SEATS_AVAILABLE;
+                            } else if (Waitlist.isWaiting(deferredWaitlists.get(i).get())
+                                    || capacity.getSeatsAvailable() <= SeatHoldService.heldSeats(conferenceKey)) {
+                                status = RegistrationResult.Status.SEATS_HELD;
+                            } else {
+                                profile.addToConferenceKeysToAttend(websafeConferenceKey);
+                                capacity.bookSeats(1);
+                                entities.add(capacity);
+                                status = RegistrationResult.Status.REGISTERED;
+                            }
+                            results.add(new RegistrationResult(websafeConferenceKey, status));
+                        }
+                        if (!entities.isEmpty()) {
+                            // The profile is written once, whatever the number of conferences.
+                            entities.add(profile);
+                            ofy().save().entities(entities).now();
+                        }
+                        return results;
+                    }
+                });
+            } catch (TransactionRunner.ContentionException e) {
+                // The chunks committed before keep their results, and the next ones still run.
+                chunkResults = new ArrayList<>();
+                for (String websafeConferenceKey : chunk) {
+                    chunkResults.add(
+                            new RegistrationResult(websafeConferenceKey, RegistrationResult.Status.RETRY_LATER));
+                }
+            }
+            for (RegistrationResult result : chunkResults) {
+                results.put(result.getWebsafeConferenceKey(), result);
+                if (result.getStatus() == RegistrationResult.Status.REGISTERED) {
+                    ResourceVersions.conferenceChanged(Key.<Conference>create(result.getWebsafeConferenceKey()));
+                    registeredAny = true;
+                }
+            }
+            if (registeredAny) {
+                MembershipService.changed(userId);
+            }
+        }
+        List<RegistrationResult> orderedResults = new ArrayList<>();
+        for (String websafeConferenceKey : websafeConferenceKeys) {
+            orderedResults.add(results.get(websafeConferenceKey));
+        }
+        return orderedResults;
+    }
+
+    /**
+     * Returns the conference key of the given websafe string.
+     * @param websafeConferenceKey the websafe key
+     * @return the conference key, null when the string isn't a conference key
+     */
+    private static Key<Conference> parseConferenceKey(String websafeConferenceKey) {
+        try {
+            Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+            return Conference.class.getSimpleName().equals(conferenceKey.getKind()) ? conferenceKey : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
     }
 
     /**
@@ -512,9 +1331,12 @@ public class ConferenceApi {
      * @param user An user who invokes this method, null when the user is not signed in.
      * @param websafeConferenceKey The String representation of the Conference Key
      * to unregister from.
+     * @param request the HTTP request, holding the optional Idempotency-Key header.
      * @return Boolean true when success, otherwise false.
      * @throws UnauthorizedException when the user is not signed in.
      * @throws NotFoundException when there is no Conference with the given conferenceId.
+     * @throws BadRequestException when the idempotency key is invalid.
+     * @throws ServiceUnavailableException when the conference receives too many writes.
      */
     @ApiMethod(
             name = "unregisterFromConference",
@@ -523,29 +1345,59 @@ public class ConferenceApi {
     )
     public WrappedBoolean unregisterFromConference(final User user,
                                             @Named("websafeConferenceKey")
-                                            final String websafeConferenceKey)
-            throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException {
+                                            final String websafeConferenceKey,
+                                            final HttpServletRequest request)
+            throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException,
+            BadRequestException, ServiceUnavailableException {
         // If not signed in, throw a 401 error.
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
         final String userId = getUserId(user);
-        TxResult<Boolean> result = ofy().transact(new Work<TxResult<Boolean>>() {
+        // A retry of a completed request is answered from its record, whatever the load on the conference.
+        final Key<IdempotencyRecord> recordKey = IdempotencyService.recordKey(
+                userId, "unregisterFromConference:" + websafeConferenceKey, getIdempotencyKey(request));
+        String recorded = IdempotencyService.find(recordKey);
+        if (recorded != null) {
+            return new WrappedBoolean(Boolean.valueOf(recorded));
+        }
+        admit(websafeConferenceKey);
+        TxResult<Boolean> result = transact("unregisterFromConference", Key.create(websafeConferenceKey),
+                new Work<TxResult<Boolean>>() {
             @Override
             public TxResult<Boolean> run() {
+                // Load the capacity, the Waitlist, the Profile and the idempotency record with a single multi-get.
+                BatchLoader batch = new BatchLoader();
                 Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-                Conference conference = ofy().load().key(conferenceKey).now();
+                BatchLoader.Deferred<ConferenceCapacity> deferredCapacity =
+                        batch.defer(ConferenceCapacity.keyOf(conferenceKey));
+                BatchLoader.Deferred<Waitlist> deferredWaitlist = batch.defer(Waitlist.keyOf(conferenceKey));
+                BatchLoader.Deferred<Profile> deferredProfile = batch.defer(Key.create(Profile.class, userId));
+                BatchLoader.Deferred<IdempotencyRecord> deferredRecord =
+                        recordKey == null ? null : batch.defer(recordKey);
+                ConferenceCapacity capacity = CapacityService.capacityOf(conferenceKey, deferredCapacity);
+                // A concurrent copy of this request may have committed since the check above.
+                String recorded = deferredRecord == null ? null : IdempotencyService.result(deferredRecord.get());
+                if (recorded != null) {
+                    return new TxResult<>(Boolean.valueOf(recorded));
+                }
                 // 404 when there is no Conference with the given conferenceId.
-                if (conference == null) {
+                if (capacity == null) {
                     return new TxResult<>(new NotFoundException(
                             "No Conference found with key: " + websafeConferenceKey));
                 }
                 // Un-registering from the Conference.
-                Profile profile = getProfileFromUser(user, userId);
-                if (profile.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
+                Profile profile = getProfileFromUser(user, userId, deferredProfile);
+                if (profile.isAttending(websafeConferenceKey)) {
                     profile.unregisterFromConference(websafeConferenceKey);
-                    conference.giveBackSeats(1);
-                    ofy().save().entities(profile, conference).now();
+                    capacity.giveBackSeats(1);
+                    ofy().save().entities(profile, capacity).now();
+                    IdempotencyService.record(recordKey, Boolean.TRUE.toString());
+                    // The freed seat goes to the next waitlisted user, in a transaction of its own.
+                    if (Waitlist.isWaiting(deferredWaitlist.get())) {
+                        QueueFactory.getDefaultQueue().add(ofy().getTransaction(),
+                                WaitlistService.promotionTask(conferenceKey));
+                    }
                     return new TxResult<>(true);
                 } else {
                     return new TxResult<>(false);
@@ -553,6 +1405,653 @@ public class ConferenceApi {
             }
         });
         // NotFoundException is actually thrown here.
-        return new WrappedBoolean(result.getResult());
+        boolean changed = result.getResult();
+        if (changed) {
+            ResourceVersions.conferenceChanged(Key.<Conference>create(websafeConferenceKey));
+            MembershipService.changed(userId);
+        }
+        return new WrappedBoolean(changed);
+    }
+
+    /**
+     * Adds the user to the waitlist of a sold-out conference.
+     * When a seat frees up, waitlisted users are registered in the order they joined.
+     * @param user the user joining the waitlist
+     * @param websafeConferenceKey the key of the conference
+     * @return the place of the user in the waitlist
+     * @throws UnauthorizedException in case the user is unidentified
+     * @throws NotFoundException in case the specified conference key is not found
+     * @throws ForbiddenException in case of any other unexpected error
+     * @throws ConflictException in case the user is registered, or could register right away
+     * @throws ServiceUnavailableException in case the conference receives too many writes
+     */
+    @ApiMethod(
+            name = "joinWaitlist",
+            path = "conference/{websafeConferenceKey}/waitlist",
+            httpMethod = HttpMethod.POST
+    )
+    public WaitlistPosition joinWaitlist(final User user,
+                                         @Named("websafeConferenceKey") final String websafeConferenceKey)
+            throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException,
+            ServiceUnavailableException {
+
+        // If not signed in, throw a 401 error.
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        admit(websafeConferenceKey);
+        final String userId = getUserId(user);
+
+        TxResult<WaitlistEntry> result = transact("joinWaitlist", Key.create(websafeConferenceKey),
+                new Work<TxResult<WaitlistEntry>>() {
+            @Override
+            public TxResult<WaitlistEntry> run() {
+                BatchLoader batch = new BatchLoader();
+                Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+                BatchLoader.Deferred<ConferenceCapacity> deferredCapacity =
+                        batch.defer(ConferenceCapacity.keyOf(conferenceKey));
+                BatchLoader.Deferred<Waitlist> deferredWaitlist = batch.defer(Waitlist.keyOf(conferenceKey));
+                BatchLoader.Deferred<WaitlistEntry> deferredEntry =
+                        batch.defer(WaitlistEntry.keyOf(conferenceKey, userId));
+                BatchLoader.Deferred<Profile> deferredProfile = batch.defer(Key.create(Profile.class, userId));
+                ConferenceCapacity capacity = CapacityService.capacityOf(conferenceKey, deferredCapacity);
+                if (capacity == null) {
+                    return new TxResult<>(new NotFoundException(
+                            "No Conference found with key: " + websafeConferenceKey));
+                }
+                Profile profile = getProfileFromUser(user, userId, deferredProfile);
+                if (profile.isAttending(websafeConferenceKey)) {
+                    return new TxResult<>(new ConflictException("You have already registered for this conference"));
+                }
+                WaitlistEntry entry = deferredEntry.get();
+                if (entry != null) {
+                    return new TxResult<>(entry);
+                }
+                Waitlist waitlist = deferredWaitlist.get();
+                int seatsAvailable = capacity.getSeatsAvailable();
+                if (!Waitlist.isWaiting(waitlist) && seatsAvailable > SeatHoldService.heldSeats(conferenceKey)) {
+                    return new TxResult<>(new ConflictException(
+                            "There are seats available. You may register for this conference."));
+                }
+                if (waitlist == null) {
+                    waitlist = new Waitlist(conferenceKey);
+                }
+                // The seats are all held: the ones nobody confirms go to the waitlist.
+                if (!Waitlist.isWaiting(waitlist) && seatsAvailable > 0) {
+                    QueueFactory.getDefaultQueue().add(ofy().getTransaction(),
+                            WaitlistService.delayedPromotionTask(conferenceKey));
+                }
+                entry = new WaitlistEntry(conferenceKey, userId, waitlist.add());
+                // The profile is saved too, in case it was just created.
+                ofy().save().entities(profile, waitlist, entry).now();
+                return new TxResult<>(entry);
+            }
+        });
+        return positionOf(result.getResult());
+    }
+
+    /**
+     * Removes the user from the waitlist of a conference.
+     * @param user the user leaving the waitlist
+     * @param websafeConferenceKey the key of the conference
+     * @return true if the user was waitlisted, false otherwise
+     * @throws UnauthorizedException in case the user is unidentified
+     * @throws ServiceUnavailableException in case the transaction gives up on contention
+     */
+    @ApiMethod(
+            name = "leaveWaitlist",
+            path = "conference/{websafeConferenceKey}/waitlist",
+            httpMethod = HttpMethod.DELETE
+    )
+    public WrappedBoolean leaveWaitlist(final User user,
+                                        @Named("websafeConferenceKey") final String websafeConferenceKey)
+            throws UnauthorizedException, ServiceUnavailableException {
+
+        // If not signed in, throw a 401 error.
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        final String userId = getUserId(user);
+
+        Boolean removed = transact("leaveWaitlist", Key.create(websafeConferenceKey), new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                BatchLoader batch = new BatchLoader();
+                Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+                BatchLoader.Deferred<Waitlist> deferredWaitlist = batch.defer(Waitlist.keyOf(conferenceKey));
+                BatchLoader.Deferred<WaitlistEntry> deferredEntry =
+                        batch.defer(WaitlistEntry.keyOf(conferenceKey, userId));
+                WaitlistEntry entry = deferredEntry.get();
+                Waitlist waitlist = deferredWaitlist.get();
+                if (entry == null || waitlist == null) {
+                    return false;
+                }
+                waitlist.remove();
+                ofy().delete().entity(entry).now();
+                ofy().save().entity(waitlist).now();
+                return true;
+            }
+        });
+        return new WrappedBoolean(removed);
+    }
+
+    /**
+     * Returns the place of the user in the waitlist of a conference.
+     * @param user the waitlisted user
+     * @param websafeConferenceKey the key of the conference
+     * @return the place of the user in the waitlist
+     * @throws UnauthorizedException in case the user is unidentified
+     * @throws NotFoundException in case the user is not waitlisted for this conference
+     */
+    @ApiMethod(
+            name = "getWaitlistPosition",
+            path = "conference/{websafeConferenceKey}/waitlist",
+            httpMethod = HttpMethod.GET
+    )
+    public WaitlistPosition getWaitlistPosition(final User user,
+                                                @Named("websafeConferenceKey") final String websafeConferenceKey)
+            throws UnauthorizedException, NotFoundException {
+
+        // If not signed in, throw a 401 error.
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        WaitlistEntry entry = ofy().load().key(WaitlistEntry.keyOf(conferenceKey, getUserId(user))).now();
+        if (entry == null) {
+            throw new NotFoundException("You are not on the waitlist of this conference");
+        }
+        return positionOf(entry);
+    }
+
+    /**
+     * Builds the waitlist position response of the given entry.
+     * @param entry the waitlist entry
+     * @return the place of the entry, and the length of its waitlist
+     */
+    private static WaitlistPosition positionOf(WaitlistEntry entry) {
+        Waitlist waitlist = ofy().load().key(Waitlist.keyOf(entry.getConferenceKey())).now();
+        return new WaitlistPosition(entry.getConferenceKey().getString(),
+                WaitlistService.placeOf(entry), waitlist == null ? 0 : waitlist.getLength());
+    }
+
+    /**
+     * Holds a seat of a conference for a few minutes, for the user to confirm it.
+     * The seat is released when the hold expires, unless it is confirmed before.
+     * @param user the user holding the seat
+     * @param websafeConferenceKey the key of the conference
+     * @param request the HTTP request, holding the X-Waiting-Room-Token header for conferences with a waiting room
+     * @return the seat hold, with the token to confirm it with
+     * @throws UnauthorizedException in case the user is unidentified
+     * @throws NotFoundException in case the specified conference key is not found
+     * @throws ForbiddenException in case the conference has a waiting room the user didn't enter
+     * @throws ConflictException in case the user is registered, or no seat can be held
+     * @throws ServiceUnavailableException in case too many seats are being held at the same time,
+     * or the user isn't admitted by the waiting room of the conference yet
+     */
+    @ApiMethod(
+            name = "holdSeat",
+            path = "conference/{websafeConferenceKey}/hold",
+            httpMethod = HttpMethod.POST
+    )
+    public SeatHold holdSeat(final User user,
+                             @Named("websafeConferenceKey") final String websafeConferenceKey,
+                             final HttpServletRequest request)
+            throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException,
+            ServiceUnavailableException {
+
+        // If not signed in, throw a 401 error.
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        String userId = getUserId(user);
+
+        // Holding a seat doesn't need a transaction: the holds are checked against the seats available.
+        BatchLoader batch = new BatchLoader();
+        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        BatchLoader.Deferred<Conference> deferredConference = batch.defer(conferenceKey);
+        BatchLoader.Deferred<Waitlist> deferredWaitlist = batch.defer(Waitlist.keyOf(conferenceKey));
+        BatchLoader.Deferred<Profile> deferredProfile = batch.defer(Key.create(Profile.class, userId));
+        // Loaded with the others, for the seats available.
+        batch.defer(ConferenceCapacity.keyOf(conferenceKey));
+        Conference conference = deferredConference.get();
+        if (conference == null) {
+            throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+        }
+        checkWaitingRoom(conference, userId, request);
+        Profile profile = deferredProfile.get();
+        if (profile != null && profile.isAttending(websafeConferenceKey)) {
+            throw new ConflictException("You have already registered for this conference");
+        }
+        if (Waitlist.isWaiting(deferredWaitlist.get())) {
+            throw new ConflictException("The available seats are held for the waitlist. You may join it.");
+        }
+        SeatHold hold;
+        try {
+            hold = SeatHoldService.hold(conferenceKey, userId, conference.getSeatsAvailable());
+        } catch (ConcurrentModificationException e) {
+            throw new ServiceUnavailableException("Too many seats are being held. Please retry.");
+        }
+        if (hold == null) {
+            throw new ConflictException("There are no seats available. You may join the waitlist.");
+        }
+        return hold;
+    }
+
+    /**
+     * Registers the user for a conference, with the seat they hold.
+     * @param user the user holding the seat
+     * @param websafeConferenceKey the key of the conference
+     * @param token the token of the seat hold
+     * @return a value/flag that indicates whether the operation was successful or not
+     * @throws UnauthorizedException in case the user is unidentified
+     * @throws NotFoundException in case the hold or the conference is not found
+     * @throws ForbiddenException in case of any other unexpected error
+     * @throws ConflictException in case the user is registered already, or the conference is full
+     * @throws ServiceUnavailableException in case the conference receives too many writes
+     */
+    @ApiMethod(
+            name = "confirmSeatHold",
+            path = "conference/{websafeConferenceKey}/hold/{token}",
+            httpMethod = HttpMethod.POST
+    )
+    public WrappedBoolean confirmSeatHold(final User user,
+                                          @Named("websafeConferenceKey") final String websafeConferenceKey,
+                                          @Named("token") final String token)
+            throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException,
+            ServiceUnavailableException {
+
+        // If not signed in, throw a 401 error.
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        admit(websafeConferenceKey);
+        final String userId = getUserId(user);
+        final Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        if (SeatHoldService.find(conferenceKey, token, userId) == null) {
+            throw new NotFoundException("No seat hold found with token: " + token + ". It may have expired.");
+        }
+
+        TxResult<Boolean> result = transact("confirmSeatHold", conferenceKey,
+                new Work<TxResult<Boolean>>() {
+            @Override
+            public TxResult<Boolean> run() {
+                BatchLoader batch = new BatchLoader();
+                BatchLoader.Deferred<ConferenceCapacity> deferredCapacity =
+                        batch.defer(ConferenceCapacity.keyOf(conferenceKey));
+                BatchLoader.Deferred<Profile> deferredProfile = batch.defer(Key.create(Profile.class, userId));
+                ConferenceCapacity capacity = CapacityService.capacityOf(conferenceKey, deferredCapacity);
+                if (capacity == null) {
+                    return new TxResult<>(new NotFoundException(
+                            "No Conference found with key: " + websafeConferenceKey));
+                }
+                Profile profile = getProfileFromUser(user, userId, deferredProfile);
+                if (profile.isAttending(websafeConferenceKey)) {
+                    return new TxResult<>(new ConflictException("You have already registered for this conference"));
+                }
+                // The hold may have expired, or been released by another confirmation, since the check above.
+                if (SeatHoldService.find(conferenceKey, token, userId) == null) {
+                    return new TxResult<>(new NotFoundException(
+                            "No seat hold found with token: " + token + ". It may have expired."));
+                }
+                // The held seat is among the seats available, unless a registration took it (see SeatHoldService).
+                if (capacity.getSeatsAvailable() <= 0) {
+                    return new TxResult<>(new ConflictException("There are no seats available."));
+                }
+                profile.addToConferenceKeysToAttend(websafeConferenceKey);
+                capacity.bookSeats(1);
+                ofy().save().entities(profile, capacity).now();
+                return new TxResult<>(true);
+            }
+        });
+        // Confirmed or not, the hold is over: a failed confirmation doesn't keep the seat until the hold expires.
+        Boolean registered;
+        try {
+            registered = result.getResult();
+        } finally {
+            SeatHoldService.release(conferenceKey, token);
+        }
+        ResourceVersions.conferenceChanged(conferenceKey);
+        MembershipService.changed(userId);
+        return new WrappedBoolean(registered);
+    }
+
+    /**
+     * Gives up a seat hold, before it expires.
+     * @param user the user holding the seat
+     * @param websafeConferenceKey the key of the conference
+     * @param token the token of the seat hold
+     * @return true if the user was holding the seat, false otherwise
+     * @throws UnauthorizedException in case the user is unidentified
+     */
+    @ApiMethod(
+            name = "releaseSeatHold",
+            path = "conference/{websafeConferenceKey}/hold/{token}",
+            httpMethod = HttpMethod.DELETE
+    )
+    public WrappedBoolean releaseSeatHold(final User user,
+                                          @Named("websafeConferenceKey") final String websafeConferenceKey,
+                                          @Named("token") final String token)
+            throws UnauthorizedException {
+
+        // If not signed in, throw a 401 error.
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        if (SeatHoldService.find(conferenceKey, token, getUserId(user)) == null) {
+            return new WrappedBoolean(false);
+        }
+        return new WrappedBoolean(SeatHoldService.release(conferenceKey, token));
+    }
+
+    /**
+     * Registers a group of attendees for a conference, booking all their seats at once.
+     *
+     * The organizer of the conference may register any attendee; other users may register themselves,
+     * and the attendees who allowed them to in their profile.
+     *
+     * Groups small enough are registered in a single cross-group transaction. Larger groups go through
+     * a saga: their seats are booked first, then the profiles are registered batch by batch, and the
+     * completed steps are compensated when a later one fails (see GroupRegistrationService).
+     * @param user the user registering the group
+     * @param websafeConferenceKey the key of the conference
+     * @param groupRegistrationForm the user ids of the attendee profiles
+     * @return the attendees registered, and the ones who were registered already
+     * @throws UnauthorizedException in case the user is unidentified
+     * @throws BadRequestException in case the group is empty or too large
+     * @throws NotFoundException in case the conference is not found
+     * @throws ForbiddenException in case an attendee is unknown, or didn't allow the user to register them
+     * @throws ConflictException in case there aren't enough seats available for the group
+     * @throws ServiceUnavailableException in case the conference receives too many writes
+     */
+    @ApiMethod(
+            name = "registerGroupForConference",
+            path = "conference/{websafeConferenceKey}/group_registration",
+            httpMethod = HttpMethod.POST
+    )
+    public GroupRegistration registerGroupForConference(final User user,
+                                                        @Named("websafeConferenceKey") final String websafeConferenceKey,
+                                                        final GroupRegistrationForm groupRegistrationForm)
+            throws UnauthorizedException, BadRequestException, NotFoundException, ForbiddenException,
+            ConflictException, ServiceUnavailableException {
+
+        // If not signed in, throw a 401 error.
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        if (groupRegistrationForm == null || groupRegistrationForm.getAttendeeUserIds() == null
+                || groupRegistrationForm.getAttendeeUserIds().isEmpty()) {
+            throw new BadRequestException("A group registration needs attendees");
+        }
+        final List<String> attendeeUserIds =
+                new ArrayList<>(new LinkedHashSet<>(groupRegistrationForm.getAttendeeUserIds()));
+        if (attendeeUserIds.size() > MAX_GROUP_SIZE) {
+            throw new BadRequestException("A group registration holds at most " + MAX_GROUP_SIZE + " attendees");
+        }
+
+        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        Conference conference = ofy().load().key(conferenceKey).now();
+        if (conference == null) {
+            throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+        }
+        if (conference.isWaitingRoom()) {
+            throw new ConflictException("Registrations for this conference go through its waiting room.");
+        }
+
+        // The organizer registers anyone, others only themselves and the attendees who allowed them to.
+        // Unknown attendees get the same answer as the ones who didn't allow it, so as not to tell who has
+        // a profile.
+        String userId = getUserId(user);
+        boolean organizer = userId.equals(conference.getOrganizerUserId());
+        Map<String, Profile> profiles = ofy().load().type(Profile.class).ids(attendeeUserIds);
+        List<String> refused = new ArrayList<>();
+        List<String> newcomers = new ArrayList<>();
+        List<String> alreadyRegistered = new ArrayList<>();
+        for (String attendeeUserId : attendeeUserIds) {
+            Profile profile = profiles.get(attendeeUserId);
+            if (profile == null || !(organizer || attendeeUserId.equals(userId)
+                    || profile.allowsGroupRegistrationBy(userId))) {
+                refused.add(attendeeUserId);
+            } else if (profile.isAttending(websafeConferenceKey)) {
+                alreadyRegistered.add(attendeeUserId);
+            } else {
+                newcomers.add(attendeeUserId);
+            }
+        }
+        if (!refused.isEmpty()) {
+            throw new ForbiddenException("You may not register these attendees: " + refused);
+        }
+        if (newcomers.isEmpty()) {
+            return new GroupRegistration(websafeConferenceKey, newcomers, alreadyRegistered);
+        }
+        // Only valid registrations, which book seats, take part in the admission control.
+        admit(websafeConferenceKey);
+        GroupRegistration registration;
+        if (newcomers.size() < MAX_XG_ENTITY_GROUPS) {
+            // The conference group, and one group per profile.
+            registration = registerGroupInTransaction(conferenceKey, newcomers, alreadyRegistered);
+        } else {
+            registration = registerGroupInBatches(conferenceKey, newcomers, alreadyRegistered);
+        }
+        ResourceVersions.conferenceChanged(conferenceKey);
+        MembershipService.changed(registration.getRegisteredUserIds());
+        return registration;
+    }
+
+    /**
+     * Registers the given attendees for a conference in a single cross-group transaction.
+     * @param conferenceKey the key of the conference
+     * @param newcomers the attendees who weren't registered yet, fewer than MAX_XG_ENTITY_GROUPS
+     * @param alreadyRegistered the attendees who were registered already
+     * @return the outcome of the group registration
+     */
+    private static GroupRegistration registerGroupInTransaction(final Key<Conference> conferenceKey,
+                                                                final List<String> newcomers,
+                                                                final List<String> alreadyRegistered)
+            throws NotFoundException, ForbiddenException, ConflictException, ServiceUnavailableException {
+        final String websafeConferenceKey = conferenceKey.getString();
+        TxResult<GroupRegistration> result = transact("registerGroupForConference", conferenceKey,
+                new Work<TxResult<GroupRegistration>>() {
+            @Override
+            public TxResult<GroupRegistration> run() {
+                BatchLoader batch = new BatchLoader();
+                BatchLoader.Deferred<ConferenceCapacity> deferredCapacity =
+                        batch.defer(ConferenceCapacity.keyOf(conferenceKey));
+                BatchLoader.Deferred<Waitlist> deferredWaitlist = batch.defer(Waitlist.keyOf(conferenceKey));
+                List<BatchLoader.Deferred<Profile>> deferredProfiles = new ArrayList<>();
+                for (String newcomer : newcomers) {
+                    deferredProfiles.add(batch.defer(Key.create(Profile.class, newcomer)));
+                }
+                ConferenceCapacity capacity = CapacityService.capacityOf(conferenceKey, deferredCapacity);
+                if (capacity == null) {
+                    return new TxResult<>(new NotFoundException(
+                            "No Conference found with key: " + websafeConferenceKey));
+                }
+                List<Profile> newcomerProfiles = new ArrayList<>();
+                List<String> registered = new ArrayList<>();
+                List<String> registeredBefore = new ArrayList<>(alreadyRegistered);
+                for (BatchLoader.Deferred<Profile> deferredProfile : deferredProfiles) {
+                    Profile profile = deferredProfile.get();
+                    if (profile.isAttending(websafeConferenceKey)) {
+                        registeredBefore.add(profile.getUserId());
+                    } else {
+                        registered.add(profile.getUserId());
+                        newcomerProfiles.add(profile);
+                    }
+                }
+                if (registered.isEmpty()) {
+                    return new TxResult<>(
+                            new GroupRegistration(websafeConferenceKey, registered, registeredBefore));
+                }
+                ConflictException conflict = checkGroupSeats(capacity, deferredWaitlist.get(), registered.size());
+                if (conflict != null) {
+                    return new TxResult<>(conflict);
+                }
+                // Profiles change only once the group has its seats: the session would keep them otherwise.
+                List<Object> entities = new ArrayList<>();
+                for (Profile profile : newcomerProfiles) {
+                    profile.addToConferenceKeysToAttend(websafeConferenceKey);
+                    entities.add(profile);
+                }
+                capacity.bookSeats(registered.size());
+                entities.add(capacity);
+                ofy().save().entities(entities).now();
+                return new TxResult<>(new GroupRegistration(websafeConferenceKey, registered, registeredBefore));
+            }
+        });
+        return result.getResult();
+    }
+
+    /**
+     * Registers the given attendees for a conference with a saga, when they are too many for
+     * a single cross-group transaction: their seats are booked first, along with the saga saved in
+     * the datastore, then the GroupRegistrationService registers the profiles in batches, rolling the
+     * registration back when a batch fails.
+     * @param conferenceKey the key of the conference
+     * @param newcomers the attendees who weren't registered yet
+     * @param alreadyRegistered the attendees who were registered already
+     * @return the outcome of the group registration
+     */
+    private static GroupRegistration registerGroupInBatches(final Key<Conference> conferenceKey,
+                                                            final List<String> newcomers,
+                                                            final List<String> alreadyRegistered)
+            throws NotFoundException, ForbiddenException, ConflictException, ServiceUnavailableException {
+        final String websafeConferenceKey = conferenceKey.getString();
+        final String sagaId = UUID.randomUUID().toString();
+        TxResult<Boolean> booked = transact("bookGroupSeats", conferenceKey,
+                new Work<TxResult<Boolean>>() {
+            @Override
+            public TxResult<Boolean> run() {
+                BatchLoader batch = new BatchLoader();
+                BatchLoader.Deferred<ConferenceCapacity> deferredCapacity =
+                        batch.defer(ConferenceCapacity.keyOf(conferenceKey));
+                BatchLoader.Deferred<Waitlist> deferredWaitlist = batch.defer(Waitlist.keyOf(conferenceKey));
+                ConferenceCapacity capacity = CapacityService.capacityOf(conferenceKey, deferredCapacity);
+                if (capacity == null) {
+                    return new TxResult<>(new NotFoundException(
+                            "No Conference found with key: " + websafeConferenceKey));
+                }
+                ConflictException conflict = checkGroupSeats(capacity, deferredWaitlist.get(), newcomers.size());
+                if (conflict != null) {
+                    return new TxResult<>(conflict);
+                }
+                capacity.bookSeats(newcomers.size());
+                ofy().save().entities(capacity,
+                        new GroupRegistrationSaga(sagaId, conferenceKey, newcomers, alreadyRegistered)).now();
+                // Finishes the saga should this request die before it does.
+                QueueFactory.getDefaultQueue().add(ofy().getTransaction(),
+                        GroupRegistrationService.resumeTask(sagaId));
+                return new TxResult<>(true);
+            }
+        });
+        booked.getResult();
+
+        GroupRegistrationSaga saga;
+        try {
+            saga = GroupRegistrationService.run(sagaId);
+        } catch (TransactionRunner.ContentionException e) {
+            throw new ServiceUnavailableException(e.getMessage());
+        }
+        return new GroupRegistration(websafeConferenceKey, saga.getRegisteredUserIds(),
+                saga.getAlreadyRegisteredUserIds());
+    }
+
+    /**
+     * Checks a group of the given size can be registered for a conference.
+     * @param capacity the seat accounting of the conference
+     * @param waitlist the waitlist of the conference, null if nobody ever joined it
+     * @param seats the number of seats the group needs
+     * @return the conflict preventing the group registration, null if there's none
+     */
+    private static ConflictException checkGroupSeats(ConferenceCapacity capacity, Waitlist waitlist, int seats) {
+        if (Waitlist.isWaiting(waitlist)) {
+            return new ConflictException("The available seats are held for the waitlist.");
+        }
+        int unheldSeats = capacity.getSeatsAvailable() - SeatHoldService.heldSeats(capacity.getConferenceKey());
+        if (unheldSeats < seats) {
+            return new ConflictException("There are " + Math.max(unheldSeats, 0)
+                    + " seats available, for a group of " + seats + ".");
+        }
+        return null;
+    }
+
+    /**
+     * Enters the waiting room of a conference, or tells where the user stands when they entered it already.
+     * @param user the user entering the waiting room
+     * @param websafeConferenceKey the key of the conference
+     * @param request the HTTP request, holding the X-Waiting-Room-Token header of a user who entered already
+     * @return the waiting room ticket, with the signed position token to register with
+     * @throws UnauthorizedException in case the user is unidentified
+     * @throws NotFoundException in case the specified conference key is not found
+     * @throws BadRequestException in case the conference has no waiting room
+     * @throws ServiceUnavailableException in case too many users enter at the same time
+     */
+    @ApiMethod(
+            name = "enterWaitingRoom",
+            path = "conference/{websafeConferenceKey}/waiting_room",
+            httpMethod = HttpMethod.POST
+    )
+    public WaitingRoomTicket enterWaitingRoom(final User user,
+                                              @Named("websafeConferenceKey") final String websafeConferenceKey,
+                                              final HttpServletRequest request)
+            throws UnauthorizedException, NotFoundException, BadRequestException, ServiceUnavailableException {
+
+        // If not signed in, throw a 401 error.
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        String userId = getUserId(user);
+        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+        Conference conference = ofy().load().key(conferenceKey).now();
+        if (conference == null) {
+            throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+        }
+        if (!conference.isWaitingRoom()) {
+            throw new BadRequestException("This conference has no waiting room. You may register right away.");
+        }
+        // Entering again keeps the position.
+        WaitingRoomTicket ticket = WaitingRoomService.status(conferenceKey, userId,
+                WaitingRoomService.getToken(request));
+        if (ticket != null) {
+            return ticket;
+        }
+        try {
+            return WaitingRoomService.enter(conferenceKey, userId);
+        } catch (ConcurrentModificationException e) {
+            throw new ServiceUnavailableException("Too many users are entering the waiting room. Please retry.");
+        }
+    }
+
+    /**
+     * Tells where the user stands in the waiting room of a conference.
+     * Served from memcache, this is what clients poll while they wait.
+     * @param user the user in the waiting room
+     * @param websafeConferenceKey the key of the conference
+     * @param request the HTTP request, holding the X-Waiting-Room-Token header
+     * @return the waiting room ticket
+     * @throws UnauthorizedException in case the user is unidentified
+     * @throws NotFoundException in case the request holds no valid token of the user for this conference
+     */
+    @ApiMethod(
+            name = "getWaitingRoomStatus",
+            path = "conference/{websafeConferenceKey}/waiting_room",
+            httpMethod = HttpMethod.GET
+    )
+    public WaitingRoomTicket getWaitingRoomStatus(final User user,
+                                                  @Named("websafeConferenceKey") final String websafeConferenceKey,
+                                                  final HttpServletRequest request)
+            throws UnauthorizedException, NotFoundException {
+
+        // If not signed in, throw a 401 error.
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        WaitingRoomTicket ticket = WaitingRoomService.status(Key.<Conference>create(websafeConferenceKey),
+                getUserId(user), WaitingRoomService.getToken(request));
+        if (ticket == null) {
+            throw new NotFoundException("You are not in the waiting room of this conference");
+        }
+        return ticket;
     }
 }
@@ -0,0 +1,112 @@
+package com.google.devrel.training.conference.benchmark;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferencePage;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.service.ConferenceQueryService;
+import com.google.devrel.training.conference.service.QueryModeSelector;
+import com.google.devrel.training.conference.service.QueryProfile;
+import com.googlecode.objectify.ObjectifyFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares single phase and two phase (keys-only query, then batch get) conference queries,
+ * against the local datastore and memcache services.
+ *
+ * Run with:
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ *        -Dexec.mainClass=com.google.devrel.training.conference.benchmark.QueryModeBenchmark}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QueryModeBenchmark {
+
+    private static final String USER_ID = "123456789";
+
+    private static final int CONFERENCES = 200;
+
+    @Param({"SINGLE_PHASE", "TWO_PHASE"})
+    private QueryModeSelector.Mode mode;
+
+    /**
+     * Whether the Conference entities are in memcache when the query runs.
+     */
+    @Param({"true", "false"})
+    private boolean cached;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(
+                    new LocalDatastoreServiceTestConfig().setDefaultHighRepJobPolicyUnappliedJobPercentage(0),
+                    new LocalMemcacheServiceTestConfig());
+
+    private ConferenceQueryForm conferenceQueryForm;
+
+    @Setup
+    public void setUp() {
+        helper.setUp();
+        List<Conference> conferences = new ArrayList<>(CONFERENCES);
+        for (int i = 0; i < CONFERENCES; i++) {
+            conferences.add(new Conference(i + 1, USER_ID, new ConferenceForm(
+                    "Conference " + i, "A description long enough to matter in the payload of the entity.",
+                    ImmutableList.of("Cloud", "Platform"), i % 2 == 0 ? "Tokyo" : "Paris",
+                    new Date(), new Date(), 100)));
+        }
+        ofy().save().entities(conferences).now();
+        conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.CITY,
+                        ConferenceQueryForm.Operator.EQ,
+                        "Tokyo"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    @Benchmark
+    public ConferencePage query() {
+        if (!cached) {
+            // Drop the entities Objectify put in memcache, so that the batch get misses.
+            MemcacheServiceFactory.getMemcacheService(ObjectifyFactory.MEMCACHE_NAMESPACE).clearAll();
+        }
+        // Each invocation stands for a new request, with an empty session cache.
+        ofy().clear();
+        return ConferenceQueryService.find(conferenceQueryForm, null, 20, mode, QueryProfile.disabled());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(QueryModeBenchmark.class.getSimpleName())
+                .warmupIterations(3)
+                .measurementIterations(5)
+                .forks(1)
+                .build()).run();
+    }
+}
@@ -0,0 +1,103 @@
+package com.google.devrel.training.conference.benchmark;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.googlecode.objectify.cmd.Query;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measures the time and allocations needed to turn a query form into datastore queries,
+ * the way each queryConferences request does with a freshly deserialized form.
+ *
+ * Run with:
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ *        -Dexec.mainClass=com.google.devrel.training.conference.benchmark.QueryPlanBenchmark}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class QueryPlanBenchmark {
+
+    /**
+     * The filters of the query: equality and inequality filters, or an IN filter fanning out.
+     */
+    @Param({"FILTERS", "IN"})
+    private String shape;
+
+    private int value;
+
+    /**
+     * Building a query needs an API environment, even though no RPC is made.
+     */
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+    @Setup
+    public void setUp() {
+        helper.setUp();
+        // Logging each query would dwarf what is measured here.
+        Logger.getLogger(ConferenceQueryForm.class.getName()).setLevel(Level.WARNING);
+    }
+
+    @TearDown
+    public void tearDown() {
+        helper.tearDown();
+    }
+
+    @Benchmark
+    public void plan(Blackhole blackhole) {
+        // Vary the values, as different requests would: only the shape of the filters is shared.
+        value = (value + 1) % 1000;
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm();
+        if ("IN".equals(shape)) {
+            conferenceQueryForm
+                    .filter(new ConferenceQueryForm.Filter(
+                            ConferenceQueryForm.Field.TOPIC, ImmutableList.of("Cloud", "Platform", "Topic" + value)))
+                    .filter(new ConferenceQueryForm.Filter(
+                            ConferenceQueryForm.Field.MAX_ATTENDEES, ConferenceQueryForm.Operator.LT,
+                            String.valueOf(value)));
+        } else {
+            conferenceQueryForm
+                    .filter(new ConferenceQueryForm.Filter(
+                            ConferenceQueryForm.Field.CITY, ConferenceQueryForm.Operator.EQ, "City" + value))
+                    .filter(new ConferenceQueryForm.Filter(
+                            ConferenceQueryForm.Field.TOPIC, ConferenceQueryForm.Operator.EQ, "Cloud"))
+                    .filter(new ConferenceQueryForm.Filter(
+                            ConferenceQueryForm.Field.MONTH, ConferenceQueryForm.Operator.GT,
+                            String.valueOf(value % 12)));
+        }
+        for (Query<?> query : conferenceQueryForm.getQueries()) {
+            blackhole.consume(query);
+        }
+        blackhole.consume(conferenceQueryForm.getOrdering());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(QueryPlanBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .warmupIterations(3)
+                .measurementIterations(5)
+                .forks(1)
+                .build()).run();
+    }
+}
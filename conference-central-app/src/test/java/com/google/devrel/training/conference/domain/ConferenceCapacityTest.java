@@ -0,0 +1,86 @@
+package com.google.devrel.training.conference.domain;
+
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for ConferenceCapacity POJO.
+ */
+public class ConferenceCapacityTest {
+
+    private static final long ID = 123456L;
+    private static final String NAME = "GCP Live";
+    private static final String ORGANIZER_USER_ID = "123456789";
+    private static final int CAP = 500;
+
+    private ConferenceCapacity capacity;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(100));
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        ConferenceForm conferenceForm = new ConferenceForm(NAME, null, null, null, null, null, CAP);
+        capacity = ConferenceCapacity.of(new Conference(ID, ORGANIZER_USER_ID, conferenceForm));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        helper.tearDown();
+    }
+
+    @Test
+    public void testCapacity() throws Exception {
+        assertEquals(CAP, capacity.getMaxAttendees());
+        assertEquals(CAP, capacity.getSeatsAvailable());
+    }
+
+    @Test
+    public void testBookSeats() throws Exception {
+        capacity.bookSeats(1);
+        assertEquals(CAP - 1, capacity.getSeatsAvailable());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBookSeatsFailure() throws Exception {
+        capacity.bookSeats(500);
+        assertEquals(0, capacity.getSeatsAvailable());
+        // this will fail
+        capacity.bookSeats(1);
+    }
+
+    @Test
+    public void testReturnSeats() throws Exception {
+        capacity.bookSeats(1);
+        assertEquals(CAP - 1, capacity.getSeatsAvailable());
+        capacity.giveBackSeats(1);
+        assertEquals(CAP, capacity.getSeatsAvailable());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReturnSeatsFailure() throws Exception {
+        capacity.giveBackSeats(1);
+    }
+
+    @Test
+    public void testResize() throws Exception {
+        capacity.bookSeats(10);
+        capacity.resize(20);
+        assertEquals(20, capacity.getMaxAttendees());
+        assertEquals(10, capacity.getSeatsAvailable());
+        try {
+            capacity.resize(9);
+            fail("10 seats are allocated already.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+}
@@ -90,35 +90,4 @@ public class ConferenceTest {
         Conference conference = new Conference(ID, ORGANIZER_USER_ID, conferenceForm);
         assertEquals(displayName, conference.getOrganizerDisplayName());
     }
-
-    @Test
-    public void testBookSeats() throws Exception {
-        Conference conference = new Conference(ID, ORGANIZER_USER_ID, conferenceForm);
-        conference.bookSeats(1);
-        assertEquals(CAP - 1, conference.getSeatsAvailable());
-    }
-
-    @Test(expected = IllegalArgumentException.class)
-    public void testBookSeatsFailure() throws Exception {
-        Conference conference = new Conference(ID, ORGANIZER_USER_ID, conferenceForm);
-        conference.bookSeats(500);
-        assertEquals(0, conference.getSeatsAvailable());
-        // this will fail
-        conference.bookSeats(1);
-    }
-
-    @Test
-    public void testReturnSeats() throws Exception {
-        Conference conference = new Conference(ID, ORGANIZER_USER_ID, conferenceForm);
-        conference.bookSeats(1);
-        assertEquals(CAP - 1, conference.getSeatsAvailable());
-        conference.giveBackSeats(1);
-        assertEquals(CAP, conference.getSeatsAvailable());
-    }
-
-    @Test(expected = IllegalArgumentException.class)
-    public void testReturnSeatsFailure() throws Exception {
-        Conference conference = new Conference(ID, ORGANIZER_USER_ID, conferenceForm);
-        conference.giveBackSeats(1);
-    }
 }
@@ -72,4 +72,14 @@ public class ProfileTest {
         conferenceKeys.add(conferenceKey.getString());
         assertEquals(conferenceKeys, profile.getConferenceKeysToAttend());
     }
+
+    @Test
+    public void testIsAttending() throws Exception {
+        String conferenceKey = Key.create(Conference.class, 123L).getString();
+        assertFalse(profile.isAttending(conferenceKey));
+        profile.addToConferenceKeysToAttend(conferenceKey);
+        assertTrue(profile.isAttending(conferenceKey));
+        profile.unregisterFromConference(conferenceKey);
+        assertFalse(profile.isAttending(conferenceKey));
+    }
 }
@@ -0,0 +1,50 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the token buckets of the AdmissionController.
+ */
+public class AdmissionControllerTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalMemcacheServiceTestConfig());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        helper.tearDown();
+    }
+
+    @Test
+    public void testBurstThenShed() throws Exception {
+        for (int i = 0; i < AdmissionController.BURST; i++) {
+            assertEquals(0, AdmissionController.admit("conference"));
+        }
+        long retryAfterMillis = AdmissionController.admit("conference");
+        assertTrue(retryAfterMillis > 0);
+        assertTrue(retryAfterMillis <= 1000 / AdmissionController.RATE_PER_SECOND);
+        // Buckets are independent.
+        assertEquals(0, AdmissionController.admit("other conference"));
+    }
+
+    @Test
+    public void testLocalBuckets() throws Exception {
+        for (int i = 0; i < AdmissionController.BURST; i++) {
+            assertEquals(0, AdmissionController.admitLocally("local conference"));
+        }
+        assertTrue(AdmissionController.admitLocally("local conference") > 0);
+    }
+}
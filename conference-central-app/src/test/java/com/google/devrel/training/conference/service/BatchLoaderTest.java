@@ -0,0 +1,98 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.QueryExplanation;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.googlecode.objectify.Key;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * Tests for BatchLoader.
+ */
+public class BatchLoaderTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        ofy().save().entities(
+                new Profile("1", "One", "one@example.com", TeeShirtSize.NOT_SPECIFIED),
+                new Profile("2", "Two", "two@example.com", TeeShirtSize.NOT_SPECIFIED)).now();
+        ofy().clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        BatchLoader.clear();
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testSingleMultiGet() throws Exception {
+        QueryProfile profile = QueryProfile.enabled();
+        profile.begin("load");
+        BatchLoader loader = new BatchLoader();
+        BatchLoader.Deferred<Profile> one = loader.defer(Key.create(Profile.class, "1"));
+        BatchLoader.Deferred<Profile> two = loader.defer(Key.create(Profile.class, "2"));
+        BatchLoader.Deferred<Profile> missing = loader.defer(Key.create(Profile.class, "3"));
+        assertEquals("Two", two.get().getDisplayName());
+        assertEquals("One", one.get().getDisplayName());
+        assertNull(missing.get());
+        QueryExplanation explanation = profile.explain("", "");
+
+        int gets = 0;
+        for (QueryExplanation.RpcCount count : explanation.getRpcCounts()) {
+            if (count.getCall().equals("datastore_v3.Get")) {
+                gets += count.getCount();
+            }
+        }
+        assertEquals("The deferred profiles should be loaded by a single multi-get.", 1, gets);
+    }
+
+    @Test
+    public void testDeferredResultFollowsSession() throws Exception {
+        BatchLoader loader = BatchLoader.current();
+        BatchLoader.Deferred<Profile> one = loader.defer(Key.create(Profile.class, "1"));
+        Profile loaded = one.get();
+        loaded.update("Uno", null);
+        ofy().save().entity(loaded).now();
+        assertEquals("Uno", loader.defer(Key.create(Profile.class, "1")).get().getDisplayName());
+    }
+
+    @Test
+    public void testRestoredSnapshot() throws Exception {
+        Key<Profile> one = Key.create(Profile.class, "1");
+        Key<Profile> missing = Key.create(Profile.class, "3");
+        BatchLoader.Snapshot<String> snapshot =
+                new BatchLoader().snapshot("value", Arrays.<Key<?>>asList(one, missing));
+
+        // Another request, whose session doesn't hold the entities.
+        ofy().clear();
+        ofy().save().entity(new Profile("3", "Three", "three@example.com", TeeShirtSize.NOT_SPECIFIED)).now();
+        ofy().clear();
+        BatchLoader loader = new BatchLoader();
+        assertEquals("value", loader.restore(snapshot));
+        assertEquals("One", loader.defer(one).get().getDisplayName());
+        assertNull("The snapshot should be served, not a new load.", loader.defer(missing).get());
+    }
+
+    @Test
+    public void testRequestScope() throws Exception {
+        BatchLoader loader = BatchLoader.current();
+        assertSame(loader, BatchLoader.current());
+        BatchLoader.clear();
+        assertNotSame(loader, BatchLoader.current());
+    }
+}
@@ -0,0 +1,104 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceCapacity;
+import com.google.devrel.training.conference.domain.ConferenceSummary;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.googlecode.objectify.Key;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+/**
+ * Tests for CapacityService, and the seats available conferences show.
+ */
+public class CapacityServiceTest {
+
+    private static final String USER_ID = "123456789";
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(
+                    new LocalDatastoreServiceTestConfig().setDefaultHighRepJobPolicyUnappliedJobPercentage(0));
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        BatchLoader.clear();
+        helper.tearDown();
+    }
+
+    private static Conference conference(long id, int maxAttendees) {
+        return new Conference(id, USER_ID, new ConferenceForm(
+                "GCP Live " + id, "", ImmutableList.of("Cloud"), "Tokyo", null, null, maxAttendees));
+    }
+
+    /**
+     * Saves the given conference as it was saved before capacities existed.
+     */
+    private static void saveLegacy(Conference conference, long seatsAvailable) {
+        Entity entity = ofy().save().toEntity(conference);
+        entity.setProperty("seatsAvailable", seatsAvailable);
+        DatastoreServiceFactory.getDatastoreService().put(entity);
+    }
+
+    @Test
+    public void testSeatsAvailableNotDeferred() throws Exception {
+        Conference conference = conference(1001L, 10);
+        ConferenceCapacity capacity = ConferenceCapacity.of(conference);
+        capacity.bookSeats(4);
+        ofy().save().entities(conference, capacity).now();
+        ofy().clear();
+
+        Key<ConferenceCapacity> capacityKey = ConferenceCapacity.keyOf(conference.getConferenceKey());
+        conference = ofy().load().key(conference.getConferenceKey()).now();
+        // Deferred: the getter reads it from the batch.
+        BatchLoader.current().defer(capacityKey);
+        assertEquals(6, conference.getSeatsAvailable());
+
+        // Not deferred: the getter loads it on its own, rather than showing the conference's own.
+        BatchLoader.clear();
+        ofy().clear();
+        assertFalse(ofy().isLoaded(capacityKey));
+        assertEquals(6, conference.getSeatsAvailable());
+        assertEquals(6, ConferenceSummary.of(conference).getSeatsAvailable());
+    }
+
+    @Test
+    public void testBackfill() throws Exception {
+        Conference legacy = conference(1001L, 10);
+        saveLegacy(legacy, 3);
+        // Its capacity was built and saved by a registration since, leaving the conference's own stale.
+        Conference registered = conference(1002L, 10);
+        saveLegacy(registered, 3);
+        ofy().save().entity(ConferenceCapacity.of(registered)).now();
+        ofy().clear();
+
+        // Until the backfill has run, legacy conferences are announced from their own seats available.
+        assertEquals(Collections.singletonList(legacy.getConferenceKey()), CapacityService.nearlySoldOut());
+
+        assertNull(CapacityService.backfill(null));
+        ofy().clear();
+        assertNull(ofy().load().key(legacy.getConferenceKey()).now().getLegacySeatsAvailable());
+        assertEquals(3, ofy().load().key(ConferenceCapacity.keyOf(legacy.getConferenceKey())).now()
+                .getSeatsAvailable());
+        assertNull(ofy().load().key(registered.getConferenceKey()).now().getLegacySeatsAvailable());
+        assertEquals(10, ofy().load().key(ConferenceCapacity.keyOf(registered.getConferenceKey())).now()
+                .getSeatsAvailable());
+        assertEquals(Collections.singletonList(legacy.getConferenceKey()), CapacityService.nearlySoldOut());
+    }
+}
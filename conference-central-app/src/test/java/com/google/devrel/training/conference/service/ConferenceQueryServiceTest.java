@@ -0,0 +1,96 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferencePage;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for ConferenceQueryService.
+ */
+public class ConferenceQueryServiceTest {
+
+    private static final String USER_ID = "123456789";
+
+    private List<Conference> conferences;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(
+                    new LocalDatastoreServiceTestConfig().setDefaultHighRepJobPolicyUnappliedJobPercentage(0),
+                    new LocalMemcacheServiceTestConfig());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        conferences = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            conferences.add(new Conference(i + 1, USER_ID, new ConferenceForm(
+                    "Conference " + i, "", ImmutableList.of("Cloud"), "Tokyo", null, null, 100)));
+        }
+        ofy().save().entities(conferences).now();
+        ofy().clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    private static List<String> names(List<Conference> conferences) {
+        List<String> names = new ArrayList<>();
+        for (Conference conference : conferences) {
+            names.add(conference.getName());
+        }
+        return names;
+    }
+
+    private List<String> readAllPages(QueryModeSelector.Mode mode) {
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.CITY,
+                        ConferenceQueryForm.Operator.EQ,
+                        "Tokyo"));
+        List<Conference> result = new ArrayList<>();
+        String cursor = null;
+        do {
+            ConferencePage page = ConferenceQueryService.find(
+                    conferenceQueryForm, cursor, 2, mode, QueryProfile.disabled());
+            result.addAll(page.getItems());
+            cursor = page.getNextCursor();
+        } while (cursor != null && result.size() <= conferences.size());
+        return names(result);
+    }
+
+    @Test
+    public void testSinglePhase() throws Exception {
+        assertEquals(names(conferences), readAllPages(QueryModeSelector.Mode.SINGLE_PHASE));
+    }
+
+    @Test
+    public void testTwoPhase() throws Exception {
+        assertEquals(names(conferences), readAllPages(QueryModeSelector.Mode.TWO_PHASE));
+    }
+
+    @Test
+    public void testTwoPhaseSkipsDeletedConferences() throws Exception {
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm();
+        ofy().delete().entity(conferences.get(0)).now();
+        List<Conference> result = ConferenceQueryService.find(
+                conferenceQueryForm, null, 0, QueryModeSelector.Mode.TWO_PHASE, QueryProfile.disabled()).getItems();
+        assertEquals(names(conferences.subList(1, conferences.size())), names(result));
+    }
+}
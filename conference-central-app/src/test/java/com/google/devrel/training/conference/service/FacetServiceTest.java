@@ -0,0 +1,204 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.api.taskqueue.dev.LocalTaskQueue;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceFacets;
+import com.google.devrel.training.conference.domain.ConferenceSummary;
+import com.google.devrel.training.conference.domain.FacetCount;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for FacetService.
+ */
+public class FacetServiceTest {
+
+    private static final String USER_ID = "123456789";
+
+    private Conference conference;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(
+                    new LocalDatastoreServiceTestConfig().setDefaultHighRepJobPolicyUnappliedJobPercentage(0),
+                    new LocalMemcacheServiceTestConfig(),
+                    new LocalTaskQueueTestConfig());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+        conference = new Conference(1001L, USER_ID, new ConferenceForm(
+                "GCP Live", "", ImmutableList.of("Cloud", "Platform"), "Tokyo",
+                dateFormat.parse("03/25/2014"), dateFormat.parse("03/26/2014"), 500));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testFacetIds() throws Exception {
+        List<String> ids = FacetService.facetIds(conference);
+        assertEquals(ImmutableList.of("city:Tokyo", "topics:Cloud", "topics:Platform", "month:3"), ids);
+        assertTrue(FacetService.facetIds(null).isEmpty());
+    }
+
+    @Test
+    public void testDeltaTaskWithoutChange() throws Exception {
+        List<String> ids = FacetService.facetIds(conference);
+        assertNull(FacetService.deltaTask(ids, ids));
+    }
+
+    @Test
+    public void testDeltaTaskOnlyCarriesChanges() throws Exception {
+        TaskOptions task = FacetService.deltaTask(
+                ImmutableList.of("city:Tokyo", "topics:Cloud"),
+                ImmutableList.of("city:Paris", "topics:Cloud"));
+        assertNotNull(task);
+        Map<String, List<String>> params = task.getStringParams();
+        assertEquals(ImmutableList.of("city:Paris"), params.get(FacetService.INCREMENT_PARAM));
+        assertEquals(ImmutableList.of("city:Tokyo"), params.get(FacetService.DECREMENT_PARAM));
+    }
+
+    @Test
+    public void testFacetsFromCounters() throws Exception {
+        FacetService.applyDeltas(null, ImmutableMap.of("city:Tokyo", 2L, "topics:Cloud", 1L, "month:3", 1L));
+        ConferenceFacets facets = FacetService.getFacets(null);
+        assertEquals(1, facets.getCities().size());
+        assertEquals("Tokyo", facets.getCities().get(0).getValue());
+        assertEquals(2L, facets.getCities().get(0).getCount());
+        assertEquals(1, facets.getTopics().size());
+        assertEquals(1, facets.getMonths().size());
+
+        // Bringing a counter down to zero removes it, and the cached response is invalidated.
+        FacetService.applyDeltas(null, ImmutableMap.of("topics:Cloud", -1L));
+        ConferenceFacets updated = FacetService.getFacets(new ConferenceQueryForm());
+        assertTrue(updated.getVersion() > facets.getVersion());
+        assertTrue(updated.getTopics().isEmpty());
+        assertNull(ofy().load().type(FacetCount.class).id("topics:Cloud").now());
+    }
+
+    @Test
+    public void testRetriedDeltaAppliedOnce() throws Exception {
+        TaskOptions task = FacetService.deltaTask(
+                FacetService.facetIds(null), ImmutableList.of("city:Tokyo"));
+        String deltaId = task.getStringParams().get(FacetService.DELTA_PARAM).get(0);
+        FacetService.applyDeltas(deltaId, ImmutableMap.of("city:Tokyo", 1L));
+        FacetService.applyDeltas(deltaId, ImmutableMap.of("city:Tokyo", 1L));
+        assertEquals(1L, ofy().load().type(FacetCount.class).id("city:Tokyo").now().getCount());
+    }
+
+    @Test
+    public void testBackfill() throws Exception {
+        // A conference saved before the counters existed.
+        Entity entity = ofy().save().toEntity(conference);
+        entity.removeProperty("facetsCounted");
+        DatastoreServiceFactory.getDatastoreService().put(entity);
+        ofy().clear();
+        LocalTaskQueue taskQueue = LocalTaskQueueTestConfig.getLocalTaskQueue();
+        taskQueue.flushQueue("default");
+
+        assertNull(FacetService.backfill(null));
+        assertTrue(ofy().load().entity(conference).now().isFacetsCounted());
+        assertEquals(1, taskQueue.getQueueStateInfo().get("default").getCountTasks());
+
+        // Running it again doesn't count the conference twice.
+        ofy().clear();
+        assertNull(FacetService.backfill(null));
+        assertEquals(1, taskQueue.getQueueStateInfo().get("default").getCountTasks());
+    }
+
+    @Test
+    public void testFilteredFacets() throws Exception {
+        ofy().save().entity(conference).now();
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.CITY,
+                        ConferenceQueryForm.Operator.EQ,
+                        "Tokyo"
+                ));
+        ConferenceFacets facets = FacetService.getFacets(conferenceQueryForm);
+        assertEquals(1, facets.getCities().size());
+        assertEquals(2, facets.getTopics().size());
+        assertEquals("3", facets.getMonths().get(0).getValue());
+        assertFalse(facets.isTruncated());
+    }
+
+    @Test
+    public void testFilteredFacetsKeyedByValues() throws Exception {
+        ofy().save().entity(new Conference(3001L, USER_ID, new ConferenceForm(
+                "GCP Live", "", ImmutableList.of("Cloud"), "Washington, D.C.", null, null, 500))).now();
+        ConferenceQueryForm oneCity = new ConferenceQueryForm().filter(new ConferenceQueryForm.Filter(
+                ConferenceQueryForm.Field.CITY, ImmutableList.of("Washington, D.C.")));
+        ConferenceQueryForm twoCities = new ConferenceQueryForm().filter(new ConferenceQueryForm.Filter(
+                ConferenceQueryForm.Field.CITY, ImmutableList.of("Washington", "D.C.")));
+        // Both are described alike, but their counts are cached apart.
+        assertEquals(oneCity.getFilters().toString(), twoCities.getFilters().toString());
+        assertNotEquals(oneCity.filterKey(), twoCities.filterKey());
+        assertEquals(1, FacetService.getFacets(oneCity).getCities().size());
+        assertTrue(FacetService.getFacets(twoCities).getCities().isEmpty());
+    }
+
+    @Test
+    public void testFilteredFacetsFollowEdits() throws Exception {
+        ofy().save().entities(conference, ConferenceSummary.of(conference)).now();
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.MAX_ATTENDEES,
+                        ConferenceQueryForm.Operator.GT,
+                        "100"
+                ));
+        assertEquals(1, FacetService.getFacets(conferenceQueryForm).getCities().size());
+
+        // An edit that doesn't change the facet values still changes the filtered counts.
+        conference.updateWithConferenceForm(new ConferenceForm(
+                "GCP Live", "", ImmutableList.of("Cloud", "Platform"), "Tokyo",
+                conference.getStartDate(), conference.getEndDate(), 50));
+        ofy().save().entities(conference, ConferenceSummary.of(conference)).now();
+        ResourceVersions.conferenceChanged(conference.getConferenceKey());
+        assertTrue(FacetService.getFacets(conferenceQueryForm).getCities().isEmpty());
+    }
+
+    @Test
+    public void testFilteredFacetsTruncated() throws Exception {
+        List<Object> entities = new ArrayList<>();
+        for (int i = 0; i <= FacetService.MAX_FILTERED_CONFERENCES; i++) {
+            Conference conference = new Conference(2000L + i, USER_ID, new ConferenceForm(
+                    "GCP Live " + i, "", ImmutableList.of("Cloud"), "Tokyo", null, null, 500));
+            entities.add(conference);
+            entities.add(ConferenceSummary.of(conference));
+        }
+        ofy().save().entities(entities).now();
+        ConferenceFacets facets = FacetService.getFacets(new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.CITY,
+                        ConferenceQueryForm.Operator.EQ,
+                        "Tokyo"
+                )));
+        assertTrue(facets.isTruncated());
+        assertEquals(FacetService.MAX_FILTERED_CONFERENCES, facets.getCities().get(0).getCount());
+    }
+}
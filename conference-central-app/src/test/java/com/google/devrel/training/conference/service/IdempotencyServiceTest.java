@@ -0,0 +1,55 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.IdempotencyRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for the purge of the expired idempotency records.
+ */
+public class IdempotencyServiceTest {
+
+    private final LocalServiceTestHelper helper = new LocalServiceTestHelper(
+            new LocalDatastoreServiceTestConfig().setDefaultHighRepJobPolicyUnappliedJobPercentage(0),
+            new LocalMemcacheServiceTestConfig());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testPurgeExpiredInBatches() throws Exception {
+        List<IdempotencyRecord> records = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            records.add(new IdempotencyRecord("expired" + i, "true", -60));
+        }
+        records.add(new IdempotencyRecord("valid", "true"));
+        ofy().save().entities(records).now();
+
+        // A batch at a time, each picking up where the previous one ended.
+        String cursor = IdempotencyService.purgeExpired(null);
+        assertNotNull(cursor);
+        assertEquals(101, ofy().load().type(IdempotencyRecord.class).count());
+        assertNull(IdempotencyService.purgeExpired(cursor));
+        List<IdempotencyRecord> left = ofy().load().type(IdempotencyRecord.class).list();
+        assertEquals(1, left.size());
+        assertEquals("true", IdempotencyService.result(left.get(0)));
+    }
+}
@@ -0,0 +1,61 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.*;
+
+import com.google.devrel.training.conference.domain.Suggestion;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * Tests for PrefixIndex.
+ */
+public class PrefixIndexTest {
+
+    private PrefixIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        index = new PrefixIndex();
+        index.add("San Francisco", 3);
+        index.add("San Jose", 5);
+        index.add("Santiago", 1);
+        index.add("Tokyo", 2);
+    }
+
+    @Test
+    public void testMostPopularFirst() throws Exception {
+        List<Suggestion> suggestions = index.suggest("san", 10);
+        assertEquals(3, suggestions.size());
+        assertEquals("San Jose", suggestions.get(0).getValue());
+        assertEquals("San Francisco", suggestions.get(1).getValue());
+        assertEquals("Santiago", suggestions.get(2).getValue());
+        assertEquals(2, index.suggest("San ", 10).size());
+        assertEquals(1, index.suggest("san", 1).size());
+    }
+
+    @Test
+    public void testUnknownPrefix() throws Exception {
+        assertTrue(index.suggest("Paris", 10).isEmpty());
+        assertEquals(4, index.suggest("", 10).size());
+    }
+
+    @Test
+    public void testSpellingsAreFolded() throws Exception {
+        index.add("tokyo", 1);
+        index.add(" TOKYO ", 0);
+        List<Suggestion> suggestions = index.suggest("to", 10);
+        assertEquals(1, suggestions.size());
+        assertEquals("Tokyo", suggestions.get(0).getValue());
+        assertEquals(3, suggestions.get(0).getWeight());
+    }
+
+    @Test
+    public void testNegativeDeltaRemovesValue() throws Exception {
+        index.add("San Jose", -5);
+        List<Suggestion> suggestions = index.suggest("san", 10);
+        assertEquals(2, suggestions.size());
+        assertEquals("San Francisco", suggestions.get(0).getValue());
+    }
+}
@@ -0,0 +1,89 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.*;
+
+import com.google.common.base.Supplier;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for SingleFlight.
+ */
+public class SingleFlightTest {
+
+    @Test
+    public void testConcurrentCallsShareOneLoad() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        final Supplier<String> loader = new Supplier<String>() {
+            @Override
+            public String get() {
+                loads.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "loaded";
+            }
+        };
+        Callable<String> call = new Callable<String>() {
+            @Override
+            public String call() {
+                return SingleFlight.run("testConcurrentCallsShareOneLoad", "key", loader);
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> leader = executor.submit(call);
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            Future<String> follower = executor.submit(call);
+            SingleFlight.Stats stats = SingleFlight.get("testConcurrentCallsShareOneLoad");
+            for (int i = 0; i < 1000 && stats.getDeduplicated() == 0; i++) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+            assertEquals("loaded", leader.get(10, TimeUnit.SECONDS));
+            assertEquals("loaded", follower.get(10, TimeUnit.SECONDS));
+            assertEquals(1, loads.get());
+            assertEquals(2, stats.getCalls());
+            assertEquals(1, stats.getDeduplicated());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSequentialCallsLoadAgain() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        Supplier<Integer> loader = new Supplier<Integer>() {
+            @Override
+            public Integer get() {
+                return loads.incrementAndGet();
+            }
+        };
+        assertEquals(1, (int) SingleFlight.run("testSequentialCallsLoadAgain", "key", loader));
+        assertEquals(2, (int) SingleFlight.run("testSequentialCallsLoadAgain", "key", loader));
+        assertEquals(0, SingleFlight.get("testSequentialCallsLoadAgain").getDeduplicated());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testExceptionIsRethrown() throws Exception {
+        SingleFlight.run("testExceptionIsRethrown", "key", new Supplier<Object>() {
+            @Override
+            public Object get() {
+                throw new IllegalStateException("Load failed.");
+            }
+        });
+    }
+}
@@ -0,0 +1,69 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for TransactionMetrics.
+ */
+public class TransactionMetricsTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testRecordsWallTime() throws Exception {
+        long before = TransactionMetrics.get("testRecordsWallTime").getCount();
+        Profile profile = TransactionRunner.run("testRecordsWallTime", null, new Work<Profile>() {
+            @Override
+            public Profile run() {
+                Profile profile = new Profile("1", "One", "one@example.com", TeeShirtSize.NOT_SPECIFIED);
+                ofy().save().entity(profile).now();
+                return profile;
+            }
+        });
+        assertEquals("One", profile.getDisplayName());
+        assertNotNull(ofy().load().key(Key.create(Profile.class, "1")).now());
+
+        TransactionMetrics.Stats stats = TransactionMetrics.get("testRecordsWallTime");
+        assertEquals(before + 1, stats.getCount());
+        assertTrue(stats.getMeanMillis() > 0);
+        assertTrue(stats.getMaxMillis() >= stats.getMeanMillis());
+    }
+
+    @Test
+    public void testRecordsFailedTransactions() throws Exception {
+        try {
+            TransactionRunner.run("testRecordsFailedTransactions", null, new Work<Void>() {
+                @Override
+                public Void run() {
+                    throw new IllegalStateException("Rolled back");
+                }
+            });
+            fail("The exception should be thrown back.");
+        } catch (IllegalStateException e) {
+            assertEquals(1, TransactionMetrics.get("testRecordsFailedTransactions").getCount());
+        }
+    }
+}
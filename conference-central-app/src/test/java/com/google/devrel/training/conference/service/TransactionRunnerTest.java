@@ -0,0 +1,135 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Profile;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ConcurrentModificationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for the retries and the circuit breakers of the TransactionRunner.
+ */
+public class TransactionRunnerTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+    private Key<Profile> group;
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        TransactionRunner.reset();
+        group = Key.create(Profile.class, "organizer");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        helper.tearDown();
+    }
+
+    /**
+     * Returns a work failing on contention the given number of times, then returning true.
+     */
+    private static Work<Boolean> conflicting(final int conflicts, final AtomicInteger runs) {
+        return new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                if (runs.incrementAndGet() <= conflicts) {
+                    throw new ConcurrentModificationException("Conflict");
+                }
+                return true;
+            }
+        };
+    }
+
+    @Test
+    public void testRetriesConflicts() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        TransactionRunner.Options options = TransactionRunner.Options.defaults().backoff(1, 2);
+        assertTrue(TransactionRunner.run("testRetriesConflicts", group, options, conflicting(2, runs)));
+        assertEquals(3, runs.get());
+        TransactionMetrics.Stats stats = TransactionMetrics.get("testRetriesConflicts");
+        assertEquals(1, stats.getCount());
+        assertEquals(3, stats.getAttempts());
+        assertEquals(2, stats.getConflicts());
+    }
+
+    @Test
+    public void testGivesUpAfterMaxAttempts() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        TransactionRunner.Options options = TransactionRunner.Options.defaults().maxAttempts(2).backoff(1, 2);
+        try {
+            TransactionRunner.run("testGivesUpAfterMaxAttempts", group, options, conflicting(5, runs));
+            fail("The transaction should give up.");
+        } catch (TransactionRunner.ContentionException e) {
+            assertEquals(2, runs.get());
+        }
+    }
+
+    @Test
+    public void testCircuitBreakerFailsFast() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        TransactionRunner.Options options = TransactionRunner.Options.defaults().maxAttempts(1);
+        for (int i = 0; i < TransactionRunner.BREAKER_THRESHOLD; i++) {
+            try {
+                TransactionRunner.run("testCircuitBreakerFailsFast", group, options, conflicting(100, runs));
+                fail("The transaction should give up.");
+            } catch (TransactionRunner.ContentionException e) {
+                // Expected.
+            }
+        }
+        assertEquals(TransactionRunner.BREAKER_THRESHOLD, runs.get());
+        try {
+            TransactionRunner.run("testCircuitBreakerFailsFast", group, options, conflicting(0, runs));
+            fail("The circuit breaker should be open.");
+        } catch (TransactionRunner.ContentionException e) {
+            assertEquals(TransactionRunner.BREAKER_THRESHOLD, runs.get());
+            assertEquals(1, TransactionMetrics.get("testCircuitBreakerFailsFast").getRejections());
+        }
+        // Other entity groups aren't affected.
+        assertTrue(TransactionRunner.run("testCircuitBreakerFailsFast", Key.create(Profile.class, "other"),
+                options, conflicting(0, new AtomicInteger())));
+    }
+
+    @Test
+    public void testFailedTrialLetsAnotherThrough() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        TransactionRunner.Options options = TransactionRunner.Options.defaults().maxAttempts(1);
+        for (int i = 0; i < TransactionRunner.BREAKER_THRESHOLD; i++) {
+            try {
+                TransactionRunner.run("testFailedTrialLetsAnotherThrough", group, options, conflicting(100, runs));
+                fail("The transaction should give up.");
+            } catch (TransactionRunner.ContentionException e) {
+                // Expected.
+            }
+        }
+        Thread.sleep(TransactionRunner.BREAKER_OPEN_MILLIS + 50);
+        // The trial fails otherwise than on contention.
+        try {
+            TransactionRunner.run("testFailedTrialLetsAnotherThrough", group, options, new Work<Boolean>() {
+                @Override
+                public Boolean run() {
+                    throw new IllegalStateException("Not contention");
+                }
+            });
+            fail("The trial should fail.");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+        // The next transaction is the trial, and closes the breaker.
+        assertTrue(TransactionRunner.run("testFailedTrialLetsAnotherThrough", group, options,
+                conflicting(0, new AtomicInteger())));
+        assertTrue(TransactionRunner.run("testFailedTrialLetsAnotherThrough", group, options,
+                conflicting(0, new AtomicInteger())));
+        assertEquals(0, TransactionMetrics.get("testFailedTrialLetsAnotherThrough").getRejections());
+    }
+}
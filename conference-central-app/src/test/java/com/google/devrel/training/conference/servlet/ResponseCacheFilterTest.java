@@ -0,0 +1,188 @@
+package com.google.devrel.training.conference.servlet;
+
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.googlecode.objectify.Key;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for the responses the ResponseCacheFilter caches and replays.
+ */
+public class ResponseCacheFilterTest {
+
+    private static final String API_PATH = "/_ah/api/conference/v1/";
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig(), new LocalMemcacheServiceTestConfig());
+
+    private final ResponseCacheFilter filter = new ResponseCacheFilter();
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        helper.tearDown();
+    }
+
+    /**
+     * A response recording its status, headers and body.
+     */
+    private static class RecordedResponse {
+        private int status = HttpServletResponse.SC_OK;
+        private final Map<String, List<String>> headers = new HashMap<>();
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        private void header(String name, Object value, boolean add) {
+            if (!add || !headers.containsKey(name)) {
+                headers.put(name, new ArrayList<String>());
+            }
+            headers.get(name).add(String.valueOf(value));
+        }
+
+        String getHeader(String name) {
+            return headers.containsKey(name) ? headers.get(name).get(0) : null;
+        }
+
+        HttpServletResponse proxy() {
+            return (HttpServletResponse) Proxy.newProxyInstance(ResponseCacheFilterTest.class.getClassLoader(),
+                    new Class<?>[] {HttpServletResponse.class}, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            String name = method.getName();
+                            if (name.equals("setStatus")) {
+                                status = (Integer) args[0];
+                            } else if (name.equals("setContentType")) {
+                                header("Content-Type", args[0], false);
+                            } else if (name.startsWith("set") && name.endsWith("Header")) {
+                                header((String) args[0], args[1], false);
+                            } else if (name.startsWith("add") && name.endsWith("Header")) {
+                                header((String) args[0], args[1], true);
+                            } else if (name.equals("getOutputStream")) {
+                                return new ServletOutputStream() {
+                                    @Override
+                                    public void write(int b) {
+                                        body.write(b);
+                                    }
+                                };
+                            }
+                            return null;
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Returns a GET request for the given path, from the given origin.
+     */
+    private static HttpServletRequest get(final String path, final String origin) {
+        return (HttpServletRequest) Proxy.newProxyInstance(ResponseCacheFilterTest.class.getClassLoader(),
+                new Class<?>[] {HttpServletRequest.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        switch (method.getName()) {
+                            case "getRequestURI":
+                                return API_PATH + path;
+                            case "getMethod":
+                                return "GET";
+                            case "getHeader":
+                                return "Origin".equalsIgnoreCase((String) args[0]) ? origin : null;
+                            default:
+                                return null;
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Returns a chain answering like Endpoints does, with the given body, and counting its calls.
+     */
+    private static FilterChain endpoint(final byte[] body, final AtomicInteger calls) {
+        return new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException {
+                calls.incrementAndGet();
+                HttpServletResponse httpResponse = (HttpServletResponse) response;
+                httpResponse.setStatus(HttpServletResponse.SC_OK);
+                httpResponse.setContentType("application/json; charset=UTF-8");
+                httpResponse.setHeader("Access-Control-Allow-Origin",
+                        ((HttpServletRequest) request).getHeader("Origin"));
+                httpResponse.addHeader("Vary", "Origin");
+                httpResponse.addHeader("Vary", "Accept-Encoding");
+                httpResponse.setHeader("ETag", "\"v1\"");
+                httpResponse.setDateHeader("Last-Modified", 1000000000000L);
+                httpResponse.setHeader("Cache-Control", ConditionalRequestFilter.PUBLIC);
+                httpResponse.getOutputStream().write(body);
+            }
+        };
+    }
+
+    private static String conferencePath(long id) {
+        return "conference/" + Key.create(Key.create(Profile.class, "organizer"), Conference.class, id).getString();
+    }
+
+    @Test
+    public void testHitReplaysEveryHeader() throws Exception {
+        String path = conferencePath(1001L);
+        byte[] body = "{\"name\":\"GCP Live\"}".getBytes("UTF-8");
+        AtomicInteger calls = new AtomicInteger();
+        filter.doFilter(get(path, "https://a.example.com"), new RecordedResponse().proxy(), endpoint(body, calls));
+
+        RecordedResponse hit = new RecordedResponse();
+        filter.doFilter(get(path, "https://a.example.com"), hit.proxy(), endpoint(body, calls));
+        assertEquals(1, calls.get());
+        assertEquals(HttpServletResponse.SC_OK, hit.status);
+        assertEquals("https://a.example.com", hit.getHeader("Access-Control-Allow-Origin"));
+        assertEquals(2, hit.headers.get("Vary").size());
+        assertEquals("\"v1\"", hit.getHeader("ETag"));
+        assertEquals(ConditionalRequestFilter.formatDate(1000000000000L), hit.getHeader("Last-Modified"));
+        assertEquals(ConditionalRequestFilter.PUBLIC, hit.getHeader("Cache-Control"));
+        assertEquals("application/json; charset=UTF-8", hit.getHeader("Content-Type"));
+        assertArrayEquals(body, hit.body.toByteArray());
+
+        // Another origin gets its own response, allowing its own origin.
+        RecordedResponse otherOrigin = new RecordedResponse();
+        filter.doFilter(get(path, "https://b.example.com"), otherOrigin.proxy(), endpoint(body, calls));
+        assertEquals(2, calls.get());
+        assertEquals("https://b.example.com", otherOrigin.getHeader("Access-Control-Allow-Origin"));
+    }
+
+    @Test
+    public void testLargeResponseNotCached() throws Exception {
+        String path = conferencePath(1002L);
+        byte[] body = new byte[1024 * 1024 + 1];
+        AtomicInteger calls = new AtomicInteger();
+        RecordedResponse response = new RecordedResponse();
+        filter.doFilter(get(path, null), response.proxy(), endpoint(body, calls));
+        assertEquals(body.length, response.body.size());
+
+        filter.doFilter(get(path, null), new RecordedResponse().proxy(), endpoint(body, calls));
+        assertEquals(2, calls.get());
+    }
+}
@@ -3,18 +3,31 @@ package com.google.devrel.training.conference.spi;
 import static com.google.devrel.training.conference.service.OfyService.ofy;
 import static org.junit.Assert.*;
 
+import com.google.api.server.spi.response.BadRequestException;
+import com.google.api.server.spi.response.ForbiddenException;
+import com.google.appengine.api.users.User;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.apphosting.api.ApiProxy;
 import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.Constants;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferencePage;
+import com.google.devrel.training.conference.domain.ConferenceSummary;
+import com.google.devrel.training.conference.domain.ConferenceSummaryPage;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.QueryExplanation;
 import com.google.devrel.training.conference.form.ConferenceForm;
 import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyFilter;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -246,6 +259,188 @@ public class ConferenceApiGlobalQueryTest {
         assertEquals(conference3, conferences.get(1));
     }
 
+    @Test
+    public void testInQuery() throws Exception {
+        // A query specifies topics IN (Developer, Japan).
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.TOPIC,
+                        ImmutableList.of("Developer", "Japan")
+                ));
+        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        assertEquals(2, conferences.size());
+        assertEquals(conference3, conferences.get(0));
+        assertEquals(conference2, conferences.get(1));
+    }
+
+    @Test
+    public void testInQueryDeduplicates() throws Exception {
+        // Every conference matches both values.
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.TOPIC,
+                        ImmutableList.of("Cloud", "Platform")
+                ));
+        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        assertEquals(3, conferences.size());
+        assertEquals(conference1, conferences.get(0));
+        assertEquals(conference3, conferences.get(1));
+        assertEquals(conference2, conferences.get(2));
+    }
+
+    @Test
+    public void testOrQueryWithInequalities() throws Exception {
+        // A query specifies maxAttendees < 600 OR maxAttendees > 1200, with city != San Francisco.
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(ImmutableList.of(
+                        new ConferenceQueryForm.Filter(
+                                ConferenceQueryForm.Field.MAX_ATTENDEES,
+                                ConferenceQueryForm.Operator.LT,
+                                "600"),
+                        new ConferenceQueryForm.Filter(
+                                ConferenceQueryForm.Field.MAX_ATTENDEES,
+                                ConferenceQueryForm.Operator.GT,
+                                "1200")
+                )));
+        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        assertEquals(2, conferences.size());
+        assertEquals(conference1, conferences.get(0));
+        assertEquals(conference3, conferences.get(1));
+    }
+
+    @Test
+    public void testInQueryPages() throws Exception {
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.TOPIC,
+                        ImmutableList.of("Cloud", "Developer")
+                ));
+        List<Conference> conferences = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            ConferencePage page = conferenceApi.queryConferencesPage(conferenceQueryForm.page(cursor, 1));
+            assertEquals(1, page.getItems().size());
+            conferences.addAll(page.getItems());
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null && pages < 10);
+        assertEquals(3, pages);
+        assertEquals(ImmutableList.of(conference1, conference3, conference2), conferences);
+    }
+
+    @Test
+    public void testSummaryQueryPages() throws Exception {
+        // The conferences were saved without summaries: they are built from the conferences, then saved.
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.TOPIC,
+                        ImmutableList.of("Cloud", "Developer")
+                ));
+        List<String> names = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            ConferenceSummaryPage page = conferenceApi.queryConferenceSummaries(null, conferenceQueryForm.page(cursor, 2));
+            for (ConferenceSummary summary : page.getItems()) {
+                names.add(summary.getName());
+            }
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null && pages < 10);
+        assertEquals(2, pages);
+        assertEquals(ImmutableList.of(NAME1, NAME3, NAME2), names);
+
+        // As ObjectifyFilter does at the end of a request, wait for the asynchronous backfill.
+        ObjectifyFilter.complete();
+        ofy().clear();
+        ConferenceSummary summary = ofy().load().key(
+                ConferenceSummary.keyOf(Key.create(Key.create(Profile.class, USER_ID), Conference.class, 1002L))).now();
+        assertNotNull("The missing summary should have been saved.", summary);
+        assertEquals(NAME2, summary.getName());
+        assertEquals(CITY2, summary.getCity());
+        assertEquals(startDate2, summary.getStartDate());
+        assertEquals(CAP2, summary.getSeatsAvailable());
+        assertEquals(conference2.getWebsafeKey(), summary.getWebsafeKey());
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testNotEqualQueryPages() throws Exception {
+        // The datastore splits != queries itself, and provides no cursor past their first result.
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.MAX_ATTENDEES,
+                        ConferenceQueryForm.Operator.NE,
+                        "1000"
+                ));
+        conferenceApi.queryConferencesPage(conferenceQueryForm.page(null, 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMultipleFanOutFilters() throws Exception {
+        new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.TOPIC, ImmutableList.of("Cloud", "Developer")))
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.CITY, ImmutableList.of("Tokyo", "Paris")));
+    }
+
+    @Test
+    public void testExplainQuery() throws Exception {
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.CITY,
+                        ConferenceQueryForm.Operator.EQ,
+                        "Tokyo"
+                ))
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.MAX_ATTENDEES,
+                        ConferenceQueryForm.Operator.NE,
+                        "1000"
+                ));
+        User admin = new User(Constants.ADMIN_EMAILS.get(0), "gmail.com", USER_ID);
+        QueryExplanation explanation = conferenceApi.explainQuery(admin, conferenceQueryForm);
+        assertEquals(1, explanation.getRowsReturned());
+        assertEquals(1, explanation.getRowsScanned());
+        assertTrue(explanation.getPlan().startsWith("Composite index Conference(city, maxAttendees, name)"));
+        assertEquals("plan", explanation.getStages().get(0).getName());
+        boolean twoPhase = explanation.getPlan().endsWith("keys-only query then batch get");
+        assertEquals(twoPhase ? "keys" : "query", explanation.getStages().get(1).getName());
+        assertFalse("The query should issue datastore RPCs.", explanation.getRpcCounts().isEmpty());
+    }
+
+    @Test
+    public void testExplainQueryCountsRowsPerBranch() throws Exception {
+        // Cloud matches two conferences and Platform all three: the merge returns each of them once.
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.TOPIC,
+                        ImmutableList.of("Cloud", "Platform")
+                ));
+        User admin = new User(Constants.ADMIN_EMAILS.get(0), "gmail.com", USER_ID);
+        QueryExplanation explanation = conferenceApi.explainQuery(admin, conferenceQueryForm);
+        assertEquals(5, explanation.getRowsScanned());
+        assertEquals(3, explanation.getRowsReturned());
+        // Both branches are started at once, and each returns all its rows in its first batch.
+        int queries = 0;
+        for (QueryExplanation.RpcCount count : explanation.getRpcCounts()) {
+            assertNotEquals("datastore_v3.Next", count.getCall());
+            if (count.getCall().equals("datastore_v3.RunQuery")) {
+                queries += count.getCount();
+            }
+        }
+        assertEquals(2, queries);
+        // On the development server, the counting delegate is installed once and left in place.
+        Object delegate = ApiProxy.getDelegate();
+        conferenceApi.explainQuery(admin, conferenceQueryForm);
+        assertSame(delegate, ApiProxy.getDelegate());
+    }
+
+    @Test(expected = ForbiddenException.class)
+    public void testExplainQueryRequiresAdmin() throws Exception {
+        conferenceApi.explainQuery(new User("example@gmail.com", "gmail.com", USER_ID), new ConferenceQueryForm());
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testMultipleInequalityFilter() throws Exception {
         // A query specifies the maxAttendees <= 1000 and month != 6.
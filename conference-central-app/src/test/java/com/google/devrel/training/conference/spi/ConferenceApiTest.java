@@ -3,24 +3,69 @@ package com.google.devrel.training.conference.spi;
 import static com.google.devrel.training.conference.service.OfyService.ofy;
 import static org.junit.Assert.*;
 
+import com.google.api.server.spi.response.BadRequestException;
+import com.google.api.server.spi.response.ConflictException;
+import com.google.api.server.spi.response.ForbiddenException;
+import com.google.api.server.spi.response.NotFoundException;
+import com.google.api.server.spi.response.ServiceUnavailableException;
 import com.google.api.server.spi.response.UnauthorizedException;
+import com.google.appengine.api.datastore.DatastoreFailureException;
+import com.google.appengine.api.taskqueue.dev.LocalTaskQueue;
+import com.google.appengine.api.taskqueue.dev.QueueStateInfo;
 import com.google.appengine.api.users.User;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.apphosting.api.ApiProxy;
+import com.google.apphosting.api.DatastorePb;
+import com.google.common.util.concurrent.Futures;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceDetail;
+import com.google.devrel.training.conference.domain.ConferenceSummary;
+import com.google.devrel.training.conference.domain.ConferenceSummaryPage;
+import com.google.devrel.training.conference.domain.GroupRegistration;
+import com.google.devrel.training.conference.domain.GroupRegistrationSaga;
+import com.google.devrel.training.conference.domain.HomeScreen;
 import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.RegistrationResult;
+import com.google.devrel.training.conference.domain.WaitingRoomTicket;
+import com.google.devrel.training.conference.domain.Waitlist;
+import com.google.devrel.training.conference.domain.SeatHold;
+import com.google.devrel.training.conference.domain.WaitlistPosition;
+import com.google.devrel.training.conference.form.BatchRegistrationForm;
 import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.GroupRegistrationForm;
+import com.google.devrel.training.conference.form.HomeScreenForm;
 import com.google.devrel.training.conference.form.ProfileForm;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.service.AdmissionController;
+import com.google.devrel.training.conference.service.GroupRegistrationService;
+import com.google.devrel.training.conference.service.IdempotencyService;
+import com.google.devrel.training.conference.service.MembershipService;
+import com.google.devrel.training.conference.service.ResourceVersions;
+import com.google.devrel.training.conference.service.SeatHoldService;
+import com.google.devrel.training.conference.service.VersionService;
+import com.google.devrel.training.conference.service.WaitingRoomService;
+import com.google.devrel.training.conference.service.WaitlistService;
+import com.google.devrel.training.conference.servlet.ConditionalRequestFilter;
 import com.googlecode.objectify.Key;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -170,7 +215,7 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
         // Check the return value.
         assertEquals(NAME, conference.getName());
         assertEquals(DESCRIPTION, conference.getDescription());
@@ -202,7 +247,7 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
 
         List<Conference> conferencesCreated = conferenceApi.getConferencesCreated(user);
         assertEquals(1, conferencesCreated.size());
@@ -221,8 +266,8 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
-        conference = conferenceApi.getConference(conference.getWebsafeKey());
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        conference = conferenceApi.getConference(conference.getWebsafeKey(), null);
         // Check the return value.
         assertEquals(NAME, conference.getName());
         assertEquals(DESCRIPTION, conference.getDescription());
@@ -236,6 +281,137 @@ public class ConferenceApiTest {
         assertEquals(MONTH, conference.getMonth());
     }
 
+    @Test
+    public void testGetConferenceDetail() throws Exception {
+        conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        Conference conference = conferenceApi.createConference(
+                user, new ConferenceForm(NAME, DESCRIPTION, null, CITY, null, null, CAP), null);
+        String websafeKey = conference.getWebsafeKey();
+        ofy().clear();
+
+        ConferenceDetail detail = conferenceApi.getConferenceDetail(user, websafeKey);
+        assertEquals(websafeKey, detail.getConference().getWebsafeKey());
+        assertEquals(DISPLAY_NAME, detail.getOrganizerDisplayName());
+        assertEquals(ConferenceDetail.RegistrationStatus.NOT_REGISTERED, detail.getRegistrationStatus());
+        assertNull(conferenceApi.getConferenceDetail(null, websafeKey).getRegistrationStatus());
+
+        conferenceApi.registerForConference(user, websafeKey, null);
+        ofy().clear();
+        detail = conferenceApi.getConferenceDetail(user, websafeKey);
+        assertEquals(ConferenceDetail.RegistrationStatus.REGISTERED, detail.getRegistrationStatus());
+        assertEquals(CAP - 1, detail.getConference().getSeatsAvailable());
+    }
+
+    @Test
+    public void testConditionalGetConference() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        String websafeKey = conferenceApi.createConference(user, conferenceForm, null).getWebsafeKey();
+        String etag = ConditionalRequestFilter.etagOf(
+                VersionService.current(ResourceVersions.conference(Key.<Conference>create(websafeKey))));
+        HttpServletRequest request = requestWithHeader("If-None-Match", etag);
+        // The client's copy is still fresh: the response has no body.
+        assertNull(conferenceApi.getConference(websafeKey, request));
+        assertNull(conferenceApi.getConference(websafeKey, requestWithHeader("If-None-Match", "W/" + etag)));
+
+        // A registration changes the seats available.
+        assertTrue(conferenceApi.registerForConference(user, websafeKey, null).getResult());
+        assertEquals(CAP - 1, conferenceApi.getConference(websafeKey, request).getSeatsAvailable());
+        // So does a change of the organizer's display name, which the conference shows.
+        etag = ConditionalRequestFilter.etagOf(
+                VersionService.current(ResourceVersions.conference(Key.<Conference>create(websafeKey))));
+        request = requestWithHeader("If-None-Match", etag);
+        assertNull(conferenceApi.getConference(websafeKey, request));
+        conferenceApi.saveProfile(user, new ProfileForm("Organizer", TeeShirtSize.M));
+        assertEquals("Organizer", conferenceApi.getConference(websafeKey, request).getOrganizerDisplayName());
+
+        // The list of the conferences created changes with them too.
+        etag = ConditionalRequestFilter.etagOf(VersionService.current(ResourceVersions.conferencesCreated(USER_ID)));
+        request = requestWithHeader("If-None-Match", etag);
+        assertNull(conferenceApi.listConferencesCreated(user, request));
+        conferenceApi.createConference(user, conferenceForm, null);
+        assertEquals(2, conferenceApi.listConferencesCreated(user, request).size());
+    }
+
+    @Test
+    public void testConditionalGetWithoutStamps() throws Exception {
+        String websafeKey = conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP), null).getWebsafeKey();
+        Object delegate = ApiProxy.getDelegate();
+        ApiProxy.setDelegate(failingMemcache(delegate));
+        try {
+            // Stamps that can't be read never vouch for the client's copy.
+            assertNull(ConditionalRequestFilter.etagOf(
+                    VersionService.current(ResourceVersions.conference(Key.<Conference>create(websafeKey)))));
+            assertNotNull(conferenceApi.getConference(websafeKey, requestWithHeader("If-None-Match", "\"0-0\"")));
+        } finally {
+            ApiProxy.setDelegate((ApiProxy.Delegate) delegate);
+        }
+    }
+
+    @Test
+    public void testUpdateConference() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        String websafeKey = conference.getWebsafeKey();
+        long version = conference.getVersion();
+
+        ConferenceForm updateForm = new ConferenceForm(
+                "Updated", DESCRIPTION, null, CITY, null, null, CAP + 10);
+        HttpServletRequest request = requestWithHeader("If-Match", "\"" + version + "\"");
+        conference = conferenceApi.updateConference(user, updateForm, websafeKey, request);
+        assertEquals("Updated", conference.getName());
+        assertEquals(CAP + 10, conference.getSeatsAvailable());
+        assertTrue(conference.getVersion() > version);
+        assertEquals(conference.getVersion(), conferenceApi.getConference(websafeKey, null).getVersion());
+
+        // Registrations write the capacity of the conference, not the conference.
+        assertTrue(conferenceApi.registerForConference(user, websafeKey, null).getResult());
+        Conference registered = conferenceApi.getConference(websafeKey, null);
+        assertEquals(conference.getVersion(), registered.getVersion());
+        assertEquals(CAP + 9, registered.getSeatsAvailable());
+
+        // An update based on the previous version is refused.
+        try {
+            conferenceApi.updateConference(user, conferenceForm, websafeKey, request);
+            fail("The conference was modified since that version.");
+        } catch (ConflictException e) {
+            // Expected.
+        }
+        assertEquals("Updated", conferenceApi.getConference(websafeKey, null).getName());
+        // Without If-Match, the update applies to the current version.
+        conference = conferenceApi.updateConference(user, conferenceForm, websafeKey, null);
+        assertEquals(NAME, conference.getName());
+        // Resizing the conference keeps the seats allocated.
+        assertEquals(CAP - 1, conference.getSeatsAvailable());
+    }
+
+    @Test
+    public void testUpdateConferenceWithEtag() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        String websafeKey = conferenceApi.createConference(user, conferenceForm, null).getWebsafeKey();
+        // The ETag getConference sends.
+        String etag = ConditionalRequestFilter.etagOf(
+                VersionService.current(ResourceVersions.conference(Key.<Conference>create(websafeKey))));
+        HttpServletRequest request = requestWithHeader("If-Match", etag);
+        assertNull(conferenceApi.getConference(websafeKey, requestWithHeader("If-None-Match", etag)));
+
+        ConferenceForm updateForm = new ConferenceForm(
+                "Updated", DESCRIPTION, null, CITY, null, null, CAP);
+        assertEquals("Updated", conferenceApi.updateConference(user, updateForm, websafeKey, request).getName());
+
+        // The update changed the ETag: the one sent with the previous copy is refused.
+        try {
+            conferenceApi.updateConference(user, conferenceForm, websafeKey, request);
+            fail("The conference was modified since that ETag.");
+        } catch (ConflictException e) {
+            // Expected.
+        }
+        assertEquals("Updated", conferenceApi.getConference(websafeKey, null).getName());
+    }
+
     @Test
     public void testRegistrations() throws Exception {
         DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
@@ -247,13 +423,13 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
         Long conferenceId = conference.getId();
 
         // Registration
         Boolean result = conferenceApi.registerForConference(
-                user, conference.getWebsafeKey()).getResult();
-        conference = conferenceApi.getConference(conference.getWebsafeKey());
+                user, conference.getWebsafeKey(), null).getResult();
+        conference = conferenceApi.getConference(conference.getWebsafeKey(), null);
         Profile profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();
         assertTrue("registerForConference should succeed.", result);
         assertEquals(CAP - 1, conference.getSeatsAvailable());
@@ -262,12 +438,709 @@ public class ConferenceApiTest {
 
         // Unregister
         result = conferenceApi.unregisterFromConference(
-                user, conference.getWebsafeKey()).getResult();
-        conference = conferenceApi.getConference(conference.getWebsafeKey());
+                user, conference.getWebsafeKey(), null).getResult();
+        conference = conferenceApi.getConference(conference.getWebsafeKey(), null);
         profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();
         assertTrue("unregisterFromConference should succeed.", result);
         assertEquals(CAP, conference.getSeatsAvailable());
         assertFalse("Profile shouldn't have the conferenceId in conferenceIdsToAttend.",
                 profile.getConferenceKeysToAttend().contains(conference.getWebsafeKey()));
     }
+
+    @Test
+    public void testConferenceSummaries() throws Exception {
+        DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+        Date startDate = dateFormat.parse("03/25/2014");
+        Date endDate = dateFormat.parse("03/26/2014");
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, startDate, endDate, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        conferenceApi.registerForConference(user, conference.getWebsafeKey(), null);
+        ofy().clear();
+
+        // The summary is kept in sync with the conference.
+        List<ConferenceSummary> created = conferenceApi.getConferenceSummariesCreated(user, null);
+        assertEquals(1, created.size());
+        ConferenceSummary summary = created.get(0);
+        assertEquals(conference.getWebsafeKey(), summary.getWebsafeKey());
+        assertEquals(NAME, summary.getName());
+        assertEquals(CITY, summary.getCity());
+        assertEquals(startDate, summary.getStartDate());
+        assertEquals(CAP, summary.getMaxAttendees());
+        assertEquals(CAP - 1, summary.getSeatsAvailable());
+        assertEquals(EMAIL.substring(0, EMAIL.indexOf("@")), summary.getOrganizerDisplayName());
+
+        Collection<ConferenceSummary> toAttend = conferenceApi.getConferenceSummariesToAttend(user, null);
+        assertEquals(1, toAttend.size());
+        assertEquals(CAP - 1, toAttend.iterator().next().getSeatsAvailable());
+    }
+
+    @Test
+    public void testRegistrationStatusAnnotation() throws Exception {
+        Conference conference = conferenceApi.createConference(
+                user, new ConferenceForm(NAME, DESCRIPTION, null, CITY, null, null, CAP), null);
+        String websafeKey = conference.getWebsafeKey();
+
+        // Left out unless asked for.
+        assertNull(conferenceApi.getConferenceSummariesCreated(user, null).get(0).getRegistered());
+        assertEquals(Boolean.FALSE, conferenceApi.getConferenceSummariesCreated(user, true).get(0).getRegistered());
+
+        // The cached membership is invalidated by registering and unregistering.
+        assertTrue(conferenceApi.registerForConference(user, websafeKey, null).getResult());
+        assertEquals(Boolean.TRUE, conferenceApi.getConferenceSummariesCreated(user, true).get(0).getRegistered());
+        assertEquals(Boolean.TRUE,
+                conferenceApi.getConferenceSummariesToAttend(user, true).iterator().next().getRegistered());
+        assertTrue(conferenceApi.unregisterFromConference(user, websafeKey, null).getResult());
+        assertEquals(Boolean.FALSE, conferenceApi.getConferenceSummariesCreated(user, true).get(0).getRegistered());
+    }
+
+    @Test
+    public void testStaleMembershipNotServed() throws Exception {
+        conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        final String websafeKey = conferenceApi.createConference(
+                user, new ConferenceForm(NAME, DESCRIPTION, null, CITY, null, null, CAP), null).getWebsafeKey();
+
+        // The registration commits after the reader loaded the profile, and before it caches the set.
+        Object delegate = ApiProxy.getDelegate();
+        ApiProxy.setDelegate(beforeFirstMemcacheSet(delegate, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    assertTrue(conferenceApi.registerForConference(user, websafeKey, null).getResult());
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }));
+        try {
+            assertFalse(MembershipService.conferencesToAttend(USER_ID).contains(websafeKey));
+        } finally {
+            ApiProxy.setDelegate((ApiProxy.Delegate) delegate);
+        }
+        assertTrue(MembershipService.conferencesToAttend(USER_ID).contains(websafeKey));
+
+        // A query without a body isn't annotated.
+        ConferenceSummaryPage page = conferenceApi.queryConferenceSummaries(user, null);
+        assertEquals(1, page.getItems().size());
+        assertNull(page.getItems().get(0).getRegistered());
+    }
+
+    /**
+     * Wraps the given API delegate, making the datastore commits conflict from the given one on, counted from 1.
+     */
+    private static ApiProxy.Delegate conflictingCommits(final Object delegate, final int firstConflicting) {
+        return (ApiProxy.Delegate) Proxy.newProxyInstance(ApiProxy.Delegate.class.getClassLoader(),
+                new Class<?>[] {ApiProxy.Delegate.class}, new InvocationHandler() {
+                    private int commits;
+
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("makeAsyncCall") && "datastore_v3".equals(args[1])
+                                && "Commit".equals(args[2]) && ++commits >= firstConflicting) {
+                            return Futures.immediateFailedFuture(new ApiProxy.ApplicationException(
+                                    DatastorePb.Error.ErrorCode.CONCURRENT_TRANSACTION.getValue(), "Conflict"));
+                        }
+                        try {
+                            return method.invoke(delegate, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Wraps the given API delegate, failing every memcache call.
+     */
+    private static ApiProxy.Delegate failingMemcache(final Object delegate) {
+        return (ApiProxy.Delegate) Proxy.newProxyInstance(ApiProxy.Delegate.class.getClassLoader(),
+                new Class<?>[] {ApiProxy.Delegate.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("makeAsyncCall") && "memcache".equals(args[1])) {
+                            return Futures.immediateFailedFuture(
+                                    new ApiProxy.UnknownException("memcache", (String) args[2]));
+                        }
+                        if (method.getName().equals("makeSyncCall") && "memcache".equals(args[1])) {
+                            throw new ApiProxy.UnknownException("memcache", (String) args[2]);
+                        }
+                        try {
+                            return method.invoke(delegate, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Wraps the given API delegate, running the given change right before the first memcache set.
+     */
+    private static ApiProxy.Delegate beforeFirstMemcacheSet(final Object delegate, final Runnable change) {
+        return (ApiProxy.Delegate) Proxy.newProxyInstance(ApiProxy.Delegate.class.getClassLoader(),
+                new Class<?>[] {ApiProxy.Delegate.class}, new InvocationHandler() {
+                    private boolean changed;
+
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (!changed && method.getName().startsWith("make") && "memcache".equals(args[1])
+                                && "Set".equals(args[2])) {
+                            changed = true;
+                            change.run();
+                        }
+                        try {
+                            return method.invoke(delegate, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+
+    @Test
+    public void testHomeScreen() throws Exception {
+        Conference first = conferenceApi.createConference(
+                user, new ConferenceForm("A " + NAME, DESCRIPTION, null, CITY, null, null, CAP), null);
+        Conference second = conferenceApi.createConference(
+                user, new ConferenceForm("B " + NAME, DESCRIPTION, null, CITY, null, null, CAP), null);
+        conferenceApi.registerForConference(user, second.getWebsafeKey(), null);
+        conferenceApi.registerForConference(user, first.getWebsafeKey(), null);
+        ofy().clear();
+
+        HomeScreen home = conferenceApi.getHomeScreen(
+                user, new HomeScreenForm(new ConferenceQueryForm(), null, null, 1, false));
+        assertEquals(USER_ID, home.getProfile().getUserId());
+        assertNotNull(home.getConferences());
+        assertEquals(1, home.getConferencesCreated().getItems().size());
+        assertEquals(first.getWebsafeKey(), home.getConferencesCreated().getItems().get(0).getWebsafeKey());
+        assertEquals(1, home.getConferencesToAttend().getItems().size());
+        assertEquals(second.getWebsafeKey(), home.getConferencesToAttend().getItems().get(0).getWebsafeKey());
+        assertEquals(CAP - 1, home.getConferencesToAttend().getItems().get(0).getSeatsAvailable());
+
+        // Each section is paged with its own cursor.
+        home = conferenceApi.getHomeScreen(user, new HomeScreenForm(new ConferenceQueryForm(),
+                home.getConferencesCreated().getNextCursor(), home.getConferencesToAttend().getNextCursor(), 1, false));
+        assertEquals(second.getWebsafeKey(), home.getConferencesCreated().getItems().get(0).getWebsafeKey());
+        assertEquals(first.getWebsafeKey(), home.getConferencesToAttend().getItems().get(0).getWebsafeKey());
+        assertNull(home.getConferencesToAttend().getNextCursor());
+
+        // Anonymous users only get the public sections.
+        home = conferenceApi.getHomeScreen(null, new HomeScreenForm(new ConferenceQueryForm(), null, null, 1, false));
+        assertNull(home.getProfile());
+        assertNotNull(home.getConferences());
+        assertNull(home.getConferencesCreated());
+        assertNull(home.getConferencesToAttend());
+
+        // A request without a body gets the first page of every section.
+        home = conferenceApi.getHomeScreen(user, null);
+        assertEquals(2, home.getConferencesCreated().getItems().size());
+        assertNull(home.getConferencesCreated().getNextCursor());
+        assertNotNull(home.getConferences());
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testHomeScreenWithInvalidCursor() throws Exception {
+        conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        conferenceApi.getHomeScreen(user, new HomeScreenForm(new ConferenceQueryForm(), null, "-1", 1, false));
+    }
+
+    @Test
+    public void testIdempotentRetries() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        HttpServletRequest request = requestWithIdempotencyKey("create-1");
+        Conference conference = conferenceApi.createConference(user, conferenceForm, request);
+        // The retry returns the same conference, rather than creating another one.
+        Conference retried = conferenceApi.createConference(user, conferenceForm, request);
+        assertEquals(conference.getWebsafeKey(), retried.getWebsafeKey());
+        assertEquals(1, conferenceApi.getConferencesCreated(user).size());
+
+        // The retry of a completed registration succeeds, instead of hitting the ConflictException.
+        request = requestWithIdempotencyKey("register-1");
+        assertTrue(conferenceApi.registerForConference(user, conference.getWebsafeKey(), request).getResult());
+        assertTrue(conferenceApi.registerForConference(user, conference.getWebsafeKey(), request).getResult());
+        assertEquals(CAP - 1, conferenceApi.getConference(conference.getWebsafeKey(), null).getSeatsAvailable());
+        try {
+            conferenceApi.registerForConference(user, conference.getWebsafeKey(), null);
+            fail("A new registration request should be rejected.");
+        } catch (ConflictException e) {
+            // Expected: only retries are answered from the record.
+        }
+
+        // Retries are answered from the record even while the conference sheds new registrations.
+        while (AdmissionController.admit(conference.getWebsafeKey()) == 0) {
+            // Use up the tokens of the conference.
+        }
+        assertTrue(conferenceApi.registerForConference(user, conference.getWebsafeKey(), request).getResult());
+    }
+
+    @Test
+    public void testWaitlist() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 1);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        String websafeKey = conference.getWebsafeKey();
+        User user2 = new User("example2@gmail.com", "gmail.com", "987654321");
+        try {
+            conferenceApi.joinWaitlist(user2, websafeKey);
+            fail("Joining the waitlist should be rejected while seats are available.");
+        } catch (ConflictException e) {
+            // Expected.
+        }
+        assertTrue(conferenceApi.registerForConference(user, websafeKey, null).getResult());
+
+        WaitlistPosition position = conferenceApi.joinWaitlist(user2, websafeKey);
+        assertEquals(1, position.getPlace());
+        assertEquals(1, position.getLength());
+        // Joining twice keeps the original place.
+        assertEquals(1, conferenceApi.joinWaitlist(user2, websafeKey).getPlace());
+        try {
+            conferenceApi.registerForConference(user2, websafeKey, null);
+            fail("The conference is sold out.");
+        } catch (ConflictException e) {
+            // Expected.
+        }
+
+        // The freed seat is held for the waitlist, until the promotion task runs.
+        assertTrue(conferenceApi.unregisterFromConference(user, websafeKey, null).getResult());
+        try {
+            conferenceApi.registerForConference(user, websafeKey, null);
+            fail("The freed seat should go to the waitlist.");
+        } catch (ConflictException e) {
+            // Expected.
+        }
+        assertTrue(WaitlistService.promoteNext(conference.getConferenceKey()));
+        assertFalse(WaitlistService.promoteNext(conference.getConferenceKey()));
+
+        ofy().clear();
+        Profile profile = ofy().load().key(Key.create(Profile.class, user2.getUserId())).now();
+        assertTrue(profile.getConferenceKeysToAttend().contains(websafeKey));
+        assertEquals(0, conferenceApi.getConference(websafeKey, null).getSeatsAvailable());
+        try {
+            conferenceApi.getWaitlistPosition(user2, websafeKey);
+            fail("A promoted user is no longer waitlisted.");
+        } catch (NotFoundException e) {
+            // Expected.
+        }
+        assertFalse(conferenceApi.leaveWaitlist(user2, websafeKey).getResult());
+    }
+
+    @Test
+    public void testWaitlistPromotedWhenConferenceGrows() throws Exception {
+        Conference conference = conferenceApi.createConference(
+                user, new ConferenceForm(NAME, DESCRIPTION, null, CITY, null, null, 1), null);
+        String websafeKey = conference.getWebsafeKey();
+        User user2 = new User("example2@gmail.com", "gmail.com", "987654321");
+        assertTrue(conferenceApi.registerForConference(user, websafeKey, null).getResult());
+        conferenceApi.joinWaitlist(user2, websafeKey);
+
+        // Adding a seat enqueues the promotion along with the update.
+        LocalTaskQueue taskQueue = LocalTaskQueueTestConfig.getLocalTaskQueue();
+        taskQueue.flushQueue("default");
+        conferenceApi.updateConference(
+                user, new ConferenceForm(NAME, DESCRIPTION, null, CITY, null, null, 2), websafeKey, null);
+        int promotions = 0;
+        for (QueueStateInfo.TaskStateInfo task : taskQueue.getQueueStateInfo().get("default").getTaskInfo()) {
+            if (task.getUrl().equals(WaitlistService.TASK_URL)) {
+                promotions++;
+            }
+        }
+        assertEquals(1, promotions);
+        assertTrue(WaitlistService.promoteNext(conference.getConferenceKey()));
+        ofy().clear();
+        assertTrue(ofy().load().key(Key.create(Profile.class, user2.getUserId())).now().isAttending(websafeKey));
+    }
+
+    @Test
+    public void testWaitlistLengthRepaired() throws Exception {
+        Conference conference = conferenceApi.createConference(
+                user, new ConferenceForm(NAME, DESCRIPTION, null, CITY, null, null, 1), null);
+        // A waitlist counting a user who has no entry.
+        Waitlist waitlist = new Waitlist(conference.getConferenceKey());
+        waitlist.add();
+        ofy().save().entity(waitlist).now();
+        try {
+            conferenceApi.registerForConference(user, conference.getWebsafeKey(), null);
+            fail("The seat should be held for the waitlist.");
+        } catch (ConflictException e) {
+            // Expected.
+        }
+
+        assertFalse(WaitlistService.promoteNext(conference.getConferenceKey()));
+        ofy().clear();
+        assertEquals(0, ofy().load().key(Waitlist.keyOf(conference.getConferenceKey())).now().getLength());
+        assertTrue(conferenceApi.registerForConference(user, conference.getWebsafeKey(), null).getResult());
+    }
+
+    @Test
+    public void testSeatHolds() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 1);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        String websafeKey = conference.getWebsafeKey();
+        User user2 = new User("example2@gmail.com", "gmail.com", "987654321");
+
+        SeatHold hold = conferenceApi.holdSeat(user, websafeKey, null);
+        assertNotNull(hold.getToken());
+        // Holding again returns the same hold.
+        assertEquals(hold.getToken(), conferenceApi.holdSeat(user, websafeKey, null).getToken());
+        // The held seat is taken neither by a registration nor by another hold.
+        try {
+            conferenceApi.registerForConference(user2, websafeKey, null);
+            fail("The only seat is held.");
+        } catch (ConflictException e) {
+            // Expected.
+        }
+        try {
+            conferenceApi.holdSeat(user2, websafeKey, null);
+            fail("The only seat is held.");
+        } catch (ConflictException e) {
+            // Expected.
+        }
+        // Holding a seat doesn't touch the conference.
+        assertEquals(1, conferenceApi.getConference(websafeKey, null).getSeatsAvailable());
+        try {
+            conferenceApi.confirmSeatHold(user2, websafeKey, hold.getToken());
+            fail("The hold belongs to another user.");
+        } catch (NotFoundException e) {
+            // Expected.
+        }
+
+        assertTrue(conferenceApi.confirmSeatHold(user, websafeKey, hold.getToken()).getResult());
+        assertEquals(0, conferenceApi.getConference(websafeKey, null).getSeatsAvailable());
+        assertEquals(0, SeatHoldService.heldSeats(conference.getConferenceKey()));
+        assertFalse(conferenceApi.releaseSeatHold(user, websafeKey, hold.getToken()).getResult());
+
+        // A released hold gives its seat back.
+        assertTrue(conferenceApi.unregisterFromConference(user, websafeKey, null).getResult());
+        hold = conferenceApi.holdSeat(user2, websafeKey, null);
+        assertTrue(conferenceApi.releaseSeatHold(user2, websafeKey, hold.getToken()).getResult());
+        assertTrue(conferenceApi.registerForConference(user, websafeKey, null).getResult());
+    }
+
+    @Test
+    public void testFailedSeatHoldConfirmationReleasesHold() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 2);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        String websafeKey = conference.getWebsafeKey();
+
+        SeatHold hold = conferenceApi.holdSeat(user, websafeKey, null);
+        // The seat that isn't held can still be registered for.
+        assertTrue(conferenceApi.registerForConference(user, websafeKey, null).getResult());
+        try {
+            conferenceApi.confirmSeatHold(user, websafeKey, hold.getToken());
+            fail("The user has already registered.");
+        } catch (ConflictException e) {
+            // Expected.
+        }
+        // The failed confirmation gave the held seat back.
+        assertEquals(0, SeatHoldService.heldSeats(conference.getConferenceKey()));
+        assertEquals(1, conferenceApi.getConference(websafeKey, null).getSeatsAvailable());
+    }
+
+    @Test
+    public void testGroupRegistration() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 40);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        String websafeKey = conference.getWebsafeKey();
+        List<String> attendeeUserIds = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            String userId = "attendee" + i;
+            ofy().save().entity(new Profile(userId, userId, userId + "@example.com", TEE_SHIRT_SIZE)).now();
+            attendeeUserIds.add(userId);
+        }
+
+        // A small group is registered in a single transaction.
+        GroupRegistration registration = conferenceApi.registerGroupForConference(user, websafeKey,
+                new GroupRegistrationForm(attendeeUserIds.subList(0, 3)));
+        assertEquals(attendeeUserIds.subList(0, 3), registration.getRegisteredUserIds());
+        assertEquals(37, conferenceApi.getConference(websafeKey, null).getSeatsAvailable());
+
+        // A group larger than a cross-group transaction is registered in batches.
+        registration = conferenceApi.registerGroupForConference(user, websafeKey,
+                new GroupRegistrationForm(attendeeUserIds));
+        assertEquals(27, registration.getRegisteredUserIds().size());
+        assertEquals(attendeeUserIds.subList(0, 3), registration.getAlreadyRegisteredUserIds());
+        assertEquals(10, conferenceApi.getConference(websafeKey, null).getSeatsAvailable());
+        ofy().clear();
+        for (String userId : attendeeUserIds) {
+            Profile profile = ofy().load().key(Key.create(Profile.class, userId)).now();
+            assertTrue(profile.getConferenceKeysToAttend().contains(websafeKey));
+        }
+
+        // The group is registered in full, or not at all.
+        List<String> tooMany = new ArrayList<>();
+        for (int i = 0; i < 11; i++) {
+            String userId = "late" + i;
+            ofy().save().entity(new Profile(userId, userId, userId + "@example.com", TEE_SHIRT_SIZE)).now();
+            tooMany.add(userId);
+        }
+        try {
+            conferenceApi.registerGroupForConference(user, websafeKey, new GroupRegistrationForm(tooMany));
+            fail("There are 10 seats left.");
+        } catch (ConflictException e) {
+            // Expected.
+        }
+        assertEquals(10, conferenceApi.getConference(websafeKey, null).getSeatsAvailable());
+
+        // Other users register only the attendees who allowed them to, and can't tell unknown attendees apart.
+        User user2 = new User("example2@gmail.com", "gmail.com", "987654321");
+        String unknownMessage = null;
+        try {
+            conferenceApi.registerGroupForConference(user2, websafeKey,
+                    new GroupRegistrationForm(Collections.singletonList("nobody")));
+            fail("There is no such attendee.");
+        } catch (ForbiddenException e) {
+            unknownMessage = e.getMessage();
+        }
+        try {
+            conferenceApi.registerGroupForConference(user2, websafeKey,
+                    new GroupRegistrationForm(Collections.singletonList("late0")));
+            fail("The attendee didn't allow it.");
+        } catch (ForbiddenException e) {
+            assertEquals(unknownMessage.replace("nobody", "late0"), e.getMessage());
+        }
+        conferenceApi.saveProfile(new User("late0@example.com", "gmail.com", "late0"),
+                new ProfileForm(null, null, Collections.singletonList(user2.getUserId())));
+        registration = conferenceApi.registerGroupForConference(user2, websafeKey,
+                new GroupRegistrationForm(Collections.singletonList("late0")));
+        assertEquals(Collections.singletonList("late0"), registration.getRegisteredUserIds());
+        assertEquals(9, conferenceApi.getConference(websafeKey, null).getSeatsAvailable());
+
+        // Rejected requests are rejected as such, without taking part in the admission control.
+        while (AdmissionController.admit(websafeKey) == 0) {
+            // Use up the tokens of the conference.
+        }
+        try {
+            conferenceApi.registerGroupForConference(user2, websafeKey,
+                    new GroupRegistrationForm(Collections.singletonList("nobody")));
+            fail("There is no such attendee.");
+        } catch (ForbiddenException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testGroupRegistrationRolledBackWhenABatchFails() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 40);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        String websafeKey = conference.getWebsafeKey();
+        List<String> attendeeUserIds = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            String userId = "attendee" + i;
+            ofy().save().entity(new Profile(userId, userId, userId + "@example.com", TEE_SHIRT_SIZE)).now();
+            attendeeUserIds.add(userId);
+        }
+        LocalTaskQueue taskQueue = LocalTaskQueueTestConfig.getLocalTaskQueue();
+        taskQueue.flushQueue("default");
+
+        // The commits of the saga: 1 books the seats, 2 and 3 register batches of 24 and 6 attendees,
+        // 4 starts the rollback, 5 unregisters the first batch, and 6 gives the seats back.
+        Object delegate = ApiProxy.getDelegate();
+        ApiProxy.setDelegate(failingCommits(delegate, 3));
+        try {
+            conferenceApi.registerGroupForConference(user, websafeKey, new GroupRegistrationForm(attendeeUserIds));
+            fail("The second batch failed.");
+        } catch (DatastoreFailureException e) {
+            // Expected.
+        } finally {
+            ApiProxy.setDelegate((ApiProxy.Delegate) delegate);
+        }
+        assertEquals(40, conferenceApi.getConference(websafeKey, null).getSeatsAvailable());
+        assertAttending(attendeeUserIds, websafeKey, 0);
+
+        // When the rollback fails too, the resume task finishes it.
+        taskQueue.flushQueue("default");
+        ApiProxy.setDelegate(failingCommits(delegate, 3, 5));
+        try {
+            conferenceApi.registerGroupForConference(user, websafeKey, new GroupRegistrationForm(attendeeUserIds));
+            fail("The second batch failed.");
+        } catch (DatastoreFailureException e) {
+            // Expected.
+        } finally {
+            ApiProxy.setDelegate((ApiProxy.Delegate) delegate);
+        }
+        assertEquals(10, conferenceApi.getConference(websafeKey, null).getSeatsAvailable());
+        assertAttending(attendeeUserIds, websafeKey, 24);
+        List<QueueStateInfo.TaskStateInfo> tasks = taskQueue.getQueueStateInfo().get("default").getTaskInfo();
+        assertEquals(1, tasks.size());
+        assertEquals(GroupRegistrationService.TASK_URL, tasks.get(0).getUrl());
+        String sagaId = tasks.get(0).getBody().substring((GroupRegistrationService.SAGA_PARAM + "=").length());
+        GroupRegistrationService.resume(sagaId);
+        ofy().clear();
+        assertEquals(GroupRegistrationSaga.State.ROLLED_BACK,
+                ofy().load().key(Key.create(GroupRegistrationSaga.class, sagaId)).now().getState());
+        assertEquals(40, conferenceApi.getConference(websafeKey, null).getSeatsAvailable());
+        assertAttending(attendeeUserIds, websafeKey, 0);
+    }
+
+    /**
+     * Checks how many of the given users attend a conference.
+     */
+    private static void assertAttending(List<String> userIds, String websafeKey, int expected) {
+        ofy().clear();
+        int attending = 0;
+        for (Profile profile : ofy().load().type(Profile.class).ids(userIds).values()) {
+            if (profile.isAttending(websafeKey)) {
+                attending++;
+            }
+        }
+        assertEquals(expected, attending);
+    }
+
+    /**
+     * Wraps the given API delegate, failing the given datastore commits, counted from 1.
+     */
+    private static ApiProxy.Delegate failingCommits(final Object delegate, final Integer... failing) {
+        final List<Integer> failingCommits = Arrays.asList(failing);
+        return (ApiProxy.Delegate) Proxy.newProxyInstance(ApiProxy.Delegate.class.getClassLoader(),
+                new Class<?>[] {ApiProxy.Delegate.class}, new InvocationHandler() {
+                    private int commits;
+
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().startsWith("make") && "datastore_v3".equals(args[1])
+                                && "Commit".equals(args[2]) && failingCommits.contains(++commits)) {
+                            throw new DatastoreFailureException("Injected failure of commit " + commits);
+                        }
+                        try {
+                            return method.invoke(delegate, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+
+    @Test
+    public void testBatchRegistration() throws Exception {
+        List<String> websafeKeys = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            ConferenceForm conferenceForm = new ConferenceForm(
+                    NAME + i, DESCRIPTION, null, CITY, null, null, i == 0 ? 0 : CAP);
+            websafeKeys.add(conferenceApi.createConference(user, conferenceForm, null).getWebsafeKey());
+        }
+        conferenceApi.registerForConference(user, websafeKeys.get(1), null);
+        websafeKeys.add("not a key");
+
+        List<RegistrationResult> results = conferenceApi.registerForConferences(user,
+                new BatchRegistrationForm(websafeKeys));
+        assertEquals(31, results.size());
+        assertEquals(RegistrationResult.Status.NO_SEATS_AVAILABLE, results.get(0).getStatus());
+        assertEquals(RegistrationResult.Status.ALREADY_REGISTERED, results.get(1).getStatus());
+        for (int i = 2; i < 30; i++) {
+            assertEquals(websafeKeys.get(i), results.get(i).getWebsafeConferenceKey());
+            assertEquals(RegistrationResult.Status.REGISTERED, results.get(i).getStatus());
+            assertEquals(CAP - 1, conferenceApi.getConference(websafeKeys.get(i), null).getSeatsAvailable());
+        }
+        assertEquals(RegistrationResult.Status.NOT_FOUND, results.get(30).getStatus());
+        ofy().clear();
+        assertEquals(29, conferenceApi.getProfile(user).getConferenceKeysToAttend().size());
+    }
+
+    @Test
+    public void testBatchRegistrationWithContendedChunk() throws Exception {
+        List<String> websafeKeys = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            ConferenceForm conferenceForm = new ConferenceForm(
+                    NAME + i, DESCRIPTION, null, CITY, null, null, CAP);
+            websafeKeys.add(conferenceApi.createConference(user, conferenceForm, null).getWebsafeKey());
+        }
+        conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+
+        // The first chunk of 24 conferences commits, the second one keeps conflicting.
+        Object delegate = ApiProxy.getDelegate();
+        ApiProxy.setDelegate(conflictingCommits(delegate, 2));
+        List<RegistrationResult> results;
+        try {
+            results = conferenceApi.registerForConferences(user, new BatchRegistrationForm(websafeKeys));
+        } finally {
+            ApiProxy.setDelegate((ApiProxy.Delegate) delegate);
+        }
+        assertEquals(30, results.size());
+        for (int i = 0; i < 30; i++) {
+            assertEquals(i < 24 ? RegistrationResult.Status.REGISTERED : RegistrationResult.Status.RETRY_LATER,
+                    results.get(i).getStatus());
+        }
+        ofy().clear();
+        assertEquals(24, conferenceApi.getProfile(user).getConferenceKeysToAttend().size());
+        assertEquals(CAP, conferenceApi.getConference(websafeKeys.get(24), null).getSeatsAvailable());
+    }
+
+    @Test
+    public void testWaitingRoom() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP, true);
+        String websafeKey = conferenceApi.createConference(user, conferenceForm, null).getWebsafeKey();
+        try {
+            conferenceApi.registerForConference(user, websafeKey, null);
+            fail("Registrations go through the waiting room.");
+        } catch (ForbiddenException e) {
+            // Expected.
+        }
+
+        WaitingRoomTicket ticket = conferenceApi.enterWaitingRoom(user, websafeKey, null);
+        assertEquals(1, ticket.getPosition());
+        assertTrue(ticket.isAdmitted());
+        HttpServletRequest request = requestWithHeader(WaitingRoomService.HEADER, ticket.getToken());
+        // Entering again keeps the position.
+        assertEquals(1, conferenceApi.enterWaitingRoom(user, websafeKey, request).getPosition());
+        // Even without the token: entering in a loop doesn't push the others back.
+        WaitingRoomTicket again = conferenceApi.enterWaitingRoom(user, websafeKey, null);
+        assertEquals(1, again.getPosition());
+        assertEquals(ticket.getToken(), again.getToken());
+        assertTrue(conferenceApi.registerForConference(user, websafeKey, request).getResult());
+
+        // Users entering after the first burst wait for their turn.
+        WaitingRoomTicket last = null;
+        for (int i = 0; i < 15; i++) {
+            last = conferenceApi.enterWaitingRoom(
+                    new User("waiting" + i + "@gmail.com", "gmail.com", "waiting" + i), websafeKey, null);
+        }
+        assertEquals(16, last.getPosition());
+        assertFalse(last.isAdmitted());
+        assertTrue(last.getEstimatedWaitSeconds() > 0);
+        User lastUser = new User("waiting14@gmail.com", "gmail.com", "waiting14");
+        request = requestWithHeader(WaitingRoomService.HEADER, last.getToken());
+        assertEquals(16, conferenceApi.getWaitingRoomStatus(lastUser, websafeKey, request).getPosition());
+        try {
+            conferenceApi.registerForConference(lastUser, websafeKey, request);
+            fail("The user is not admitted yet.");
+        } catch (ServiceUnavailableException e) {
+            // Expected.
+        }
+        // A token is only valid for the user it was given to.
+        try {
+            conferenceApi.getWaitingRoomStatus(user, websafeKey, request);
+            fail("The token belongs to another user.");
+        } catch (NotFoundException e) {
+            // Expected.
+        }
+    }
+
+    /**
+     * Returns a request only holding the given Idempotency-Key header.
+     */
+    private static HttpServletRequest requestWithIdempotencyKey(final String idempotencyKey) {
+        return requestWithHeader(IdempotencyService.HEADER, idempotencyKey);
+    }
+
+    /**
+     * Returns a request only holding the given header.
+     */
+    private static HttpServletRequest requestWithHeader(final String name, final String value) {
+        return (HttpServletRequest) Proxy.newProxyInstance(ConferenceApiTest.class.getClassLoader(),
+                new Class<?>[] {HttpServletRequest.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getHeader") && name.equalsIgnoreCase((String) args[0])) {
+                            return value;
+                        }
+                        return null;
+                    }
+                });
+    }
 }